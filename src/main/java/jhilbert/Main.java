@@ -24,13 +24,21 @@
 
 package jhilbert;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import jhilbert.commands.CommandException;
 import jhilbert.commands.CommandFactory;
@@ -41,6 +49,10 @@ import jhilbert.scanners.ScannerFactory;
 import jhilbert.scanners.TokenFeed;
 import jhilbert.scanners.WikiInputStream;
 import jhilbert.scanners.impl.WikiStreamTokenFeed;
+import jhilbert.storage.Storage;
+import jhilbert.storage.StorageException;
+import jhilbert.utils.MemoryPool;
+import jhilbert.utils.Profiler;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.ConsoleAppender;
@@ -56,7 +68,7 @@ public final class Main {
 	/**
 	 * Version.
 	 */
-	public static final int VERSION = 9;
+	public static final int VERSION = 10;
 
 	/**
 	 * Logger.
@@ -78,16 +90,58 @@ public final class Main {
 	 */
 	private static final String HASHSTORE_DEFAULT_PATH = "/var/local/lib/jhilbert/hashstore";
 
+	/**
+	 * Default location for segment store.
+	 */
+	private static final String SEGMENTSTORE_DEFAULT_PATH = "/var/local/lib/jhilbert/segmentstore";
+
 	/**
 	 * Default socket timeout in milliseconds.
 	 */
 	public static final int DEFAULT_SOCKET_TIMEOUT = 5000;
 
+	/**
+	 * Default wall time limit per daemon request in milliseconds.
+	 */
+	public static final long DEFAULT_TIME_LIMIT = 60000;
+
+	/**
+	 * Default proof step limit per daemon request.
+	 */
+	public static final long DEFAULT_STEP_LIMIT = 10000000;
+
+	/**
+	 * Default limit of the total bytes allocated per daemon request.
+	 * Allocations include garbage; verifying the largest example modules
+	 * allocates less than 1 GiB.
+	 */
+	public static final long DEFAULT_MEMORY_LIMIT = 4L << 30;
+
+	/**
+	 * Interval between module cache snapshots in milliseconds.
+	 */
+	private static final long SNAPSHOT_INTERVAL = 5 * 60 * 1000;
+
 	/**
 	 * Hashstore location.
 	 */
 	private static String hashstorePath;
 
+	/**
+	 * Segment store location.
+	 */
+	private static String segmentStorePath;
+
+	/**
+	 * Module cache snapshot file.
+	 */
+	private static String snapshotPath;
+
+	/**
+	 * Module cache budget in bytes, or <code>-1</code> for the default.
+	 */
+	private static long cacheBudget = -1;
+
 	/**
 	 * Is DAEMON?
 	 */
@@ -98,11 +152,54 @@ public final class Main {
 	 */
 	private static int socketTimeout;
 
+	/**
+	 * Daemon wall time limit per request, or <code>-1</code> for none.
+	 */
+	private static long timeLimit;
+
+	/**
+	 * Daemon proof step limit per request, or <code>-1</code> for none.
+	 */
+	private static long stepLimit;
+
+	/**
+	 * Daemon limit of the total bytes allocated per request, or
+	 * <code>-1</code> for none.
+	 */
+	private static long memoryLimit;
+
+	/**
+	 * Capacity of the daemon memory pool in bytes, or <code>-1</code> for
+	 * three quarters of the maximum heap size.
+	 */
+	private static long memoryPool;
+
+	/**
+	 * Port serving daemon metrics, or <code>-1</code> for none.
+	 */
+	private static int metricsPort;
+
 	/**
 	 * Are we reading wiki-format pages from files (--wiki)?
 	 */
 	private static boolean isWiki;
 
+	/**
+	 * Profiler (--profile), or <code>null</code> if not profiling.
+	 */
+	private static Profiler profiler;
+
+	/**
+	 * Should the profile be reported as JSON (--profile=json)?
+	 */
+	private static boolean isJsonProfile;
+
+	/**
+	 * File to write the module with compressed proofs to (--compress), or
+	 * <code>null</code> if not compressing.
+	 */
+	private static String compressPath;
+
 	/**
 	 * Static initialiser.
 	 *
@@ -125,8 +222,19 @@ public final class Main {
 	public static void main(String... args) throws Exception {
 		isDaemon = false;
 		socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+		timeLimit = DEFAULT_TIME_LIMIT;
+		stepLimit = DEFAULT_STEP_LIMIT;
+		memoryLimit = DEFAULT_MEMORY_LIMIT;
+		memoryPool = -1;
+		metricsPort = -1;
 		isWiki = false;
+		profiler = null;
+		isJsonProfile = false;
+		compressPath = null;
 		hashstorePath = null;
+		segmentStorePath = null;
+		snapshotPath = null;
+		cacheBudget = -1;
 		try {
 			String inputFileName = null;
 			for (String arg: args) {
@@ -139,6 +247,32 @@ public final class Main {
 					} else {
 						hashstorePath = HASHSTORE_DEFAULT_PATH;
 					}
+				} else if (arg.startsWith("-s")) {
+					if (arg.length() > 2) {
+						segmentStorePath = arg.substring(2);
+					} else {
+						segmentStorePath = SEGMENTSTORE_DEFAULT_PATH;
+					}
+				} else if (arg.startsWith("-c")) {
+					if (arg.length() > 2) {
+						snapshotPath = arg.substring(2);
+					} else {
+						System.err.println("-c: No snapshot file specified");
+						System.exit(1);
+					}
+				} else if (arg.startsWith("-m")) {
+					try {
+						if (arg.length() > 2) {
+							cacheBudget = Long.parseLong(arg.substring(2));
+						} else {
+							throw new NumberFormatException("Empty digit string");
+						}
+						if (cacheBudget <= 0)
+							throw new NumberFormatException("Positive value required");
+					} catch (NumberFormatException e) {
+						System.err.println("-m: Invalid cache budget specified: " + e.getMessage());
+						System.exit(1);
+					}
 				} else if (arg.equals("-d")) {
 					isDaemon = true;
 				} else if (arg.startsWith("-t")) {
@@ -154,8 +288,72 @@ public final class Main {
 						System.err.println("-t: Invalid timeout specified: " + e.getMessage());
 						System.exit(1);
 					}
+				} else if (arg.startsWith("--time-limit=")) {
+					try {
+						timeLimit = Long.parseLong(arg.substring(13));
+						if ((timeLimit == 0) || (timeLimit < -1))
+							throw new NumberFormatException("Positive value or -1 required");
+					} catch (NumberFormatException e) {
+						System.err.println("--time-limit: Invalid limit specified: " + e.getMessage());
+						System.exit(1);
+					}
+				} else if (arg.startsWith("--step-limit=")) {
+					try {
+						stepLimit = Long.parseLong(arg.substring(13));
+						if ((stepLimit == 0) || (stepLimit < -1))
+							throw new NumberFormatException("Positive value or -1 required");
+					} catch (NumberFormatException e) {
+						System.err.println("--step-limit: Invalid limit specified: " + e.getMessage());
+						System.exit(1);
+					}
+				} else if (arg.startsWith("--memory-limit=")) {
+					try {
+						memoryLimit = Long.parseLong(arg.substring(15));
+						if ((memoryLimit == 0) || (memoryLimit < -1))
+							throw new NumberFormatException("Positive value or -1 required");
+					} catch (NumberFormatException e) {
+						System.err.println("--memory-limit: Invalid limit specified: " + e.getMessage());
+						System.exit(1);
+					}
+				} else if (arg.startsWith("--memory-pool=")) {
+					try {
+						memoryPool = Long.parseLong(arg.substring(14));
+						if (memoryPool <= 0)
+							throw new NumberFormatException("Positive value required");
+					} catch (NumberFormatException e) {
+						System.err.println("--memory-pool: Invalid size specified: " + e.getMessage());
+						System.exit(1);
+					}
+				} else if (arg.startsWith("--metrics=")) {
+					try {
+						metricsPort = Integer.parseInt(arg.substring(10));
+						if ((metricsPort <= 0) || (metricsPort > 65535))
+							throw new NumberFormatException("Port number out of range");
+					} catch (NumberFormatException e) {
+						System.err.println("--metrics: Invalid port specified: " + e.getMessage());
+						System.exit(1);
+					}
 				} else if (arg.equals("--wiki")) {
 					isWiki = true;
+				} else if (arg.equals("--profile")) {
+					profiler = new Profiler();
+				} else if (arg.equals("--profile=json")) {
+					profiler = new Profiler();
+					isJsonProfile = true;
+				} else if (arg.startsWith("--compress=")) {
+					if (arg.length() > 11) {
+						compressPath = arg.substring(11);
+					} else {
+						System.err.println("--compress: No output file specified");
+						System.exit(1);
+					}
+				} else if (arg.startsWith("--token-cache=")) {
+					if (arg.length() > 14) {
+						ScannerFactory.getInstance().setTokenCacheDirectory(new File(arg.substring(14)));
+					} else {
+						System.err.println("--token-cache: No directory specified");
+						System.exit(1);
+					}
 				} else if (arg.equals("--license")) {
 					showLicense();
 				} else {
@@ -170,11 +368,25 @@ public final class Main {
 				printUsage();
 				System.exit(1);
 			}
-			if (isWiki) {
-				processWikiFile(inputFileName);
-			}
-			else {
-				processProofModule(inputFileName);
+			Profiler.install(profiler);
+			try {
+				if (isWiki) {
+					processWikiFile(inputFileName);
+				}
+				else {
+					final Module mainModule = processProofModule(inputFileName);
+					if (compressPath != null)
+						compressProofModule(mainModule, inputFileName, compressPath);
+				}
+			} finally {
+				if (profiler != null) {
+					Profiler.install(null);
+					final PrintWriter out = new PrintWriter(System.out);
+					if (isJsonProfile)
+						profiler.writeJson(out);
+					else
+						profiler.writeText(out);
+				}
 			}
 			return;
 		} catch (JHilbertException e) {
@@ -252,7 +464,7 @@ public final class Main {
 		  fileName.contains("User interface/");
 	}
 
-	private static void processProofModule(String inputFileName)
+	private static Module processProofModule(String inputFileName)
 			throws ScannerException, FileNotFoundException, CommandException {
 		logger.info("Processing file " + inputFileName);
 		final Module mainModule = DataFactory.getInstance().createProofModule();
@@ -260,6 +472,37 @@ public final class Main {
 			.getInstance().createTokenFeed(new FileInputStream(inputFileName));
 		CommandFactory.getInstance().processCommands(mainModule, tokenFeed);
 		logger.info("File processed successfully");
+		return mainModule;
+	}
+
+	/**
+	 * Writes the specified proof module with compressed proofs.
+	 *
+	 * @param module processed proof module.
+	 * @param inputFileName name of the file the module was read from.
+	 * @param outputFileName name of the file to write to.
+	 *
+	 * @throws IOException if a file cannot be read or written.
+	 */
+	private static void compressProofModule(final Module module, final String inputFileName,
+			final String outputFileName) throws IOException {
+		final File input = new File(inputFileName);
+		final byte[] data = new byte[(int) input.length()];
+		final DataInputStream in = new DataInputStream(new FileInputStream(input));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		final ProofCompressor compressor = new ProofCompressor(module);
+		final String text = compressor.compress(new String(data, "UTF-8"));
+		final Writer out = new OutputStreamWriter(new FileOutputStream(outputFileName), "UTF-8");
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+		logger.info("Wrote " + outputFileName + " with " + compressor.getReferences() + " back-references");
 	}
 
 	/**
@@ -290,12 +533,66 @@ public final class Main {
 		System.out.println("  -tTIMEOUT   Sets the socket timeout in milliseconds. Only meaningful in");
 		System.out.println("              daemon mode. If omitted, a default value of " + DEFAULT_SOCKET_TIMEOUT + " will be used.");
 		System.out.println();
+		System.out.println("  --time-limit=MS");
+		System.out.println("              Aborts daemon requests running longer than MS milliseconds");
+		System.out.println("              with a distinct error code. A value of -1 lifts the limit.");
+		System.out.println("              If omitted, a default value of " + DEFAULT_TIME_LIMIT + " will be used.");
+		System.out.println();
+		System.out.println("  --step-limit=STEPS");
+		System.out.println("              Aborts daemon requests with more than STEPS proof steps with a");
+		System.out.println("              distinct error code. A value of -1 lifts the limit. If omitted,");
+		System.out.println("              a default value of " + DEFAULT_STEP_LIMIT + " will be used.");
+		System.out.println();
+		System.out.println("  --memory-limit=BYTES");
+		System.out.println("              Aborts daemon requests allocating more than BYTES bytes in total,");
+		System.out.println("              garbage included, with a server error. A value of -1 lifts the");
+		System.out.println("              limit. If omitted, a default value of " + DEFAULT_MEMORY_LIMIT + " will be");
+		System.out.println("              used.");
+		System.out.println();
+		System.out.println("  --memory-pool=BYTES");
+		System.out.println("              Queues new daemon requests while BYTES bytes or more of the heap");
+		System.out.println("              are still in use after garbage collection. If omitted, three");
+		System.out.println("              quarters of the maximum heap size will be used.");
+		System.out.println();
+		System.out.println("  -cFILE      Keeps a snapshot of the module cache in FILE. Only meaningful");
+		System.out.println("              in daemon mode. The snapshot is written periodically and on");
+		System.out.println("              shutdown, and restored in the background on startup.");
+		System.out.println();
+		System.out.println("  -mBYTES     Sets the memory budget of the module cache in bytes. If omitted,");
+		System.out.println("              a default value of " + Storage.DEFAULT_CACHE_BUDGET + " will be used.");
+		System.out.println();
+		System.out.println("  --metrics=PORT");
+		System.out.println("              Serves daemon metrics in Prometheus text format over HTTP on");
+		System.out.println("              local port PORT. Only meaningful in daemon mode. The metrics");
+		System.out.println("              are always available through JMX.");
+		System.out.println();
 		System.out.println("  --wiki      Operate on wiki-formatted pages stored locally in files.");
 		System.out.println();
+		System.out.println("  --profile   Reports the verification cost of each theorem and how often");
+		System.out.println("              each statement is applied, sorted by decreasing time. Not");
+		System.out.println("              meaningful in daemon mode. Use --profile=json for a report in");
+		System.out.println("              JSON format.");
+		System.out.println();
+		System.out.println("  --compress=FILE");
+		System.out.println("              Writes the proof module to FILE with compressed proofs, in which");
+		System.out.println("              repeated subproofs and terms are replaced by back-references.");
+		System.out.println("              Not available with --wiki.");
+		System.out.println();
+		System.out.println("  --token-cache=DIR");
+		System.out.println("              Keeps the scanned tokens of proof modules and interfaces in");
+		System.out.println("              binary files below DIR, so that unchanged sources need not be");
+		System.out.println("              scanned again. Changed sources are scanned and cached anew.");
+		System.out.println("              With --wiki, only interfaces are cached.");
+		System.out.println();
 		System.out.println("  -pPATH      Uses hashstore storage instead of file storage. Useful in daemon");
 		System.out.println("              mode. The PATH is the base directory used for storage. If PATH is");
 		System.out.println("              not specified, it defaults to " + HASHSTORE_DEFAULT_PATH + ".");
 		System.out.println();
+		System.out.println("  -sPATH      Uses segment log storage instead of file storage. Modules are");
+		System.out.println("              appended to a few large files below PATH. If PATH is not");
+		System.out.println("              specified, it defaults to " + SEGMENTSTORE_DEFAULT_PATH + ".");
+		System.out.println("              The -p option takes precedence over this option.");
+		System.out.println();
 		System.out.println("  --license   Displays license information and exits.");
 		System.out.println();
 		System.out.println("Please report bugs to <Graf." + "Zahl" + '@' + "gmx." + "net>.");
@@ -331,11 +628,29 @@ public final class Main {
 	private static void startDaemon() throws JHilbertException {
 		final byte[] localHost = { 127, 0, 0, 1 };
 		int transactionCounter = 0;
+		if (snapshotPath != null)
+			startSnapshots(new File(snapshotPath));
+		final Storage storage = Storage.getInstance();
+		Runtime.getRuntime().addShutdownHook(new Thread("Storage closer") {
+			public @Override void run() {
+				try {
+					storage.close();
+				} catch (StorageException e) {
+					logger.error("Unable to close storage", e);
+				}
+			}
+		});
+		final Metrics metrics = Metrics.getInstance();
+		metrics.register();
+		final MemoryPool pool = new MemoryPool((memoryPool == -1) ? Runtime.getRuntime().maxMemory() / 4 * 3 : memoryPool);
 		try {
+			if (metricsPort != -1)
+				metrics.startScrapeServer(metricsPort);
 			final ServerSocket listener = new ServerSocket(DAEMON_PORT, 50, InetAddress.getByAddress(localHost));
 			for (;;) {
 				final Socket conn = listener.accept();
-				final Server thread = new Server("JHilbert transaction " + ++transactionCounter, conn, socketTimeout);
+				final Server thread = new Server("JHilbert transaction " + ++transactionCounter, conn, socketTimeout,
+						timeLimit, stepLimit, memoryLimit, pool);
 				thread.start();
 			}
 		} catch (UnknownHostException e) {
@@ -347,6 +662,46 @@ public final class Main {
 		}
 	}
 
+	/**
+	 * Restores the module cache from the specified snapshot file and
+	 * schedules periodic snapshots.
+	 *
+	 * @param file snapshot file.
+	 */
+	private static void startSnapshots(final File file) {
+		final Storage storage = Storage.getInstance();
+		try {
+			storage.restoreSnapshot(file, Runtime.getRuntime().availableProcessors());
+		} catch (StorageException e) {
+			logger.warn("Starting with empty module cache: " + e.getMessage());
+		}
+		final TimerTask writer = new TimerTask() {
+			public @Override void run() {
+				try {
+					storage.saveSnapshot(file);
+				} catch (StorageException e) {
+					logger.error("Unable to write module cache snapshot", e);
+				}
+			}
+		};
+		new Timer("Module cache snapshot writer", true).schedule(writer, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL);
+		Runtime.getRuntime().addShutdownHook(new Thread("Module cache snapshot writer") {
+			public @Override void run() {
+				writer.run();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the module cache budget.
+	 *
+	 * @return the module cache budget in bytes, or <code>-1</code> if
+	 * 	none has been specified.
+	 */
+	public static long getCacheBudget() {
+		return cacheBudget;
+	}
+
 	/**
 	 * Retrieves the hashstore path.
 	 *
@@ -356,6 +711,15 @@ public final class Main {
 		return hashstorePath;
 	}
 
+	/**
+	 * Retrieves the segment store path.
+	 *
+	 * @return the segment store path.
+	 */
+	public static String getSegmentStorePath() {
+		return segmentStorePath;
+	}
+
 	/**
 	 * Is JHilbert being used as a daemon?
 	 *
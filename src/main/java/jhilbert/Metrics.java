@@ -0,0 +1,473 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jhilbert.storage.Storage;
+import jhilbert.utils.Histogram;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Daemon metrics.
+ * <p>
+ * Collects request latencies, traffic, connection counts, storage backend
+ * latency, module cache statistics and failures. The metrics are
+ * available through JMX under {@link #OBJECT_NAME}, and in the plain
+ * text exposition format of Prometheus, either from {@link #writeText}
+ * or over HTTP on a local port, see {@link #startScrapeServer}.
+ */
+public final class Metrics implements MetricsMXBean {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(Metrics.class);
+
+	/**
+	 * JMX object name.
+	 */
+	public static final String OBJECT_NAME = "jhilbert:type=Metrics";
+
+	/**
+	 * Name of the module command.
+	 */
+	public static final String MOD = "mod";
+
+	/**
+	 * Name of the interface command.
+	 */
+	public static final String IFACE = "iface";
+
+	/**
+	 * Name of the delete command.
+	 */
+	public static final String DEL = "del";
+
+	/**
+	 * Timeout for reading a scrape request in milliseconds.
+	 */
+	private static final int SCRAPE_TIMEOUT = 1000;
+
+	/**
+	 * Instance.
+	 */
+	private static final Metrics instance = new Metrics();
+
+	/**
+	 * Request latencies per command.
+	 */
+	private final Map<String, Histogram> requestLatencies;
+
+	/**
+	 * Storage backend latency.
+	 */
+	private final Histogram backendLatency;
+
+	/**
+	 * Number of accepted connections.
+	 */
+	private final AtomicLong connections;
+
+	/**
+	 * Number of open connections.
+	 */
+	private final AtomicInteger activeConnections;
+
+	/**
+	 * Bytes received from clients.
+	 */
+	private final AtomicLong bytesIn;
+
+	/**
+	 * Bytes sent to clients.
+	 */
+	private final AtomicLong bytesOut;
+
+	/**
+	 * Failures per error type.
+	 */
+	private final ConcurrentHashMap<String, AtomicLong> failures;
+
+	/**
+	 * Creates a new, empty <code>Metrics</code> object.
+	 * Used by tests; the daemon uses {@link #getInstance}.
+	 */
+	Metrics() {
+		final Map<String, Histogram> latencies = new LinkedHashMap();
+		latencies.put(MOD, new Histogram());
+		latencies.put(IFACE, new Histogram());
+		latencies.put(DEL, new Histogram());
+		requestLatencies = Collections.unmodifiableMap(latencies);
+		backendLatency = new Histogram();
+		connections = new AtomicLong();
+		activeConnections = new AtomicInteger();
+		bytesIn = new AtomicLong();
+		bytesOut = new AtomicLong();
+		failures = new ConcurrentHashMap();
+	}
+
+	/**
+	 * Returns the <code>Metrics</code> instance.
+	 *
+	 * @return the metrics.
+	 */
+	public static Metrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records a new client connection.
+	 */
+	public void connectionOpened() {
+		connections.incrementAndGet();
+		activeConnections.incrementAndGet();
+	}
+
+	/**
+	 * Records the end of a client connection.
+	 */
+	public void connectionClosed() {
+		activeConnections.decrementAndGet();
+	}
+
+	/**
+	 * Records bytes received from a client.
+	 *
+	 * @param count number of bytes.
+	 */
+	public void addBytesIn(final long count) {
+		bytesIn.addAndGet(count);
+	}
+
+	/**
+	 * Records bytes sent to a client.
+	 *
+	 * @param count number of bytes.
+	 */
+	public void addBytesOut(final long count) {
+		bytesOut.addAndGet(count);
+	}
+
+	/**
+	 * Records the latency of a completed request.
+	 *
+	 * @param command command name, one of {@link #MOD}, {@link #IFACE}
+	 * 	and {@link #DEL}.
+	 * @param nanos latency in nanoseconds.
+	 */
+	public void recordRequest(final String command, final long nanos) {
+		final Histogram histogram = requestLatencies.get(command);
+		assert (histogram != null): "Unknown command";
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Records the latency of a storage backend round trip.
+	 *
+	 * @param nanos latency in nanoseconds.
+	 */
+	public void recordBackendRequest(final long nanos) {
+		backendLatency.record(nanos);
+	}
+
+	/**
+	 * Records a failed request.
+	 * The failure is classified by the type of the innermost cause of the
+	 * specified exception, since the outer exceptions merely add context.
+	 *
+	 * @param e exception which made the request fail.
+	 */
+	public void recordFailure(final Throwable e) {
+		assert (e != null): "Supplied exception is null";
+		Throwable cause = e;
+		while (cause.getCause() != null)
+			cause = cause.getCause();
+		final String type = cause.getClass().getSimpleName();
+		AtomicLong counter = failures.get(type);
+		if (counter == null) {
+			final AtomicLong newCounter = new AtomicLong();
+			counter = failures.putIfAbsent(type, newCounter);
+			if (counter == null)
+				counter = newCounter;
+		}
+		counter.incrementAndGet();
+	}
+
+	public int getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	public Map<String, Long> getRequestCounts() {
+		final Map<String, Long> result = new LinkedHashMap();
+		for (final Map.Entry<String, Histogram> entry: requestLatencies.entrySet())
+			result.put(entry.getKey(), entry.getValue().getCount());
+		return result;
+	}
+
+	public Map<String, Double> getRequestMeanMillis() {
+		final Map<String, Double> result = new LinkedHashMap();
+		for (final Map.Entry<String, Histogram> entry: requestLatencies.entrySet())
+			result.put(entry.getKey(), meanMillis(entry.getValue()));
+		return result;
+	}
+
+	public Map<String, Double> getRequestP99Millis() {
+		final Map<String, Double> result = new LinkedHashMap();
+		for (final Map.Entry<String, Histogram> entry: requestLatencies.entrySet()) {
+			final long p99 = entry.getValue().getQuantile(0.99);
+			result.put(entry.getKey(), (p99 == Long.MAX_VALUE) ? Double.POSITIVE_INFINITY : p99 / 1e6);
+		}
+		return result;
+	}
+
+	public long getBackendRequests() {
+		return backendLatency.getCount();
+	}
+
+	public double getBackendMeanMillis() {
+		return meanMillis(backendLatency);
+	}
+
+	public long getCacheHits() {
+		return Storage.getInstance().getCacheHits();
+	}
+
+	public long getCacheMisses() {
+		return Storage.getInstance().getCacheMisses();
+	}
+
+	public long getCacheEvictions() {
+		return Storage.getInstance().getCacheEvictions();
+	}
+
+	public Map<String, Long> getFailures() {
+		final Map<String, Long> result = new TreeMap();
+		for (final Map.Entry<String, AtomicLong> entry: failures.entrySet())
+			result.put(entry.getKey(), entry.getValue().get());
+		return result;
+	}
+
+	/**
+	 * Calculates the mean of the specified histogram.
+	 *
+	 * @param histogram histogram.
+	 *
+	 * @return mean in milliseconds, or <code>0</code> if there are no
+	 * 	samples.
+	 */
+	private static double meanMillis(final Histogram histogram) {
+		final long count = histogram.getCount();
+		if (count == 0)
+			return 0;
+		return histogram.getSum() / 1e6 / count;
+	}
+
+	/**
+	 * Writes all metrics in the plain text exposition format of
+	 * Prometheus.
+	 *
+	 * @param out writer to write the metrics to.
+	 */
+	public void writeText(final PrintWriter out) {
+		out.println("# HELP jhilbert_request_duration_seconds Latency of client commands.");
+		out.println("# TYPE jhilbert_request_duration_seconds histogram");
+		for (final Map.Entry<String, Histogram> entry: requestLatencies.entrySet())
+			writeHistogram(out, "jhilbert_request_duration_seconds", "command=\"" + entry.getKey() + "\"",
+					entry.getValue());
+		out.println("# HELP jhilbert_backend_request_duration_seconds Latency of storage backend round trips.");
+		out.println("# TYPE jhilbert_backend_request_duration_seconds histogram");
+		writeHistogram(out, "jhilbert_backend_request_duration_seconds", null, backendLatency);
+		writeValue(out, "jhilbert_connections_total", "counter", "Accepted client connections.", connections.get());
+		writeValue(out, "jhilbert_active_connections", "gauge", "Open client connections.", activeConnections.get());
+		writeValue(out, "jhilbert_received_bytes_total", "counter", "Bytes received from clients.", bytesIn.get());
+		writeValue(out, "jhilbert_sent_bytes_total", "counter", "Bytes sent to clients.", bytesOut.get());
+		final Storage storage = Storage.getInstance();
+		writeValue(out, "jhilbert_module_cache_hits_total", "counter", "Module cache hits.",
+				storage.getCacheHits());
+		writeValue(out, "jhilbert_module_cache_misses_total", "counter", "Module cache misses.",
+				storage.getCacheMisses());
+		writeValue(out, "jhilbert_module_cache_evictions_total", "counter", "Module cache evictions.",
+				storage.getCacheEvictions());
+		writeValue(out, "jhilbert_module_cache_modules", "gauge", "Cached modules.", storage.getCacheSize());
+		writeValue(out, "jhilbert_module_cache_weight_bytes", "gauge", "Estimated size of cached modules.",
+				storage.getCacheWeight());
+		out.println("# HELP jhilbert_failures_total Failed requests by error type.");
+		out.println("# TYPE jhilbert_failures_total counter");
+		for (final Map.Entry<String, Long> entry: getFailures().entrySet())
+			out.println("jhilbert_failures_total{type=\"" + entry.getKey() + "\"} " + entry.getValue());
+		out.flush();
+	}
+
+	/**
+	 * Writes a single valued metric.
+	 *
+	 * @param out writer.
+	 * @param name metric name.
+	 * @param type metric type.
+	 * @param help help text.
+	 * @param value value.
+	 */
+	private static void writeValue(final PrintWriter out, final String name, final String type, final String help,
+			final long value) {
+		out.println("# HELP " + name + " " + help);
+		out.println("# TYPE " + name + " " + type);
+		out.println(name + " " + value);
+	}
+
+	/**
+	 * Writes the samples of a histogram.
+	 *
+	 * @param out writer.
+	 * @param name metric name.
+	 * @param labels additional labels, or <code>null</code>.
+	 * @param histogram histogram.
+	 */
+	private static void writeHistogram(final PrintWriter out, final String name, final String labels,
+			final Histogram histogram) {
+		final String prefix = (labels == null) ? "" : labels + ",";
+		long cumulative = 0;
+		for (int i = 0; i != histogram.getBucketCount(); ++i) {
+			cumulative += histogram.getCount(i);
+			final long bound = histogram.getBound(i);
+			final String le = (bound == Long.MAX_VALUE) ? "+Inf" : Double.toString(bound / 1e9);
+			out.println(name + "_bucket{" + prefix + "le=\"" + le + "\"} " + cumulative);
+		}
+		final String suffix = (labels == null) ? "" : "{" + labels + "}";
+		out.println(name + "_sum" + suffix + " " + (histogram.getSum() / 1e9));
+		out.println(name + "_count" + suffix + " " + cumulative);
+	}
+
+	/**
+	 * Registers this <code>Metrics</code> object with the platform MBean
+	 * server.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			logger.warn("Unable to register metrics with JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Starts serving the metrics over HTTP on the specified local port.
+	 * Every request, regardless of its path, receives the text of
+	 * {@link #writeText}.
+	 *
+	 * @param port port number.
+	 *
+	 * @throws IOException if the port cannot be bound.
+	 */
+	public void startScrapeServer(final int port) throws IOException {
+		final byte[] localHost = { 127, 0, 0, 1 };
+		final ServerSocket listener = new ServerSocket(port, 5, InetAddress.getByAddress(localHost));
+		final Thread thread = new Thread("Metrics scrape server") {
+			public @Override void run() {
+				for (;;) {
+					try {
+						serve(listener.accept());
+					} catch (IOException e) {
+						logger.warn("Unable to serve metrics: " + e.getMessage());
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Serving metrics on port " + port);
+	}
+
+	/**
+	 * Answers a single scrape request.
+	 *
+	 * @param socket connection.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void serve(final Socket socket) throws IOException {
+		try {
+			socket.setSoTimeout(SCRAPE_TIMEOUT);
+			// skip request line and headers up to the first empty line
+			final InputStream in = socket.getInputStream();
+			int lineLength = 0;
+			for (int c = in.read(); c != -1; c = in.read()) {
+				if (c == '\n') {
+					if (lineLength == 0)
+						break;
+					lineLength = 0;
+				} else if (c != '\r') {
+					++lineLength;
+				}
+			}
+			final StringWriter body = new StringWriter();
+			writeText(new PrintWriter(body));
+			final byte[] bytes = body.toString().getBytes(Server.CHARSET.name());
+			final PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+						Server.CHARSET.name()));
+			out.print("HTTP/1.0 200 OK\r\n");
+			out.print("Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n");
+			out.print("Content-Length: " + bytes.length + "\r\n");
+			out.print("\r\n");
+			out.flush();
+			socket.getOutputStream().write(bytes);
+			socket.getOutputStream().flush();
+		} finally {
+			socket.close();
+		}
+	}
+
+}
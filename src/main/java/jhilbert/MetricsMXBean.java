@@ -0,0 +1,129 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.util.Map;
+
+/**
+ * Management interface of the daemon {@link Metrics}.
+ * Latencies are keyed by command name (<code>mod</code>,
+ * <code>iface</code> and <code>del</code>), failures by the type of the
+ * underlying error.
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Obtains the number of currently open client connections.
+	 *
+	 * @return number of active connections.
+	 */
+	public int getActiveConnections();
+
+	/**
+	 * Obtains the total number of accepted client connections.
+	 *
+	 * @return number of connections.
+	 */
+	public long getConnections();
+
+	/**
+	 * Obtains the number of bytes received from clients.
+	 *
+	 * @return bytes received.
+	 */
+	public long getBytesIn();
+
+	/**
+	 * Obtains the number of bytes sent to clients.
+	 *
+	 * @return bytes sent.
+	 */
+	public long getBytesOut();
+
+	/**
+	 * Obtains the number of completed requests per command.
+	 *
+	 * @return map from command names to request counts.
+	 */
+	public Map<String, Long> getRequestCounts();
+
+	/**
+	 * Obtains the mean latency per command.
+	 *
+	 * @return map from command names to mean latencies in milliseconds.
+	 */
+	public Map<String, Double> getRequestMeanMillis();
+
+	/**
+	 * Obtains the 99th percentile latency per command, as the upper
+	 * bound of its histogram bucket.
+	 *
+	 * @return map from command names to latencies in milliseconds.
+	 */
+	public Map<String, Double> getRequestP99Millis();
+
+	/**
+	 * Obtains the number of storage backend round trips.
+	 *
+	 * @return number of backend requests.
+	 */
+	public long getBackendRequests();
+
+	/**
+	 * Obtains the mean latency of storage backend round trips.
+	 *
+	 * @return mean latency in milliseconds.
+	 */
+	public double getBackendMeanMillis();
+
+	/**
+	 * Obtains the number of module cache hits.
+	 *
+	 * @return number of cache hits.
+	 */
+	public long getCacheHits();
+
+	/**
+	 * Obtains the number of module cache misses.
+	 *
+	 * @return number of cache misses.
+	 */
+	public long getCacheMisses();
+
+	/**
+	 * Obtains the number of module cache evictions.
+	 *
+	 * @return number of cache evictions.
+	 */
+	public long getCacheEvictions();
+
+	/**
+	 * Obtains the number of failed requests per error type.
+	 *
+	 * @return map from error types to failure counts.
+	 */
+	public Map<String, Long> getFailures();
+
+}
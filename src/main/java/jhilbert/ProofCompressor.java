@@ -0,0 +1,463 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jhilbert.data.Module;
+import jhilbert.data.Namespace;
+import jhilbert.data.Statement;
+import jhilbert.data.Symbol;
+
+/**
+ * Converts the proofs of a proof module into the compressed proof syntax.
+ * <p>
+ * In the compressed syntax, the proof step <code>:</code> tags the entry
+ * pushed by the previous step, and the step <code>:</code><i>n</i> pushes
+ * the entry with tag <i>n</i> again. The compressor tags every subproof and
+ * every term which occurs more than once in a proof, and replaces all
+ * further occurrences with back-references. Everything else in the module
+ * text, including layout and comments, is kept as it is. Proofs which
+ * contain comments or are already compressed are left alone.
+ * <p>
+ * The module must have been processed successfully before, so that the
+ * statements used in the proofs are known.
+ */
+public final class ProofCompressor {
+
+	/**
+	 * Separator in the keys of proof steps.
+	 */
+	private static final char SEPARATOR = '\u0000';
+
+	/**
+	 * Symbol namespace of the processed module.
+	 */
+	private final Namespace<? extends Symbol> symbols;
+
+	/**
+	 * Module text.
+	 */
+	private String text;
+
+	/**
+	 * Current position in the module text.
+	 */
+	private int position;
+
+	/**
+	 * Whether the module text has unbalanced parentheses.
+	 */
+	private boolean malformed;
+
+	/**
+	 * Unique IDs of the proof steps of the current proof, by key.
+	 */
+	private final Map<String, Integer> ids;
+
+	/**
+	 * IDs of the steps occurring more than once in the current proof.
+	 */
+	private final Set<Integer> repeated;
+
+	/**
+	 * Tag numbers of the steps tagged so far in the current proof.
+	 */
+	private final Map<Integer, Integer> tagNumbers;
+
+	/**
+	 * Compressed module text.
+	 */
+	private StringBuilder result;
+
+	/**
+	 * Position in the module text up to which the text has been copied
+	 * to the result.
+	 */
+	private int copied;
+
+	/**
+	 * Number of back-references created.
+	 */
+	private int references;
+
+	/**
+	 * Creates a new proof compressor for the specified module.
+	 *
+	 * @param module processed proof module.
+	 */
+	public ProofCompressor(final Module module) {
+		assert (module != null): "Supplied module is null";
+		symbols = module.getSymbolNamespace();
+		ids = new HashMap();
+		repeated = new HashSet();
+		tagNumbers = new HashMap();
+		references = 0;
+	}
+
+	/**
+	 * Compresses all proofs in the specified module text.
+	 *
+	 * @param text text of the module.
+	 *
+	 * @return the module text with compressed proofs, or the unchanged
+	 * 	text if it is not well formed.
+	 */
+	public String compress(final String text) {
+		assert (text != null): "Supplied text is null";
+		this.text = text;
+		position = 0;
+		malformed = false;
+		final List<Node> nodes = new ArrayList();
+		Node node;
+		while ((node = readNode()) != null)
+			nodes.add(node);
+		if (malformed || (position != text.length())) // unbalanced parentheses
+			return text;
+		result = new StringBuilder(text.length());
+		copied = 0;
+		for (int i = 0; i + 1 < nodes.size(); ++i) {
+			if (!"thm".equals(nodes.get(i).atom))
+				continue;
+			final Node theorem = nodes.get(i + 1);
+			if ((theorem.children == null) || (theorem.children.size() != 5) || theorem.hasComment)
+				continue;
+			compressProof(theorem.children.get(2), theorem.children.get(4));
+		}
+		result.append(text, copied, text.length());
+		return result.toString();
+	}
+
+	/**
+	 * Obtains the number of back-references created so far.
+	 *
+	 * @return number of back-references.
+	 */
+	public int getReferences() {
+		return references;
+	}
+
+	/**
+	 * Compresses a single proof.
+	 *
+	 * @param hypotheses list of hypotheses of the theorem.
+	 * @param proof proof of the theorem.
+	 */
+	private void compressProof(final Node hypotheses, final Node proof) {
+		if ((hypotheses.children == null) || (proof.children == null))
+			return;
+		final Set<String> labels = new HashSet();
+		for (final Node hypothesis: hypotheses.children) {
+			if ((hypothesis.children == null) || hypothesis.children.isEmpty()
+					|| (hypothesis.children.get(0).atom == null))
+				return;
+			labels.add(hypothesis.children.get(0).atom);
+		}
+		ids.clear();
+		repeated.clear();
+		tagNumbers.clear();
+		final List<Step> proofStack = new ArrayList();
+		final List<Step> mandatoryStack = new ArrayList();
+		for (final Node node: proof.children) {
+			if (node.atom == null) {
+				mandatoryStack.add(new Step(node.start, node.end, id(canonical(node)), true, null));
+				continue;
+			}
+			final String label = node.atom;
+			if (label.charAt(0) == ':') // already compressed
+				return;
+			if (labels.contains(label)) {
+				proofStack.add(new Step(node.start, node.end, id(label), false, null));
+				continue;
+			}
+			final Symbol symbol = symbols.getObjectByString(label);
+			if (symbol == null)
+				return;
+			if (symbol.isVariable()) {
+				mandatoryStack.add(new Step(node.start, node.end, id(label), false, null));
+				continue;
+			}
+			final Statement statement = (Statement) symbol;
+			final int hypothesisCount = statement.getHypotheses().size();
+			final int variableCount = statement.getMandatoryVariables().size();
+			if ((proofStack.size() < hypothesisCount) || (mandatoryStack.size() < variableCount))
+				return;
+			final Step[] arguments = new Step[hypothesisCount + variableCount];
+			final StringBuilder key = new StringBuilder(label);
+			for (int i = 0; i != hypothesisCount; ++i)
+				arguments[i] = proofStack.get(proofStack.size() - hypothesisCount + i);
+			for (int i = 0; i != variableCount; ++i)
+				arguments[hypothesisCount + i] = mandatoryStack.get(mandatoryStack.size() - variableCount + i);
+			proofStack.subList(proofStack.size() - hypothesisCount, proofStack.size()).clear();
+			mandatoryStack.subList(mandatoryStack.size() - variableCount, mandatoryStack.size()).clear();
+			for (final Step argument: arguments)
+				key.append(SEPARATOR).append(argument.id);
+			final int start = (arguments.length == 0) ? node.start : arguments[0].start;
+			proofStack.add(new Step(start, node.end, id(key.toString()), arguments.length != 0, arguments));
+		}
+		if ((proofStack.size() != 1) || !mandatoryStack.isEmpty())
+			return;
+		final Set<Integer> seen = new HashSet();
+		findRepeated(proofStack.get(0), seen);
+		if (repeated.isEmpty())
+			return;
+		// tags must not be taken for hypotheses or symbols of the same name
+		for (int i = 0; i <= repeated.size(); ++i) {
+			final String tag = (i == 0) ? ":" : ":" + i;
+			if (labels.contains(tag) || (symbols.getObjectByString(tag) != null))
+				return;
+		}
+		emit(proofStack.get(0));
+	}
+
+	/**
+	 * Obtains the unique ID of the proof step with the specified key.
+	 *
+	 * @param key key of the proof step.
+	 *
+	 * @return unique ID.
+	 */
+	private int id(final String key) {
+		final Integer result = ids.get(key);
+		if (result != null)
+			return result;
+		final int id = ids.size();
+		ids.put(key, id);
+		return id;
+	}
+
+	/**
+	 * Finds the steps occurring more than once in the compressed form of
+	 * the specified proof step, in proof order.
+	 *
+	 * @param step proof step.
+	 * @param seen IDs of the steps seen so far.
+	 */
+	private void findRepeated(final Step step, final Set<Integer> seen) {
+		if (step.taggable) {
+			if (!seen.add(step.id)) {
+				repeated.add(step.id);
+				return;
+			}
+		}
+		if (step.arguments != null)
+			for (final Step argument: step.arguments)
+				findRepeated(argument, seen);
+	}
+
+	/**
+	 * Emits the compressed form of the specified proof step, by copying
+	 * the module text up to it and replacing or tagging it as necessary.
+	 *
+	 * @param step proof step.
+	 */
+	private void emit(final Step step) {
+		final Integer tagNumber = tagNumbers.get(step.id);
+		if (tagNumber != null) {
+			result.append(text, copied, step.start).append(':').append(tagNumber);
+			copied = step.end;
+			++references;
+			return;
+		}
+		if (step.arguments != null)
+			for (final Step argument: step.arguments)
+				emit(argument);
+		if (repeated.contains(step.id)) {
+			tagNumbers.put(step.id, tagNumbers.size() + 1);
+			result.append(text, copied, step.end).append(" :");
+			copied = step.end;
+		}
+	}
+
+	/**
+	 * Obtains the canonical form of the specified node, with all atoms and
+	 * parentheses separated by single spaces.
+	 *
+	 * @param node node.
+	 *
+	 * @return canonical form.
+	 */
+	private static String canonical(final Node node) {
+		if (node.atom != null)
+			return node.atom;
+		final StringBuilder result = new StringBuilder("(");
+		for (final Node child: node.children)
+			result.append(' ').append(canonical(child));
+		return result.append(" )").toString();
+	}
+
+	/**
+	 * Skips whitespace and comments.
+	 *
+	 * @return <code>true</code> if a comment was skipped,
+	 * 	<code>false</code> otherwise.
+	 */
+	private boolean skipSpace() {
+		boolean result = false;
+		final int length = text.length();
+		while (position != length) {
+			final char c = text.charAt(position);
+			if (c == '#') {
+				result = true;
+				while ((position != length) && (text.charAt(position) != '\n') && (text.charAt(position) != '\r'))
+					++position;
+			} else if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+				++position;
+			} else {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the next node from the module text.
+	 *
+	 * @return the next node, or <code>null</code> at the end of the text
+	 * 	or of the current list.
+	 */
+	private Node readNode() {
+		skipSpace();
+		final int length = text.length();
+		if (malformed || (position == length))
+			return null;
+		final int start = position;
+		final char c = text.charAt(position);
+		if (c == ')')
+			return null;
+		if (c != '(') {
+			while (position != length) {
+				final char d = text.charAt(position);
+				if ((d == '(') || (d == ')') || (d == '#') || Character.isWhitespace(d) || Character.isSpaceChar(d))
+					break;
+				++position;
+			}
+			return new Node(start, position, text.substring(start, position), null, false);
+		}
+		++position;
+		final List<Node> children = new ArrayList();
+		boolean hasComment = false;
+		for (;;) {
+			hasComment |= skipSpace();
+			final Node child = readNode();
+			if (child == null)
+				break;
+			hasComment |= child.hasComment;
+			children.add(child);
+		}
+		if ((position == length) || (text.charAt(position) != ')')) {
+			malformed = true;
+			return null;
+		}
+		++position;
+		return new Node(start, position, null, children, hasComment);
+	}
+
+	/**
+	 * A node of the module text.
+	 */
+	private static final class Node {
+
+		/**
+		 * Start offset in the module text.
+		 */
+		final int start;
+
+		/**
+		 * End offset in the module text.
+		 */
+		final int end;
+
+		/**
+		 * Atom, or <code>null</code> if this node is a list.
+		 */
+		final String atom;
+
+		/**
+		 * Children, or <code>null</code> if this node is an atom.
+		 */
+		final List<Node> children;
+
+		/**
+		 * Whether this list contains a comment.
+		 */
+		final boolean hasComment;
+
+		Node(final int start, final int end, final String atom, final List<Node> children, final boolean hasComment) {
+			this.start = start;
+			this.end = end;
+			this.atom = atom;
+			this.children = children;
+			this.hasComment = hasComment;
+		}
+
+	}
+
+	/**
+	 * A proof step, with the subproofs and terms it consumes.
+	 */
+	private static final class Step {
+
+		/**
+		 * Start offset of the step and its arguments in the module text.
+		 */
+		final int start;
+
+		/**
+		 * End offset of the step in the module text.
+		 */
+		final int end;
+
+		/**
+		 * Unique ID of the step within its proof.
+		 */
+		final int id;
+
+		/**
+		 * Whether a back-reference to this step would be shorter.
+		 */
+		final boolean taggable;
+
+		/**
+		 * Arguments, or <code>null</code> for hypotheses and terms.
+		 */
+		final Step[] arguments;
+
+		Step(final int start, final int end, final int id, final boolean taggable, final Step[] arguments) {
+			this.start = start;
+			this.end = end;
+			this.id = id;
+			this.taggable = taggable;
+			this.arguments = arguments;
+		}
+
+	}
+
+}
@@ -25,8 +25,11 @@
 package jhilbert;
 
 import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.net.SocketException;
@@ -34,6 +37,7 @@ import java.nio.charset.Charset;
 
 import jhilbert.commands.CommandException;
 import jhilbert.commands.CommandFactory;
+import jhilbert.commands.PreludeCache;
 import jhilbert.data.DataException;
 import jhilbert.data.DataFactory;
 import jhilbert.data.Module;
@@ -42,6 +46,10 @@ import jhilbert.scanners.Token;
 import jhilbert.scanners.TokenFeed;
 import jhilbert.storage.Storage;
 import jhilbert.storage.StorageException;
+import jhilbert.utils.Budget;
+import jhilbert.utils.BudgetExceededException;
+import jhilbert.utils.MemoryLimitExceededException;
+import jhilbert.utils.MemoryPool;
 import jhilbert.utils.Io;
 
 import org.apache.log4j.Logger;
@@ -167,6 +175,28 @@ public class Server extends Thread {
 	 */
 	private final Socket socket;
 
+	/**
+	 * Wall time limit per request in milliseconds, or <code>-1</code> for
+	 * none.
+	 */
+	private final long timeLimit;
+
+	/**
+	 * Proof step limit per request, or <code>-1</code> for none.
+	 */
+	private final long stepLimit;
+
+	/**
+	 * Limit of the total bytes allocated per request, or <code>-1</code>
+	 * for none.
+	 */
+	private final long memoryLimit;
+
+	/**
+	 * Memory pool shared by all requests, or <code>null</code> for none.
+	 */
+	private final MemoryPool pool;
+
 	/**
 	 * Encoding.
 	 */
@@ -182,6 +212,16 @@ public class Server extends Thread {
 	 */
 	private static final int MAX_MSG_SIZE = (1 << 24) - 1;
 
+	/**
+	 * Maximum number of cached preludes.
+	 */
+	private static final int PRELUDE_CACHE_SIZE = 64;
+
+	/**
+	 * Preludes of proof modules, shared by all server threads.
+	 */
+	private static final PreludeCache preludes = new PreludeCache(PRELUDE_CACHE_SIZE);
+
 	/**
 	 * Welcome message.
 	 */
@@ -237,6 +277,11 @@ public class Server extends Thread {
 	 */
 	public static final byte SERVER_ERR_RC = 0x50;
 
+	/**
+	 * Request limit exceeded response code.
+	 */
+	public static final byte LIMIT_ERR_RC = 0x60;
+
 	/**
 	 * Quit command.
 	 */
@@ -347,16 +392,46 @@ public class Server extends Thread {
 	 * @param name thread name.
 	 * @param socket socket to talk with.
 	 * @param timeout socket timeout.
+	 * @param timeLimit wall time limit per request in milliseconds, or
+	 * 	<code>-1</code> for none.
+	 * @param stepLimit proof step limit per request, or <code>-1</code> for
+	 * 	none.
+	 * @param memoryLimit allocation limit per request in bytes, or
+	 * 	<code>-1</code> for none.
+	 * @param pool memory pool shared by all server threads, or
+	 * 	<code>null</code> to admit every request at once.
 	 *
 	 * @throws SocketException if a socket error occurs.
 	 */
-	public Server(final String name, final Socket socket, final int timeout) throws SocketException {
+	public Server(final String name, final Socket socket, final int timeout, final long timeLimit,
+			final long stepLimit, final long memoryLimit, final MemoryPool pool) throws SocketException {
 		super(name);
 		this.socket = socket;
+		this.timeLimit = timeLimit;
+		this.stepLimit = stepLimit;
+		this.memoryLimit = memoryLimit;
+		this.pool = pool;
 		socket.setSoTimeout(timeout);
 		socket.setTcpNoDelay(true);
 	}
 
+	/**
+	 * Creates a new server thread object on the specified
+	 * {@link Socket}, with the default request limits
+	 * {@link Main#DEFAULT_TIME_LIMIT}, {@link Main#DEFAULT_STEP_LIMIT} and
+	 * {@link Main#DEFAULT_MEMORY_LIMIT}, and without a memory pool.
+	 *
+	 * @param name thread name.
+	 * @param socket socket to talk with.
+	 * @param timeout socket timeout.
+	 *
+	 * @throws SocketException if a socket error occurs.
+	 */
+	public Server(final String name, final Socket socket, final int timeout) throws SocketException {
+		this(name, socket, timeout, Main.DEFAULT_TIME_LIMIT, Main.DEFAULT_STEP_LIMIT, Main.DEFAULT_MEMORY_LIMIT,
+			null);
+	}
+
 	/**
 	 * Creates a new server thread object on the specified {@link Socket}.
 	 * The socket timeout is set to the default value {@link #DEFAULT_TIMEOUT}.
@@ -370,13 +445,108 @@ public class Server extends Thread {
 		this(name, socket, Main.DEFAULT_SOCKET_TIMEOUT);
 	}
 
+	/**
+	 * Input stream counting the bytes received in the {@link Metrics}.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		/**
+		 * Creates a new <code>CountingInputStream</code>.
+		 *
+		 * @param in underlying input stream.
+		 */
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		public @Override int read() throws IOException {
+			final int result = super.read();
+			if (result != -1)
+				Metrics.getInstance().addBytesIn(1);
+			return result;
+		}
+
+		public @Override int read(final byte[] b, final int off, final int len) throws IOException {
+			final int result = super.read(b, off, len);
+			if (result > 0)
+				Metrics.getInstance().addBytesIn(result);
+			return result;
+		}
+
+	}
+
+	/**
+	 * Output stream counting the bytes sent in the {@link Metrics}.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		/**
+		 * Creates a new <code>CountingOutputStream</code>.
+		 *
+		 * @param out underlying output stream.
+		 */
+		CountingOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		public @Override void write(final int b) throws IOException {
+			out.write(b);
+			Metrics.getInstance().addBytesOut(1);
+		}
+
+		public @Override void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			Metrics.getInstance().addBytesOut(len);
+		}
+
+	}
+
+	/**
+	 * Admits a new request to the memory pool, if any, and binds a new
+	 * {@link Budget} for it to the current thread.
+	 * Interruptions while waiting for admission are kept for the first
+	 * checkpoint of the budget.
+	 *
+	 * @return the budget.
+	 */
+	private Budget startBudget() {
+		if (pool != null) {
+			boolean interrupted = false;
+			for (;;) {
+				try {
+					pool.admit();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		final Budget result = new Budget(timeLimit, stepLimit, memoryLimit, pool);
+		Budget.install(result);
+		return result;
+	}
+
+	/**
+	 * Unbinds the specified budget from the current thread and finishes it.
+	 *
+	 * @param budget budget.
+	 */
+	private static void finishBudget(final Budget budget) {
+		Budget.install(null);
+		budget.finish();
+	}
+
 	/**
 	 * Runs the JHilbert server thread.
 	 */
 	public @Override void run() {
+		final Metrics metrics = Metrics.getInstance();
+		metrics.connectionOpened();
 		try {
-			final InputStream in = socket.getInputStream();
-			final BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			final InputStream in = new CountingInputStream(socket.getInputStream());
+			final BufferedOutputStream out = new BufferedOutputStream(new CountingOutputStream(socket.getOutputStream()));
 			// send welcome
 			writeAnswer(out, OK_RC, WELCOME_MSG);
 			// execute commands
@@ -400,6 +570,7 @@ public class Server extends Thread {
 					logger.warn("EOF from client while reading message");
 					return;
 				}
+				final long start = System.nanoTime();
 				switch (command) {
 					case QUIT_CMD:
 						writeAnswer(out, GOODBYE_RC, "");
@@ -407,12 +578,23 @@ public class Server extends Thread {
 					case MOD_CMD:
 						final Module proofModule = DataFactory.getInstance().createModule("", -1);
 						final TokenFeed proofFeed = ScannerFactory.getInstance().createTokenFeed(in, out, proofModule);
+						final Budget proofBudget = startBudget();
 						try {
-							CommandFactory.getInstance().processCommands(proofModule, proofFeed);
+							CommandFactory.getInstance().processCommands(proofModule, proofFeed, preludes);
 							writeAnswer(out, OK_RC, PROOF_MSG);
 						} catch (CommandException e) {
+							metrics.recordFailure(e);
 							writeAnswer(out, CLIENT_ERR_RC, e.getMessage());
+						} catch (MemoryLimitExceededException e) {
+							metrics.recordFailure(e);
+							writeAnswer(out, SERVER_ERR_RC, e.getMessage());
+						} catch (BudgetExceededException e) {
+							metrics.recordFailure(e);
+							writeAnswer(out, LIMIT_ERR_RC, e.getMessage());
+						} finally {
+							finishBudget(proofBudget);
 						}
+						metrics.recordRequest(Metrics.MOD, System.nanoTime() - start);
 						break;
 					case IFACE_CMD:
 						if (msgSize <= 8) {
@@ -427,12 +609,30 @@ public class Server extends Thread {
 						final long version = decodeLong(msg, msgSize - 8);
 						final Module interfaceModule = DataFactory.getInstance().createModule(param, version);
 						final TokenFeed interfaceFeed = ScannerFactory.getInstance().createTokenFeed(in, out, interfaceModule);
+						final Budget interfaceBudget = startBudget();
 						try {
 							CommandFactory.getInstance().processCommands(interfaceModule, interfaceFeed);
+							final Storage storage = Storage.getInstance();
+							if (storage.storesModules())
+								storage.saveModule(interfaceModule, param, version);
+							preludes.clear();
 							writeAnswer(out, OK_RC, INTERFACE_MSG);
 						} catch (CommandException e) {
+							metrics.recordFailure(e);
 							writeAnswer(out, CLIENT_ERR_RC, e.getMessage());
+						} catch (MemoryLimitExceededException e) {
+							metrics.recordFailure(e);
+							writeAnswer(out, SERVER_ERR_RC, e.getMessage());
+						} catch (BudgetExceededException e) {
+							metrics.recordFailure(e);
+							writeAnswer(out, LIMIT_ERR_RC, e.getMessage());
+						} catch (StorageException e) {
+							metrics.recordFailure(e);
+							writeAnswer(out, SERVER_ERR_RC, e.getMessage());
+						} finally {
+							finishBudget(interfaceBudget);
 						}
+						metrics.recordRequest(Metrics.IFACE, System.nanoTime() - start);
 						break;
 					case DEL_CMD:
 						if (msgSize <= 8) {
@@ -447,10 +647,13 @@ public class Server extends Thread {
 						final long revision = decodeLong(msg, msgSize - 8);
 						try {
 							Storage.getInstance().deleteModule(locator, revision);
+							preludes.clear();
 							writeAnswer(out, OK_RC, "");
 						} catch (StorageException e) {
+							metrics.recordFailure(e);
 							writeAnswer(out, SERVER_ERR_RC, e.getMessage());
 						}
+						metrics.recordRequest(Metrics.DEL, System.nanoTime() - start);
 						break;
 					case FINISH_CMD: // be lenient and forgive a misplaced finish command
 						writeAnswer(out, OK_RC, "");
@@ -468,6 +671,7 @@ public class Server extends Thread {
 		} catch (DataException e) {
 			logger.error("Unable to create module", e);
 		} finally {
+			metrics.connectionClosed();
 			try {
 				socket.close();
 			} catch (IOException e) {
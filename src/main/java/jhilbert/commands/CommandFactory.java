@@ -56,4 +56,20 @@ public abstract class CommandFactory {
 	 */
 	public abstract void processCommands(Module module, TokenFeed tokenFeed) throws CommandException;
 
+	/**
+	 * Process commands for the specified module from the specified feed.
+	 * If the module is an empty proof module, its leading
+	 * <code>import</code> commands are served from the specified
+	 * {@link PreludeCache} where possible.
+	 *
+	 * @param module data module.
+	 * @param tokenFeed token feed.
+	 * @param preludes prelude cache, or <code>null</code> to import
+	 * 	everything afresh.
+	 *
+	 * @throws CommandException if an error occurs.
+	 */
+	public abstract void processCommands(Module module, TokenFeed tokenFeed, PreludeCache preludes)
+	throws CommandException;
+
 }
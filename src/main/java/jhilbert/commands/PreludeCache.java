@@ -0,0 +1,193 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.commands;
+
+import jhilbert.data.Module;
+import jhilbert.data.Parameter;
+import jhilbert.utils.LRUCache;
+
+/**
+ * Cache of module states after leading <code>import</code> commands.
+ * <p>
+ * Most proof modules start with the same imports. A prelude is the frozen
+ * module state after some of these imports, see {@link Module#fork}.
+ * Preludes are keyed by the list of imported parameters, so that every
+ * prefix of the imports of a proof module has its own prelude, which is a
+ * fork of the prelude of the next shorter prefix.
+ * <p>
+ * Preludes contain the imported interface modules as they were at the time
+ * of the import. Keys contain the resolved revisions of the imported
+ * modules, so new revisions in versioned storages get new preludes. Still,
+ * the cache must be cleared whenever an interface module changes in
+ * place. Preludes built from modules loaded before such a clear are
+ * rejected, see {@link #getGeneration}.
+ */
+public final class PreludeCache {
+
+	/**
+	 * Cached preludes.
+	 */
+	private final LRUCache<String, Module> preludes;
+
+	/**
+	 * Number of times this cache has been cleared.
+	 */
+	private long generation;
+
+	/**
+	 * Number of cache hits.
+	 */
+	private long hits;
+
+	/**
+	 * Number of cache misses.
+	 */
+	private long misses;
+
+	/**
+	 * Creates a new <code>PreludeCache</code> holding the specified number
+	 * of preludes.
+	 *
+	 * @param size maximum number of preludes.
+	 */
+	public PreludeCache(final int size) {
+		preludes = new LRUCache(size);
+		generation = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Obtains the key of the prelude after importing the specified
+	 * parameter into the prelude with the specified key.
+	 *
+	 * @param key key of the prelude imported into.
+	 * @param parameter imported parameter.
+	 * @param revision revision of the imported module, resolved in case
+	 * 	the parameter asks for the most recent one.
+	 *
+	 * @return key of the new prelude.
+	 */
+	public static String key(final String key, final Parameter parameter, final long revision) {
+		assert (key != null): "Supplied key is null";
+		assert (parameter != null): "Supplied parameter is null";
+		final StringBuilder result = new StringBuilder(key);
+		result.append('(').append(parameter.getName())
+			.append(' ').append(parameter.getLocator())
+			.append(' ').append(revision)
+			.append(" (");
+		for (final Parameter p: parameter.getParameterList())
+			result.append(' ').append(p.getName());
+		result.append(") ").append(parameter.getPrefix()).append(")\n");
+		return result.toString();
+	}
+
+	/**
+	 * Obtains the prelude with the specified key.
+	 *
+	 * @param key prelude key.
+	 *
+	 * @return the prelude, or <code>null</code> if it is not in the cache.
+	 */
+	public synchronized Module get(final String key) {
+		assert (key != null): "Supplied key is null";
+		final Module result = preludes.get(key);
+		if (result == null)
+			++misses;
+		else
+			++hits;
+		return result;
+	}
+
+	/**
+	 * Obtains the current generation of this cache.
+	 * The generation changes whenever the cache is cleared. Callers
+	 * obtain it before building a prelude and pass it to {@link #put}, so
+	 * that a prelude built while the cache was cleared is not cached.
+	 *
+	 * @return current generation.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Adds the specified prelude to this cache, unless the cache has been
+	 * cleared since the specified generation.
+	 * The prelude must not be modified afterwards.
+	 *
+	 * @param key prelude key.
+	 * @param prelude prelude.
+	 * @param generation generation obtained by {@link #getGeneration}
+	 * 	before the prelude was built.
+	 *
+	 * @return <code>true</code> if the prelude has been added,
+	 * 	<code>false</code> if it is stale.
+	 */
+	public synchronized boolean put(final String key, final Module prelude, final long generation) {
+		assert (key != null): "Supplied key is null";
+		assert (prelude != null): "Supplied prelude is null";
+		if (generation != this.generation)
+			return false;
+		preludes.put(key, prelude);
+		return true;
+	}
+
+	/**
+	 * Removes all preludes from this cache.
+	 */
+	public synchronized void clear() {
+		preludes.clear();
+		++generation;
+	}
+
+	/**
+	 * Obtains the number of preludes in this cache.
+	 *
+	 * @return number of preludes.
+	 */
+	public synchronized int size() {
+		return preludes.size();
+	}
+
+	/**
+	 * Obtains the number of cache hits so far.
+	 *
+	 * @return number of hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Obtains the number of cache misses so far.
+	 *
+	 * @return number of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+}
@@ -29,10 +29,17 @@ import java.util.Map;
 
 import jhilbert.commands.Command;
 import jhilbert.commands.CommandException;
+import jhilbert.commands.PreludeCache;
+import jhilbert.data.DataException;
+import jhilbert.data.DataFactory;
 import jhilbert.data.Module;
+import jhilbert.data.Parameter;
 import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.Token;
 import jhilbert.scanners.TokenFeed;
+import jhilbert.storage.Storage;
+import jhilbert.storage.StorageException;
+import jhilbert.utils.Budget;
 
 /**
  * Command factory implementation.
@@ -42,38 +49,29 @@ public final class CommandFactory extends jhilbert.commands.CommandFactory {
 	// default constructed
 	
 	public @Override void processCommands(final Module module, final TokenFeed tokenFeed) throws CommandException {
+		processCommands(module, tokenFeed, null);
+	}
+
+	public @Override void processCommands(final Module module, final TokenFeed tokenFeed, final PreludeCache preludes)
+	throws CommandException {
 		assert (module != null): "Supplied data module is null";
 		assert (tokenFeed != null): "Supplied token feed is null";
-		final Map<String, Command> commandMap = new HashMap();
-		// init command map for module and feed
-		commandMap.put("def", new DefinitionCommand(module, tokenFeed));
-		commandMap.put("kindbind", new KindbindCommand(module, tokenFeed));
-		commandMap.put("var", new VariableCommand(module, tokenFeed));
-		if (module.isProofModule()) {
-			// proof module only commands
-			commandMap.put("export", new ExportCommand(module, tokenFeed));
-			commandMap.put("import", new ImportCommand(module, tokenFeed));
-			commandMap.put("thm", new TheoremCommand(module, tokenFeed));
-		} else {
-			// interface module only commands
-			commandMap.put("kind", new KindCommand(module, tokenFeed));
-			commandMap.put("param", new ParameterCommand(module, tokenFeed));
-			commandMap.put("stmt", new StatementCommand(module, tokenFeed));
-			commandMap.put("term", new TermCommand(module, tokenFeed));
-		}
-		// process commands
 		try {
-			for (;;) {
-				final Token token = tokenFeed.getToken();
-				if (token == null)
-					return;
+			Token token = tokenFeed.getToken();
+			if ((preludes != null) && module.isProofModule())
+				token = processPrelude(module, tokenFeed, preludes, token);
+			final Map<String, Command> commandMap = createCommandMap(module, tokenFeed);
+			// process commands
+			while (token != null) {
 				final String command = token.getTokenString();
 				if (!commandMap.containsKey(command)) {
 					tokenFeed.reject("Command " + command + " unknown");
 					throw new CommandException("Command unknown");
 				}
+				Budget.checkpoint();
 				tokenFeed.confirmKeyword();
 				commandMap.get(command).execute();
+				token = tokenFeed.getToken();
 			}
 		} catch (ScannerException e) {
 			throw new CommandException(e.getScanner().getContextString() + "Feed failure: " + e.getMessage(), e);
@@ -89,4 +87,98 @@ public final class CommandFactory extends jhilbert.commands.CommandFactory {
 		}
 	}
 
+	/**
+	 * Creates the command map for the specified module and feed.
+	 *
+	 * @param module data module.
+	 * @param tokenFeed token feed.
+	 *
+	 * @return map from command keywords to commands.
+	 */
+	private static Map<String, Command> createCommandMap(final Module module, final TokenFeed tokenFeed) {
+		final Map<String, Command> commandMap = new HashMap();
+		commandMap.put("def", new DefinitionCommand(module, tokenFeed));
+		commandMap.put("kindbind", new KindbindCommand(module, tokenFeed));
+		commandMap.put("var", new VariableCommand(module, tokenFeed));
+		if (module.isProofModule()) {
+			// proof module only commands
+			commandMap.put("export", new ExportCommand(module, tokenFeed));
+			commandMap.put("import", new ImportCommand(module, tokenFeed));
+			commandMap.put("thm", new TheoremCommand(module, tokenFeed));
+		} else {
+			// interface module only commands
+			commandMap.put("kind", new KindCommand(module, tokenFeed));
+			commandMap.put("param", new ParameterCommand(module, tokenFeed));
+			commandMap.put("stmt", new StatementCommand(module, tokenFeed));
+			commandMap.put("term", new TermCommand(module, tokenFeed));
+		}
+		return commandMap;
+	}
+
+	/**
+	 * Processes the leading <code>import</code> commands of the specified
+	 * proof module.
+	 * Each import prefix is looked up in the specified prelude cache, and
+	 * only imports missing from the cache are actually carried out. The
+	 * module is then forked from the prelude of all leading imports.
+	 *
+	 * @param module empty proof module.
+	 * @param tokenFeed token feed.
+	 * @param preludes prelude cache.
+	 * @param token first token of the feed.
+	 *
+	 * @return first token after the leading imports, or <code>null</code>
+	 * 	if the feed is exhausted.
+	 *
+	 * @throws CommandException if an import fails.
+	 * @throws ScannerException if a feed error occurs.
+	 */
+	private static Token processPrelude(final Module module, final TokenFeed tokenFeed, final PreludeCache preludes,
+			Token token) throws CommandException, ScannerException {
+		final DataFactory dataFactory = DataFactory.getInstance();
+		// obtained first, so that preludes built from modules loaded before a clear are dropped
+		final long generation = preludes.getGeneration();
+		String key = "";
+		Module current = null;
+		while ((token != null) && "import".equals(token.getTokenString())) {
+			tokenFeed.confirmKeyword();
+			tokenFeed.beginExp();
+			tokenFeed.confirmBeginExp();
+			Parameter parameter = null;
+			try {
+				parameter = dataFactory.createParameter((current == null) ? module : current, tokenFeed);
+			} catch (DataException e) {
+				throw new CommandException("Unable create new parameter for module " + module, e);
+			}
+			try {
+				key = PreludeCache.key(key, parameter,
+						Storage.getInstance().resolveRevision(parameter.getLocator(), parameter.getRevision()));
+			} catch (StorageException e) {
+				throw new CommandException("Unable to resolve revision of parameter " + parameter, e);
+			}
+			Module next = preludes.get(key);
+			if (next == null) {
+				next = (current == null) ? dataFactory.createModule("") : current.fork();
+				try {
+					dataFactory.createParameterLoader(parameter, next).importParameter();
+				} catch (DataException e) {
+					throw new CommandException("Unable to import parameter " + parameter, e);
+				}
+				preludes.put(key, next, generation);
+			}
+			tokenFeed.endExp();
+			tokenFeed.confirmEndCmd();
+			current = next;
+			token = tokenFeed.getToken();
+		}
+		if (current != null) {
+			try {
+				module.forkFrom(current);
+			} catch (DataException e) {
+				throw new CommandException("Unable to fork module from prelude", e);
+			}
+		}
+		return token;
+	}
+
 }
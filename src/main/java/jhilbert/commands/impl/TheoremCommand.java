@@ -44,6 +44,7 @@ import jhilbert.expressions.ExpressionFactory;
 import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.Token;
 import jhilbert.scanners.TokenFeed;
+import jhilbert.utils.Profiler;
 import jhilbert.verifier.Verifier;
 import jhilbert.verifier.VerifierFactory;
 import jhilbert.verifier.VerifyException;
@@ -77,11 +78,15 @@ final class TheoremCommand extends AbstractCommand {
 		final TokenFeed feed = getFeed();
 		final DataFactory dataFactory = DataFactory.getInstance();
 		final ExpressionFactory expressionFactory = ExpressionFactory.getInstance();
+		final Profiler profiler = Profiler.current();
+		boolean verified = false;
 		try {
 			feed.beginExp();
 			feed.confirmBeginExp();
 			final String name = feed.getAtom();
 			feed.confirmStatement();
+			if (profiler != null)
+				profiler.beginTheorem(name);
 			final DVConstraints dvConstraints = dataFactory.createDVConstraints(symbolNamespace, feed);
 			feed.beginExp();
 			feed.confirmBeginExp();
@@ -109,6 +114,7 @@ final class TheoremCommand extends AbstractCommand {
 			final Expression consequent = expressionFactory.createExpression(module, feed);
 			final Verifier verifier = VerifierFactory.getInstance().createVerifier(module, feed);
 			verifier.verify(dvConstraints, hypotheses, consequent);
+			verified = true;
 			final List<Expression> hypList = new ArrayList(hypotheses.size());
 			for (final Map.Entry<String, Expression> entry: hypotheses.entrySet())
 				hypList.add(entry.getValue());
@@ -133,6 +139,9 @@ final class TheoremCommand extends AbstractCommand {
 				// ignore
 			}
 			throw new CommandException("Unable to create statement", e);
+		} finally {
+			if (profiler != null)
+				profiler.endTheorem(verified);
 		}
 	}
 
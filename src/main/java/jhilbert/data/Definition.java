@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Set;
 
 import jhilbert.expressions.Expression;
+import jhilbert.expressions.Template;
 
 /**
  * A <code>Definition</code>.
@@ -93,4 +94,31 @@ public interface Definition extends Functor {
 	 */
 	public Expression unfold(List<Expression> exprList);
 
+	/**
+	 * Returns the totally unfolded definiens of this
+	 * <code>Definition</code> as a {@link Template} over the arguments.
+	 * Instantiating the template is equivalent to unfolding this
+	 * definition and all definitions in the resulting definiens.
+	 *
+	 * @return unfolded definiens template.
+	 *
+	 * @see #getArguments
+	 */
+	public Template getUnfoldedTemplate();
+
+	/**
+	 * Calculates the {@link DVConstraints} of this
+	 * <code>Definition</code> applied to the specified list of
+	 * {@link Expression}s. The specified list of expressions must match
+	 * size and kinds of the arguments.
+	 *
+	 * @param exprList list of expressions.
+	 *
+	 * @return applicable DV constraints.
+	 *
+	 * @throws ConstraintException if the DV constraints cannot be met
+	 * 	ever.
+	 */
+	public DVConstraints dvConstraints(List<Expression> exprList) throws ConstraintException;
+
 }
@@ -110,4 +110,29 @@ public interface Module extends Serializable {
 
 	public boolean isProofModule();
 
+	/**
+	 * Forks this module.
+	 * The fork starts out with all parameters and names of this module and
+	 * shares them rather than copying them. This module becomes a frozen
+	 * snapshot, which can no longer be modified, but may be forked any
+	 * number of times, also concurrently. Forks can be modified
+	 * independently of each other. Identifications of names of this module
+	 * made by a fork are kept by the fork.
+	 *
+	 * @return the fork.
+	 */
+	public Module fork();
+
+	/**
+	 * Makes this module a fork of the specified module, see
+	 * {@link #fork}. This allows a module to continue from a snapshot
+	 * after it has been handed out already.
+	 *
+	 * @param module module to fork from.
+	 *
+	 * @throws DataException if this module already has parameters or
+	 * 	names.
+	 */
+	public void forkFrom(Module module) throws DataException;
+
 }
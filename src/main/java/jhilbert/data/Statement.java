@@ -27,6 +27,7 @@ package jhilbert.data;
 import java.util.List;
 
 import jhilbert.expressions.Expression;
+import jhilbert.expressions.StatementMatcher;
 
 /**
  * A statement.
@@ -57,4 +58,12 @@ public interface Statement extends Symbol {
 	 */
 	public List<Variable> getMandatoryVariables();
 
+	/**
+	 * Returns the {@link StatementMatcher} for applying this statement.
+	 * The matcher is compiled on first use.
+	 *
+	 * @return statement matcher.
+	 */
+	public StatementMatcher getMatcher();
+
 }
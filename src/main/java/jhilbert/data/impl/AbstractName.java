@@ -49,12 +49,19 @@ abstract class AbstractName implements Name, Serializable {
 	 */
 	private final int parameterIndex;
 
+	/**
+	 * Index of this name in its namespace, or <code>-1</code> if this
+	 * name has not been registered.
+	 */
+	private int namespaceIndex;
+
 	/**
 	 * Default constructor, for serialisation use only!
 	 */
 	public AbstractName() {
 		name = null;
 		parameterIndex = -1;
+		namespaceIndex = -1;
 	}
 
 	/**
@@ -78,6 +85,7 @@ abstract class AbstractName implements Name, Serializable {
 		assert (parameterIndex >= -1): "Invalid parameter index";
 		this.name = name;
 		this.parameterIndex = parameterIndex;
+		namespaceIndex = -1;
 	}
 
 	public String getNameString() {
@@ -105,17 +113,27 @@ abstract class AbstractName implements Name, Serializable {
 	 * Strictly speaking, this method intentionally violates the
 	 * {@link Object#equals}/{@link Object.hashMap} contract. See the
 	 * package description for details.
+	 * <p>
+	 * Since a name is registered with a namespace if and only if its
+	 * namespace is set, this method compares namespaces directly rather
+	 * than looking the names up in the namespace registry. Names of a
+	 * namespace and of a fork of it are compared by the fork. Two names of
+	 * the same namespace are compared by that namespace, so identifications
+	 * made by a fork are only seen through the fork, see
+	 * {@link Namespace#checkEquality}.
 	 *
 	 * @param o object to compare this name with.
 	 */
 	public @Override boolean equals(final Object o) {
 		if (this == o)
 			return true;
-		try {
-			return getNamespace().checkEquality(this, (Name) o);
-		} catch (Exception e) {
+		if (!(o instanceof AbstractName))
 			return false;
-		}
+		final NamespaceImpl<?> namespace = NamespaceImpl.common((NamespaceImpl<?>) getNamespace(),
+			(NamespaceImpl<?>) ((AbstractName) o).getNamespace());
+		if (namespace == null)
+			return false;
+		return namespace.identified(this, (AbstractName) o);
 	}
 
 	/**
@@ -126,6 +144,29 @@ abstract class AbstractName implements Name, Serializable {
 	 */
 	abstract void setNamespace(NamespaceImpl<? extends AbstractName> namespace);
 
+	/**
+	 * Obtains the index of this <code>AbstractName</code> in its
+	 * namespace.
+	 *
+	 * @return namespace index, or <code>-1</code> if this name has not
+	 * 	been registered.
+	 */
+	final int getNamespaceIndex() {
+		return namespaceIndex;
+	}
+
+	/**
+	 * Sets the index of this <code>AbstractName</code> in its namespace.
+	 * This should be called by a <code>NamespaceImpl</code>.
+	 *
+	 * @param namespaceIndex namespace index.
+	 */
+	final void setNamespaceIndex(final int namespaceIndex) {
+		assert (namespaceIndex >= 0): "Invalid namespace index";
+		assert (this.namespaceIndex == -1): "Attempt to alter namespace index";
+		this.namespaceIndex = namespaceIndex;
+	}
+
 	public @Override String toString() {
 		return getNameString();
 	}
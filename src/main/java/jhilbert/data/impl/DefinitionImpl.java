@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
 import jhilbert.data.DataException;
 import jhilbert.data.Definition;
@@ -44,6 +45,9 @@ import jhilbert.data.Variable;
 import jhilbert.expressions.Anonymiser;
 import jhilbert.expressions.Expression;
 import jhilbert.expressions.ExpressionFactory;
+import jhilbert.expressions.Template;
+import jhilbert.utils.Budget;
+import jhilbert.utils.Profiler;
 
 import org.apache.log4j.Logger;
 
@@ -92,6 +96,21 @@ final class DefinitionImpl extends AbstractFunctor implements Definition, Serial
 	 */
 	private final int definitionDepth;
 
+	/**
+	 * Definiens template, compiled on first use.
+	 */
+	private transient volatile Template template;
+
+	/**
+	 * Unfolded definiens template, compiled on first use.
+	 */
+	private transient volatile Template unfoldedTemplate;
+
+	/**
+	 * DV constraint skeleton, compiled on first use.
+	 */
+	private transient volatile DVSkeleton dvSkeleton;
+
 	/**
 	 * Default constructor, for serialisation use only!
 	 */
@@ -206,15 +225,35 @@ final class DefinitionImpl extends AbstractFunctor implements Definition, Serial
 	public Expression unfold(final List<Expression> exprList) {
 		assert (exprList != null): "Supplied expression list is null";
 		assert (exprList.size() == arguments.size()): "Wrong number of arguments while unfolding";
-		final Map<Variable, Expression> substMap = new HashMap();
-		int i = 0;
-		for (final Variable arg: arguments) {
-			final Expression expr = exprList.get(i);
-			assert (arg.getKind().equals(expr.getKind())): "Kind mismatch while unfolding";
-			substMap.put(arg, expr);
-			++i;
+		Profiler.countUnfold();
+		Budget.checkpoint();
+		Template result = template;
+		if (result == null) {
+			// a race merely compiles the template twice
+			result = ExpressionFactory.getInstance().createTemplate(new ArrayList(arguments), definiens);
+			template = result;
 		}
-		return ExpressionFactory.getInstance().createSubstituter(substMap).substitute(definiens);
+		return result.instantiate(exprList);
+	}
+
+	public Template getUnfoldedTemplate() {
+		Template result = unfoldedTemplate;
+		if (result == null) {
+			result = ExpressionFactory.getInstance().createTemplate(new ArrayList(arguments), definiens.totalUnfold());
+			unfoldedTemplate = result;
+		}
+		return result;
+	}
+
+	public DVConstraints dvConstraints(final List<Expression> exprList) throws ConstraintException {
+		assert (exprList != null): "Supplied expression list is null";
+		assert (exprList.size() == arguments.size()): "Wrong number of arguments";
+		DVSkeleton skeleton = dvSkeleton;
+		if (skeleton == null) {
+			skeleton = new DVSkeleton();
+			dvSkeleton = skeleton;
+		}
+		return skeleton.apply(exprList);
 	}
 
 	public int definitionDepth() {
@@ -233,4 +272,103 @@ final class DefinitionImpl extends AbstractFunctor implements Definition, Serial
 		return dvConstraints;
 	}
 
+	/**
+	 * The DV constraints of this definition in terms of argument
+	 * positions.
+	 * <p>
+	 * The DV constraints of an application of a definition consist of the
+	 * DV constraints of those arguments which survive total unfolding,
+	 * and of the DV constraints of the definition with the arguments
+	 * substituted. Since the DV constraints of the definition already
+	 * include those of the definiens, the definiens need not be unfolded
+	 * for each application.
+	 */
+	private final class DVSkeleton {
+
+		/**
+		 * Indices of the arguments occurring in the totally unfolded
+		 * definiens.
+		 */
+		private final int[] used;
+
+		/**
+		 * Constrained variables, as pairs.
+		 */
+		private final Variable[] variables;
+
+		/**
+		 * Argument indices of {@link #variables}, or <code>-1</code> for
+		 * variables which are not arguments.
+		 */
+		private final int[] indices;
+
+		/**
+		 * Creates the skeleton of the enclosing definition.
+		 */
+		DVSkeleton() {
+			final Map<Variable, Integer> argumentIndices = new HashMap();
+			for (final Variable arg: arguments)
+				argumentIndices.put(arg, argumentIndices.size());
+			final Set<Variable> unfoldedVars = definiens.totalUnfold().variableSet();
+			final List<Integer> usedList = new ArrayList();
+			int i = 0;
+			for (final Variable arg: arguments) {
+				if (unfoldedVars.contains(arg))
+					usedList.add(i);
+				++i;
+			}
+			used = new int[usedList.size()];
+			for (i = 0; i != used.length; ++i)
+				used[i] = usedList.get(i);
+			final List<Variable> varList = new ArrayList();
+			for (final Variable[] dv: dvConstraints) {
+				assert (dv.length == 2): "Invalid DV length";
+				varList.add(dv[0]);
+				varList.add(dv[1]);
+			}
+			variables = varList.toArray(new Variable[varList.size()]);
+			indices = new int[variables.length];
+			for (i = 0; i != variables.length; ++i) {
+				final Integer index = argumentIndices.get(variables[i]);
+				indices[i] = (index == null) ? -1 : index;
+			}
+		}
+
+		/**
+		 * Calculates the DV constraints of the enclosing definition
+		 * applied to the specified list of expressions.
+		 *
+		 * @param exprList list of expressions.
+		 *
+		 * @return applicable DV constraints.
+		 *
+		 * @throws ConstraintException if the DV constraints cannot be
+		 * 	met ever.
+		 */
+		DVConstraints apply(final List<Expression> exprList) throws ConstraintException {
+			final DVConstraints result = new DVConstraintsImpl();
+			for (final int i: used)
+				result.add(exprList.get(i).dvConstraints());
+			for (int i = 0; i != variables.length; i += 2)
+				result.addProduct(variablesAt(i, exprList), variablesAt(i + 1, exprList));
+			return result;
+		}
+
+		/**
+		 * Obtains the variables substituted for the constrained variable
+		 * at the specified index.
+		 *
+		 * @param i index into {@link #variables}.
+		 * @param exprList list of expressions.
+		 *
+		 * @return set of variables.
+		 */
+		private Set<Variable> variablesAt(final int i, final List<Expression> exprList) {
+			if (indices[i] < 0)
+				return Collections.singleton(variables[i]);
+			return exprList.get(indices[i]).variableSet();
+		}
+
+	}
+
 }
@@ -75,17 +75,17 @@ final class ModuleImpl implements Module, Serializable {
 	/**
 	 * Kind namespace.
 	 */
-	private final NamespaceImpl<KindImpl> kindNamespace;
+	private NamespaceImpl<KindImpl> kindNamespace;
 
 	/**
 	 * Symbol namespace.
 	 */
-	private final NamespaceImpl<SymbolImpl> symbolNamespace;
+	private NamespaceImpl<SymbolImpl> symbolNamespace;
 
 	/**
 	 * Functor namespace.
 	 */
-	private final NamespaceImpl<AbstractFunctor> functorNamespace;
+	private NamespaceImpl<AbstractFunctor> functorNamespace;
 
 	/**
 	 * Default constructor, for serialisation only!
@@ -138,6 +138,34 @@ final class ModuleImpl implements Module, Serializable {
 		functorNamespace = new NamespaceImpl(this);
 	}
 
+	/**
+	 * Creates a new <code>ModuleImpl</code> as a fork of the specified
+	 * module.
+	 *
+	 * @param parent module to fork.
+	 */
+	private ModuleImpl(final ModuleImpl parent) {
+		name = parent.name;
+		revision = parent.revision;
+		parameterList = new ArrayList();
+		parameterLookupMap = new HashMap();
+		adopt(parent);
+	}
+
+	/**
+	 * Takes over the parameters and forks of the namespaces of the
+	 * specified module.
+	 *
+	 * @param parent module to fork.
+	 */
+	private void adopt(final ModuleImpl parent) {
+		parameterList.addAll(parent.parameterList);
+		parameterLookupMap.putAll(parent.parameterLookupMap);
+		kindNamespace = parent.kindNamespace.fork(this);
+		symbolNamespace = parent.symbolNamespace.fork(this);
+		functorNamespace = parent.functorNamespace.fork(this);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -161,6 +189,10 @@ final class ModuleImpl implements Module, Serializable {
 
 	public void addParameter(final Parameter parameter) throws DataException {
 		assert (parameter != null): "Supplied parameter is null";
+		if (kindNamespace.isFrozen()) {
+			logger.error("Attempt to add parameter " + parameter.getName() + " to module " + name + " after forking it");
+			throw new DataException("Module is frozen");
+		}
 		final String parameterName = parameter.getName();
 		if (parameterLookupMap.containsKey(parameterName)) {
 			logger.error("Parameter " + parameterName + " already exists");
@@ -188,4 +220,18 @@ final class ModuleImpl implements Module, Serializable {
 		return "".equals(name);
 	}
 
+	public ModuleImpl fork() {
+		return new ModuleImpl(this);
+	}
+
+	public void forkFrom(final Module module) throws DataException {
+		assert (module instanceof ModuleImpl): "Implementation type error";
+		if (!(parameterList.isEmpty() && kindNamespace.isEmpty() && symbolNamespace.isEmpty()
+				&& functorNamespace.isEmpty())) {
+			logger.error("Attempt to fork module " + module.getName() + " into non-empty module " + name);
+			throw new DataException("Module is not empty");
+		}
+		adopt((ModuleImpl) module);
+	}
+
 }
@@ -25,9 +25,12 @@
 package jhilbert.data.impl;
 
 import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -41,6 +44,15 @@ import org.apache.log4j.Logger;
 
 /**
  * {@link Namespace} implementation.
+ * <p>
+ * A namespace may be forked, see {@link #fork}. The fork starts out with
+ * all objects, aliases and identifications of its parent, but only stores
+ * what is added to it, so that forking costs next to nothing. A forked
+ * namespace is frozen, hence may be shared by any number of forks.
+ * Objects registered with a fork continue the namespace indices of the
+ * parent. Identifications of two objects of the parent are kept as links
+ * between the roots of the parent in the fork, so that the parent is left
+ * untouched.
  *
  * @param E type of stored names.
  */
@@ -61,6 +73,24 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 	 */
 	private final ModuleImpl module;
 
+	/**
+	 * Namespace this namespace has been forked from, or <code>null</code>.
+	 */
+	private final NamespaceImpl<E> parent;
+
+	/**
+	 * Number of objects of the parent, including the objects of its own
+	 * parent, hence namespace index of the first object registered with
+	 * this namespace.
+	 */
+	private final int base;
+
+	/**
+	 * Whether this namespace has been forked and hence may no longer be
+	 * modified.
+	 */
+	private volatile boolean frozen;
+
 	/**
 	 * Object registry.
 	 * This map must be one-to-one.
@@ -73,18 +103,47 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 	private final Map<String, E> aliases;
 
 	/**
-	 * Identified objects structure.
+	 * Union-find forest of identified objects, indexed by the namespace
+	 * index of the objects minus {@link #base}. Each entry holds the index
+	 * of the parent, roots are their own parents.
+	 * Path compression only ever replaces a parent with one of its
+	 * ancestors, so concurrent equality checks on a namespace which is no
+	 * longer being modified are safe.
+	 */
+	private int[] parents;
+
+	/**
+	 * Number of objects in each tree of {@link #parents}.
+	 * Only the entries of roots are meaningful.
 	 */
-	private final Map<String, Set<E>> idObjects;
+	private int[] treeSizes;
+
+	/**
+	 * Links between roots of the parent made by identifications in this
+	 * namespace, from the namespace index of the linked root to the
+	 * namespace index of its new parent.
+	 */
+	private final Map<Integer, Integer> links;
+
+	/**
+	 * Number of identifications which merged two equivalence classes.
+	 */
+	private int identifications;
 
 	/**
 	 * Default constructor, for serialisation use only!
 	 */
 	public NamespaceImpl() {
 		module = null;
+		parent = null;
+		base = 0;
+		frozen = false;
 		registry = null;
 		aliases = null;
-		idObjects = null;
+		parents = null;
+		treeSizes = null;
+		links = null;
+		identifications = 0;
 	}
 
 	/**
@@ -95,10 +154,148 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 	 * 	to.
 	 */
 	NamespaceImpl(final ModuleImpl module) {
+		this(module, null);
+	}
+
+	/**
+	 * Creates a new <code>NamespaceImpl</code> belonging to the specified
+	 * {@link ModuleImpl}, forked from the specified parent.
+	 *
+	 * @param module {@link Module} this <code>NamespaceImpl</code> belongs
+	 * 	to.
+	 * @param parent namespace to fork from, or <code>null</code>.
+	 */
+	private NamespaceImpl(final ModuleImpl module, final NamespaceImpl<E> parent) {
 		this.module = module;
+		this.parent = parent;
+		base = (parent == null) ? 0 : (parent.base + parent.registry.size());
+		frozen = false;
 		registry = new LinkedHashMap();
 		aliases = new HashMap();
-		idObjects = new HashMap();
+		parents = new int[16];
+		treeSizes = new int[16];
+		links = new HashMap();
+		identifications = (parent == null) ? 0 : parent.identifications;
+	}
+
+	/**
+	 * Forks this namespace for the specified module.
+	 * This namespace is frozen afterwards.
+	 *
+	 * @param module module of the fork.
+	 *
+	 * @return the fork.
+	 */
+	NamespaceImpl<E> fork(final ModuleImpl module) {
+		assert (module != null): "Supplied module is null";
+		frozen = true;
+		return new NamespaceImpl(module, this);
+	}
+
+	/**
+	 * Checks whether this namespace has been forked.
+	 *
+	 * @return <code>true</code> if this namespace is frozen,
+	 * 	<code>false</code> otherwise.
+	 */
+	boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Checks whether this namespace is empty.
+	 *
+	 * @return <code>true</code> if neither objects nor aliases have been
+	 * 	registered with this namespace or its ancestors,
+	 * 	<code>false</code> otherwise.
+	 */
+	boolean isEmpty() {
+		return (base == 0) && registry.isEmpty() && aliases.isEmpty();
+	}
+
+	/**
+	 * Throws an exception if this namespace has been forked.
+	 *
+	 * @throws DataException if this namespace is frozen.
+	 */
+	private void checkModifiable() throws DataException {
+		if (frozen) {
+			logger.error("Attempt to modify a namespace of module " + module.getName() + " after forking it");
+			throw new DataException("Namespace is frozen");
+		}
+	}
+
+	/**
+	 * Checks whether the specified namespace is this namespace or one of
+	 * its ancestors.
+	 *
+	 * @param namespace namespace.
+	 *
+	 * @return <code>true</code> if the objects of the specified namespace
+	 * 	belong to this namespace, <code>false</code> otherwise.
+	 */
+	private boolean inherits(final NamespaceImpl<?> namespace) {
+		for (NamespaceImpl<?> ancestor = this; ancestor != null; ancestor = ancestor.parent)
+			if (ancestor == namespace)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Obtains the namespace deciding the equality of objects registered
+	 * with the specified namespaces. This is the younger namespace if one
+	 * of them has been forked from the other.
+	 *
+	 * @param namespace1 first namespace.
+	 * @param namespace2 second namespace.
+	 *
+	 * @return the younger namespace, or <code>null</code> if the objects of
+	 * 	the namespaces are never equal.
+	 */
+	static NamespaceImpl<?> common(final NamespaceImpl<?> namespace1, final NamespaceImpl<?> namespace2) {
+		if (namespace1 == namespace2)
+			return namespace1;
+		if ((namespace1 == null) || (namespace2 == null))
+			return null;
+		if (namespace1.inherits(namespace2))
+			return namespace1;
+		if (namespace2.inherits(namespace1))
+			return namespace2;
+		return null;
+	}
+
+	/**
+	 * Obtains the object registered under the specified name with this
+	 * namespace or one of its ancestors.
+	 *
+	 * @param name name string.
+	 *
+	 * @return the registered object, or <code>null</code> if there is none.
+	 */
+	private E registered(final String name) {
+		for (NamespaceImpl<E> namespace = this; namespace != null; namespace = namespace.parent) {
+			final E result = namespace.registry.get(name);
+			if (result != null)
+				return result;
+		}
+		return null;
+	}
+
+	/**
+	 * Obtains the object aliased by the specified name in this namespace
+	 * or one of its ancestors.
+	 *
+	 * @param name alias.
+	 *
+	 * @return the aliased object, or <code>null</code> if there is none.
+	 */
+	private E aliased(final String name) {
+		for (NamespaceImpl<E> namespace = this; namespace != null; namespace = namespace.parent) {
+			final E result = namespace.aliases.get(name);
+			if (result != null)
+				return result;
+		}
+		return null;
 	}
 
 	public ModuleImpl getModule() {
@@ -114,21 +311,35 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 			throw new AssertionError("Type covariance error");
 		}
 		assert (obj.getNamespace() == null): "Supplied object is already registered with a different namespace";
+		checkModifiable();
 		final String name = obj.getNameString();
-		if (registry.containsKey(name)) {
+		final E previous = registered(name);
+		if (previous != null) {
 			logger.error("Name " + name + " already registered in this namespace");
-			logger.debug("Previously registered object: " + registry.get(name));
+			logger.debug("Previously registered object: " + previous);
 			throw new DataException("Name " + name + " already registered");
 		}
+		final int index = registry.size();
+		if (index == parents.length) {
+			final int[] newParents = new int[2 * index];
+			final int[] newTreeSizes = new int[2 * index];
+			System.arraycopy(parents, 0, newParents, 0, index);
+			System.arraycopy(treeSizes, 0, newTreeSizes, 0, index);
+			parents = newParents;
+			treeSizes = newTreeSizes;
+		}
+		parents[index] = base + index;
+		treeSizes[index] = 1;
 		registry.put(name, obj);
 		obj.setNamespace(this);
+		obj.setNamespaceIndex(base + index);
 	}
 
 	public E getObjectByString(final String name) {
 		assert (name != null): "Supplied name is null";
-		final E result = registry.get(name);
+		final E result = registered(name);
 		if (result == null)
-			return aliases.get(name);
+			return aliased(name);
 		return result;
 	}
 
@@ -139,9 +350,9 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 		final String name2 = obj2.getNameString();
 		boolean obj1registered = false;
 		boolean obj2registered = false;
-		if (registry.containsKey(name1) && (registry.get(name1) == obj1))
+		if (registered(name1) == obj1)
 			obj1registered = true;
-		if (registry.containsKey(name2) && (registry.get(name2) == obj2))
+		if (registered(name2) == obj2)
 			obj2registered = true;
 		// both not registered: exception
 		if (!(obj1registered || obj2registered)) {
@@ -154,11 +365,62 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 		if (!(obj1registered && obj2registered))
 			return false;
 		// both registered: perfom equality check
+		return identified((AbstractName) obj1, (AbstractName) obj2);
+	}
+
+	/**
+	 * Checks whether the specified objects, both registered with this
+	 * <code>NamespaceImpl</code> or one of its ancestors, are the same or
+	 * have been identified.
+	 * Unlike {@link #checkEquality}, this method does not check the
+	 * registration.
+	 *
+	 * @param obj1 first object.
+	 * @param obj2 second object.
+	 *
+	 * @return <code>true</code> if the objects are equal,
+	 * 	<code>false</code> otherwise.
+	 */
+	boolean identified(final AbstractName obj1, final AbstractName obj2) {
+		assert (inherits((NamespaceImpl<?>) obj1.getNamespace())): "First supplied object not registered";
+		assert (inherits((NamespaceImpl<?>) obj2.getNamespace())): "Second supplied object not registered";
 		if (obj1 == obj2)
 			return true;
-		if (!idObjects.containsKey(name1))
+		if (identifications == 0)
 			return false;
-		return idObjects.get(name1).contains(obj2);
+		return find(obj1.getNamespaceIndex()) == find(obj2.getNamespaceIndex());
+	}
+
+	/**
+	 * Finds the root of the equivalence class of the object with the
+	 * specified namespace index, halving the path on the way.
+	 * Objects of the parent are looked up in the parent, then the links of
+	 * this namespace are followed.
+	 *
+	 * @param index namespace index.
+	 *
+	 * @return namespace index of the root.
+	 */
+	private int find(int index) {
+		for (;;) {
+			while (index >= base) {
+				final int up = parents[index - base];
+				if (up == index)
+					return index;
+				if (up < base) {
+					index = up;
+					break;
+				}
+				final int grandparent = parents[up - base];
+				parents[index - base] = grandparent;
+				index = grandparent;
+			}
+			index = parent.find(index);
+			final Integer link = links.get(index);
+			if (link == null)
+				return index;
+			index = link;
+		}
 	}
 
 	public void createAlias(final Name o, final String name) throws DataException {
@@ -170,17 +432,18 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 		} catch (ClassCastException e) {
 			throw new AssertionError("Type covariance error");
 		}
+		checkModifiable();
 		final String oldname = obj.getNameString();
-		if (!(registry.containsKey(oldname) && (registry.get(oldname) == obj))) {
+		if (registered(oldname) != obj) {
 			logger.error("Object " + obj + " not registered");
 			throw new DataException("Object not registered");
 		}
-		if (registry.containsKey(name)) {
-			logger.error("Name " + name + " has already been registered for object " + registry.get(name));
+		if (registered(name) != null) {
+			logger.error("Name " + name + " has already been registered for object " + registered(name));
 			throw new DataException("Name has already been registered");
 		}
-		if (aliases.containsKey(name)) {
-			logger.error("Name " + name + " is already an alias for object " + aliases.get(name));
+		if (aliased(name) != null) {
+			logger.error("Name " + name + " is already an alias for object " + aliased(name));
 			throw new DataException("Alias already exists");
 		}
 		aliases.put(name, obj);
@@ -197,49 +460,101 @@ final class NamespaceImpl<E extends AbstractName> implements Namespace<E>, Seria
 		} catch (ClassCastException e) {
 			throw new AssertionError("Type covariance error");
 		}
+		checkModifiable();
 		final String name1 = obj1.getNameString();
-		if (idObjects.containsKey(name1))
-			if (idObjects.get(name1).contains(obj2))
-				return;
 		final String name2 = obj2.getNameString();
-		if (!(registry.containsKey(name1) && (registry.get(name1) == obj1))) {
+		if (registered(name1) != obj1) {
 			logger.error("Object " + obj1 + " not registered");
 			throw new DataException("Object not registered");
 		}
 		if (obj1 == obj2)
 			return;
-		if (!(registry.containsKey(name2) && (registry.get(name2) == obj2))) {
+		if (registered(name2) != obj2) {
 			logger.error("Object " + obj2 + " not registered");
 			throw new DataException("Object not registered");
 		}
-		// identify & build closure
-		Set<E> idSet1 = idObjects.get(name1);
-		if (idSet1 == null)
-			idSet1 = Collections.singleton(obj1);
-		Set<E> idSet2 = idObjects.get(name2);
-		if (idSet2 == null)
-			idSet2 = Collections.singleton(obj2);
-		final Set<E> unionSet = new IdentityHashSet(idSet1);
-		unionSet.addAll(idSet2);
-		for (final Map.Entry<String, Set<E>> entry: idObjects.entrySet()) {
-			final Set<E> value = entry.getValue();
-			if ((value == idSet1) || (value == idSet2))
-				entry.setValue(unionSet);
+		int root1 = find(obj1.getNamespaceIndex());
+		int root2 = find(obj2.getNamespaceIndex());
+		if (root1 == root2)
+			return;
+		if ((root1 < base) && (root2 < base)) {
+			// the parent must remain untouched
+			links.put(root2, root1);
+			++identifications;
+			return;
 		}
-		idObjects.put(name1, unionSet);
-		idObjects.put(name2, unionSet);
+		if (root2 < base) {
+			// roots of the parent must remain roots
+			final int swap = root1;
+			root1 = root2;
+			root2 = swap;
+		} else if ((root1 >= base) && (treeSizes[root1 - base] < treeSizes[root2 - base])) {
+			// union by size
+			final int swap = root1;
+			root1 = root2;
+			root2 = swap;
+		}
+		parents[root2 - base] = root1;
+		if (root1 >= base)
+			treeSizes[root1 - base] += treeSizes[root2 - base];
+		++identifications;
 	}
 
 	public Collection<E> objects() {
-		return Collections.unmodifiableCollection(registry.values()); // NB: registry is one-to-one
+		if (parent == null)
+			return Collections.unmodifiableCollection(registry.values()); // NB: registry is one-to-one
+		final Collection<E> inherited = parent.objects();
+		final Collection<E> own = registry.values();
+		return new AbstractCollection<E>() {
+			public @Override Iterator<E> iterator() {
+				final Iterator<E> inheritedIterator = inherited.iterator();
+				final Iterator<E> ownIterator = own.iterator();
+				return new Iterator<E>() {
+					public boolean hasNext() {
+						return inheritedIterator.hasNext() || ownIterator.hasNext();
+					}
+					public E next() {
+						return inheritedIterator.hasNext() ? inheritedIterator.next() : ownIterator.next();
+					}
+					public void remove() {
+						throw new UnsupportedOperationException("Namespace objects cannot be removed");
+					}
+				};
+			}
+			public @Override int size() {
+				return base + own.size();
+			}
+		};
 	}
 
 	public Map<String, E> aliases() {
-		return Collections.unmodifiableMap(aliases);
+		if (parent == null)
+			return Collections.unmodifiableMap(aliases);
+		if (aliases.isEmpty())
+			return parent.aliases();
+		final Map<String, E> result = new HashMap(parent.aliases());
+		result.putAll(aliases);
+		return Collections.unmodifiableMap(result);
 	}
 
 	public Collection<Set<E>> equivalenceClasses() {
-		return Collections.unmodifiableSet(new IdentityHashSet(idObjects.values()));
+		if (identifications == 0)
+			return Collections.emptySet();
+		final Map<Integer, Set<E>> classes = new LinkedHashMap();
+		for (final E obj: objects()) {
+			final int root = find(obj.getNamespaceIndex());
+			Set<E> equivalenceClass = classes.get(root);
+			if (equivalenceClass == null) {
+				equivalenceClass = new IdentityHashSet();
+				classes.put(root, equivalenceClass);
+			}
+			equivalenceClass.add(obj);
+		}
+		final Collection<Set<E>> result = new ArrayList(classes.size());
+		for (final Set<E> equivalenceClass: classes.values())
+			if (equivalenceClass.size() > 1)
+				result.add(Collections.unmodifiableSet(equivalenceClass));
+		return Collections.unmodifiableCollection(result);
 	}
 
 }
@@ -252,12 +252,12 @@ final class ParameterLoaderImpl implements ParameterLoader {
 				kindHere.getOriginalName(), kindHere.getParameterIndex(), kindNamespace);
 			kindNamespace.identify(newKind, kindHere);
 		}
-		// create additional equivalence classes
-		for (final Set<? extends Kind> equivalenceClass: parameterKindNamespace.equivalenceClasses())
+		// create additional equivalence classes (identification is transitive)
+		for (final Set<? extends Kind> equivalenceClass: parameterKindNamespace.equivalenceClasses()) {
+			final Kind first = kindMap.get(equivalenceClass.iterator().next());
 			for (final Kind i: equivalenceClass)
-				for (final Kind j: equivalenceClass)
-					kindNamespace.identify(kindMap.get(i), kindMap.get(j));
-					// FIXME: This becomes inefficient quickly if kindbind is used heavily
+				kindNamespace.identify(first, kindMap.get(i));
+		}
 	}
 
 	private void loadFunctors() throws DataException {
@@ -284,7 +284,7 @@ final class ParameterLoaderImpl implements ParameterLoader {
 		for (final Map.Entry<String, ? extends Kind> aliasEntry: parameterKindNamespace.aliases().entrySet()) {
 			final Kind kind1 = kindMap.get(aliasEntry.getValue());
 			final Kind kind2 = kindNamespace.getObjectByString(prefix + aliasEntry.getKey());
-			if (!kind1.equals(kind2)) {
+			if (!sameKind(kind1, kind2)) {
 				logger.error("Kind export error: two aliased kinds in interface are inequivalent in "
 					+ "proof module");
 				logger.debug("Kind mapping:  " + aliasEntry.getValue() + " -> " + kind1);
@@ -293,16 +293,17 @@ final class ParameterLoaderImpl implements ParameterLoader {
 			}
 		}
 		// check equivalence classes
-		for (final Set<? extends Kind> equivalenceClass: parameterKindNamespace.equivalenceClasses())
-			for (final Kind i: equivalenceClass)
-				for (final Kind j: equivalenceClass)
-					if (!kindMap.get(i).equals(kindMap.get(j))) {
-						logger.error("Kind export error: two equivalent kinds in interface "
-							+ "are inequivalent in proof module");
-						logger.debug("First kind mapping:  " + i + " -> " + kindMap.get(i));
-						logger.debug("Second kind mapping: " + j + " -> " + kindMap.get(j));
-						throw new DataException("Export kind equivalence class error");
-					}
+		for (final Set<? extends Kind> equivalenceClass: parameterKindNamespace.equivalenceClasses()) {
+			final Kind i = equivalenceClass.iterator().next();
+			for (final Kind j: equivalenceClass)
+				if (!sameKind(kindMap.get(i), kindMap.get(j))) {
+					logger.error("Kind export error: two equivalent kinds in interface "
+						+ "are inequivalent in proof module");
+					logger.debug("First kind mapping:  " + i + " -> " + kindMap.get(i));
+					logger.debug("Second kind mapping: " + j + " -> " + kindMap.get(j));
+					throw new DataException("Export kind equivalence class error");
+				}
+		}
 	}
 
 	private void exportFunctors() throws DataException {
@@ -371,25 +372,12 @@ final class ParameterLoaderImpl implements ParameterLoader {
 	private boolean loadAsNewStatement(final Statement parameterStatement) throws DataException {
 		if (!(parameterStatement.getOriginalName() == null)) // not new (should not happen)
 			return false;
-		try {
-			// translate DV constraints
-			final DVConstraints dvConstraints = dataFactory.createDVConstraints();
-			for (final Variable[] constraint: parameterStatement.getDVConstraints())
-				dvConstraints.add(translator.translate(constraint[0]), translator.translate(constraint[1]));
-			// translate hypotheses
-			final List<Expression> parameterHypotheses = parameterStatement.getHypotheses();
-			final List<Expression> hypotheses = new ArrayList(parameterHypotheses.size());
-			for (final Expression parameterHypothesis: parameterHypotheses)
-				hypotheses.add(translator.translate(parameterHypothesis));
-			statementMap.put(parameterStatement,
-				dataFactory.createStatement(prefix + parameterStatement.getNameString(),
-				parameterStatement, parameterIndex, dvConstraints, hypotheses,
-				translator.translate(parameterStatement.getConsequent()), symbolNamespace));
-			return true;
-		} catch (ExpressionException e) {
-			logger.error("Unable to translate variable or expression", e);
-			throw new DataException("Unable to translate variable or expression", e);
-		}
+		// A translated statement matches its original by construction,
+		// so it is not added to the statement map. It is translated on
+		// first use only.
+		symbolNamespace.registerObject(new StatementImpl(prefix + parameterStatement.getNameString(),
+			(StatementImpl) parameterStatement, parameterIndex, translator));
+		return true;
 	}
 
 	private <T extends Name> boolean mapNewName(final T name, final Map<T, T> nameMap, final Namespace<?> namespace)
@@ -438,12 +426,35 @@ final class ParameterLoaderImpl implements ParameterLoader {
 		}
 	}
 
+	/**
+	 * Checks whether the specified kinds are equal in the module.
+	 * Unlike {@link Kind#equals}, this also sees identifications of kinds
+	 * of a prelude made by the module, see {@link Module#fork}.
+	 *
+	 * @param kind1 first kind.
+	 * @param kind2 second kind, may be <code>null</code>.
+	 *
+	 * @return <code>true</code> if the kinds are equal,
+	 * 	<code>false</code> otherwise.
+	 *
+	 * @throws DataException if neither kind is registered with the
+	 * 	module.
+	 */
+	private boolean sameKind(final Kind kind1, final Kind kind2) throws DataException {
+		if (kind1.equals(kind2))
+			return true;
+		return (kind2 != null) && kindNamespace.checkEquality(kind1, kind2);
+	}
+
 	private void checkFunctorMap() throws DataException {
 		for (final Map.Entry<Functor, Functor> functorEntry: functorMap.entrySet()) {
 			final Functor parameterFunctor = functorEntry.getKey();
 			final Functor functor = functorEntry.getValue();
+			// a functor translated by this loader matches its original by construction
+			if (functor.getOriginalName() == parameterFunctor)
+				continue;
 			// check result kind
-			if (!kindMap.get(parameterFunctor.getKind()).equals(functor.getKind())) {
+			if (!sameKind(kindMap.get(parameterFunctor.getKind()), functor.getKind())) {
 				logger.error("Kind mismatch in functor " + functor);
 				logger.debug("Expected kind: " + kindMap.get(parameterFunctor.getKind()));
 				logger.debug("Actual kind:   " + functor.getKind());
@@ -460,7 +471,7 @@ final class ParameterLoaderImpl implements ParameterLoader {
 				throw new DataException("Place count mismatch in functor");
 			}
 			for (int i = 0; i != size; ++i)
-				if (!kindMap.get(parameterInputKinds.get(i)).equals(inputKinds.get(i))) {
+				if (!sameKind(kindMap.get(parameterInputKinds.get(i)), inputKinds.get(i))) {
 					logger.error("Input kind mismatch in functor " + functor);
 					logger.debug("Index:         " + (i+1));
 					logger.debug("Expected kind: " + kindMap.get(parameterInputKinds.get(i)));
@@ -497,8 +508,8 @@ final class ParameterLoaderImpl implements ParameterLoader {
 				for (final Variable[] pva: parameterExpression.dvConstraints()) {
 					assert (pva.length == 2): "Invalid DV constraint size";
 					parameterDVConstraints.addProduct(assignments.get(translator.translate(pva[0]))
-							.variables(), assignments.get(translator.translate(pva[1]))
-							.variables());
+							.variableSet(), assignments.get(translator.translate(pva[1]))
+							.variableSet());
 				}
 				if (!expression.dvConstraints().contains(parameterDVConstraints)) {
 					logger.error("Attempt to satisfy definition with insufficient DV constraints");
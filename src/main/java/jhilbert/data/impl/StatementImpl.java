@@ -24,6 +24,8 @@
 
 package jhilbert.data.impl;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -32,13 +34,17 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+import jhilbert.JHilbertException;
 import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
+import jhilbert.data.DataFactory;
 import jhilbert.data.Statement;
 import jhilbert.data.Variable;
 import jhilbert.expressions.Anonymiser;
 import jhilbert.expressions.Expression;
 import jhilbert.expressions.ExpressionFactory;
+import jhilbert.expressions.StatementMatcher;
+import jhilbert.expressions.Translator;
 
 import org.apache.log4j.Logger;
 
@@ -61,22 +67,39 @@ final class StatementImpl extends SymbolImpl implements Statement, Serializable
 	/**
 	 * DV constraints.
 	 */
-	private final DVConstraints dvConstraints;
+	private DVConstraints dvConstraints;
 
 	/**
 	 * Hypotheses.
 	 */
-	private final List<Expression> hypotheses;
+	private List<Expression> hypotheses;
 
 	/**
 	 * Consequent.
 	 */
-	private final Expression consequent;
+	private Expression consequent;
 
 	/**
 	 * Mandatory variables.
 	 */
-	private final List<Variable> mandatoryVariables;
+	private List<Variable> mandatoryVariables;
+
+	/**
+	 * Translator of a pending import, or <code>null</code> if this statement
+	 * is complete.
+	 */
+	private transient volatile Translator translator;
+
+	/**
+	 * Statement matcher, compiled on first use.
+	 */
+	private transient volatile StatementMatcher matcher;
+
+	/**
+	 * Hypotheses and consequent as flat expressions, for instantiation on
+	 * import, created on first use.
+	 */
+	private transient volatile Expression[] importForm;
 
 	/**
 	 * Default constructor, for serialisation use only!
@@ -130,7 +153,7 @@ final class StatementImpl extends SymbolImpl implements Statement, Serializable
 		// variables appearing in the hypotheses
 		final Set<Variable> hypVars = new HashSet();
 		for (final Expression hyp: hypotheses)
-			hypVars.addAll(hyp.variables());
+			hypVars.addAll(hyp.variableSet());
 		// variables appearing in the consequent
 		final LinkedHashSet<Variable> consVars = consequent.variables();
 		// all variables
@@ -161,27 +184,170 @@ final class StatementImpl extends SymbolImpl implements Statement, Serializable
 		this.mandatoryVariables = Collections.unmodifiableList(unnamedMandVars);
 	}
 
+	/**
+	 * Creates a new <code>StatementImpl</code> which is a translation of the
+	 * specified original statement, with the specified name.
+	 * The statement is translated with the specified translator on first
+	 * use only, so that importing an interface merely registers names.
+	 *
+	 * @param name name of new statement.
+	 * @param orig statement this statement is a translation of.
+	 * @param parameterIndex index of parameter of <code>orig</code>.
+	 * @param translator translator of the import, shared by all
+	 * 	statements of the import, so that dummy variables of definitions
+	 * 	are translated consistently.
+	 */
+	StatementImpl(final String name, final StatementImpl orig, final int parameterIndex,
+			final Translator translator) {
+		super(name, orig, parameterIndex);
+		assert (orig != null): "Supplied original statement is null";
+		assert (translator != null): "Supplied translator is null";
+		this.translator = translator;
+	}
+
+	/**
+	 * Completes this statement if it is a pending translation.
+	 * Since the original statement has already been anonymised and its DV
+	 * constraints restricted, the translated parts are taken as they are.
+	 * Only the DV constraints of the definitions used in this statement
+	 * are added, as these may differ from the definitions used in the
+	 * original statement.
+	 */
+	private void complete() {
+		final Translator t = translator;
+		if (t == null)
+			return;
+		synchronized (t) {
+			if (translator == null) // completed in the meantime
+				return;
+			final StatementImpl orig = (StatementImpl) getOriginalName();
+			try {
+				// translate DV constraints
+				final DVConstraints dv = DataFactory.getInstance().createDVConstraints();
+				for (final Variable[] constraint: orig.getDVConstraints())
+					dv.add(t.translate(constraint[0]), t.translate(constraint[1]));
+				// translate hypotheses and consequent
+				final Expression[] importForm = orig.getImportForm();
+				final int size = importForm.length - 1;
+				final List<Expression> hyps = new ArrayList(size);
+				for (int i = 0; i != size; ++i)
+					hyps.add(t.translate(importForm[i]));
+				final Expression cons = t.translate(importForm[size]);
+				// translate mandatory variables
+				final List<Variable> origMandVars = orig.getMandatoryVariables();
+				final List<Variable> mandVars = new ArrayList(origMandVars.size());
+				for (final Variable origMandVar: origMandVars)
+					mandVars.add(t.translate(origMandVar));
+				// complete DV constraints
+				if (dv.iterator().hasNext()) {
+					// dummies of definitions mapped to existing ones may have disappeared
+					final Set<Variable> allVars = new HashSet(cons.variableSet());
+					for (final Expression hyp: hyps)
+						allVars.addAll(hyp.variableSet());
+					dv.restrict(allVars);
+				}
+				for (final Expression hyp: hyps)
+					dv.add(hyp.dvConstraints());
+				dv.add(cons.dvConstraints());
+				dvConstraints = dv;
+				hypotheses = Collections.unmodifiableList(hyps);
+				consequent = cons;
+				mandatoryVariables = Collections.unmodifiableList(mandVars);
+			} catch (JHilbertException e) {
+				// all kinds and functors have been mapped on import
+				final AssertionError err = new AssertionError("Unable to translate imported statement "
+					+ getNameString() + ". This should not happen.");
+				err.initCause(e);
+				throw err;
+			}
+			translator = null;
+		}
+	}
+
+	/**
+	 * Checks whether this statement is a translation still pending.
+	 *
+	 * @return <code>true</code> if this statement has not been used since
+	 * 	it was imported, <code>false</code> otherwise.
+	 */
+	boolean isPending() {
+		return (translator != null);
+	}
+
+	/**
+	 * Completes this statement before serialisation.
+	 *
+	 * @param out object output stream.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		complete();
+		out.defaultWriteObject();
+	}
+
 	public DVConstraints getDVConstraints() {
+		complete();
 		return dvConstraints;
 	}
 
 	public List<Expression> getHypotheses() {
+		complete();
 		return hypotheses;
 	}
 
 	public Expression getConsequent() {
+		complete();
 		return consequent;
 	}
 
 	public List<Variable> getMandatoryVariables() {
+		complete();
 		return mandatoryVariables;
 	}
 
+	public StatementMatcher getMatcher() {
+		StatementMatcher result = matcher;
+		if (result == null) {
+			// a race merely compiles the matcher twice
+			complete();
+			result = ExpressionFactory.getInstance().createStatementMatcher(mandatoryVariables, hypotheses, consequent);
+			matcher = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Obtains the hypotheses followed by the consequent of this statement
+	 * as flat expressions.
+	 * The flat expressions are created once and kept with this statement,
+	 * so that every import of its module merely translates them.
+	 *
+	 * @return array of hypotheses and consequent.
+	 */
+	Expression[] getImportForm() {
+		Expression[] result = importForm;
+		if (result == null) {
+			// a race merely flattens the expressions twice
+			complete();
+			final ExpressionFactory expressionFactory = ExpressionFactory.getInstance();
+			final int size = hypotheses.size();
+			result = new Expression[size + 1];
+			for (int i = 0; i != size; ++i)
+				result[i] = expressionFactory.createFlatExpression(hypotheses.get(i));
+			result[size] = expressionFactory.createFlatExpression(consequent);
+			importForm = result;
+		}
+		return result;
+	}
+
 	public final boolean isVariable() {
 		return false;
 	}
 
 	public @Override String toString() {
+		if (isPending())
+			return getNameString() + "(...)";
 		return getNameString() + "((" + dvConstraints + ", " + hypotheses + ") -> " + consequent + ")";
 	}
 
@@ -27,6 +27,7 @@ package jhilbert.expressions;
 import java.io.Serializable;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
@@ -38,6 +39,12 @@ import jhilbert.utils.TreeNode;
 /**
  * A JHilbert expression.
  * See the JHilbert documentation for details.
+ * <p>
+ * Expressions must not be modified once they have been constructed.
+ * Two expressions are equal if they consist of the identical
+ * {@link Term}s in the same structure, regardless of their
+ * implementation, so that expressions may be used in hash based
+ * collections.
  */
 public interface Expression extends TreeNode<Term>, Serializable {
 
@@ -75,6 +82,24 @@ public interface Expression extends TreeNode<Term>, Serializable {
 	 */
 	public LinkedHashSet<Variable> variables();
 
+	/**
+	 * Returns the {@link Variable}s occurring in this
+	 * <code>Expression</code>, in order of first appearance, as an
+	 * unmodifiable set. Unlike {@link #variables}, the set is computed
+	 * only once.
+	 *
+	 * @return variables occurring in this expression.
+	 */
+	public Set<Variable> variableSet();
+
+	/**
+	 * Returns the depth of this <code>Expression</code>, that is, the
+	 * number of terms on the longest path from the root to a leaf.
+	 *
+	 * @return depth of this expression.
+	 */
+	public int depth();
+
 	/**
 	 * Returns the totally unfolded version of this expression.
 	 *
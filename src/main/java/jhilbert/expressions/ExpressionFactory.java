@@ -85,6 +85,18 @@ public abstract class ExpressionFactory {
 	 */
 	public abstract Expression createExpression(Functor functor, List<Expression> children);
 
+	/**
+	 * Creates a flat, immutable copy of the specified expression.
+	 * Flat expressions are translated in a single pass and share their
+	 * structure with their translations.
+	 *
+	 * @param expr expression.
+	 *
+	 * @return the expression itself if it is already flat, a flat copy
+	 * 	otherwise.
+	 */
+	public abstract Expression createFlatExpression(Expression expr);
+
 	/**
 	 * Creates a new {@link Matcher}.
 	 *
@@ -102,6 +114,30 @@ public abstract class ExpressionFactory {
 	 */
 	public abstract Substituter createSubstituter(Map<Variable, Expression> v2eMap);
 
+	/**
+	 * Creates a new {@link Template} for the specified parameters and
+	 * expression.
+	 *
+	 * @param parameters parameters.
+	 * @param expr expression.
+	 *
+	 * @return the new template.
+	 */
+	public abstract Template createTemplate(List<Variable> parameters, Expression expr);
+
+	/**
+	 * Creates a new {@link StatementMatcher} for a statement with the
+	 * specified mandatory variables, hypotheses and consequent.
+	 *
+	 * @param mandatoryVariables mandatory variables.
+	 * @param hypotheses hypotheses.
+	 * @param consequent consequent.
+	 *
+	 * @return the new statement matcher.
+	 */
+	public abstract StatementMatcher createStatementMatcher(List<Variable> mandatoryVariables,
+			List<Expression> hypotheses, Expression consequent);
+
 	/**
 	 * Creates a new {@link Anonymiser} from the spcified variable set.
 	 *
@@ -0,0 +1,96 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions;
+
+import jhilbert.data.Variable;
+
+/**
+ * A <code>StatementMatcher</code> is a precompiled form of the hypotheses
+ * and the consequent of a {@link jhilbert.data.Statement}, for applying
+ * the statement in a proof.
+ * <p>
+ * Each variable of the statement is numbered with a slot. A single
+ * application of the statement keeps its variable assignments in an
+ * array indexed by these slots, as obtained from {@link #createSlots}.
+ * Any larger array whose first {@link #getSlotCount} elements are
+ * <code>null</code> may be used instead.
+ * The mandatory variables of the statement occupy the first slots, in
+ * the order of {@link jhilbert.data.Statement#getMandatoryVariables}.
+ */
+public interface StatementMatcher {
+
+	/**
+	 * Creates a new, empty slot array for an application of the
+	 * statement.
+	 *
+	 * @return new slot array.
+	 */
+	public Expression[] createSlots();
+
+	/**
+	 * Obtains the number of slots.
+	 *
+	 * @return the number of slots.
+	 */
+	public int getSlotCount();
+
+	/**
+	 * Obtains the slot of the specified {@link Variable}.
+	 *
+	 * @param var variable.
+	 *
+	 * @return the slot of the variable, or <code>-1</code> if the
+	 * 	variable does not occur in the statement.
+	 */
+	public int getSlot(Variable var);
+
+	/**
+	 * Unifies the totally unfolded hypothesis with the specified index
+	 * with the specified target expression. The specified slots are
+	 * updated so that substituting them into the hypothesis would yield
+	 * the target expression.
+	 *
+	 * @param index hypothesis index.
+	 * @param target target expression.
+	 * @param slots variable assignments.
+	 *
+	 * @throws UnifyException if unification fails. If this exception is
+	 * 	thrown, the slots may be left in an undefined state.
+	 *
+	 * @see Substituter#unify
+	 */
+	public void unify(int index, Expression target, Expression[] slots) throws UnifyException;
+
+	/**
+	 * Substitutes the specified slots into the consequent of the
+	 * statement.
+	 *
+	 * @param slots variable assignments.
+	 *
+	 * @return the totally unfolded, substituted consequent.
+	 */
+	public Expression instantiate(Expression[] slots);
+
+}
@@ -0,0 +1,49 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions;
+
+import java.util.List;
+
+/**
+ * A <code>Template</code> is a precompiled {@link Expression} with a list
+ * of parameter {@link jhilbert.data.Variable}s. Instantiating the
+ * template with a list of arguments is equivalent to substituting the
+ * arguments for the parameters, position by position.
+ */
+public interface Template {
+
+	/**
+	 * Instantiates this <code>Template</code> with the specified
+	 * arguments. The specified list must match the parameters in size and
+	 * kinds. A <code>null</code> argument leaves the respective parameter
+	 * in place.
+	 *
+	 * @param arguments list of arguments.
+	 *
+	 * @return the new expression.
+	 */
+	public Expression instantiate(List<Expression> arguments);
+
+}
@@ -67,6 +67,11 @@ public final class ExpressionFactory extends jhilbert.expressions.ExpressionFact
 		return result;
 	}
 
+	public @Override FlatExpression createFlatExpression(final Expression expr) {
+		assert (expr != null): "Supplied expression is null";
+		return FlatExpression.valueOf(expr);
+	}
+
 	public @Override MatcherImpl createMatcher() {
 		return new MatcherImpl();
 	}
@@ -76,6 +81,15 @@ public final class ExpressionFactory extends jhilbert.expressions.ExpressionFact
 		return new SubstituterImpl(v2eMap);
 	}
 
+	public @Override TemplateImpl createTemplate(final List<Variable> parameters, final Expression expr) {
+		return new TemplateImpl(parameters, expr);
+	}
+
+	public @Override StatementMatcherImpl createStatementMatcher(final List<Variable> mandatoryVariables,
+			final List<Expression> hypotheses, final Expression consequent) {
+		return new StatementMatcherImpl(mandatoryVariables, hypotheses, consequent);
+	}
+
 	public @Override AnonymiserImpl createAnonymiser(final Set<Variable> varSet) {
 		assert (varSet != null): "Supplied variable set is null";
 		return new AnonymiserImpl(varSet);
@@ -26,15 +26,13 @@ package jhilbert.expressions.impl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
+import jhilbert.data.DataException;
 import jhilbert.data.DataFactory;
 import jhilbert.data.Definition;
 import jhilbert.data.Functor;
@@ -52,6 +50,7 @@ import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.Token;
 import jhilbert.scanners.TokenFeed;
 import jhilbert.utils.ArrayTreeNode;
+import jhilbert.utils.TreeNode;
 
 import org.apache.log4j.Logger;
 
@@ -70,6 +69,21 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 	 */
 	private static final Logger logger = Logger.getLogger(ExpressionImpl.class);
 
+	/**
+	 * Cached variable set, or <code>null</code> if not computed yet.
+	 */
+	private transient Set<Variable> variableSet;
+
+	/**
+	 * Cached structural hash, or <code>0</code> if not computed yet.
+	 */
+	private transient int hash;
+
+	/**
+	 * Cached depth, or <code>0</code> if not computed yet.
+	 */
+	private transient int depth;
+
 	/**
 	 * Default constructor, for serialisation or supplanting use only!
 	 */
@@ -169,7 +183,7 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 			throw new PlaceCountMismatchException("Place count mismatch: expected " + size);
 		}
 		for (int i = 0; i != size; ++i) {
-			if (!children.get(i).getKind().equals(inputKinds.get(i))) {
+			if (!sameKind(module, children.get(i).getKind(), inputKinds.get(i))) {
 				tokenFeed.reject("Kind mismatch after argument " + i + ": expected " + inputKinds.get(i) + ", got " + children.get(i).getKind());
 				throw new KindMismatchException("Kind mismatch after argument " + i);
 			}
@@ -192,6 +206,28 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 		setValue((Variable) sym);
 	}
 
+	/**
+	 * Checks whether the specified kinds are equal in the specified module.
+	 * Unlike {@link Kind#equals}, this also sees identifications of kinds
+	 * of a prelude made by the module, see {@link Module#fork}.
+	 *
+	 * @param module module.
+	 * @param kind1 first kind.
+	 * @param kind2 second kind.
+	 *
+	 * @return <code>true</code> if the kinds are equal,
+	 * 	<code>false</code> otherwise.
+	 */
+	private static boolean sameKind(final Module module, final Kind kind1, final Kind kind2) {
+		if (kind1.equals(kind2))
+			return true;
+		try {
+			return module.getKindNamespace().checkEquality(kind1, kind2);
+		} catch (DataException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Creates a new <code>ExpressionImpl</code> with the specified
 	 * {@link Term} and no children.
@@ -206,9 +242,50 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 		return getValue().getKind();
 	}
 
+	/**
+	 * Converts the specified expression to an <code>ExpressionImpl</code>.
+	 *
+	 * @param expr expression.
+	 *
+	 * @return the expression itself if it is already an
+	 * 	<code>ExpressionImpl</code>, a tree copy otherwise.
+	 */
+	static ExpressionImpl valueOf(final Expression expr) {
+		assert (expr != null): "Supplied expression is null";
+		if (expr instanceof ExpressionImpl)
+			return (ExpressionImpl) expr;
+		final ExpressionImpl result = new ExpressionImpl(expr.getValue());
+		for (final Expression child: expr.getChildren())
+			result.addChild(child);
+		return result;
+	}
+
 	public @Override List<Expression> getChildren() {
-		final Expression[] fooArray = new Expression[0];
-		return Collections.unmodifiableList(Arrays.asList(super.getChildren().toArray(fooArray)));
+		// all children are ExpressionImpls, see addChild()
+		return (List<Expression>) super.getChildren();
+	}
+
+	/**
+	 * Adds the specified child.
+	 * Children which are not <code>ExpressionImpl</code>s, such as
+	 * {@link FlatExpression}s, are converted first.
+	 *
+	 * @param child child to add.
+	 */
+	public @Override void addChild(final TreeNode<Term> child) {
+		super.addChild(valueOf((Expression) child));
+		invalidate();
+	}
+
+	/**
+	 * Drops all cached values after a modification of this
+	 * <code>ExpressionImpl</code>. Since expressions are built bottom up,
+	 * the parents of this expression have not cached anything yet.
+	 */
+	private void invalidate() {
+		variableSet = null;
+		hash = 0;
+		depth = 0;
 	}
 
 	/**
@@ -222,6 +299,7 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 		assert (value != null): "Supplied value is null";
 		assert (getValue() instanceof Variable): "Attempt to replace non-variable with variable";
 		setValue(value);
+		invalidate();
 	}
 
 	/**
@@ -240,6 +318,7 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 		setValue(functor);
 		final ExpressionImpl[] fooArray = new ExpressionImpl[0];
 		setChildren(children.toArray(fooArray));
+		invalidate();
 	}
 
 	public LinkedHashSet<Variable> variables() {
@@ -262,6 +341,82 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 			((ExpressionImpl) childExp).variables(varSet);
 	}
 
+	public Set<Variable> variableSet() {
+		if (variableSet == null)
+			variableSet = VariableArraySet.valueOf(variables());
+		return variableSet;
+	}
+
+	public int depth() {
+		if (depth == 0) {
+			int childDepth = 0;
+			for (final Expression childExp: getChildren())
+				childDepth = Math.max(childDepth, childExp.depth());
+			depth = childDepth + 1;
+		}
+		return depth;
+	}
+
+	public @Override int hashCode() {
+		if (hash == 0) {
+			final int result = hash(0, this);
+			hash = (result == 0) ? 1 : result;
+		}
+		return hash;
+	}
+
+	/**
+	 * Continues the calculation of the structural hash with the terms of
+	 * the specified expression in preorder. This must yield the same
+	 * result as {@link FlatExpression#hashCode}.
+	 *
+	 * @param h hash so far.
+	 * @param expr expression.
+	 *
+	 * @return new hash.
+	 */
+	private static int hash(int h, final Expression expr) {
+		h = 31 * h + System.identityHashCode(expr.getValue());
+		for (final Expression childExp: expr.getChildren())
+			h = hash(h, childExp);
+		return h;
+	}
+
+	public @Override boolean equals(final Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof Expression))
+			return false;
+		final Expression expr = (Expression) o;
+		if (hashCode() != expr.hashCode())
+			return false;
+		return equal(this, expr);
+	}
+
+	/**
+	 * Checks whether the specified expressions consist of the identical
+	 * terms in the same structure.
+	 *
+	 * @param expr1 first expression.
+	 * @param expr2 second expression.
+	 *
+	 * @return <code>true</code> if the expressions are structurally equal,
+	 * 	<code>false</code> otherwise.
+	 */
+	static boolean equal(final Expression expr1, final Expression expr2) {
+		if (expr1.getValue() != expr2.getValue())
+			return false;
+		final List<Expression> children1 = expr1.getChildren();
+		final List<Expression> children2 = expr2.getChildren();
+		final int size = children1.size();
+		if (size != children2.size())
+			return false;
+		for (int i = 0; i != size; ++i)
+			if (!equal(children1.get(i), children2.get(i)))
+				return false;
+		return true;
+	}
+
 	public @Override String toString() {
 		final Term term = getValue();
 		if (term.isVariable())
@@ -277,65 +432,38 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 	}
 
 	public DVConstraints dvConstraints() throws ConstraintException {
+		return dvConstraints(this);
+	}
+
+	/**
+	 * Calculates the {@link DVConstraints} applicable to the specified
+	 * expression.
+	 *
+	 * @param expr expression.
+	 *
+	 * @return applicable DV constraints.
+	 *
+	 * @throws ConstraintException if the DV constraints cannot be met
+	 * 	ever.
+	 */
+	static DVConstraints dvConstraints(final Expression expr) throws ConstraintException {
 		final DVConstraints result = DataFactory.getInstance().createDVConstraints();
-		final Term term = getValue();
+		final Term term = expr.getValue();
 		if (term.isVariable())
 			return result;
 		final Functor functor = (Functor) term;
 		if (functor.definitionDepth() == 0) {
-			for (final Expression childExp: getChildren())
+			for (final Expression childExp: expr.getChildren())
 				result.add(childExp.dvConstraints());
 			return result;
 		}
-		final jhilbert.expressions.ExpressionFactory expressionFactory = ExpressionFactory.getInstance();
-		final Definition definition = (Definition) functor;
-		final List<Variable> arguments = new ArrayList(definition.getArguments());
-		final List<Expression> children = getChildren();
-		final Expression unfoldedExpression = definition.unfold(children);
-		result.add(unfoldedExpression.dvConstraints());
-		assert (arguments.size() == children.size()): "args/children count mismatch";
-		final int size = arguments.size();
-		final Map<Variable, Expression> varMap = new HashMap();
-		for (int i = 0; i != size; ++i) {
-			varMap.put(arguments.get(i), children.get(i));
-		}
-		for (final Variable[] dv: definition.getDVConstraints()) {
-			assert (dv.length == 2): "Invalid DV length";
-			Expression exp0 = varMap.get(dv[0]);
-			Expression exp1 = varMap.get(dv[1]);
-			if (exp0 == null)
-				exp0 = expressionFactory.createExpression(dv[0]);
-			if (exp1 == null)
-				exp1 = expressionFactory.createExpression(dv[1]);
-			result.addProduct(exp0.variables(), exp1.variables());
-		}
-		return result;
+		return ((Definition) functor).dvConstraints(expr.getChildren());
 	}
 
-	public Expression totalUnfold() { // recursively unfold expression
-		// unfold head
-		Expression expr = this;
-		for (;;) {
-			final Term term = expr.getValue();
-			if (term.isVariable()) {
-				// strictly speaking, definitions unfolding to a single variable are permissible by the
-				// spec, so this check must NOT be moved outside the loop
-				return expr;
-			}
-			final Functor functor = (Functor) term;
-			if (functor.definitionDepth() == 0)
-				break;
-			expr = ((Definition) functor).unfold(expr.getChildren());
-		}
-		// unfold children
-		final List<Expression> children = expr.getChildren();
-		final int numChildren = children.size();
-		final List<ExpressionImpl> newChildren = new ArrayList(numChildren);
-		for (int i = 0; i != numChildren; ++i)
-			newChildren.add((ExpressionImpl) children.get(i).totalUnfold());
-		final ExpressionImpl result = new ExpressionImpl();
-		result.supplant((Functor) expr.getValue(), newChildren);
-		return result;
+	public Expression totalUnfold() {
+		final FlatExpression.Builder builder = new FlatExpression.Builder();
+		builder.appendUnfolded(this);
+		return builder.build();
 	}
 
 }
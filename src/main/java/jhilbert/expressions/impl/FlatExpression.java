@@ -0,0 +1,479 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import jhilbert.data.ConstraintException;
+import jhilbert.data.DVConstraints;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Definition;
+import jhilbert.data.Functor;
+import jhilbert.data.Kind;
+import jhilbert.data.Term;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.utils.Budget;
+import jhilbert.utils.Profiler;
+import jhilbert.utils.TreeNode;
+
+/**
+ * Flat, immutable {@link Expression} implementation.
+ * <p>
+ * The terms of an expression are stored in preorder in a single array.
+ * A second array holds the size of the subexpression starting at each
+ * position, so that a subexpression can be skipped in one step. Subtree
+ * sizes are relative, hence any range of the arrays belonging to a
+ * subexpression may be copied verbatim into another expression.
+ * <p>
+ * A <code>FlatExpression</code> may be a view of a subexpression of a larger
+ * one, sharing its arrays. Children are such views, so that
+ * {@link #getChildren()} never copies terms. Hot operations such as
+ * substitution, unification and matching run as index loops over the
+ * arrays instead of walking trees.
+ */
+final class FlatExpression implements Expression, Serializable {
+
+	/**
+	 * Serialisation ID.
+	 */
+	private static final long serialVersionUID = jhilbert.Main.VERSION;
+
+	/**
+	 * Terms in preorder.
+	 */
+	final Term[] terms;
+
+	/**
+	 * Subexpression sizes.
+	 */
+	final int[] sizes;
+
+	/**
+	 * Position of this expression in the arrays.
+	 */
+	final int offset;
+
+	/**
+	 * Cached variable set, or <code>null</code> if not computed yet.
+	 */
+	private transient Set<Variable> variableSet;
+
+	/**
+	 * Cached structural hash, or <code>0</code> if not computed yet.
+	 */
+	private transient int hash;
+
+	/**
+	 * Cached depth, or <code>0</code> if not computed yet.
+	 */
+	private transient int depth;
+
+	/**
+	 * Creates a new <code>FlatExpression</code> for the subexpression at
+	 * the specified position of the specified arrays.
+	 *
+	 * @param terms terms in preorder.
+	 * @param sizes subexpression sizes.
+	 * @param offset position of the subexpression.
+	 */
+	FlatExpression(final Term[] terms, final int[] sizes, final int offset) {
+		assert (terms != null): "Supplied terms are null";
+		assert (sizes != null): "Supplied sizes are null";
+		assert ((offset >= 0) && (offset < terms.length)): "Invalid offset";
+		this.terms = terms;
+		this.sizes = sizes;
+		this.offset = offset;
+	}
+
+	/**
+	 * Converts the specified expression to a <code>FlatExpression</code>.
+	 *
+	 * @param expr expression.
+	 *
+	 * @return the expression itself if it is already flat, a flat copy
+	 * 	otherwise.
+	 */
+	static FlatExpression valueOf(final Expression expr) {
+		assert (expr != null): "Supplied expression is null";
+		if (expr instanceof FlatExpression)
+			return (FlatExpression) expr;
+		final Builder builder = new Builder();
+		builder.append(expr);
+		return builder.build();
+	}
+
+	/**
+	 * Obtains the number of terms in this expression.
+	 *
+	 * @return the number of terms.
+	 */
+	int size() {
+		return sizes[offset];
+	}
+
+	/**
+	 * Checks whether this expression contains no definitions, hence is
+	 * totally unfolded.
+	 *
+	 * @return <code>true</code> if no term of this expression is a
+	 * 	definition, <code>false</code> otherwise.
+	 */
+	boolean isUnfolded() {
+		final int end = offset + sizes[offset];
+		for (int i = offset; i != end; ++i) {
+			final Term term = terms[i];
+			if (!term.isVariable() && (((Functor) term).definitionDepth() != 0))
+				return false;
+		}
+		return true;
+	}
+
+	public Term getValue() {
+		return terms[offset];
+	}
+
+	public Kind getKind() {
+		return terms[offset].getKind();
+	}
+
+	public List<Expression> getChildren() {
+		final int end = offset + sizes[offset];
+		int count = 0;
+		for (int i = offset + 1; i != end; i += sizes[i])
+			++count;
+		if (count == 0)
+			return Collections.emptyList();
+		final Expression[] children = new Expression[count];
+		count = 0;
+		for (int i = offset + 1; i != end; i += sizes[i])
+			children[count++] = new FlatExpression(terms, sizes, i);
+		return Collections.unmodifiableList(Arrays.asList(children));
+	}
+
+	public void addChild(final TreeNode<Term> child) {
+		throw new UnsupportedOperationException("Flat expressions are immutable");
+	}
+
+	public boolean isLeaf() {
+		return (sizes[offset] == 1);
+	}
+
+	public LinkedHashSet<Variable> variables() {
+		return new LinkedHashSet(variableSet());
+	}
+
+	public Set<Variable> variableSet() {
+		if (variableSet == null) {
+			final LinkedHashSet<Variable> result = new LinkedHashSet();
+			final int end = offset + sizes[offset];
+			for (int i = offset; i != end; ++i) {
+				final Term term = terms[i];
+				if (term.isVariable())
+					result.add((Variable) term);
+				else if (((Functor) term).definitionDepth() != 0)
+					result.addAll(((Definition) term).getDummyVariables());
+			}
+			variableSet = VariableArraySet.valueOf(result);
+		}
+		return variableSet;
+	}
+
+	public int depth() {
+		if (depth == 0)
+			depth = depth(offset);
+		return depth;
+	}
+
+	/**
+	 * Calculates the depth of the subexpression at the specified position.
+	 *
+	 * @param pos subexpression position.
+	 *
+	 * @return depth of the subexpression.
+	 */
+	private int depth(final int pos) {
+		final int end = pos + sizes[pos];
+		int childDepth = 0;
+		for (int i = pos + 1; i != end; i += sizes[i])
+			childDepth = Math.max(childDepth, depth(i));
+		return childDepth + 1;
+	}
+
+	public @Override int hashCode() {
+		if (hash == 0) {
+			// same as ExpressionImpl.hash()
+			int result = 0;
+			final int end = offset + sizes[offset];
+			for (int i = offset; i != end; ++i)
+				result = 31 * result + System.identityHashCode(terms[i]);
+			hash = (result == 0) ? 1 : result;
+		}
+		return hash;
+	}
+
+	public @Override boolean equals(final Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof Expression))
+			return false;
+		final Expression expr = (Expression) o;
+		if (hashCode() != expr.hashCode())
+			return false;
+		if (!(expr instanceof FlatExpression))
+			return ExpressionImpl.equal(this, expr);
+		final FlatExpression flat = (FlatExpression) expr;
+		final int size = sizes[offset];
+		if (size != flat.sizes[flat.offset])
+			return false;
+		for (int i = 0; i != size; ++i)
+			if (terms[offset + i] != flat.terms[flat.offset + i])
+				return false;
+		return true;
+	}
+
+	public DVConstraints dvConstraints() throws ConstraintException {
+		// only definitions introduce DV constraints
+		if (isUnfolded())
+			return DataFactory.getInstance().createDVConstraints();
+		return ExpressionImpl.dvConstraints(this);
+	}
+
+	public Expression totalUnfold() {
+		if (isUnfolded())
+			return this;
+		final Builder builder = new Builder(sizes[offset]);
+		builder.appendUnfolded(this);
+		return builder.build();
+	}
+
+	public @Override String toString() {
+		final StringBuilder result = new StringBuilder();
+		append(result, offset);
+		return result.toString();
+	}
+
+	/**
+	 * Appends the string representation of the subexpression at the
+	 * specified position to the specified string builder.
+	 *
+	 * @param result string builder.
+	 * @param pos subexpression position.
+	 */
+	private void append(final StringBuilder result, final int pos) {
+		final Term term = terms[pos];
+		if (term.isVariable()) {
+			result.append(term.toString());
+			return;
+		}
+		result.append('(')
+			.append(term.toString());
+		final int end = pos + sizes[pos];
+		for (int i = pos + 1; i != end; i += sizes[i]) {
+			result.append(' ');
+			append(result, i);
+		}
+		result.append(')');
+	}
+
+	/**
+	 * Builds a <code>FlatExpression</code> in preorder.
+	 */
+	static final class Builder {
+
+		/**
+		 * Default initial capacity.
+		 */
+		private static final int DEFAULT_CAPACITY = 16;
+
+		/**
+		 * Terms.
+		 */
+		private Term[] terms;
+
+		/**
+		 * Subexpression sizes.
+		 */
+		private int[] sizes;
+
+		/**
+		 * Number of terms so far.
+		 */
+		private int count;
+
+		/**
+		 * Creates a new builder with default initial capacity.
+		 */
+		Builder() {
+			this(DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Creates a new builder with the specified initial capacity.
+		 *
+		 * @param capacity initial capacity.
+		 */
+		Builder(final int capacity) {
+			terms = new Term[Math.max(capacity, 1)];
+			sizes = new int[terms.length];
+			count = 0;
+		}
+
+		/**
+		 * Makes room for the specified number of additional terms.
+		 *
+		 * @param n number of terms.
+		 */
+		private void ensureCapacity(final int n) {
+			if (count + n <= terms.length)
+				return;
+			final int capacity = Math.max(2 * terms.length, count + n);
+			final Term[] newTerms = new Term[capacity];
+			System.arraycopy(terms, 0, newTerms, 0, count);
+			terms = newTerms;
+			final int[] newSizes = new int[capacity];
+			System.arraycopy(sizes, 0, newSizes, 0, count);
+			sizes = newSizes;
+		}
+
+		/**
+		 * Appends a variable or nullary functor.
+		 *
+		 * @param term term.
+		 */
+		void leaf(final Term term) {
+			ensureCapacity(1);
+			terms[count] = term;
+			sizes[count++] = 1;
+		}
+
+		/**
+		 * Starts a subexpression with the specified functor.
+		 * The children must be appended next, followed by a call to
+		 * {@link #close(int)}.
+		 *
+		 * @param functor functor.
+		 *
+		 * @return position of the new subexpression.
+		 */
+		int open(final Term functor) {
+			ensureCapacity(1);
+			terms[count] = functor;
+			return count++;
+		}
+
+		/**
+		 * Completes the subexpression at the specified position.
+		 *
+		 * @param pos position returned by {@link #open(Term)}.
+		 */
+		void close(final int pos) {
+			sizes[pos] = count - pos;
+		}
+
+		/**
+		 * Appends the specified expression.
+		 *
+		 * @param expr expression.
+		 */
+		void append(final Expression expr) {
+			if (expr instanceof FlatExpression) {
+				final FlatExpression flat = (FlatExpression) expr;
+				final int n = flat.sizes[flat.offset];
+				ensureCapacity(n);
+				System.arraycopy(flat.terms, flat.offset, terms, count, n);
+				System.arraycopy(flat.sizes, flat.offset, sizes, count, n);
+				count += n;
+				return;
+			}
+			final Term term = expr.getValue();
+			if (term.isVariable()) {
+				leaf(term);
+				return;
+			}
+			final int pos = open(term);
+			for (final Expression child: expr.getChildren())
+				append(child);
+			close(pos);
+		}
+
+		/**
+		 * Appends the totally unfolded version of the specified
+		 * expression.
+		 *
+		 * @param expr expression.
+		 */
+		void appendUnfolded(final Expression expr) {
+			final Term term = expr.getValue();
+			if (term.isVariable()) {
+				leaf(term);
+				return;
+			}
+			if (((Functor) term).definitionDepth() != 0) {
+				Profiler.countUnfold();
+				Budget.checkpoint();
+				final TemplateImpl template = (TemplateImpl) ((Definition) term).getUnfoldedTemplate();
+				ensureCapacity(template.size());
+				template.appendTo(expr.getChildren(), true, this);
+				return;
+			}
+			if ((expr instanceof FlatExpression) && ((FlatExpression) expr).isUnfolded()) {
+				append(expr);
+				return;
+			}
+			// unfold children
+			final int pos = open(term);
+			for (final Expression child: expr.getChildren())
+				appendUnfolded(child);
+			close(pos);
+		}
+
+		/**
+		 * Creates the expression built so far.
+		 *
+		 * @return new flat expression.
+		 */
+		FlatExpression build() {
+			assert (count > 0): "Empty expression";
+			assert (sizes[0] == count): "Incomplete expression";
+			if (count != terms.length) {
+				final Term[] newTerms = new Term[count];
+				System.arraycopy(terms, 0, newTerms, 0, count);
+				terms = newTerms;
+				final int[] newSizes = new int[count];
+				System.arraycopy(sizes, 0, newSizes, 0, count);
+				sizes = newSizes;
+			}
+			return new FlatExpression(terms, sizes, 0);
+		}
+
+	}
+
+}
@@ -76,8 +76,27 @@ final class MatcherImpl implements Matcher {
 	public boolean checkDEquality(final Expression source, final Expression target) {
 		assert (source != null): "Supplied source is null";
 		assert (target != null): "Supplied target is null";
+		return equivalent(source, target);
+	}
+
+	/**
+	 * Checks two expressions for definition equivalence.
+	 * Unlike the other checks, this check does not depend on the state
+	 * of a matcher.
+	 *
+	 * @param source source expression.
+	 * @param target target expression.
+	 *
+	 * @return <code>true</code> if the expressions are equivalent,
+	 * 	<code>false</code> otherwise.
+	 *
+	 * @see #checkDEquality(Expression, Expression)
+	 */
+	static boolean equivalent(final Expression source, final Expression target) {
 		final Expression unfoldedSource = source.totalUnfold();
 		final Expression unfoldedTarget = target.totalUnfold();
+		if ((unfoldedSource instanceof FlatExpression) && (unfoldedTarget instanceof FlatExpression))
+			return checkDEquality((FlatExpression) unfoldedSource, (FlatExpression) unfoldedTarget);
 		final Term sourceTerm = unfoldedSource.getValue();
 		final Term targetTerm = unfoldedTarget.getValue();
 		if (sourceTerm != targetTerm)
@@ -89,7 +108,32 @@ final class MatcherImpl implements Matcher {
 		final int size = sourceChildren.size();
 		assert (size == targetChildren.size()): "Place count mismatch";
 		for (int i = 0; i != size; ++i)
-			if (!checkDEquality(sourceChildren.get(i), targetChildren.get(i)))
+			if (!equivalent(sourceChildren.get(i), targetChildren.get(i)))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Checks two totally unfolded flat expressions for definition
+	 * equivalence. Since both expressions are unfolded, this amounts to
+	 * comparing their terms in preorder.
+	 *
+	 * @param source source expression.
+	 * @param target target expression.
+	 *
+	 * @return <code>true</code> if the expressions are equivalent,
+	 * 	<code>false</code> otherwise.
+	 */
+	private static boolean checkDEquality(final FlatExpression source, final FlatExpression target) {
+		final int size = source.size();
+		if (size != target.size())
+			return false;
+		final Term[] sourceTerms = source.terms;
+		final Term[] targetTerms = target.terms;
+		final int sourceOffset = source.offset;
+		final int targetOffset = target.offset;
+		for (int i = 0; i != size; ++i)
+			if (sourceTerms[sourceOffset + i] != targetTerms[targetOffset + i])
 				return false;
 		return true;
 	}
@@ -134,6 +178,8 @@ final class MatcherImpl implements Matcher {
 			logger.trace("Source: " + source);
 			logger.trace("Target: " + target);
 		}
+		if ((source instanceof FlatExpression) && (target instanceof FlatExpression))
+			return checkVEqualityFlat((FlatExpression) source, (FlatExpression) target, blacklist);
 		final Term sourceTerm = source.getValue();
 		final Term targetTerm = target.getValue();
 		if (sourceTerm.isVariable()) {
@@ -168,6 +214,54 @@ final class MatcherImpl implements Matcher {
 		return true;
 	}
 
+	/**
+	 * Variable equality check for two totally unfolded flat expressions.
+	 * Both expressions are walked in preorder. Since the preorder of an
+	 * expression is never a proper prefix of the preorder of another
+	 * expression, structural differences show up as a term mismatch.
+	 *
+	 * @param source source expression.
+	 * @param target target expression.
+	 * @param blacklist variable blacklist.
+	 *
+	 * @return <code>true</code> if the expressions are equal up to
+	 * 	variable mapping, <code>false</code> otherwise.
+	 *
+	 * @throws UnifyException if a blacklisted variable would be mapped.
+	 */
+	private boolean checkVEqualityFlat(final FlatExpression source, final FlatExpression target, final Set<Variable> blacklist) throws UnifyException {
+		final Term[] sourceTerms = source.terms;
+		final Term[] targetTerms = target.terms;
+		final int sourceOffset = source.offset;
+		final int targetOffset = target.offset;
+		final int size = Math.min(source.size(), target.size());
+		for (int i = 0; i != size; ++i) {
+			final Term sourceTerm = sourceTerms[sourceOffset + i];
+			final Term targetTerm = targetTerms[targetOffset + i];
+			if (sourceTerm == targetTerm)
+				continue;
+			if (!sourceTerm.isVariable() || !targetTerm.isVariable())
+				return false;
+			final Variable sourceVariable = (Variable) sourceTerm;
+			final Variable targetVariable = (Variable) targetTerm;
+			if (blacklist.contains(sourceVariable) || blacklist.contains(targetVariable))
+				throw new UnifyException("Cannot map " + sourceVariable + " to " + targetVariable + " due to blacklist " + blacklist,
+						new FlatExpression(sourceTerms, source.sizes, sourceOffset + i),
+						new FlatExpression(targetTerms, target.sizes, targetOffset + i));
+			if (!sourceVariable.isDummy() && targetVariable.isDummy())
+				return false;
+			if (translationMap.containsKey(sourceVariable)) {
+				if (translationMap.get(sourceVariable) != targetVariable)
+					return false;
+				continue;
+			}
+			if (logger.isTraceEnabled())
+				logger.trace("Adding mapping " + sourceVariable + " -> " + targetVariable + " to translation map");
+			translationMap.put(sourceVariable, targetVariable);
+		}
+		return (source.size() == target.size());
+	}
+
 	public boolean checkVEquality(final Expression source, final Expression target) {
 		try {
 			return checkVEquality(source, target, Collections.<Variable>emptySet());
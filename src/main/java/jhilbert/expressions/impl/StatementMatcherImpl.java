@@ -0,0 +1,245 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jhilbert.data.Term;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.StatementMatcher;
+import jhilbert.expressions.UnifyException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * {@link StatementMatcher} implementation.
+ * <p>
+ * The hypotheses are stored totally unfolded as {@link FlatExpression}s,
+ * together with the slot of every variable position, the consequent as
+ * a {@link TemplateImpl} over the slots. Unifying a hypothesis with a totally unfolded flat target
+ * is then a single lockstep walk over both term arrays.
+ */
+final class StatementMatcherImpl implements StatementMatcher {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(StatementMatcherImpl.class);
+
+	/**
+	 * Variables by slot.
+	 */
+	private final Variable[] variables;
+
+	/**
+	 * Slots by variable.
+	 */
+	private final Map<Variable, Integer> slotMap;
+
+	/**
+	 * Totally unfolded hypotheses.
+	 */
+	private final FlatExpression[] hypotheses;
+
+	/**
+	 * Slots of the hypothesis positions, relative to the offset of the
+	 * respective hypothesis, or <code>-1</code> for functors.
+	 */
+	private final int[][] hypothesisSlots;
+
+	/**
+	 * Consequent, with the slots as parameters.
+	 */
+	private final TemplateImpl consequent;
+
+	/**
+	 * Creates a new <code>StatementMatcherImpl</code> for the specified
+	 * mandatory variables, hypotheses and consequent.
+	 *
+	 * @param mandatoryVariables mandatory variables.
+	 * @param hypotheses hypotheses.
+	 * @param consequent consequent.
+	 */
+	StatementMatcherImpl(final List<Variable> mandatoryVariables, final List<Expression> hypotheses,
+			final Expression consequent) {
+		assert (mandatoryVariables != null): "Supplied mandatory variables are null";
+		assert (hypotheses != null): "Supplied hypotheses are null";
+		assert (consequent != null): "Supplied consequent is null";
+		slotMap = new HashMap();
+		for (final Variable var: mandatoryVariables)
+			slotMap.put(var, slotMap.size());
+		final int size = hypotheses.size();
+		this.hypotheses = new FlatExpression[size];
+		hypothesisSlots = new int[size][];
+		for (int i = 0; i != size; ++i) {
+			this.hypotheses[i] = FlatExpression.valueOf(hypotheses.get(i).totalUnfold());
+			hypothesisSlots[i] = numberSlots(this.hypotheses[i]);
+		}
+		numberSlots(FlatExpression.valueOf(consequent));
+		this.consequent = new TemplateImpl(slotMap, consequent);
+		variables = new Variable[slotMap.size()];
+		for (final Map.Entry<Variable, Integer> entry: slotMap.entrySet())
+			variables[entry.getValue()] = entry.getKey();
+	}
+
+	/**
+	 * Numbers the variables of the specified expression with slots,
+	 * continuing the numbering of {@link #slotMap}.
+	 *
+	 * @param expr flat expression.
+	 *
+	 * @return slots of the expression positions.
+	 */
+	private int[] numberSlots(final FlatExpression expr) {
+		final int size = expr.size();
+		final int[] result = new int[size];
+		for (int i = 0; i != size; ++i) {
+			final Term term = expr.terms[expr.offset + i];
+			if (!term.isVariable()) {
+				result[i] = -1;
+				continue;
+			}
+			Integer slot = slotMap.get((Variable) term);
+			if (slot == null) {
+				slot = slotMap.size();
+				slotMap.put((Variable) term, slot);
+			}
+			result[i] = slot;
+		}
+		return result;
+	}
+
+	public Expression[] createSlots() {
+		return new Expression[variables.length];
+	}
+
+	public int getSlotCount() {
+		return variables.length;
+	}
+
+	public int getSlot(final Variable var) {
+		final Integer result = slotMap.get(var);
+		if (result == null)
+			return -1;
+		return result;
+	}
+
+	public void unify(final int index, final Expression target, final Expression[] slots) throws UnifyException {
+		assert ((index >= 0) && (index < hypotheses.length)): "Invalid hypothesis index";
+		assert (target != null): "Supplied target expression is null";
+		assert (slots != null): "Supplied slots are null";
+		assert (slots.length >= variables.length): "Too few slots";
+		if ((target instanceof FlatExpression) && ((FlatExpression) target).isUnfolded())
+			unifyUnfolded(index, (FlatExpression) target, slots);
+		else
+			unifyGeneric(index, target, slots);
+	}
+
+	/**
+	 * Unifies a hypothesis with a totally unfolded flat expression.
+	 *
+	 * @param index hypothesis index.
+	 * @param target target expression.
+	 * @param slots variable assignments.
+	 *
+	 * @throws UnifyException if unification fails.
+	 */
+	private void unifyUnfolded(final int index, final FlatExpression target, final Expression[] slots)
+	throws UnifyException {
+		final FlatExpression source = hypotheses[index];
+		final int[] sourceSlots = hypothesisSlots[index];
+		final Term[] sourceTerms = source.terms;
+		final Term[] targetTerms = target.terms;
+		final int[] targetSizes = target.sizes;
+		final int sourceOffset = source.offset;
+		final int size = sourceSlots.length;
+		int j = target.offset;
+		for (int i = 0; i != size; ++i) {
+			final int slot = sourceSlots[i];
+			if (slot >= 0) {
+				final FlatExpression targetExpr = new FlatExpression(targetTerms, targetSizes, j);
+				final Expression previous = slots[slot];
+				if (previous == null) {
+					slots[slot] = targetExpr;
+				} else if (!MatcherImpl.equivalent(previous, targetExpr)) {
+					logger.error("Invalid change of variable assignment");
+					logger.debug("Variable:            " + variables[slot]);
+					logger.debug("Previous assignment: " + previous);
+					logger.debug("Invalid assignment:  " + targetExpr);
+					throw new UnifyException("Invalid change of variable assignment",
+							new FlatExpression(sourceTerms, source.sizes, sourceOffset + i), targetExpr);
+				}
+				j += targetSizes[j];
+				continue;
+			}
+			final Term targetTerm = targetTerms[j];
+			if (targetTerm.isVariable()) {
+				logger.error("Unable to unify complex expression with variable");
+				throw new UnifyException("Unable to unify complex expression with variable",
+						new FlatExpression(sourceTerms, source.sizes, sourceOffset + i),
+						new FlatExpression(targetTerms, targetSizes, j));
+			}
+			if (sourceTerms[sourceOffset + i] != targetTerm) {
+				logger.error("Terms do not match");
+				throw new UnifyException("Terms do not match",
+						new FlatExpression(sourceTerms, source.sizes, sourceOffset + i),
+						new FlatExpression(targetTerms, targetSizes, j));
+			}
+			++j;
+		}
+	}
+
+	/**
+	 * Unifies a hypothesis with an arbitrary expression, through a
+	 * {@link SubstituterImpl}.
+	 *
+	 * @param index hypothesis index.
+	 * @param target target expression.
+	 * @param slots variable assignments.
+	 *
+	 * @throws UnifyException if unification fails.
+	 */
+	private void unifyGeneric(final int index, final Expression target, final Expression[] slots)
+	throws UnifyException {
+		final Map<Variable, Expression> v2eMap = new HashMap();
+		for (int i = 0; i != variables.length; ++i)
+			if (slots[i] != null)
+				v2eMap.put(variables[i], slots[i]);
+		new SubstituterImpl(v2eMap).unify(hypotheses[index], target);
+		for (final Map.Entry<Variable, Expression> entry: v2eMap.entrySet())
+			slots[slotMap.get(entry.getKey())] = entry.getValue();
+	}
+
+	public Expression instantiate(final Expression[] slots) {
+		assert (slots != null): "Supplied slots are null";
+		assert (slots.length >= variables.length): "Too few slots";
+		return consequent.instantiate(Arrays.asList(slots)).totalUnfold();
+	}
+
+}
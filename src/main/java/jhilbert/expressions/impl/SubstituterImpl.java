@@ -24,7 +24,7 @@
 
 package jhilbert.expressions.impl;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +37,7 @@ import jhilbert.expressions.ExpressionException;
 import jhilbert.expressions.Substituter;
 import jhilbert.expressions.Translator;
 import jhilbert.expressions.UnifyException;
+import jhilbert.utils.Budget;
 
 import org.apache.log4j.Logger;
 
@@ -53,7 +54,15 @@ final class SubstituterImpl implements Substituter {
 	/**
 	 * Variable to expression map.
 	 */
-	private Map<Variable, Expression> v2eMap;
+	private final Map<Variable, Expression> v2eMap;
+
+	/**
+	 * Undo trail.
+	 * Holds the variables assigned by {@link #unify}, in order of
+	 * assignment, so that the assignments can be rolled back when
+	 * unification has to be retried after unfolding a definition.
+	 */
+	private final List<Variable> trail;
 
 	/**
 	 * Matcher.
@@ -69,6 +78,7 @@ final class SubstituterImpl implements Substituter {
 	SubstituterImpl(final Map<Variable, Expression> v2eMap) {
 		assert (v2eMap != null): "Supplied variable to expression map is null";
 		this.v2eMap = v2eMap;
+		trail = new ArrayList();
 		matcher = new MatcherImpl();
 	}
 
@@ -87,20 +97,122 @@ final class SubstituterImpl implements Substituter {
 				return subst;
 		}
 		// expression is a functor
-		final ExpressionImpl result = new ExpressionImpl(term);
+		final FlatExpression.Builder builder = new FlatExpression.Builder();
+		if (expr instanceof FlatExpression) {
+			final FlatExpression flat = (FlatExpression) expr;
+			substitute(flat, flat.offset, builder);
+		} else {
+			substitute(expr, builder);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Appends the substituted version of the specified expression to the
+	 * specified builder.
+	 *
+	 * @param expr expression.
+	 * @param builder flat expression builder.
+	 */
+	private void substitute(final Expression expr, final FlatExpression.Builder builder) {
+		final Term term = expr.getValue();
+		if (term.isVariable()) {
+			final Expression subst = v2eMap.get((Variable) term);
+			if (subst == null)
+				builder.leaf(term);
+			else
+				builder.append(subst);
+			return;
+		}
+		final int pos = builder.open(term);
 		for (final Expression childExp: expr.getChildren())
-			result.addChild(substitute(childExp));
-		return result;
+			substitute(childExp, builder);
+		builder.close(pos);
+	}
+
+	/**
+	 * Appends the substituted version of the subexpression of the
+	 * specified flat expression at the specified position to the specified
+	 * builder.
+	 *
+	 * @param expr flat expression.
+	 * @param pos subexpression position.
+	 * @param builder flat expression builder.
+	 *
+	 * @return position after the subexpression.
+	 */
+	private int substitute(final FlatExpression expr, final int pos, final FlatExpression.Builder builder) {
+		final Term term = expr.terms[pos];
+		final int end = pos + expr.sizes[pos];
+		if (term.isVariable()) {
+			final Expression subst = v2eMap.get((Variable) term);
+			if (subst == null)
+				builder.leaf(term);
+			else
+				builder.append(subst);
+			return end;
+		}
+		final int result = builder.open(term);
+		for (int i = pos + 1; i != end;)
+			i = substitute(expr, i, builder);
+		builder.close(result);
+		return end;
 	}
 
 	public void unify(final Expression source, final Expression target) throws UnifyException {
 		assert (source != null): "Supplied source expression is null";
 		assert (target != null): "Supplied target expression is null";
+		trail.clear();
+		unifyHelper(source, target);
+	}
+
+	/**
+	 * Assigns the specified expression to the specified variable and
+	 * records the assignment on the undo trail.
+	 *
+	 * @param var variable.
+	 * @param expr expression.
+	 */
+	private void assign(final Variable var, final Expression expr) {
+		v2eMap.put(var, expr);
+		trail.add(var);
+	}
+
+	/**
+	 * Rolls back all assignments made after the specified trail mark.
+	 *
+	 * @param mark trail size to roll back to.
+	 */
+	private void rollback(final int mark) {
+		for (int i = trail.size() - 1; i >= mark; --i)
+			v2eMap.remove(trail.remove(i));
+	}
+
+	/**
+	 * Unification helper.
+	 * Definitions are only unfolded if the terms of source and target
+	 * differ, or if unification of the children fails.
+	 *
+	 * @param source source expression.
+	 * @param target target expression.
+	 *
+	 * @throws UnifyException if unification fails.
+	 */
+	private void unifyHelper(final Expression source, final Expression target) throws UnifyException {
+		Budget.checkpoint();
 		if (logger.isTraceEnabled()) {
 			logger.trace("Unifying expressions");
 			logger.trace("Source: " + source);
 			logger.trace("Target: " + target);
 		}
+		if ((source instanceof FlatExpression) && (target instanceof FlatExpression)) {
+			final FlatExpression flatSource = (FlatExpression) source;
+			final FlatExpression flatTarget = (FlatExpression) target;
+			if (flatSource.isUnfolded() && flatTarget.isUnfolded()) {
+				unifyUnfolded(flatSource, flatTarget);
+				return;
+			}
+		}
 		final Term sourceTerm = source.getValue();
 		if (sourceTerm.isVariable()) {
 			final Variable sourceVariable = (Variable) sourceTerm;
@@ -113,7 +225,7 @@ final class SubstituterImpl implements Substituter {
 					throw new UnifyException("Invalid change of variable assignment", source, target);
 				} else
 					return;
-			v2eMap.put(sourceVariable, target);
+			assign(sourceVariable, target);
 			return;
 		}
 		final Term targetTerm = target.getValue();
@@ -121,15 +233,25 @@ final class SubstituterImpl implements Substituter {
 			logger.error("Unable to unify complex expression with variable");
 			throw new UnifyException("Unable to unify complex expression with variable", source, target);
 		}
+		final Functor sourceFunctor = (Functor) sourceTerm;
+		final Functor targetFunctor = (Functor) targetTerm;
+		final int sourceDepth = sourceFunctor.definitionDepth();
+		final int targetDepth = targetFunctor.definitionDepth();
+		final boolean match = sourceTerm.equals(targetTerm);
+		if (!match && (sourceDepth == 0) && (targetDepth == 0)) {
+			// nothing to unfold
+			logger.error("Terms do not match");
+			throw new UnifyException("Terms do not match", source, target);
+		}
 		final List<Expression> sourceChildren = source.getChildren();
 		final List<Expression> targetChildren = target.getChildren();
-		final Map<Variable, Expression> backup = new HashMap(v2eMap);
+		final int mark = trail.size();
 		try {
-			if (sourceTerm.equals(targetTerm)) {
+			if (match) {
 				final int size = sourceChildren.size();
 				assert (size == targetChildren.size()): "Place count mismatch";
 				for (int i = 0; i != size; ++i)
-					unify(sourceChildren.get(i), targetChildren.get(i));
+					unifyHelper(sourceChildren.get(i), targetChildren.get(i));
 				return;
 			}
 		} catch (UnifyException e) {
@@ -139,25 +261,21 @@ final class SubstituterImpl implements Substituter {
 				logger.trace("Source: " + e.getSource());
 				logger.trace("Target: " + e.getTarget());
 			}
-			v2eMap = backup;
+			rollback(mark);
 		}
-		final Functor sourceFunctor = (Functor) sourceTerm;
-		final Functor targetFunctor = (Functor) targetTerm;
-		final int sourceDepth = sourceFunctor.definitionDepth();
-		final int targetDepth = targetFunctor.definitionDepth();
 		if ((sourceDepth == 0) && (targetDepth == 0)) {
 			logger.error("Terms do not match");
 			throw new UnifyException("Terms do not match", source, target);
 		}
 		try {
 			if (sourceDepth == targetDepth) {
-				unify(((Definition) sourceFunctor).unfold(sourceChildren), ((Definition) targetFunctor).unfold(targetChildren));
+				unifyHelper(((Definition) sourceFunctor).unfold(sourceChildren), ((Definition) targetFunctor).unfold(targetChildren));
 				return;
 			}
 			if (sourceDepth < targetDepth)
-				unify(source, ((Definition) targetFunctor).unfold(targetChildren));
+				unifyHelper(source, ((Definition) targetFunctor).unfold(targetChildren));
 			else
-				unify(((Definition) sourceFunctor).unfold(sourceChildren), target);
+				unifyHelper(((Definition) sourceFunctor).unfold(sourceChildren), target);
 			return;
 		} catch (UnifyException e) {
 			logger.error("Unification error after unfolding definition", e);
@@ -167,6 +285,56 @@ final class SubstituterImpl implements Substituter {
 		}
 	}
 
+	/**
+	 * Unifies two totally unfolded flat expressions.
+	 * Since there are no definitions to unfold, the expressions are
+	 * simply walked in lockstep, and no backtracking is necessary.
+	 *
+	 * @param source source expression.
+	 * @param target target expression.
+	 *
+	 * @throws UnifyException if unification fails.
+	 */
+	private void unifyUnfolded(final FlatExpression source, final FlatExpression target) throws UnifyException {
+		final Term[] sourceTerms = source.terms;
+		final Term[] targetTerms = target.terms;
+		final int[] targetSizes = target.sizes;
+		final int sourceEnd = source.offset + source.size();
+		int j = target.offset;
+		for (int i = source.offset; i != sourceEnd; ++i) {
+			final Term sourceTerm = sourceTerms[i];
+			if (sourceTerm.isVariable()) {
+				final Variable sourceVariable = (Variable) sourceTerm;
+				final FlatExpression targetExpr = new FlatExpression(targetTerms, targetSizes, j);
+				final Expression previous = v2eMap.get(sourceVariable);
+				if (previous == null) {
+					assign(sourceVariable, targetExpr);
+				} else if (!matcher.checkDEquality(previous, targetExpr)) {
+					logger.error("Invalid change of variable assignment");
+					logger.debug("Variable:            " + sourceVariable);
+					logger.debug("Previous assignment: " + previous);
+					logger.debug("Invalid assignment:  " + targetExpr);
+					throw new UnifyException("Invalid change of variable assignment",
+							new FlatExpression(sourceTerms, source.sizes, i), targetExpr);
+				}
+				j += targetSizes[j];
+				continue;
+			}
+			final Term targetTerm = targetTerms[j];
+			if (targetTerm.isVariable()) {
+				logger.error("Unable to unify complex expression with variable");
+				throw new UnifyException("Unable to unify complex expression with variable",
+						new FlatExpression(sourceTerms, source.sizes, i), new FlatExpression(targetTerms, targetSizes, j));
+			}
+			if (!sourceTerm.equals(targetTerm)) {
+				logger.error("Terms do not match");
+				throw new UnifyException("Terms do not match",
+						new FlatExpression(sourceTerms, source.sizes, i), new FlatExpression(targetTerms, targetSizes, j));
+			}
+			++j;
+		}
+	}
+
 	public void crossUnify(final Expression source, final Expression target, final Translator translator) throws UnifyException {
 		assert (source != null): "Supplied source expression is null";
 		assert (target != null): "Supplied target expression is null";
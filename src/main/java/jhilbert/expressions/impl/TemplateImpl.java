@@ -0,0 +1,189 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jhilbert.data.Term;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.Template;
+
+/**
+ * {@link Template} implementation.
+ * <p>
+ * The expression is stored as a {@link FlatExpression}, together with the
+ * parameter index of every position.
+ */
+final class TemplateImpl implements Template {
+
+	/**
+	 * Expression.
+	 */
+	private final FlatExpression expression;
+
+	/**
+	 * Parameter indices of the expression positions, relative to the
+	 * offset of the expression, or <code>-1</code> if the position does not
+	 * hold a parameter.
+	 */
+	private final int[] slots;
+
+	/**
+	 * Creates a new <code>TemplateImpl</code> for the specified parameters
+	 * and expression.
+	 *
+	 * @param parameters parameters.
+	 * @param expr expression.
+	 */
+	TemplateImpl(final List<Variable> parameters, final Expression expr) {
+		this(indexParameters(parameters), expr);
+	}
+
+	/**
+	 * Creates a new <code>TemplateImpl</code> for the specified expression
+	 * with the specified parameter indices.
+	 *
+	 * @param slotMap parameter indices.
+	 * @param expr expression.
+	 */
+	TemplateImpl(final Map<Variable, Integer> slotMap, final Expression expr) {
+		assert (slotMap != null): "Supplied slot map is null";
+		assert (expr != null): "Supplied expression is null";
+		expression = FlatExpression.valueOf(expr);
+		final int size = expression.size();
+		slots = new int[size];
+		for (int i = 0; i != size; ++i) {
+			final Term term = expression.terms[expression.offset + i];
+			final Integer slot = term.isVariable() ? slotMap.get((Variable) term) : null;
+			slots[i] = (slot == null) ? -1 : slot;
+		}
+	}
+
+	/**
+	 * Numbers the specified parameters.
+	 *
+	 * @param parameters parameters.
+	 *
+	 * @return map from parameters to their indices.
+	 */
+	private static Map<Variable, Integer> indexParameters(final List<Variable> parameters) {
+		assert (parameters != null): "Supplied parameters are null";
+		final Map<Variable, Integer> result = new HashMap();
+		for (final Variable parameter: parameters)
+			result.put(parameter, result.size());
+		return result;
+	}
+
+	/**
+	 * Obtains the number of terms of the template expression.
+	 *
+	 * @return the number of terms.
+	 */
+	int size() {
+		return slots.length;
+	}
+
+	public Expression instantiate(final List<Expression> arguments) {
+		assert (arguments != null): "Supplied arguments are null";
+		final FlatExpression.Builder builder = new FlatExpression.Builder(sizeOf(arguments));
+		append(0, arguments, false, builder);
+		return builder.build();
+	}
+
+	/**
+	 * Calculates the number of terms of the instantiation of this template
+	 * with the specified arguments, so that the builder need neither grow
+	 * nor trim its arrays. Arguments which are not flat are counted as a
+	 * single term, and the builder grows as needed.
+	 *
+	 * @param arguments list of arguments.
+	 *
+	 * @return the number of terms.
+	 */
+	private int sizeOf(final List<Expression> arguments) {
+		int result = 0;
+		for (final int slot: slots) {
+			final Expression argument = (slot < 0) ? null : arguments.get(slot);
+			if (argument instanceof FlatExpression)
+				result += ((FlatExpression) argument).size();
+			else
+				++result;
+		}
+		return result;
+	}
+
+	/**
+	 * Appends the instantiation of this template with the specified
+	 * arguments to the specified builder.
+	 *
+	 * @param arguments list of arguments.
+	 * @param unfold whether the arguments are to be totally unfolded.
+	 * @param builder flat expression builder.
+	 */
+	void appendTo(final List<Expression> arguments, final boolean unfold, final FlatExpression.Builder builder) {
+		append(0, arguments, unfold, builder);
+	}
+
+	/**
+	 * Appends the instantiated subexpression at the specified position to
+	 * the specified builder.
+	 *
+	 * @param pos position, relative to the offset of the expression.
+	 * @param arguments list of arguments.
+	 * @param unfold whether the arguments are to be totally unfolded.
+	 * @param builder flat expression builder.
+	 *
+	 * @return position after the subexpression.
+	 */
+	private int append(final int pos, final List<Expression> arguments, final boolean unfold,
+			final FlatExpression.Builder builder) {
+		final Term term = expression.terms[expression.offset + pos];
+		final int end = pos + expression.sizes[expression.offset + pos];
+		final int slot = slots[pos];
+		if (slot >= 0) {
+			final Expression argument = arguments.get(slot);
+			if (argument == null)
+				builder.leaf(term);
+			else if (unfold)
+				builder.appendUnfolded(argument);
+			else
+				builder.append(argument);
+			return end;
+		}
+		if (end == pos + 1) {
+			builder.leaf(term);
+			return end;
+		}
+		final int result = builder.open(term);
+		for (int i = pos + 1; i != end;)
+			i = append(i, arguments, unfold, builder);
+		builder.close(result);
+		return end;
+	}
+
+}
@@ -86,37 +86,87 @@ final class TranslatorImpl implements Translator {
 
 	public Expression translate(final Expression expression) throws ExpressionException {
 		assert (expression != null): "Supplied expression is null";
+		if (expression instanceof FlatExpression)
+			return translate((FlatExpression) expression);
 		final Term term = expression.getValue();
 		if (term.isVariable())
 			return new ExpressionImpl(translate((Variable) term));
-		if (!functorMap.containsKey(term)) {
+		final Expression result = new ExpressionImpl(translate(term, expression));
+		for (final Expression childExpression: expression.getChildren())
+			result.addChild(translate(childExpression));
+		return result;
+	}
+
+	/**
+	 * Translates the specified flat expression term by term.
+	 * Since translation preserves the structure of an expression, the
+	 * subexpression sizes are shared with the translation whenever the
+	 * expression spans its whole arrays.
+	 *
+	 * @param expression flat expression.
+	 *
+	 * @return the translated expression.
+	 *
+	 * @throws ExpressionException if a kind or a functor is encountered
+	 * 	for which no mapping exists.
+	 */
+	private FlatExpression translate(final FlatExpression expression) throws ExpressionException {
+		final int size = expression.size();
+		final Term[] terms = new Term[size];
+		for (int i = 0; i != size; ++i) {
+			final Term term = expression.terms[expression.offset + i];
+			if (term.isVariable())
+				terms[i] = translate((Variable) term);
+			else
+				terms[i] = translate(term, expression);
+		}
+		if ((expression.offset == 0) && (size == expression.sizes.length))
+			return new FlatExpression(terms, expression.sizes, 0);
+		final int[] sizes = new int[size];
+		System.arraycopy(expression.sizes, expression.offset, sizes, 0, size);
+		return new FlatExpression(terms, sizes, 0);
+	}
+
+	/**
+	 * Translates the specified functor.
+	 *
+	 * @param term functor.
+	 * @param expression expression containing the functor, for error
+	 * 	reporting.
+	 *
+	 * @return the translated functor.
+	 *
+	 * @throws ExpressionException if no mapping exists for the functor.
+	 */
+	private Functor translate(final Term term, final Expression expression) throws ExpressionException {
+		final Functor result = functorMap.get(term);
+		if (result == null) {
 			logger.error("Undefined functor translation");
 			logger.debug("Expression: " + expression);
 			logger.debug("Functor:    " + term);
 			throw new ExpressionException("Undefined functor translation");
 		}
-		final Expression result = new ExpressionImpl(functorMap.get(term));
-		for (final Expression childExpression: expression.getChildren())
-			result.addChild(translate(childExpression));
 		return result;
 	}
 
 	public Variable translate(final Variable variable) throws ExpressionException {
 		assert (variable != null): "Supplied variable is null";
-		if (!variableMap.containsKey(variable)) {
-			final Kind kind = variable.getKind();
-			if (!kindMap.containsKey(kind)) {
+		Variable result = variableMap.get(variable);
+		if (result == null) {
+			final Kind kind = kindMap.get(variable.getKind());
+			if (kind == null) {
 				logger.error("Undefined kind translation");
 				logger.debug("Variable: " + variable);
-				logger.debug("Kind:     " + kind);
+				logger.debug("Kind:     " + variable.getKind());
 				throw new ExpressionException("Undefined kind translation");
 			}
 			if (variable.isDummy())
-				variableMap.put(variable, dataFactory.createDummyVariable(kindMap.get(kind)));
+				result = dataFactory.createDummyVariable(kind);
 			else
-				variableMap.put(variable, dataFactory.createUnnamedVariable(kindMap.get(kind)));
+				result = dataFactory.createUnnamedVariable(kind);
+			variableMap.put(variable, result);
 		}
-		return variableMap.get(variable);
+		return result;
 	}
 
 	public Map<Functor, Functor> getFunctorMap() {
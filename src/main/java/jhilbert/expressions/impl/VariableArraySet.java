@@ -0,0 +1,121 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import jhilbert.data.Variable;
+
+/**
+ * Immutable set of {@link Variable}s, backed by an array in order of
+ * first appearance.
+ * <p>
+ * Membership is checked by a linear scan, which beats hashing for the
+ * handful of variables a typical expression contains. Identical variables
+ * are looked for first, since equality of names may be expensive.
+ */
+final class VariableArraySet extends AbstractSet<Variable> implements Serializable {
+
+	/**
+	 * Serialisation ID.
+	 */
+	private static final long serialVersionUID = jhilbert.Main.VERSION;
+
+	/**
+	 * Empty set.
+	 */
+	static final VariableArraySet EMPTY = new VariableArraySet(new Variable[0]);
+
+	/**
+	 * Variables.
+	 */
+	private final Variable[] variables;
+
+	/**
+	 * Creates a new <code>VariableArraySet</code> from the specified
+	 * array, which must not contain duplicates and must not be modified
+	 * afterwards.
+	 *
+	 * @param variables variables.
+	 */
+	private VariableArraySet(final Variable[] variables) {
+		this.variables = variables;
+	}
+
+	/**
+	 * Creates a new <code>VariableArraySet</code> from the specified
+	 * collection, which must not contain duplicates.
+	 *
+	 * @param variables variables.
+	 *
+	 * @return the new set.
+	 */
+	static VariableArraySet valueOf(final Collection<Variable> variables) {
+		assert (variables != null): "Supplied variables are null";
+		if (variables.isEmpty())
+			return EMPTY;
+		return new VariableArraySet(variables.toArray(new Variable[variables.size()]));
+	}
+
+	public @Override int size() {
+		return variables.length;
+	}
+
+	public @Override boolean contains(final Object o) {
+		for (final Variable var: variables)
+			if (var == o)
+				return true;
+		// names may be equal without being identical
+		for (final Variable var: variables)
+			if (var.equals(o))
+				return true;
+		return false;
+	}
+
+	public @Override Iterator<Variable> iterator() {
+		return new Iterator<Variable>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return (next != variables.length);
+			}
+
+			public Variable next() {
+				if (next == variables.length)
+					throw new NoSuchElementException();
+				return variables[next++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("Variable sets are immutable");
+			}
+		};
+	}
+
+}
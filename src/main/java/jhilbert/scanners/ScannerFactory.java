@@ -27,6 +27,7 @@ package jhilbert.scanners;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.InputStream;
 
 import jhilbert.data.Module;
@@ -50,9 +51,17 @@ public abstract class ScannerFactory {
 		return instance;
 	}
 
+	/**
+	 * Directory of the binary token cache.
+	 */
+	private volatile File tokenCacheDirectory = null;
+
 	/**
 	 * Creates a new {@link TokenFeed} from the specified
 	 * {@link java.io.InputStream}.
+	 * If a token cache directory is set, the tokens are replayed from the
+	 * cache if it holds the tokens of the same input, and are cached
+	 * otherwise.
 	 *
 	 * @param in input stream to create the <code>TokenFeed</code> from.
 	 *
@@ -82,4 +91,27 @@ public abstract class ScannerFactory {
 	 */
 	public abstract TokenFeed createTokenFeed(InputStream in, BufferedOutputStream out, Module module);
 
+	/**
+	 * Obtains the directory of the binary token cache.
+	 *
+	 * @return token cache directory, or <code>null</code> if tokens are
+	 * 	not cached.
+	 */
+	public File getTokenCacheDirectory() {
+		return tokenCacheDirectory;
+	}
+
+	/**
+	 * Sets the directory of the binary token cache. The cache holds the
+	 * tokens of each input read by {@link #createTokenFeed(InputStream)},
+	 * keyed by a hash of the input, so that unchanged sources need not be
+	 * scanned again. The token cache is off by default.
+	 *
+	 * @param directory token cache directory, or <code>null</code> for no
+	 * 	caching.
+	 */
+	public void setTokenCacheDirectory(final File directory) {
+		tokenCacheDirectory = directory;
+	}
+
 }
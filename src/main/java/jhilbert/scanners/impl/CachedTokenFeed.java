@@ -0,0 +1,99 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.scanners.impl;
+
+import jhilbert.scanners.Token;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A token feed replaying tokens from the {@link TokenCache}.
+ */
+final class CachedTokenFeed extends AbstractTokenFeed {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(CachedTokenFeed.class);
+
+	/**
+	 * Token table. Indices <code>0</code> and <code>1</code> hold the
+	 * beginning and the end of an expression, the remaining indices the
+	 * atoms.
+	 */
+	private final Token[] table;
+
+	/**
+	 * Token sequence, as indices into {@link #table}.
+	 */
+	private final int[] tokens;
+
+	/**
+	 * Position of the next token.
+	 */
+	private int position;
+
+	/**
+	 * Creates a new <code>CachedTokenFeed</code> replaying the specified
+	 * token sequence.
+	 *
+	 * @param table token table.
+	 * @param tokens token sequence, as indices into the token table.
+	 */
+	CachedTokenFeed(final Token[] table, final int[] tokens) {
+		assert (table != null): "Supplied token table is null";
+		assert (tokens != null): "Supplied token sequence is null";
+		this.table = table;
+		this.tokens = tokens;
+		position = 0;
+	}
+
+	protected @Override Token getNewToken() {
+		if (position == tokens.length)
+			return null;
+		final Token result = table[tokens[position++]];
+		appendToContext(' ');
+		appendToContext(result.getTokenString());
+		return result;
+	}
+
+	public @Override void confirm(final String msg) {
+		assert (msg != null): "Supplied message is null";
+		if (logger.isTraceEnabled())
+			logger.trace("Read " + msg + " token");
+	}
+
+	public @Override void reject(final String msg) {
+		assert (msg != null): "Supplied message is null";
+		logger.error(msg);
+	}
+
+	public @Override void confirmEndCmd() {
+		if (logger.isDebugEnabled())
+			logger.debug("Command complete");
+		resetContext();
+	}
+
+}
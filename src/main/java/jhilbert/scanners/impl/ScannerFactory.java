@@ -27,6 +27,7 @@ package jhilbert.scanners.impl;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.InputStream;
 
 import jhilbert.data.Module;
@@ -39,9 +40,12 @@ public final class ScannerFactory extends jhilbert.scanners.ScannerFactory {
 
 	// instances are default-constructed.
 
-	public @Override StreamTokenFeed createTokenFeed(final InputStream in) throws ScannerException {
+	public @Override AbstractTokenFeed createTokenFeed(final InputStream in) throws ScannerException {
 		assert (in != null): "Supplied input stream is null";
-		return new StreamTokenFeed(in);
+		final File directory = getTokenCacheDirectory();
+		if (directory == null)
+			return new StreamTokenFeed(in);
+		return new TokenCache(directory).createTokenFeed(in);
 	}
 
 	public @Override @Deprecated IOTokenFeed createTokenFeed(final BufferedReader in, final BufferedWriter out) {
@@ -0,0 +1,352 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.scanners.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jhilbert.scanners.ScannerException;
+import jhilbert.scanners.Token;
+import jhilbert.utils.Io;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Binary cache of token sequences.
+ * <p>
+ * The tokens of each input are kept in a file named after the SHA-1 hash
+ * of the input, so that a changed input simply misses the cache. A cache
+ * file starts with a magic number and the JHilbert version, followed by
+ * the table of distinct atoms and the number of tokens. The tokens follow
+ * as variable length integers, seven bits per byte, least significant
+ * bits first: <code>0</code> and <code>1</code> stand for the beginning
+ * and the end of an expression, <code>2</code> and up for the atoms of
+ * the table. Replaying such a sequence skips character decoding and
+ * classification, and creates each atom token only once.
+ */
+final class TokenCache {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(TokenCache.class);
+
+	/**
+	 * Cache file magic number.
+	 */
+	private static final int MAGIC = 0x4a48544b; // "JHTK"
+
+	/**
+	 * Cache file suffix.
+	 */
+	private static final String SUFFIX = ".jht";
+
+	/**
+	 * Number of fixed entries at the start of the token table.
+	 */
+	private static final int FIXED_TOKENS = 2;
+
+	/**
+	 * Cache directory.
+	 */
+	private final File directory;
+
+	/**
+	 * Creates a new token cache in the specified directory.
+	 *
+	 * @param directory cache directory. It is created when the first
+	 * 	token sequence is stored.
+	 */
+	TokenCache(final File directory) {
+		assert (directory != null): "Supplied directory is null";
+		this.directory = directory;
+	}
+
+	/**
+	 * Creates a token feed for the specified input. If the cache holds the
+	 * tokens of the input, they are replayed from the cache. Otherwise,
+	 * the input is scanned and its tokens are stored in the cache. Inputs
+	 * which cannot be read or scanned are not cached, so that errors are
+	 * reported as usual.
+	 *
+	 * @param in input stream.
+	 *
+	 * @return the token feed.
+	 *
+	 * @throws ScannerException if the scanner cannot be set up.
+	 */
+	AbstractTokenFeed createTokenFeed(final InputStream in) throws ScannerException {
+		assert (in != null): "Supplied input stream is null";
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try {
+			final byte[] chunk = new byte[8192];
+			int count;
+			while ((count = in.read(chunk)) != -1)
+				buffer.write(chunk, 0, count);
+		} catch (IOException e) {
+			// leave it to the scanner to report the error
+			logger.warn("I/O error while reading input for token cache, scanning input directly", e);
+			return new StreamTokenFeed(new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), in));
+		}
+		final byte[] input = buffer.toByteArray();
+		final File file = new File(directory, hash(input) + SUFFIX);
+		if (file.exists()) {
+			try {
+				final AbstractTokenFeed result = read(file);
+				if (result != null) {
+					if (logger.isDebugEnabled())
+						logger.debug("Replaying tokens from " + file);
+					return result;
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to read token cache file " + file + ", scanning input again", e);
+			}
+		}
+		final byte[] data;
+		try {
+			data = scan(input);
+		} catch (ScannerException e) {
+			if (logger.isDebugEnabled())
+				logger.debug("Not caching tokens of input with scanner error: " + e.getMessage());
+			return new StreamTokenFeed(new ByteArrayInputStream(input));
+		}
+		try {
+			write(file, data);
+			return decode(data);
+		} catch (IOException e) {
+			final AssertionError err = new AssertionError("Unable to decode freshly encoded tokens. This should not happen");
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	/**
+	 * Obtains the SHA-1 hash of the specified input as a hexadecimal
+	 * string.
+	 *
+	 * @param input input.
+	 *
+	 * @return hash of the input.
+	 */
+	private static String hash(final byte[] input) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(input);
+			final StringBuilder result = new StringBuilder(2 * digest.length);
+			for (final byte b: digest)
+				result.append(String.format("%02x", b & 0xff));
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			final AssertionError err = new AssertionError("SHA-1 not available. This should not happen");
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	/**
+	 * Scans the specified input and encodes its tokens in the cache file
+	 * format.
+	 *
+	 * @param input input.
+	 *
+	 * @return contents of the cache file.
+	 *
+	 * @throws ScannerException if the input cannot be scanned.
+	 */
+	private static byte[] scan(final byte[] input) throws ScannerException {
+		final StreamTokenFeed feed = new StreamTokenFeed(new ByteArrayInputStream(input));
+		final Map<String, Integer> indices = new HashMap();
+		final List<String> atoms = new ArrayList();
+		final ByteArrayOutputStream tokens = new ByteArrayOutputStream(input.length / 2);
+		int count = 0;
+		Token token;
+		while ((token = feed.getToken()) != null) {
+			int index;
+			switch (token.getTokenClass()) {
+				case BEGIN_EXP:
+					index = 0;
+					break;
+				case END_EXP:
+					index = 1;
+					break;
+				default:
+					final String atom = token.getTokenString();
+					final Integer known = indices.get(atom);
+					if (known != null) {
+						index = known;
+					} else {
+						index = FIXED_TOKENS + atoms.size();
+						indices.put(atom, index);
+						atoms.add(atom);
+					}
+			}
+			while (index >= 0x80) {
+				tokens.write((index & 0x7f) | 0x80);
+				index >>>= 7;
+			}
+			tokens.write(index);
+			++count;
+		}
+		try {
+			final ByteArrayOutputStream result = new ByteArrayOutputStream(tokens.size() + 16 * atoms.size() + 32);
+			final DataOutputStream out = new DataOutputStream(result);
+			out.writeInt(MAGIC);
+			out.writeLong(jhilbert.Main.VERSION);
+			out.writeInt(atoms.size());
+			for (final String atom: atoms)
+				out.writeUTF(atom);
+			out.writeInt(count);
+			tokens.writeTo(out);
+			out.flush();
+			return result.toByteArray();
+		} catch (IOException e) {
+			// only an atom too long for the format can cause this
+			throw new ScannerException("Unable to encode tokens: " + e.getMessage(), feed, e);
+		}
+	}
+
+	/**
+	 * Decodes the specified cache file contents.
+	 *
+	 * @param data contents of a cache file.
+	 *
+	 * @return a token feed replaying the tokens, or <code>null</code> if
+	 * 	the tokens were cached by a different JHilbert version.
+	 *
+	 * @throws IOException if the data is not a valid token sequence.
+	 */
+	private static AbstractTokenFeed decode(final byte[] data) throws IOException {
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+		final DataInputStream in = new DataInputStream(bytes);
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a token cache file");
+		if (in.readLong() != jhilbert.Main.VERSION)
+			return null;
+		final int atomCount = in.readInt();
+		if (atomCount < 0)
+			throw new IOException("Negative atom count");
+		final Token[] table = new Token[FIXED_TOKENS + atomCount];
+		table[0] = AbstractTokenFeed.BEGIN_EXP;
+		table[1] = AbstractTokenFeed.END_EXP;
+		for (int i = 0; i != atomCount; ++i)
+			table[FIXED_TOKENS + i] = new TokenImpl(in.readUTF(), Token.Class.ATOM);
+		final int count = in.readInt();
+		if ((count < 0) || (count > bytes.available()))
+			throw new IOException("Invalid token count");
+		// the token sequence is the rest of the data
+		int position = data.length - bytes.available();
+		final int[] tokens = new int[count];
+		for (int i = 0; i != count; ++i) {
+			int index = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (position == data.length)
+					throw new EOFException("Truncated token sequence");
+				b = data[position++];
+				index |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b < 0) && (shift < 32));
+			if ((b < 0) || (index < 0) || (index >= table.length))
+				throw new IOException("Invalid token index");
+			tokens[i] = index;
+		}
+		if (position != data.length)
+			throw new IOException("Trailing garbage after token sequence");
+		return new CachedTokenFeed(table, tokens);
+	}
+
+	/**
+	 * Reads the specified cache file.
+	 *
+	 * @param file cache file.
+	 *
+	 * @return a token feed replaying the tokens, or <code>null</code> if
+	 * 	the tokens were cached by a different JHilbert version.
+	 *
+	 * @throws IOException if the file cannot be read or is invalid.
+	 */
+	private static AbstractTokenFeed read(final File file) throws IOException {
+		final long length = file.length();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Token cache file too large");
+		final byte[] data = new byte[(int) length];
+		final DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return decode(data);
+	}
+
+	/**
+	 * Writes the specified cache file contents. The file is replaced
+	 * atomically. Failures are logged, since the cache is only an
+	 * optimisation.
+	 *
+	 * @param file cache file.
+	 * @param data contents of the cache file.
+	 */
+	private void write(final File file, final byte[] data) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			logger.warn("Unable to create token cache directory " + directory);
+			return;
+		}
+		File temp = null;
+		try {
+			temp = File.createTempFile(file.getName(), ".tmp", directory);
+			final FileOutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+			Io.replace(temp, file);
+			if (logger.isDebugEnabled())
+				logger.debug("Cached tokens in " + file);
+		} catch (IOException e) {
+			logger.warn("Unable to write token cache file " + file, e);
+		} finally {
+			if ((temp != null) && temp.exists() && !temp.delete())
+				logger.warn("Unable to remove temporary file " + temp);
+		}
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import jhilbert.data.Module;
+import jhilbert.utils.WeightedCache;
+import jhilbert.utils.Io;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Snapshot of the hot part of a module cache.
+ * <p>
+ * A snapshot file starts with a magic number and the JHilbert version,
+ * since serialised modules are only compatible within the same version.
+ * Each module follows as its locator, its revision, its cost in the
+ * module cache and its serialised form. Modules are serialised separately
+ * so that they can be deserialised in parallel.
+ */
+final class CacheSnapshot {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(CacheSnapshot.class);
+
+	/**
+	 * Snapshot file magic number.
+	 */
+	private static final int MAGIC = 0x4a484332; // "JHC2"
+
+	/**
+	 * IDs of the modules in this snapshot.
+	 */
+	private final List<ModuleID> ids;
+
+	/**
+	 * Serialised modules, in the same order as {@link #ids}.
+	 */
+	private final List<byte[]> modules;
+
+	/**
+	 * Costs of the modules in the module cache, in the same order as
+	 * {@link #ids}.
+	 */
+	private final List<Long> costs;
+
+	/**
+	 * Creates a new, empty snapshot.
+	 */
+	CacheSnapshot() {
+		ids = new ArrayList();
+		modules = new ArrayList();
+		costs = new ArrayList();
+	}
+
+	/**
+	 * Adds the specified module to this snapshot.
+	 *
+	 * @param id module ID.
+	 * @param module module.
+	 * @param cost cost of the module in the module cache.
+	 *
+	 * @throws IOException if the module cannot be serialised.
+	 */
+	void add(final ModuleID id, final Module module, final long cost) throws IOException {
+		assert (id != null): "Supplied module ID is null";
+		assert (module != null): "Supplied module is null";
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(module);
+		out.close();
+		ids.add(id);
+		modules.add(bytes.toByteArray());
+		costs.add(cost);
+	}
+
+	/**
+	 * Obtains the number of modules in this snapshot.
+	 *
+	 * @return number of modules.
+	 */
+	int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Writes this snapshot to the specified file.
+	 * The file is replaced atomically.
+	 *
+	 * @param file snapshot file.
+	 *
+	 * @throws IOException on error.
+	 */
+	void write(final File file) throws IOException {
+		assert (file != null): "Supplied file is null";
+		final File dir = file.getAbsoluteFile().getParentFile();
+		final File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			final FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+				out.writeInt(MAGIC);
+				out.writeLong(jhilbert.Main.VERSION);
+				out.writeInt(ids.size());
+				for (int i = 0; i != ids.size(); ++i) {
+					out.writeUTF(ids.get(i).getLocator());
+					out.writeLong(ids.get(i).getVersion());
+					out.writeLong(costs.get(i));
+					out.writeInt(modules.get(i).length);
+					out.write(modules.get(i));
+				}
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			Io.replace(temp, file);
+		} finally {
+			if (temp.exists() && !temp.delete())
+				logger.warn("Unable to remove temporary file " + temp);
+		}
+	}
+
+	/**
+	 * Reads a snapshot from the specified file.
+	 *
+	 * @param file snapshot file.
+	 *
+	 * @return the snapshot, or <code>null</code> if the snapshot was
+	 * 	written by a different JHilbert version.
+	 *
+	 * @throws IOException on error, or if the file is not a snapshot.
+	 */
+	static CacheSnapshot read(final File file) throws IOException {
+		assert (file != null): "Supplied file is null";
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a module cache snapshot");
+			if (in.readLong() != jhilbert.Main.VERSION)
+				return null;
+			final int count = in.readInt();
+			final CacheSnapshot result = new CacheSnapshot();
+			for (int i = 0; i != count; ++i) {
+				final String locator = in.readUTF();
+				final long version = in.readLong();
+				final long cost = in.readLong();
+				final int length = in.readInt();
+				if (length < 0)
+					throw new EOFException("Negative module length in " + file);
+				final byte[] data = new byte[length];
+				in.readFully(data);
+				result.ids.add(new ModuleID(locator, version));
+				result.modules.add(data);
+				result.costs.add(cost);
+			}
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Deserialises all modules of this snapshot in parallel.
+	 * Each module is put into the specified cache with its saved cost once
+	 * it is ready, unless the cache already holds the module by then.
+	 * Until then, the {@link Future} of the module is kept in the
+	 * specified pending map.
+	 *
+	 * @param threads number of threads to use.
+	 * @param cache module cache.
+	 * @param pending map of modules still being deserialised.
+	 *
+	 * @return the executor running the deserialisation, already shut
+	 * 	down, so that it terminates once all modules are done.
+	 */
+	ExecutorService restore(final int threads, final WeightedCache<ModuleID, Module> cache,
+			final Map<ModuleID, Future<Module>> pending) {
+		assert (threads > 0): "Number of threads must be positive";
+		assert (cache != null): "Supplied cache is null";
+		assert (pending != null): "Supplied pending map is null";
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r, "Module cache snapshot loader");
+				result.setDaemon(true);
+				return result;
+			}
+		});
+		// register all modules first, so that no request misses a pending one
+		final List<FutureTask<Module>> tasks = new ArrayList(ids.size());
+		for (int i = 0; i != ids.size(); ++i) {
+			final ModuleID id = ids.get(i);
+			final byte[] data = modules.get(i);
+			final long cost = costs.get(i);
+			final FutureTask<Module> task = new FutureTask(new Callable<Module>() {
+				public Module call() throws Exception {
+					try {
+						final Module module = (Module) new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+						synchronized (cache) {
+							// the module may have been deleted in the meantime
+							if (pending.containsKey(id) && !cache.containsKey(id))
+								cache.put(id, module, cost);
+						}
+						return module;
+					} catch (Exception e) {
+						logger.warn("Unable to restore module " + id + " from cache snapshot: " + e.getMessage());
+						throw e;
+					} finally {
+						pending.remove(id);
+					}
+				}
+			});
+			pending.put(id, task);
+			tasks.add(task);
+		}
+		for (final FutureTask<Module> task: tasks)
+			executor.execute(task);
+		executor.shutdown();
+		return executor;
+	}
+
+}
@@ -68,6 +68,24 @@ final class ModuleID {
 		version = module.getRevision();
 	}
 
+	/**
+	 * Obtains the locator.
+	 *
+	 * @return the locator.
+	 */
+	String getLocator() {
+		return locator;
+	}
+
+	/**
+	 * Obtains the revision number.
+	 *
+	 * @return the revision number.
+	 */
+	long getVersion() {
+		return version;
+	}
+
 	public @Override boolean equals(final Object o) {
 		try {
 			final ModuleID id = (ModuleID) o;
@@ -24,19 +24,37 @@
 
 package jhilbert.storage;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import jhilbert.data.Module;
-import jhilbert.utils.AutoCache;
+import jhilbert.utils.CachePolicy;
+import jhilbert.utils.TinyLfuPolicy;
+import jhilbert.utils.WeightedCache;
+
+import org.apache.log4j.Logger;
 
 /**
  * Facility for {@link Module} data storage.
  */
 public abstract class Storage {
 
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(Storage.class);
+
 	/**
 	 * Instance.
 	 */
@@ -49,6 +67,8 @@ public abstract class Storage {
 		try {
 			if (jhilbert.Main.getHashstorePath() != null) {
 				instance = new jhilbert.storage.hashstore.Storage();
+			} else if (jhilbert.Main.getSegmentStorePath() != null) {
+				instance = new jhilbert.storage.segment.Storage();
 			} else if (jhilbert.Main.isDaemon()) {
 				instance = new jhilbert.storage.mediawiki.Storage();
 			} else if (jhilbert.Main.isWiki()) {
@@ -62,9 +82,58 @@ public abstract class Storage {
 	}
 
 	/**
-	 * Default cache size.
+	 * Default module cache budget in bytes.
+	 */
+	public static final long DEFAULT_CACHE_BUDGET = 64L << 20;
+
+	/**
+	 * Number of distinct modules the default cache policy is tuned for.
+	 */
+	private static final int EXPECTED_MODULES = 1024;
+
+	/**
+	 * Estimated fixed size of a module in bytes.
+	 */
+	private static final long MODULE_SIZE = 1024;
+
+	/**
+	 * Estimated size of a kind in bytes.
+	 */
+	private static final long KIND_SIZE = 128;
+
+	/**
+	 * Estimated size of a symbol in bytes.
+	 * Symbols include statements, whose expressions dominate module size.
+	 */
+	private static final long SYMBOL_SIZE = 1024;
+
+	/**
+	 * Estimated size of a functor in bytes.
 	 */
-	private static final int DEFAULT_CACHE_SIZE = 50;
+	private static final long FUNCTOR_SIZE = 512;
+
+	/**
+	 * Estimated size of a parameter in bytes.
+	 */
+	private static final long PARAMETER_SIZE = 256;
+
+	/**
+	 * Estimates the retained size of modules.
+	 * This is a rough estimate from the number of objects in the module
+	 * namespaces. It is cheap, though, and only needs to rank modules
+	 * correctly.
+	 */
+	private static final class ModuleWeigher implements WeightedCache.Weigher<Module> {
+
+		public long weigh(final Module module) {
+			return MODULE_SIZE
+				+ KIND_SIZE * module.getKindNamespace().objects().size()
+				+ SYMBOL_SIZE * module.getSymbolNamespace().objects().size()
+				+ FUNCTOR_SIZE * module.getFunctorNamespace().objects().size()
+				+ PARAMETER_SIZE * module.getParameters().size();
+		}
+
+	}
 
 	/**
 	 * Returns a <code>Storage</code> instance.
@@ -80,7 +149,7 @@ public abstract class Storage {
 	/**
 	 * Module cache.
 	 */
-	private final Map<ModuleID, Module> moduleCache;
+	private final WeightedCache<ModuleID, Module> moduleCache;
 
 	/**
 	 * Set of currently loading modules.
@@ -90,22 +159,43 @@ public abstract class Storage {
 	private final Set<ModuleID> loadingModules;
 
 	/**
-	 * Creates a new <code>Storage</code> with a cache size of
-	 * <code>50</code>.
+	 * Modules from a cache snapshot which are still being restored.
+	 */
+	private final Map<ModuleID, Future<Module>> pendingModules;
+
+	/**
+	 * Creates a new <code>Storage</code> with the cache budget specified
+	 * on the command line, or a default budget of 64 MiB.
 	 */
 	protected Storage() {
-		this(DEFAULT_CACHE_SIZE);
+		this((jhilbert.Main.getCacheBudget() > 0) ? jhilbert.Main.getCacheBudget() : DEFAULT_CACHE_BUDGET);
+	}
+
+	/**
+	 * Creates a new <code>Storage</code> with the specified cache budget
+	 * and the default, cost aware TinyLFU cache policy.
+	 *
+	 * @param budget {@link Module} cache budget in bytes.
+	 */
+	protected Storage(final long budget) {
+		this(budget, new TinyLfuPolicy(EXPECTED_MODULES));
 	}
 
 	/**
-	 * Creates a new <code>Storage</code> with the specified cache size.
+	 * Creates a new <code>Storage</code> with the specified cache budget
+	 * and cache policy.
+	 * The cache policy is told the time it took to load each module, in
+	 * microseconds, as cost.
 	 *
-	 * @param size number of {@link Module} cache entries.
+	 * @param budget {@link Module} cache budget in bytes.
+	 * @param policy cache admission policy.
 	 */
-	protected Storage(final int size) {
-		assert (size >= 0): "Supplied size is negative";
-		moduleCache = Collections.synchronizedMap(new AutoCache(size));
+	protected Storage(final long budget, final CachePolicy<Object> policy) {
+		assert (budget >= 0): "Supplied budget is negative";
+		assert (policy != null): "Supplied policy is null";
+		moduleCache = new WeightedCache(budget, policy, new ModuleWeigher());
 		loadingModules = Collections.synchronizedSet(new HashSet());
+		pendingModules = new ConcurrentHashMap();
 	}
 	
 	/**
@@ -116,6 +206,29 @@ public abstract class Storage {
 	 */
 	public abstract boolean isVersioned();
 
+	/**
+	 * Returns whether this <code>Storage</code> keeps the modules saved
+	 * with {@link #saveModule}. Other storages either obtain modules from
+	 * elsewhere, such as MediaWiki, or do not support saving at all.
+	 *
+	 * @return <code>true</code> if saved modules are stored,
+	 * 	<code>false</code> otherwise.
+	 */
+	public boolean storesModules() {
+		return false;
+	}
+
+	/**
+	 * Releases the resources held by this <code>Storage</code>, such as
+	 * open files. The storage must not be used afterwards. The default
+	 * implementation does nothing.
+	 *
+	 * @throws StorageException if the storage cannot be closed cleanly.
+	 */
+	public void close() throws StorageException {
+		// nothing to release
+	}
+
 	/**
 	 * Obtains the canonical name for the specified locator.
 	 * Some storages may restrict the size of the locator namespace and
@@ -146,6 +259,28 @@ public abstract class Storage {
 	 */
 	protected abstract long getCurrentRevision(String locator) throws StorageException;
 
+	/**
+	 * Resolves the specified revision of the specified module.
+	 *
+	 * @param locator module name.
+	 * @param version revision number, or <code>-1</code> for the most
+	 * 	recent revision or if the module is unversioned.
+	 *
+	 * @return the specified revision number if it is not <code>-1</code>,
+	 * 	otherwise the current revision of the module, which is
+	 * 	<code>-1</code> if the module is unversioned.
+	 *
+	 * @throws StorageException if the current revision cannot be
+	 * 	obtained.
+	 */
+	public final long resolveRevision(final String locator, final long version) throws StorageException {
+		assert (locator != null): "Supplied locator is null";
+		assert (version >= -1): "Invalid version number supplied";
+		if (version != -1)
+			return version;
+		return getCurrentRevision(getCanonicalName(locator));
+	}
+
 	/**
 	 * Loads the specified module with the specified revision.
 	 *
@@ -182,6 +317,9 @@ public abstract class Storage {
 			version = getCurrentRevision(locator);
 		final ModuleID id = new ModuleID(locator, version);
 		Module result = moduleCache.get(id);
+		if (result != null)
+			return result;
+		result = awaitPending(id);
 		if (result != null)
 			return result;
 		synchronized (loadingModules) {
@@ -191,15 +329,158 @@ public abstract class Storage {
 			loadingModules.add(id);
 		}
 		try {
+			final long start = System.nanoTime();
 			result = retrieveModule(locator, version);
 			assert (result != null): "Implementation returned null module";
-			moduleCache.put(id, result);
+			moduleCache.put(id, result, (System.nanoTime() - start) / 1000);
 		} finally {
 			loadingModules.remove(id);
 		}
 		return result;
 	}
 
+	/**
+	 * Obtains the number of module requests answered from the cache.
+	 *
+	 * @return number of cache hits.
+	 */
+	public final long getCacheHits() {
+		return moduleCache.getHits();
+	}
+
+	/**
+	 * Obtains the number of module requests not answered from the cache.
+	 * This includes requests for modules still being restored from a
+	 * cache snapshot.
+	 *
+	 * @return number of cache misses.
+	 */
+	public final long getCacheMisses() {
+		return moduleCache.getMisses();
+	}
+
+	/**
+	 * Obtains the number of modules evicted from the cache.
+	 *
+	 * @return number of cache evictions.
+	 */
+	public final long getCacheEvictions() {
+		return moduleCache.getEvictions();
+	}
+
+	/**
+	 * Obtains the number of cached modules.
+	 *
+	 * @return number of cached modules.
+	 */
+	public final int getCacheSize() {
+		return moduleCache.size();
+	}
+
+	/**
+	 * Obtains the estimated total weight of the cached modules.
+	 *
+	 * @return cache weight in bytes.
+	 */
+	public final long getCacheWeight() {
+		return moduleCache.getWeight();
+	}
+
+	/**
+	 * Waits for the specified module if it is still being restored from a
+	 * cache snapshot.
+	 *
+	 * @param id module ID.
+	 *
+	 * @return the restored module, or <code>null</code> if the module is
+	 * 	not pending or could not be restored.
+	 */
+	private Module awaitPending(final ModuleID id) {
+		final Future<Module> pending = pendingModules.get(id);
+		if (pending == null)
+			return null;
+		try {
+			return pending.get();
+		} catch (ExecutionException e) {
+			return null; // already logged, fall back to storage
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the cached modules to the specified file.
+	 * Unversioned modules are left out since they may change in storage
+	 * while no daemon is running.
+	 *
+	 * @param file snapshot file.
+	 *
+	 * @return number of modules written.
+	 *
+	 * @throws StorageException if the snapshot cannot be written.
+	 */
+	public final int saveSnapshot(final File file) throws StorageException {
+		assert (file != null): "Supplied file is null";
+		final List<Map.Entry<ModuleID, Module>> hot;
+		final Map<ModuleID, Long> costs = new HashMap();
+		synchronized (moduleCache) {
+			hot = new ArrayList(moduleCache.entrySet());
+			for (final Map.Entry<ModuleID, Module> entry: hot)
+				costs.put(entry.getKey(), moduleCache.getCost(entry.getKey()));
+		}
+		final CacheSnapshot snapshot = new CacheSnapshot();
+		try {
+			for (final Map.Entry<ModuleID, Module> entry: hot) {
+				if (entry.getKey().getVersion() != -1)
+					snapshot.add(entry.getKey(), entry.getValue(), costs.get(entry.getKey()));
+			}
+			snapshot.write(file);
+		} catch (IOException e) {
+			throw new StorageException("Unable to write module cache snapshot " + file, e);
+		}
+		if (logger.isDebugEnabled())
+			logger.debug("Wrote " + snapshot.size() + " modules to cache snapshot " + file);
+		return snapshot.size();
+	}
+
+	/**
+	 * Restores the cached modules from the specified snapshot file.
+	 * The modules are deserialised in the background by the specified
+	 * number of threads, and this method returns immediately. Requests for
+	 * a module which is still being restored wait for it instead of
+	 * loading it from storage.
+	 * A missing snapshot file, or one written by a different JHilbert
+	 * version, is ignored.
+	 *
+	 * @param file snapshot file.
+	 * @param threads number of threads.
+	 *
+	 * @return executor running the restoration, or <code>null</code> if
+	 * 	there is nothing to restore. The executor has already been shut
+	 * 	down and terminates once restoration is finished.
+	 *
+	 * @throws StorageException if the snapshot file cannot be read.
+	 */
+	public final ExecutorService restoreSnapshot(final File file, final int threads) throws StorageException {
+		assert (file != null): "Supplied file is null";
+		assert (threads > 0): "Number of threads must be positive";
+		if (!file.exists())
+			return null;
+		final CacheSnapshot snapshot;
+		try {
+			snapshot = CacheSnapshot.read(file);
+		} catch (IOException e) {
+			throw new StorageException("Unable to read module cache snapshot " + file, e);
+		}
+		if (snapshot == null) {
+			logger.info("Ignoring cache snapshot " + file + " from a different JHilbert version");
+			return null;
+		}
+		logger.info("Restoring " + snapshot.size() + " modules from cache snapshot " + file);
+		return snapshot.restore(threads, moduleCache, pendingModules);
+	}
+
 	/**
 	 * Loads the most recent (or only, if unversioned) revision of the
 	 * specified module from cache.
@@ -271,6 +552,8 @@ public abstract class Storage {
 	 * Deletes the module at the specified locator with the specified
 	 * revision from cache and possibly erases it from storage.
 	 * Does nothing if the module is neither cached nor in storage.
+	 * Deleting revision <code>-1</code> deletes every cached revision of
+	 * the module, since versioned storages erase all revisions then.
 	 *
 	 * @param locator module name.
 	 * @param version revision number, or <code>-1</code> if the module
@@ -283,7 +566,19 @@ public abstract class Storage {
 		assert (version >= -1): "Invalid version number supplied";
 		locator = getCanonicalName(locator);
 		eraseModule(locator, version);
-		moduleCache.remove(new ModuleID(locator, version));
+		if (version == -1) {
+			final List<ModuleID> ids = new ArrayList(pendingModules.keySet());
+			ids.addAll(moduleCache.keySet());
+			for (final ModuleID id: ids)
+				if (id.getLocator().equals(locator)) {
+					pendingModules.remove(id);
+					moduleCache.remove(id);
+				}
+			return;
+		}
+		final ModuleID id = new ModuleID(locator, version);
+		pendingModules.remove(id);
+		moduleCache.remove(id);
 	}
 
 }
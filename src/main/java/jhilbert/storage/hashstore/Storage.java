@@ -24,26 +24,32 @@
 
 package jhilbert.storage.hashstore;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.InvalidClassException;
 import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OptionalDataException;
-import java.io.RandomAccessFile;
 import java.io.StreamCorruptedException;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jhilbert.data.Module;
 import jhilbert.storage.StorageException;
-import jhilbert.utils.FileAccessManager;
+import jhilbert.utils.Io;
 
 import org.apache.log4j.Logger;
 
@@ -51,6 +57,21 @@ import org.apache.log4j.Logger;
  * Hashstore storage.
  * Module names are hashed securely and then stored in the filesystem
  * with the hashed names.
+ * <p>
+ * Modules are written to a temporary file first, which is then renamed over
+ * the old module file. Readers therefore always see either the complete old
+ * or the complete new module, and never need to lock. Writers and erasers of
+ * the same module are serialised through a set of lock stripes, one for each
+ * hash directory, so that writers of different modules rarely contend.
+ * <p>
+ * The hashstore is versioned. Revision <code>r</code> of a module is kept
+ * next to the hashed file name with a suffix of <code>-r</code>, and a
+ * pointer file with the suffix <code>.latest</code> holds the most recent
+ * revision number. The latest revisions are also kept in memory, so that
+ * the pointer file is only read the first time a module is looked up.
+ * Only a limited number of the most recent revisions is
+ * retained; older revisions are removed whenever a new revision is stored.
+ * Modules stored without a revision number keep the plain hashed file name.
  */
 public final class Storage extends jhilbert.storage.Storage {
 
@@ -66,39 +87,69 @@ public final class Storage extends jhilbert.storage.Storage {
 		'8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
 
 	/**
-	 * Digest.
+	 * Digest encoding.
 	 */
-	private static final MessageDigest HASHER;
+	private static final String HASHER_ENCODING = "UTF-8";
 
 	/**
-	 * Digest charset.
+	 * Suffix for temporary files.
 	 */
-	@SuppressWarnings("unused")
-	private static final Charset HASHER_CHARSET = Charset.forName("UTF-8");
+	private static final String TEMP_SUFFIX = ".tmp";
 
 	/**
-	 * Static initializer.
+	 * Separator between hashed file name and revision number.
 	 */
-	static {
-		try {
-			HASHER = MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("NoSuchAlgorithmException in static hashstore Storage initializer", e);
+	private static final char REVISION_SEPARATOR = '-';
+
+	/**
+	 * Suffix for the latest revision pointer.
+	 */
+	private static final String LATEST_SUFFIX = ".latest";
+
+	/**
+	 * Default number of retained revisions per module.
+	 */
+	public static final int DEFAULT_RETAINED_REVISIONS = 5;
+
+	/**
+	 * Number of lock stripes.
+	 * This equals the number of second level hash directories.
+	 */
+	private static final int NUM_STRIPES = 256;
+
+	/**
+	 * Digests, one per thread.
+	 */
+	private static final ThreadLocal<MessageDigest> HASHER = new ThreadLocal<MessageDigest>() {
+		protected @Override MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("NoSuchAlgorithmException while creating hashstore digest", e);
+			}
 		}
-	}
+	};
 
 	/**
-	 * Converts a file name to a hashstore pathname.
-	 *
-	 * @param locator file name.
-	 *
-	 * @return hashstore pathname.
+	 * Base path of this hashstore.
 	 */
-	private static String n2p(final String name) {
-		assert (name != null): "Supplied pathname is null";
-		assert (name.length() >= 2): "Supplied pathname is too short";
-		return jhilbert.Main.getHashstorePath() + '/' + name.charAt(0) + '/' + name.substring(0,2) + '/' + name;
-	}
+	private final String basePath;
+
+	/**
+	 * Lock stripes for writers.
+	 */
+	private final Object[] locks;
+
+	/**
+	 * Number of retained revisions per module.
+	 */
+	private final int retainedRevisions;
+
+	/**
+	 * Latest revisions of the modules looked up or written so far.
+	 * Entries are only replaced with the writer lock of the module held.
+	 */
+	private final ConcurrentHashMap<String, Long> latestRevisions;
 
 	/**
 	 * Converts a byte array to a file name in a unique way.
@@ -120,6 +171,7 @@ public final class Storage extends jhilbert.storage.Storage {
 
 	/**
 	 * Converts a locator to a hash byte array.
+	 * Each thread uses its own digest, so hashing never contends.
 	 *
 	 * @param l locator.
 	 *
@@ -127,11 +179,22 @@ public final class Storage extends jhilbert.storage.Storage {
 	 */
 	private static byte[] l2b(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
 		assert (l != null): "Supplied locator is null";
-		synchronized (HASHER) {
-			// FIXME: this may be an congestion point; maybe use a separate hasher for each call...
-			HASHER.update(l.getBytes(/* FIXME: 1.5 compat HASHER_CHARSET */ "UTF-8"));
-			return HASHER.digest();
-		}
+		final MessageDigest hasher = HASHER.get();
+		hasher.reset();
+		return hasher.digest(l.getBytes(HASHER_ENCODING));
+	}
+
+	/**
+	 * Converts a file name to a hashstore pathname.
+	 *
+	 * @param name file name.
+	 *
+	 * @return hashstore pathname.
+	 */
+	private String n2p(final String name) {
+		assert (name != null): "Supplied pathname is null";
+		assert (name.length() >= 2): "Supplied pathname is too short";
+		return basePath + '/' + name.charAt(0) + '/' + name.substring(0,2) + '/' + name;
 	}
 
 	/**
@@ -141,20 +204,84 @@ public final class Storage extends jhilbert.storage.Storage {
 	 *
 	 * @return hashstore pathname.
 	 */
-	private static String l2p(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
+	private String l2p(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
 		assert (l != null): "Supplied locator is null";
 		return n2p(b2n(l2b(l)));
 	}
 
 	/**
-	 * Creates a new hashstore storage.
-	 * There should not be more than one instance of this class.
+	 * Obtains the pathname of the specified revision of the module with
+	 * the specified locator.
+	 *
+	 * @param l locator.
+	 * @param version revision number, or <code>-1</code> for an
+	 * 	unversioned module.
+	 *
+	 * @return hashstore pathname.
+	 */
+	private String l2p(final String l, final long version) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
+		if (version == -1)
+			return l2p(l);
+		return l2p(l) + REVISION_SEPARATOR + version;
+	}
+
+	/**
+	 * Obtains the writer lock for the specified locator.
+	 * The stripe is chosen by the first hash byte, which also determines
+	 * the hash directory of the module.
+	 *
+	 * @param l locator.
+	 *
+	 * @return writer lock.
+	 */
+	private Object lockFor(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
+		assert (l != null): "Supplied locator is null";
+		return locks[l2b(l)[0] + 128];
+	}
+
+	/**
+	 * Creates a new hashstore storage at the hashstore path specified on
+	 * the command line.
+	 * There should not be more than one instance of this class per path.
 	 *
 	 * @throws StorageException if directory hierarchy cannot be created.
 	 */
 	public Storage() throws StorageException {
+		this(jhilbert.Main.getHashstorePath());
+	}
+
+	/**
+	 * Creates a new hashstore storage at the specified path.
+	 * There should not be more than one instance of this class per path.
+	 *
+	 * @param basePath base directory of the hashstore.
+	 *
+	 * @throws StorageException if directory hierarchy cannot be created.
+	 */
+	public Storage(final String basePath) throws StorageException {
+		this(basePath, DEFAULT_RETAINED_REVISIONS);
+	}
+
+	/**
+	 * Creates a new hashstore storage at the specified path, keeping at
+	 * most the specified number of revisions of each module.
+	 * There should not be more than one instance of this class per path.
+	 *
+	 * @param basePath base directory of the hashstore.
+	 * @param retainedRevisions number of revisions to keep per module.
+	 *
+	 * @throws StorageException if directory hierarchy cannot be created.
+	 */
+	public Storage(final String basePath, final int retainedRevisions) throws StorageException {
+		assert (basePath != null): "Supplied base path is null";
+		assert (retainedRevisions > 0): "At least one revision must be retained";
+		this.basePath = basePath;
+		this.retainedRevisions = retainedRevisions;
+		latestRevisions = new ConcurrentHashMap();
+		locks = new Object[NUM_STRIPES];
+		for (int i = 0; i != NUM_STRIPES; ++i)
+			locks[i] = new Object();
 		// create hash directory structure
-		final String basePath = jhilbert.Main.getHashstorePath();
 		for (int i = 0; i != 16; ++i)
 			for (int j = 0; j != 16; ++j) {
 				final File dir = new File(basePath + '/' + HEXDIGITS[i] + '/'
@@ -166,8 +293,169 @@ public final class Storage extends jhilbert.storage.Storage {
 			}
 	}
 
+	/**
+	 * Creates a temporary file next to the specified target file.
+	 *
+	 * @param target target file.
+	 *
+	 * @return new temporary file.
+	 *
+	 * @throws IOException if the file cannot be created.
+	 */
+	private static File createTemp(final File target) throws IOException {
+		return File.createTempFile(target.getName(), TEMP_SUFFIX, target.getParentFile());
+	}
+
+	/**
+	 * Atomically replaces the specified target file with the specified
+	 * temporary file.
+	 * The temporary file is removed in any case.
+	 *
+	 * @param temp temporary file, completely written.
+	 * @param target target file.
+	 *
+	 * @throws IOException if the file cannot be moved into place.
+	 */
+	private static void moveIntoPlace(final File temp, final File target) throws IOException {
+		Io.replace(temp, target);
+	}
+
+	/**
+	 * Reads the latest revision pointer of the specified module.
+	 *
+	 * @param locator module locator.
+	 *
+	 * @return latest revision, or <code>-1</code> if the module has no
+	 * 	revisions.
+	 *
+	 * @throws StorageException if the pointer cannot be read.
+	 */
+	private long readLatest(final String locator) throws StorageException {
+		try {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(
+						new FileInputStream(l2p(locator) + LATEST_SUFFIX), HASHER_ENCODING));
+			try {
+				return Long.parseLong(reader.readLine());
+			} finally {
+				reader.close();
+			}
+		} catch (FileNotFoundException e) {
+			return -1;
+		} catch (NumberFormatException e) {
+			throw new StorageException("Latest revision pointer of " + locator + " is corrupt", e);
+		} catch (IOException e) {
+			throw new StorageException("I/O error while reading latest revision of " + locator, e);
+		}
+	}
+
+	/**
+	 * Obtains the latest revision of the specified module, reading the
+	 * revision pointer only if the revision is not known yet.
+	 *
+	 * @param locator module locator.
+	 *
+	 * @return latest revision, or <code>-1</code> if the module has no
+	 * 	revisions.
+	 *
+	 * @throws StorageException if the pointer cannot be read.
+	 */
+	private long latest(final String locator) throws StorageException {
+		final Long known = latestRevisions.get(locator);
+		if (known != null)
+			return known;
+		final long result = readLatest(locator);
+		if (result == -1)
+			return -1; // do not remember arbitrary missing modules
+		// a concurrent writer has the final word
+		final Long previous = latestRevisions.putIfAbsent(locator, result);
+		return (previous == null) ? result : previous;
+	}
+
+	/**
+	 * Writes the latest revision pointer of the specified module and
+	 * remembers the revision.
+	 * Must be called with the writer lock of the module held.
+	 *
+	 * @param locator module locator.
+	 * @param version latest revision, or <code>-1</code> to remove the
+	 * 	pointer.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void writeLatest(final String locator, final long version) throws IOException {
+		// readers fall back to the pointer file until it has been written
+		latestRevisions.remove(locator);
+		final File pointer = new File(l2p(locator) + LATEST_SUFFIX);
+		if (version == -1) {
+			if (pointer.exists() && !pointer.delete())
+				throw new IOException("Unable to remove latest revision pointer " + pointer);
+			latestRevisions.put(locator, -1L);
+			return;
+		}
+		final File temp = createTemp(pointer);
+		final FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			fos.write((Long.toString(version) + '\n').getBytes(HASHER_ENCODING));
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		moveIntoPlace(temp, pointer);
+		latestRevisions.put(locator, version);
+	}
+
+	/**
+	 * Lists the revisions of the specified module present in the
+	 * hashstore, most recent first.
+	 *
+	 * @param locator module locator.
+	 *
+	 * @return list of revision numbers in descending order.
+	 */
+	private List<Long> listRevisions(final String locator) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
+		final File base = new File(l2p(locator));
+		final String prefix = base.getName() + REVISION_SEPARATOR;
+		final List<Long> result = new ArrayList();
+		final String[] names = base.getParentFile().list();
+		if (names == null)
+			return result;
+		for (final String name: names) {
+			if (!name.startsWith(prefix))
+				continue;
+			try {
+				result.add(Long.valueOf(name.substring(prefix.length())));
+			} catch (NumberFormatException e) {
+				// not a revision file
+			}
+		}
+		Collections.sort(result, Collections.reverseOrder());
+		return result;
+	}
+
+	/**
+	 * Removes all but the most recent retained revisions of the specified
+	 * module.
+	 * Must be called with the writer lock of the module held.
+	 *
+	 * @param locator module locator.
+	 */
+	private void compact(final String locator) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
+		final List<Long> revisions = listRevisions(locator);
+		for (int i = retainedRevisions; i < revisions.size(); ++i) {
+			final File file = new File(l2p(locator, revisions.get(i)));
+			if (!file.delete())
+				logger.warn("Unable to remove obsolete revision " + revisions.get(i) + " of " + locator);
+			else if (logger.isDebugEnabled())
+				logger.debug("Removed obsolete revision " + revisions.get(i) + " of " + locator);
+		}
+	}
+
 	public @Override boolean isVersioned() {
-		return false;
+		return true;
+	}
+
+	public @Override boolean storesModules() {
+		return true;
 	}
 
 	protected @Override String getCanonicalName(final String locator) {
@@ -178,17 +466,15 @@ public final class Storage extends jhilbert.storage.Storage {
 		assert (locator != null): "Supplied locator is null";
 		assert (version >= -1): "Invalid revision number supplied";
 		try {
-			final RandomAccessFile file = FileAccessManager.getFile(l2p(locator));
+			final ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+						new FileInputStream(l2p(locator, version))));
 			try {
-				synchronized (file) {
-					final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file.getFD()));
-					return (Module) ois.readObject();
-				}
+				return (Module) ois.readObject();
 			} finally {
-				FileAccessManager.putFile(file);
+				ois.close();
 			}
 		} catch (FileNotFoundException e) {
-			throw new StorageException("File not found (should not normally happen)", e);
+			throw new StorageException("Module " + locator + " revision " + version + " not found in hashstore", e);
 		} catch (ClassNotFoundException e) {
 			throw new StorageException("File does not contain module data", e);
 		} catch (ClassCastException e) {
@@ -209,15 +495,29 @@ public final class Storage extends jhilbert.storage.Storage {
 		assert (locator != null): "Supplied locator is null";
 		assert (version >= -1): "Invalid revision number supplied";
 		try {
-			final RandomAccessFile file = FileAccessManager.getFile(l2p(locator));
-			try {
-				synchronized (file) {
-					file.getChannel().truncate(0);
-					final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file.getFD()));
-					oos.writeObject(module);
+			final File file = new File(l2p(locator, version));
+			synchronized (lockFor(locator)) {
+				final File temp = createTemp(file);
+				try {
+					final FileOutputStream fos = new FileOutputStream(temp);
+					try {
+						final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos));
+						oos.writeObject(module);
+						oos.flush();
+						fos.getFD().sync();
+					} finally {
+						fos.close();
+					}
+				} catch (IOException e) {
+					temp.delete();
+					throw e;
 				}
-			} finally {
-				FileAccessManager.putFile(file);
+				moveIntoPlace(temp, file);
+				if (version == -1)
+					return;
+				if (version >= latest(locator))
+					writeLatest(locator, version);
+				compact(locator);
 			}
 		} catch (InvalidClassException e) {
 			final AssertionError err = new AssertionError("Invalid seralization class. This should not happen");
@@ -232,24 +532,65 @@ public final class Storage extends jhilbert.storage.Storage {
 		}
 	}
 
-	protected @Override synchronized void eraseModule(final String locator, final long version)
+	protected @Override void eraseModule(final String locator, final long version)
 	throws StorageException {
 		assert (locator != null): "Supplied locator is null";
 		assert (version >= -1): "Invalid revision number supplied";
 		try {
-			final File file = new File(l2p(locator));
-			if (!file.exists())
-				return;
-			if (!file.delete())
-				throw new StorageException("Unable to erase module " + locator + " at hashstore path " 
-						+ l2p(locator));
+			synchronized (lockFor(locator)) {
+				if (version != -1) {
+					erase(locator, version);
+					// move the latest revision pointer back if necessary
+					if (latest(locator) == version) {
+						final List<Long> revisions = listRevisions(locator);
+						writeLatest(locator, revisions.isEmpty() ? -1 : revisions.get(0));
+					}
+					return;
+				}
+				// erase all traces of the module
+				erase(locator, -1);
+				for (final Long revision: listRevisions(locator))
+					erase(locator, revision);
+				writeLatest(locator, -1);
+			}
 		} catch (UnsupportedEncodingException e) {
 			throw new StorageException("Unable to calculate hash for module to be erased", e);
+		} catch (IOException e) {
+			throw new StorageException("I/O error while erasing module", e);
 		}
 	}
 
-	protected @Override long getCurrentRevision(final String locator) {
-		return -1;
+	/**
+	 * Erases a single revision file.
+	 * Must be called with the writer lock of the module held.
+	 *
+	 * @param locator module locator.
+	 * @param version revision number, or <code>-1</code>.
+	 *
+	 * @throws StorageException if the file exists but cannot be erased.
+	 */
+	private void erase(final String locator, final long version) throws StorageException, UnsupportedEncodingException {
+		final File file = new File(l2p(locator, version));
+		if (!file.exists())
+			return;
+		if (!file.delete())
+			throw new StorageException("Unable to erase module " + locator + " revision " + version
+					+ " at hashstore path " + file);
+	}
+
+	/**
+	 * Obtains the latest stored revision of the specified module.
+	 *
+	 * @param locator module locator.
+	 *
+	 * @return latest revision, or <code>-1</code> if the module has only
+	 * 	been stored unversioned, or not at all.
+	 *
+	 * @throws StorageException if the revision pointer cannot be read.
+	 */
+	protected @Override long getCurrentRevision(final String locator) throws StorageException {
+		assert (locator != null): "Supplied locator is null";
+		return latest(locator);
 	}
 
 }
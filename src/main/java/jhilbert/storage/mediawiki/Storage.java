@@ -39,6 +39,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import jhilbert.Metrics;
 import jhilbert.commands.CommandException;
 import jhilbert.commands.CommandFactory;
 import jhilbert.data.DataException;
@@ -82,6 +83,7 @@ public final class Storage extends jhilbert.storage.Storage {
 	 */
 	private RevisionHandler handleRequest(final String req) throws StorageException {
 		assert (req != null): "Supplied request is null";
+		final long start = System.nanoTime();
 		try {
 			final URL requestURL = new URL(jhilbert.Main.getMediaWikiApi() + "?format=xml&action=query&" + req);
 			final URLConnection request = requestURL.openConnection();
@@ -100,6 +102,8 @@ public final class Storage extends jhilbert.storage.Storage {
 			throw new StorageException("Unable to create parser", e);
 		} catch (SAXException e) {
 			throw new StorageException("Error parsing MediaWiki reply", e);
+		} finally {
+			Metrics.getInstance().recordBackendRequest(System.nanoTime() - start);
 		}
 	}
 
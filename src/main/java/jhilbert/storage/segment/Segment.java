@@ -0,0 +1,381 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.storage.segment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A single segment file of the segment store.
+ * <p>
+ * A segment is a sequence of records. Each record consists of an eight
+ * byte header, holding the length of the record body and the CRC32 of the
+ * body, followed by the body. The body consists of the record type, the
+ * module locator, the revision number and, for module records, the
+ * serialised module.
+ * <p>
+ * Records are only ever appended to a segment, so everything before the
+ * current size is immutable and may be read concurrently without locking.
+ */
+final class Segment {
+
+	/**
+	 * Record type of a stored module.
+	 */
+	static final byte MODULE = 1;
+
+	/**
+	 * Record type of a deletion.
+	 */
+	static final byte TOMBSTONE = 2;
+
+	/**
+	 * Length of the record header.
+	 */
+	static final int HEADER_LENGTH = 8;
+
+	/**
+	 * Segment file name prefix.
+	 */
+	private static final String PREFIX = "segment-";
+
+	/**
+	 * Segment file name suffix.
+	 */
+	private static final String SUFFIX = ".log";
+
+	/**
+	 * Segment ID.
+	 */
+	final int id;
+
+	/**
+	 * Segment file.
+	 */
+	final File file;
+
+	/**
+	 * Underlying random access file.
+	 */
+	private final RandomAccessFile raf;
+
+	/**
+	 * File channel.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Current size in bytes.
+	 * Only the store writer changes this value.
+	 */
+	private volatile long size;
+
+	/**
+	 * Number of bytes in records still referenced by the index.
+	 * Guarded by the append lock of the store.
+	 */
+	long liveBytes;
+
+	/**
+	 * Opens the segment with the specified ID in the specified
+	 * directory, creating it if necessary.
+	 *
+	 * @param dir store directory.
+	 * @param id segment ID.
+	 * @param writable whether records will be appended to this segment.
+	 *
+	 * @throws IOException if the segment cannot be opened.
+	 */
+	Segment(final File dir, final int id, final boolean writable) throws IOException {
+		assert (dir != null): "Supplied directory is null";
+		assert (id > 0): "Invalid segment ID supplied";
+		this.id = id;
+		file = new File(dir, fileName(id));
+		raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		channel = raf.getChannel();
+		size = channel.size();
+		liveBytes = 0;
+	}
+
+	/**
+	 * Obtains the file name of the segment with the specified ID.
+	 *
+	 * @param id segment ID.
+	 *
+	 * @return segment file name.
+	 */
+	static String fileName(final int id) {
+		return PREFIX + String.format("%010d", id) + SUFFIX;
+	}
+
+	/**
+	 * Obtains the segment ID from the specified file name.
+	 *
+	 * @param name file name.
+	 *
+	 * @return segment ID, or <code>-1</code> if the name does not belong
+	 * 	to a segment file.
+	 */
+	static int parseId(final String name) {
+		if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+			return -1;
+		try {
+			final int id = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+			return (id > 0) ? id : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Encodes a complete record.
+	 *
+	 * @param type record type.
+	 * @param locator module locator.
+	 * @param version revision number.
+	 * @param payload serialised module, or an empty array for tombstones.
+	 *
+	 * @return record, ready for appending.
+	 */
+	static ByteBuffer encode(final byte type, final String locator, final long version, final byte[] payload) {
+		assert (locator != null): "Supplied locator is null";
+		assert (payload != null): "Supplied payload is null";
+		try {
+			final ByteArrayOutputStream body = new ByteArrayOutputStream(payload.length + locator.length() + 16);
+			final DataOutputStream out = new DataOutputStream(body);
+			out.writeByte(type);
+			out.writeUTF(locator);
+			out.writeLong(version);
+			out.write(payload);
+			out.flush();
+			return encode(body.toByteArray());
+		} catch (IOException e) {
+			throw new AssertionError("I/O error on byte array. This should not happen");
+		}
+	}
+
+	/**
+	 * Encodes a complete record from the specified record body.
+	 *
+	 * @param body record body.
+	 *
+	 * @return record, ready for appending.
+	 */
+	static ByteBuffer encode(final byte[] body) {
+		final CRC32 crc = new CRC32();
+		crc.update(body);
+		final ByteBuffer result = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+		result.putInt(body.length);
+		result.putInt((int) crc.getValue());
+		result.put(body);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * Obtains the current size of this segment.
+	 *
+	 * @return size in bytes.
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Appends the specified record.
+	 * Must only be called by the store writer.
+	 *
+	 * @param record encoded record.
+	 *
+	 * @return offset of the record.
+	 *
+	 * @throws IOException if the record cannot be written.
+	 */
+	long append(final ByteBuffer record) throws IOException {
+		final long offset = size;
+		long position = offset;
+		while (record.hasRemaining())
+			position += channel.write(record, position);
+		size = position;
+		return offset;
+	}
+
+	/**
+	 * Forces all appended records to the storage device.
+	 *
+	 * @throws IOException on error.
+	 */
+	void force() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * Cuts off this segment at the specified offset.
+	 * Used to remove torn records after a crash.
+	 *
+	 * @param offset new size.
+	 *
+	 * @throws IOException on error.
+	 */
+	void truncate(final long offset) throws IOException {
+		channel.truncate(offset);
+		size = offset;
+	}
+
+	/**
+	 * Closes this segment.
+	 *
+	 * @throws IOException on error.
+	 */
+	void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * Reads the specified number of bytes at the specified position.
+	 *
+	 * @param position file position.
+	 * @param length number of bytes.
+	 *
+	 * @return the bytes read.
+	 *
+	 * @throws IOException on error.
+	 */
+	private byte[] read(long position, final int length) throws IOException {
+		final byte[] result = new byte[length];
+		final ByteBuffer buffer = ByteBuffer.wrap(result);
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, position);
+			if (count < 0)
+				throw new EOFException("Unexpected end of segment " + file);
+			position += count;
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the record at the specified offset.
+	 *
+	 * @param offset record offset.
+	 *
+	 * @return the record, or <code>null</code> if there is no complete,
+	 * 	intact record at the specified offset.
+	 *
+	 * @throws IOException on I/O error.
+	 */
+	Record readRecord(final long offset) throws IOException {
+		final long limit = size;
+		if (offset + HEADER_LENGTH > limit)
+			return null;
+		final ByteBuffer header = ByteBuffer.wrap(read(offset, HEADER_LENGTH));
+		final int length = header.getInt();
+		final int checksum = header.getInt();
+		if ((length <= 0) || (offset + HEADER_LENGTH + length > limit))
+			return null;
+		final byte[] body = read(offset + HEADER_LENGTH, length);
+		final CRC32 crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != checksum)
+			return null;
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(body);
+		final DataInputStream in = new DataInputStream(bytes);
+		try {
+			final byte type = in.readByte();
+			if ((type != MODULE) && (type != TOMBSTONE))
+				return null;
+			final String locator = in.readUTF();
+			final long version = in.readLong();
+			return new Record(type, locator, version, offset, body, length - bytes.available());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A record read from a segment.
+	 */
+	static final class Record {
+
+		/**
+		 * Record type.
+		 */
+		final byte type;
+
+		/**
+		 * Module locator.
+		 */
+		final String locator;
+
+		/**
+		 * Revision number.
+		 */
+		final long version;
+
+		/**
+		 * Offset of the record in its segment.
+		 */
+		final long offset;
+
+		/**
+		 * Record body.
+		 */
+		final byte[] body;
+
+		/**
+		 * Offset of the payload within the body.
+		 */
+		final int payloadOffset;
+
+		Record(final byte type, final String locator, final long version, final long offset, final byte[] body,
+				final int payloadOffset) {
+			this.type = type;
+			this.locator = locator;
+			this.version = version;
+			this.offset = offset;
+			this.body = body;
+			this.payloadOffset = payloadOffset;
+		}
+
+		/**
+		 * Obtains the total length of this record, including the header.
+		 *
+		 * @return record length.
+		 */
+		int length() {
+			return HEADER_LENGTH + body.length;
+		}
+
+	}
+
+}
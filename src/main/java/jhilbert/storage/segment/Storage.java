@@ -0,0 +1,887 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.storage.segment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import jhilbert.data.Module;
+import jhilbert.storage.StorageException;
+import jhilbert.utils.Io;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Segment log storage.
+ * Modules are appended to a small number of large segment files instead of
+ * being stored in a file of their own.
+ * <p>
+ * An in-memory index maps each module revision to the position of its most
+ * recent record. Deleting a module appends a tombstone record. Once the
+ * active segment grows beyond the maximum segment size, a new segment is
+ * started and the old one is sealed.
+ * <p>
+ * The index is saved to a compact index file whenever a segment is sealed,
+ * after each compaction and when the store is closed, provided records
+ * have been appended since it was last saved. At startup, the index
+ * file is loaded and only the records appended after it was written are
+ * replayed. If the index file is missing or inconsistent, all segments are
+ * scanned. A torn record at the end of the active segment, as left behind
+ * by a crash, is cut off.
+ * <p>
+ * A background thread compacts the store. Each compaction pass picks the
+ * oldest sealed segments up to the newest one consisting mostly of
+ * superseded or deleted records, copies their live records to the active
+ * segment and removes them. Since the removed segments are always the
+ * oldest ones, their tombstones can be dropped as well. Segments among
+ * them without any dead record are kept, since copying them gains
+ * nothing, and no tombstone can refer to their records.
+ * <p>
+ * Appends are forced to the storage device after the append lock has
+ * been released, so that concurrent writers do not queue behind each
+ * other's disk syncs.
+ * <p>
+ * There should not be more than one instance of this class per path.
+ */
+public final class Storage extends jhilbert.storage.Storage {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(Storage.class);
+
+	/**
+	 * Default maximum segment size in bytes.
+	 */
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L << 20;
+
+	/**
+	 * Fraction of dead bytes from which on a sealed segment is compacted.
+	 */
+	private static final double GARBAGE_RATIO = 0.5;
+
+	/**
+	 * Interval between background compaction passes in milliseconds.
+	 */
+	private static final long COMPACTION_INTERVAL = 60000;
+
+	/**
+	 * Index file name.
+	 */
+	private static final String INDEX_NAME = "index";
+
+	/**
+	 * Index file magic number.
+	 */
+	private static final int INDEX_MAGIC = 0x4a485349; // "JHSI"
+
+	/**
+	 * Store directory.
+	 */
+	private final File dir;
+
+	/**
+	 * Maximum segment size in bytes.
+	 */
+	private final long maxSegmentSize;
+
+	/**
+	 * Lock for appending records and changing the index.
+	 * Must be acquired before {@link #segmentLock}.
+	 */
+	private final Object appendLock;
+
+	/**
+	 * Lock for the segment map.
+	 * Readers hold the read lock while reading a record, so that
+	 * compaction cannot remove a segment from under them.
+	 */
+	private final ReadWriteLock segmentLock;
+
+	/**
+	 * Lock serialising compaction passes.
+	 */
+	private final Object compactionLock;
+
+	/**
+	 * Lock serialising index file writes.
+	 */
+	private final Object indexLock;
+
+	/**
+	 * Segments by ID.
+	 * Changed only with both the append lock and the segment write lock
+	 * held.
+	 */
+	private final TreeMap<Integer, Segment> segments;
+
+	/**
+	 * Active segment.
+	 * Guarded by the append lock.
+	 */
+	private Segment active;
+
+	/**
+	 * Index from module revisions to record positions.
+	 * Changed only with the append lock held.
+	 */
+	private final Map<Key, Entry> entries;
+
+	/**
+	 * Stored revisions by locator.
+	 * Guarded by the append lock.
+	 */
+	private final Map<String, TreeSet<Long>> revisions;
+
+	/**
+	 * Latest revision by locator.
+	 * Changed only with the append lock held.
+	 */
+	private final Map<String, Long> latest;
+
+	/**
+	 * Background compaction thread.
+	 */
+	private final Compactor compactor;
+
+	/**
+	 * Whether this store has been closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Whether records have been appended or replayed since the index file
+	 * was last written.
+	 * Guarded by the append lock.
+	 */
+	private boolean dirty;
+
+	/**
+	 * Creates a new segment store at the segment store path specified on
+	 * the command line.
+	 *
+	 * @throws StorageException if the store cannot be opened.
+	 */
+	public Storage() throws StorageException {
+		this(jhilbert.Main.getSegmentStorePath());
+	}
+
+	/**
+	 * Creates a new segment store at the specified path.
+	 *
+	 * @param basePath store directory.
+	 *
+	 * @throws StorageException if the store cannot be opened.
+	 */
+	public Storage(final String basePath) throws StorageException {
+		this(basePath, DEFAULT_MAX_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Creates a new segment store at the specified path with the specified
+	 * maximum segment size.
+	 *
+	 * @param basePath store directory.
+	 * @param maxSegmentSize size in bytes from which on a new segment is
+	 * 	started.
+	 *
+	 * @throws StorageException if the store cannot be opened.
+	 */
+	public Storage(final String basePath, final long maxSegmentSize) throws StorageException {
+		assert (basePath != null): "Supplied base path is null";
+		assert (maxSegmentSize > 0): "Maximum segment size must be positive";
+		dir = new File(basePath);
+		this.maxSegmentSize = maxSegmentSize;
+		appendLock = new Object();
+		segmentLock = new ReentrantReadWriteLock();
+		compactionLock = new Object();
+		indexLock = new Object();
+		segments = new TreeMap();
+		entries = new ConcurrentHashMap();
+		revisions = new HashMap();
+		latest = new ConcurrentHashMap();
+		closed = false;
+		dirty = false;
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new StorageException("Unable to create segment store directory " + dir);
+		try {
+			open();
+		} catch (IOException e) {
+			throw new StorageException("I/O error while opening segment store " + dir, e);
+		}
+		compactor = new Compactor();
+		compactor.start();
+	}
+
+	/**
+	 * Opens all segments, loads the index and replays the log tail.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void open() throws IOException {
+		final String[] names = dir.list();
+		final TreeSet<Integer> ids = new TreeSet();
+		if (names != null)
+			for (final String name: names) {
+				final int id = Segment.parseId(name);
+				if (id > 0)
+					ids.add(id);
+			}
+		for (final Integer id: ids)
+			segments.put(id, new Segment(dir, id, id.equals(ids.last())));
+		if (segments.isEmpty())
+			segments.put(1, new Segment(dir, 1, true));
+		active = segments.get(segments.lastKey());
+		final long[] covered = loadIndex();
+		if (covered == null) {
+			clearIndex();
+			for (final Segment segment: segments.values())
+				replay(segment, 0);
+		} else {
+			for (final Segment segment: segments.tailMap((int) covered[0]).values())
+				replay(segment, (segment.id == covered[0]) ? covered[1] : 0);
+		}
+		if (logger.isInfoEnabled())
+			logger.info("Opened segment store " + dir + " with " + segments.size() + " segments and "
+					+ entries.size() + " modules");
+	}
+
+	/**
+	 * Replays the records of the specified segment starting at the
+	 * specified offset.
+	 *
+	 * @param segment segment.
+	 * @param offset start offset.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void replay(final Segment segment, long offset) throws IOException {
+		Segment.Record record;
+		while ((record = segment.readRecord(offset)) != null) {
+			dirty = true;
+			if (record.type == Segment.MODULE)
+				applyStore(record.locator, record.version, new Entry(segment.id, offset, record.length()));
+			else
+				applyErase(record.locator, record.version);
+			offset += record.length();
+		}
+		if (offset == segment.size())
+			return;
+		if (segment == active) {
+			logger.warn("Cutting off torn record at offset " + offset + " of segment " + segment.file);
+			segment.truncate(offset);
+		} else {
+			logger.warn("Ignoring corrupt data from offset " + offset + " of sealed segment " + segment.file);
+		}
+	}
+
+	/**
+	 * Forgets the whole index.
+	 */
+	private void clearIndex() {
+		entries.clear();
+		revisions.clear();
+		latest.clear();
+		for (final Segment segment: segments.values())
+			segment.liveBytes = 0;
+	}
+
+	/**
+	 * Loads the index file.
+	 *
+	 * @return segment ID and offset up to which the index covers the log,
+	 * 	or <code>null</code> if there is no usable index file.
+	 *
+	 * @throws IOException on error.
+	 */
+	private long[] loadIndex() throws IOException {
+		final CheckedInputStream checked;
+		try {
+			checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(new File(dir, INDEX_NAME))),
+					new CRC32());
+		} catch (FileNotFoundException e) {
+			logger.info("No index in segment store " + dir + ", scanning all segments");
+			return null;
+		}
+		// buffer below the checksum, so that it only covers the bytes read so far
+		final DataInputStream in = new DataInputStream(checked);
+		try {
+			if (in.readInt() != INDEX_MAGIC)
+				throw new IOException("Bad magic number");
+			final int coveredSegment = in.readInt();
+			final long coveredOffset = in.readLong();
+			final Segment covered = segments.get(coveredSegment);
+			if ((covered == null) || (coveredOffset > covered.size()))
+				throw new IOException("Index covers missing data");
+			final int count = in.readInt();
+			for (int i = 0; i != count; ++i) {
+				final String locator = in.readUTF();
+				final long version = in.readLong();
+				final Entry entry = new Entry(in.readInt(), in.readLong(), in.readInt());
+				final Segment segment = segments.get(entry.segment);
+				if ((segment == null) || (entry.offset + entry.length > segment.size()))
+					throw new IOException("Index refers to missing data");
+				applyStore(locator, version, entry);
+			}
+			final long checksum = checked.getChecksum().getValue();
+			if (in.readLong() != checksum)
+				throw new IOException("Checksum mismatch");
+			return new long[] { coveredSegment, coveredOffset };
+		} catch (IOException e) {
+			logger.warn("Discarding unusable index of segment store " + dir + ": " + e.getMessage());
+			clearIndex();
+			return null;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the index file, unless it is up to date.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void writeIndex() throws IOException {
+		synchronized (indexLock) {
+			final List<Map.Entry<Key, Entry>> snapshot;
+			final int coveredSegment;
+			final long coveredOffset;
+			synchronized (appendLock) {
+				if (!dirty)
+					return;
+				snapshot = new ArrayList(entries.entrySet());
+				coveredSegment = active.id;
+				coveredOffset = active.size();
+				dirty = false;
+			}
+			final File index = new File(dir, INDEX_NAME);
+			final File temp = File.createTempFile(INDEX_NAME, ".tmp", dir);
+			try {
+				final FileOutputStream fos = new FileOutputStream(temp);
+				try {
+					final CheckedOutputStream checked = new CheckedOutputStream(fos, new CRC32());
+					final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked));
+					out.writeInt(INDEX_MAGIC);
+					out.writeInt(coveredSegment);
+					out.writeLong(coveredOffset);
+					out.writeInt(snapshot.size());
+					for (final Map.Entry<Key, Entry> mapping: snapshot) {
+						out.writeUTF(mapping.getKey().locator);
+						out.writeLong(mapping.getKey().version);
+						out.writeInt(mapping.getValue().segment);
+						out.writeLong(mapping.getValue().offset);
+						out.writeInt(mapping.getValue().length);
+					}
+					out.flush();
+					out.writeLong(checked.getChecksum().getValue());
+					out.flush();
+					fos.getFD().sync();
+				} finally {
+					fos.close();
+				}
+				Io.replace(temp, index);
+			} catch (IOException e) {
+				synchronized (appendLock) {
+					dirty = true;
+				}
+				throw e;
+			} finally {
+				if (temp.exists() && !temp.delete())
+					logger.warn("Unable to remove temporary file " + temp);
+			}
+		}
+	}
+
+	/**
+	 * Records that the specified module revision is stored at the
+	 * specified position.
+	 * Must be called with the append lock held.
+	 *
+	 * @param locator module locator.
+	 * @param version revision number.
+	 * @param entry record position.
+	 */
+	private void applyStore(final String locator, final long version, final Entry entry) {
+		release(entries.put(new Key(locator, version), entry));
+		segments.get(entry.segment).liveBytes += entry.length;
+		TreeSet<Long> versions = revisions.get(locator);
+		if (versions == null) {
+			versions = new TreeSet();
+			revisions.put(locator, versions);
+		}
+		versions.add(version);
+		updateLatest(locator, versions);
+	}
+
+	/**
+	 * Removes the specified module revision from the index.
+	 * Must be called with the append lock held.
+	 *
+	 * @param locator module locator.
+	 * @param version revision number, or <code>-1</code> to remove all
+	 * 	revisions.
+	 */
+	private void applyErase(final String locator, final long version) {
+		final TreeSet<Long> versions = revisions.get(locator);
+		if (versions == null)
+			return;
+		if (version == -1) {
+			for (final Long v: versions)
+				release(entries.remove(new Key(locator, v)));
+			versions.clear();
+		} else {
+			release(entries.remove(new Key(locator, version)));
+			versions.remove(version);
+		}
+		if (versions.isEmpty())
+			revisions.remove(locator);
+		updateLatest(locator, versions);
+	}
+
+	/**
+	 * Marks the record at the specified position as dead.
+	 *
+	 * @param entry record position, may be <code>null</code>.
+	 */
+	private void release(final Entry entry) {
+		if (entry == null)
+			return;
+		final Segment segment = segments.get(entry.segment);
+		if (segment != null)
+			segment.liveBytes -= entry.length;
+	}
+
+	/**
+	 * Updates the latest revision of the specified module.
+	 *
+	 * @param locator module locator.
+	 * @param versions stored revisions of the module.
+	 */
+	private void updateLatest(final String locator, final TreeSet<Long> versions) {
+		if (versions.isEmpty() || (versions.last() == -1))
+			latest.remove(locator);
+		else
+			latest.put(locator, versions.last());
+	}
+
+	/**
+	 * Appends the specified record to the active segment.
+	 * Must be called with the append lock held.
+	 *
+	 * @param record encoded record.
+	 *
+	 * @return the position of the record.
+	 *
+	 * @throws IOException on error.
+	 */
+	private Entry append(final ByteBuffer record) throws IOException {
+		final int length = record.remaining();
+		final long offset = active.append(record);
+		dirty = true;
+		return new Entry(active.id, offset, length);
+	}
+
+	/**
+	 * Forces the records appended to the specified segment to the storage
+	 * device.
+	 * Must be called without the append lock held.
+	 *
+	 * @param segment segment.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void force(final Segment segment) throws IOException {
+		try {
+			segment.force();
+		} catch (ClosedChannelException e) {
+			// compacted in the meantime, and the copies have been forced
+		}
+	}
+
+	/**
+	 * Seals the active segment and starts a new one if the active segment
+	 * is full.
+	 * Must be called with the append lock held.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void rollIfFull() throws IOException {
+		if (active.size() < maxSegmentSize)
+			return;
+		active.force();
+		final Segment next = new Segment(dir, active.id + 1, true);
+		segmentLock.writeLock().lock();
+		try {
+			segments.put(next.id, next);
+		} finally {
+			segmentLock.writeLock().unlock();
+		}
+		active = next;
+		if (logger.isDebugEnabled())
+			logger.debug("Started segment " + next.file);
+		// let the compactor save the index and look for garbage
+		compactor.wakeUp();
+	}
+
+	/**
+	 * Runs a compaction pass.
+	 * This is done periodically in the background, but may also be called
+	 * directly.
+	 *
+	 * @throws StorageException if an I/O error occurs.
+	 */
+	public void compact() throws StorageException {
+		synchronized (compactionLock) {
+			if (closed)
+				return;
+			try {
+				final List<Segment> victims = new ArrayList();
+				synchronized (appendLock) {
+					int count = 0;
+					int i = 0;
+					for (final Segment segment: segments.headMap(active.id).values()) {
+						++i;
+						final long size = segment.size();
+						if ((size == 0) || ((double) (size - segment.liveBytes) / size >= GARBAGE_RATIO))
+							count = i;
+					}
+					int j = 0;
+					for (final Segment segment: segments.headMap(active.id).values()) {
+						if (j++ == count)
+							break;
+						if ((segment.size() == 0) || (segment.liveBytes < segment.size()))
+							victims.add(segment);
+					}
+				}
+				for (final Segment victim: victims)
+					relocate(victim);
+				writeIndex();
+			} catch (IOException e) {
+				throw new StorageException("I/O error while compacting segment store " + dir, e);
+			}
+		}
+	}
+
+	/**
+	 * Copies the live records of the specified sealed segment to the
+	 * active segment and removes the sealed segment.
+	 * The sealed segment must be the oldest segment.
+	 *
+	 * @param victim sealed segment.
+	 *
+	 * @throws IOException on error.
+	 */
+	private void relocate(final Segment victim) throws IOException {
+		long offset = 0;
+		int moved = 0;
+		Segment.Record record;
+		while ((record = victim.readRecord(offset)) != null) {
+			if (record.type == Segment.MODULE) {
+				final Key key = new Key(record.locator, record.version);
+				synchronized (appendLock) {
+					final Entry entry = entries.get(key);
+					if ((entry != null) && (entry.segment == victim.id) && (entry.offset == offset)) {
+						applyStore(record.locator, record.version, append(Segment.encode(record.body)));
+						rollIfFull();
+						++moved;
+					}
+				}
+			}
+			offset += record.length();
+		}
+		synchronized (appendLock) {
+			active.force();
+			segmentLock.writeLock().lock();
+			try {
+				segments.remove(victim.id);
+			} finally {
+				segmentLock.writeLock().unlock();
+			}
+		}
+		victim.close();
+		if (!victim.file.delete())
+			logger.warn("Unable to remove compacted segment " + victim.file);
+		if (logger.isInfoEnabled())
+			logger.info("Compacted segment " + victim.file + ", " + moved + " live records moved");
+	}
+
+	/**
+	 * Saves the index and closes this store.
+	 * The store must not be used afterwards.
+	 *
+	 * @throws StorageException if an I/O error occurs.
+	 */
+	public @Override void close() throws StorageException {
+		closed = true;
+		compactor.interrupt();
+		synchronized (compactionLock) {
+			try {
+				writeIndex();
+				synchronized (appendLock) {
+					for (final Segment segment: segments.values())
+						segment.close();
+				}
+			} catch (IOException e) {
+				throw new StorageException("I/O error while closing segment store " + dir, e);
+			}
+		}
+	}
+
+	public @Override boolean isVersioned() {
+		return true;
+	}
+
+	public @Override boolean storesModules() {
+		return true;
+	}
+
+	protected @Override String getCanonicalName(final String locator) {
+		return locator;
+	}
+
+	protected @Override long getCurrentRevision(final String locator) {
+		assert (locator != null): "Supplied locator is null";
+		final Long result = latest.get(locator);
+		return (result == null) ? -1 : result;
+	}
+
+	protected @Override Module retrieveModule(final String locator, final long version) throws StorageException {
+		assert (locator != null): "Supplied locator is null";
+		assert (version >= -1): "Invalid revision number supplied";
+		final Segment.Record record;
+		segmentLock.readLock().lock();
+		try {
+			final Entry entry = entries.get(new Key(locator, version));
+			if (entry == null)
+				throw new StorageException("Module " + locator + " revision " + version + " not found in segment store");
+			record = segments.get(entry.segment).readRecord(entry.offset);
+			if (record == null)
+				throw new StorageException("Segment store record of module " + locator + " is corrupt");
+		} catch (IOException e) {
+			throw new StorageException("I/O error while loading module", e);
+		} finally {
+			segmentLock.readLock().unlock();
+		}
+		try {
+			final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(record.body,
+						record.payloadOffset, record.body.length - record.payloadOffset));
+			return (Module) ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new StorageException("Record does not contain module data", e);
+		} catch (ClassCastException e) {
+			throw new StorageException("Record does not contain module data", e);
+		} catch (OptionalDataException e) {
+			throw new StorageException("Record does not contain module data", e);
+		} catch (InvalidClassException e) {
+			throw new StorageException("Record contains obsolete data", e);
+		} catch (StreamCorruptedException e) {
+			throw new StorageException("Record contains inconsistent data", e);
+		} catch (IOException e) {
+			throw new StorageException("I/O error while loading module", e);
+		}
+	}
+
+	protected @Override void storeModule(final Module module, final String locator, final long version) throws StorageException {
+		assert (module != null): "Supplied module is null";
+		assert (locator != null): "Supplied locator is null";
+		assert (version >= -1): "Invalid revision number supplied";
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		try {
+			final ObjectOutputStream oos = new ObjectOutputStream(payload);
+			oos.writeObject(module);
+			oos.close();
+		} catch (InvalidClassException e) {
+			final AssertionError err = new AssertionError("Invalid seralization class. This should not happen");
+			err.initCause(e);
+			throw err;
+		} catch (NotSerializableException e) {
+			final AssertionError err = new AssertionError("Unseralizable class found. This should not happen");
+			err.initCause(e);
+			throw err;
+		} catch (IOException e) {
+			throw new StorageException("I/O error while serialising module", e);
+		}
+		final ByteBuffer record = Segment.encode(Segment.MODULE, locator, version, payload.toByteArray());
+		try {
+			final Segment segment;
+			synchronized (appendLock) {
+				segment = active;
+				applyStore(locator, version, append(record));
+				rollIfFull();
+			}
+			force(segment);
+		} catch (IOException e) {
+			throw new StorageException("I/O error while storing module", e);
+		}
+	}
+
+	protected @Override void eraseModule(final String locator, final long version) throws StorageException {
+		assert (locator != null): "Supplied locator is null";
+		assert (version >= -1): "Invalid revision number supplied";
+		try {
+			final Segment segment;
+			synchronized (appendLock) {
+				if (!revisions.containsKey(locator))
+					return;
+				if ((version != -1) && !entries.containsKey(new Key(locator, version)))
+					return;
+				segment = active;
+				append(Segment.encode(Segment.TOMBSTONE, locator, version, new byte[0]));
+				applyErase(locator, version);
+				rollIfFull();
+			}
+			force(segment);
+		} catch (IOException e) {
+			throw new StorageException("I/O error while erasing module", e);
+		}
+	}
+
+	/**
+	 * Index key.
+	 */
+	private static final class Key {
+
+		/**
+		 * Module locator.
+		 */
+		final String locator;
+
+		/**
+		 * Revision number.
+		 */
+		final long version;
+
+		Key(final String locator, final long version) {
+			this.locator = locator;
+			this.version = version;
+		}
+
+		public @Override boolean equals(final Object o) {
+			if (!(o instanceof Key))
+				return false;
+			final Key key = (Key) o;
+			return (version == key.version) && locator.equals(key.locator);
+		}
+
+		public @Override int hashCode() {
+			return locator.hashCode() ^ (int) (version ^ (version >>> 32));
+		}
+
+	}
+
+	/**
+	 * Record position.
+	 */
+	private static final class Entry {
+
+		/**
+		 * Segment ID.
+		 */
+		final int segment;
+
+		/**
+		 * Record offset.
+		 */
+		final long offset;
+
+		/**
+		 * Record length, including the header.
+		 */
+		final int length;
+
+		Entry(final int segment, final long offset, final int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+	/**
+	 * Background compaction thread.
+	 */
+	private final class Compactor extends Thread {
+
+		Compactor() {
+			super("Segment store compactor");
+			setDaemon(true);
+		}
+
+		/**
+		 * Requests an early compaction pass.
+		 */
+		synchronized void wakeUp() {
+			notify();
+		}
+
+		public @Override void run() {
+			while (!closed) {
+				synchronized (this) {
+					try {
+						wait(COMPACTION_INTERVAL);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				try {
+					compact();
+				} catch (StorageException e) {
+					logger.error("Segment store compaction failed", e);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.util.AbstractList;
+import java.util.EmptyStackException;
+import java.util.RandomAccess;
+
+/**
+ * An unsynchronised stack backed by an array.
+ * <p>
+ * Unlike {@link java.util.Stack}, this class does not synchronise on
+ * every operation. As a {@link java.util.List}, its elements are indexed
+ * from the bottom of the stack. Popped elements are cleared, so that the
+ * stack does not keep them from being garbage collected.
+ */
+public class ArrayStack<E> extends AbstractList<E> implements RandomAccess {
+
+	/**
+	 * Default initial capacity.
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Elements.
+	 */
+	private Object[] elements;
+
+	/**
+	 * Number of elements.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new, empty <code>ArrayStack</code>.
+	 */
+	public ArrayStack() {
+		elements = new Object[DEFAULT_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Pushes the specified element onto this stack.
+	 *
+	 * @param e element.
+	 *
+	 * @return the element.
+	 */
+	public E push(final E e) {
+		if (size == elements.length) {
+			final Object[] newElements = new Object[2 * size];
+			System.arraycopy(elements, 0, newElements, 0, size);
+			elements = newElements;
+		}
+		elements[size++] = e;
+		++modCount;
+		return e;
+	}
+
+	/**
+	 * Removes the top element from this stack.
+	 *
+	 * @return the former top element.
+	 *
+	 * @throws EmptyStackException if this stack is empty.
+	 */
+	public E pop() throws EmptyStackException {
+		if (size == 0)
+			throw new EmptyStackException();
+		final E result = (E) elements[--size];
+		elements[size] = null;
+		++modCount;
+		return result;
+	}
+
+	/**
+	 * Obtains the top element of this stack.
+	 *
+	 * @return the top element.
+	 *
+	 * @throws EmptyStackException if this stack is empty.
+	 */
+	public E peek() throws EmptyStackException {
+		if (size == 0)
+			throw new EmptyStackException();
+		return (E) elements[size - 1];
+	}
+
+	/**
+	 * Cuts this stack down to the specified size.
+	 *
+	 * @param newSize new size, not larger than the current size.
+	 */
+	public void setSize(final int newSize) {
+		if ((newSize < 0) || (newSize > size))
+			throw new IndexOutOfBoundsException("Invalid stack size " + newSize);
+		for (int i = newSize; i != size; ++i)
+			elements[i] = null;
+		size = newSize;
+		++modCount;
+	}
+
+	public @Override E get(final int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		return (E) elements[index];
+	}
+
+	public @Override int size() {
+		return size;
+	}
+
+	public @Override boolean isEmpty() {
+		return (size == 0);
+	}
+
+	public @Override void clear() {
+		setSize(0);
+	}
+
+}
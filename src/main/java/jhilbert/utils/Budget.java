@@ -0,0 +1,256 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+/**
+ * Limits the resources a single request may use.
+ * <p>
+ * A budget is bound to a thread with {@link #install}. While a budget is
+ * installed, the commands, the verifier and the unifier running in that
+ * thread call {@link #checkpoint} regularly, and the verifier counts every
+ * proof step. Once the wall time or the proof steps of the budget are used
+ * up, the next checkpoint throws a {@link BudgetExceededException}, which
+ * unwinds the request.
+ * <p>
+ * A budget may also limit the total bytes allocated by its thread, as far
+ * as the virtual machine can measure them. Allocated bytes include
+ * garbage, so this limits the allocation work of a request rather than
+ * its live memory. Exceeding the limit throws a
+ * {@link MemoryLimitExceededException}. A budget may finally hold a
+ * request admitted to a {@link MemoryPool} shared with other requests.
+ * <p>
+ * Like the {@link Profiler}, budgets cost a single static field read as
+ * long as none has ever been installed.
+ */
+public final class Budget {
+
+	/**
+	 * Budget of the current thread.
+	 */
+	private static final ThreadLocal<Budget> current = new ThreadLocal<Budget>();
+
+	/**
+	 * Has any budget ever been installed?
+	 * Saves the thread local lookup in the unlimited case.
+	 */
+	private static volatile boolean active = false;
+
+	/**
+	 * Number of checkpoints between two looks at the clock. Must be a
+	 * power of two.
+	 */
+	private static final int CLOCK_INTERVAL = 1024;
+
+	/**
+	 * Wall time limit in milliseconds, or <code>-1</code> for none.
+	 */
+	private final long timeLimit;
+
+	/**
+	 * Deadline in terms of {@link System#nanoTime}.
+	 */
+	private final long deadline;
+
+	/**
+	 * Proof step limit, or <code>-1</code> for none.
+	 */
+	private final long stepLimit;
+
+	/**
+	 * Limit of the total bytes allocated, or <code>-1</code> for none.
+	 */
+	private final long memoryLimit;
+
+	/**
+	 * Memory pool the request has been admitted to, or <code>null</code>.
+	 */
+	private final MemoryPool pool;
+
+	/**
+	 * Bytes allocated by the thread before this budget was created, or
+	 * <code>-1</code> if there is no memory limit or allocations cannot
+	 * be measured.
+	 */
+	private final long allocatedAtStart;
+
+	/**
+	 * Has this budget been finished?
+	 */
+	private boolean finished;
+
+	/**
+	 * Proof steps so far.
+	 */
+	private long steps;
+
+	/**
+	 * Checkpoints so far.
+	 */
+	private int ticks;
+
+	/**
+	 * Creates a new <code>Budget</code> with the specified limits, starting
+	 * now.
+	 *
+	 * @param timeLimit wall time limit in milliseconds, or <code>-1</code>
+	 * 	for none.
+	 * @param stepLimit proof step limit, or <code>-1</code> for none.
+	 */
+	public Budget(final long timeLimit, final long stepLimit) {
+		this(timeLimit, stepLimit, -1, null);
+	}
+
+	/**
+	 * Creates a new <code>Budget</code> with the specified limits and
+	 * memory pool, starting now. The request must already have been
+	 * admitted to the pool, see {@link MemoryPool#admit}, and must
+	 * {@link #finish} this budget when it is done.
+	 *
+	 * @param timeLimit wall time limit in milliseconds, or <code>-1</code>
+	 * 	for none.
+	 * @param stepLimit proof step limit, or <code>-1</code> for none.
+	 * @param memoryLimit limit of the total bytes allocated, or
+	 * 	<code>-1</code> for none.
+	 * @param pool memory pool, or <code>null</code> for none.
+	 */
+	public Budget(final long timeLimit, final long stepLimit, final long memoryLimit, final MemoryPool pool) {
+		assert (timeLimit >= -1): "Invalid time limit supplied";
+		assert (stepLimit >= -1): "Invalid step limit supplied";
+		assert (memoryLimit >= -1): "Invalid memory limit supplied";
+		this.timeLimit = timeLimit;
+		deadline = System.nanoTime() + ((timeLimit == -1) ? 0 : timeLimit * 1000000);
+		this.stepLimit = stepLimit;
+		this.memoryLimit = memoryLimit;
+		this.pool = pool;
+		allocatedAtStart = (memoryLimit == -1) ? -1 : Profiler.allocatedBytes();
+		finished = false;
+		steps = 0;
+		ticks = 0;
+	}
+
+	/**
+	 * Binds the specified budget to the current thread.
+	 *
+	 * @param budget budget, or <code>null</code> to lift all limits of the
+	 * 	current thread.
+	 */
+	public static void install(final Budget budget) {
+		if (budget != null)
+			active = true;
+		current.set(budget);
+	}
+
+	/**
+	 * Obtains the budget of the current thread.
+	 *
+	 * @return the budget, or <code>null</code> if the current thread is not
+	 * 	limited.
+	 */
+	public static Budget current() {
+		if (!active)
+			return null;
+		return current.get();
+	}
+
+	/**
+	 * Checks the budget of the current thread, if any.
+	 *
+	 * @throws BudgetExceededException if the budget is used up.
+	 */
+	public static void checkpoint() {
+		if (!active)
+			return;
+		final Budget budget = current.get();
+		if (budget != null)
+			budget.check();
+	}
+
+	/**
+	 * Checks this budget. The clock is only looked at every
+	 * {@link #CLOCK_INTERVAL} checks.
+	 *
+	 * @throws BudgetExceededException if this budget is used up.
+	 */
+	public void check() {
+		if ((++ticks & (CLOCK_INTERVAL - 1)) == 0)
+			checkClock();
+	}
+
+	/**
+	 * Checks the wall time and the allocated memory of this budget.
+	 *
+	 * @throws BudgetExceededException if the time or memory is used up.
+	 */
+	private void checkClock() {
+		if ((timeLimit != -1) && (System.nanoTime() - deadline > 0))
+			throw new BudgetExceededException("Time limit of " + timeLimit + " ms exceeded");
+		if (allocatedAtStart != -1)
+			checkMemory();
+	}
+
+	/**
+	 * Checks the memory allocated under this budget.
+	 *
+	 * @throws MemoryLimitExceededException if the memory is used up.
+	 */
+	private void checkMemory() {
+		final long allocated = Profiler.allocatedBytes() - allocatedAtStart;
+		if (allocated > memoryLimit)
+			throw new MemoryLimitExceededException("Memory limit of " + memoryLimit + " bytes exceeded");
+	}
+
+	/**
+	 * Finishes this budget, releasing its request from the pool.
+	 * Further calls have no effect.
+	 */
+	public void finish() {
+		if (finished)
+			return;
+		finished = true;
+		if (pool != null)
+			pool.release();
+	}
+
+	/**
+	 * Counts a proof step and checks this budget.
+	 *
+	 * @throws BudgetExceededException if this budget is used up.
+	 */
+	public void countProofStep() {
+		if ((++steps > stepLimit) && (stepLimit != -1))
+			throw new BudgetExceededException("Limit of " + stepLimit + " proof steps exceeded");
+		check();
+	}
+
+	/**
+	 * Obtains the number of proof steps counted so far.
+	 *
+	 * @return number of proof steps.
+	 */
+	public long getProofSteps() {
+		return steps;
+	}
+
+}
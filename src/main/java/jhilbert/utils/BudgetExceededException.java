@@ -0,0 +1,46 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+/**
+ * Thrown at a checkpoint of a {@link Budget} which has been used up.
+ * <p>
+ * This exception is unchecked, so that it unwinds the verifier and the
+ * unifier from any depth without passing through their error handling.
+ * It is caught by whoever installed the budget.
+ */
+public class BudgetExceededException extends RuntimeException {
+
+	/**
+	 * Constructs a new <code>BudgetExceededException</code> with the
+	 * specified detail message.
+	 *
+	 * @param message the detail message.
+	 */
+	public BudgetExceededException(final String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.util.Map;
+
+/**
+ * Admission policy of a {@link WeightedCache}.
+ * The cache reports every lookup to the policy, and asks the policy
+ * whether a new entry should be admitted whenever admitting it would
+ * require evicting other entries.
+ *
+ * @param K cache key type.
+ */
+public interface CachePolicy<K> {
+
+	/**
+	 * Records a lookup of the specified key, whether the lookup is a hit
+	 * or a miss.
+	 *
+	 * @param key looked up key.
+	 */
+	public void recordAccess(K key);
+
+	/**
+	 * Decides whether the specified candidate should be admitted to the
+	 * cache at the expense of the specified victims.
+	 *
+	 * @param candidate key of the new entry.
+	 * @param cost cost of recomputing the new entry.
+	 * @param victims keys of the entries which would have to be evicted,
+	 * 	mapped to the costs of recomputing them.
+	 *
+	 * @return <code>true</code> if the candidate should be admitted,
+	 * 	<code>false</code> if the victims should be kept instead.
+	 */
+	public boolean admit(K candidate, long cost, Map<? extends K, Long> victims);
+
+}
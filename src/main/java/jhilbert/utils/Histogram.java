@@ -0,0 +1,157 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe latency histogram with fixed buckets.
+ * <p>
+ * Bucket bounds are upper bounds in nanoseconds, growing roughly
+ * exponentially from one millisecond to ten seconds. A final bucket
+ * collects everything above the largest bound.
+ */
+public final class Histogram {
+
+	/**
+	 * Upper bucket bounds in nanoseconds.
+	 */
+	private static final long[] BOUNDS = {
+		1000000L, 2500000L, 5000000L, 10000000L, 25000000L, 50000000L, 100000000L,
+		250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L
+	};
+
+	/**
+	 * Number of samples per bucket.
+	 * The last bucket has no upper bound.
+	 */
+	private final AtomicLongArray counts;
+
+	/**
+	 * Sum of all samples in nanoseconds.
+	 */
+	private final AtomicLong sum;
+
+	/**
+	 * Creates a new, empty <code>Histogram</code>.
+	 */
+	public Histogram() {
+		counts = new AtomicLongArray(BOUNDS.length + 1);
+		sum = new AtomicLong();
+	}
+
+	/**
+	 * Records a sample.
+	 *
+	 * @param nanos sample in nanoseconds.
+	 */
+	public void record(final long nanos) {
+		int bucket = 0;
+		while ((bucket != BOUNDS.length) && (nanos > BOUNDS[bucket]))
+			++bucket;
+		counts.incrementAndGet(bucket);
+		sum.addAndGet(nanos);
+	}
+
+	/**
+	 * Obtains the number of buckets, including the unbounded one.
+	 *
+	 * @return number of buckets.
+	 */
+	public int getBucketCount() {
+		return BOUNDS.length + 1;
+	}
+
+	/**
+	 * Obtains the upper bound of the specified bucket.
+	 *
+	 * @param bucket bucket index.
+	 *
+	 * @return upper bound in nanoseconds, or {@link Long#MAX_VALUE} for
+	 * 	the last bucket.
+	 */
+	public long getBound(final int bucket) {
+		assert ((bucket >= 0) && (bucket <= BOUNDS.length)): "Invalid bucket";
+		return (bucket == BOUNDS.length) ? Long.MAX_VALUE : BOUNDS[bucket];
+	}
+
+	/**
+	 * Obtains the number of samples in the specified bucket.
+	 *
+	 * @param bucket bucket index.
+	 *
+	 * @return number of samples.
+	 */
+	public long getCount(final int bucket) {
+		return counts.get(bucket);
+	}
+
+	/**
+	 * Obtains the total number of samples.
+	 *
+	 * @return number of samples.
+	 */
+	public long getCount() {
+		long result = 0;
+		for (int i = 0; i != counts.length(); ++i)
+			result += counts.get(i);
+		return result;
+	}
+
+	/**
+	 * Obtains the sum of all samples.
+	 *
+	 * @return sum in nanoseconds.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Estimates the specified quantile from the bucket counts.
+	 *
+	 * @param q quantile, between <code>0</code> and <code>1</code>.
+	 *
+	 * @return upper bound of the bucket containing the quantile, in
+	 * 	nanoseconds, {@link Long#MAX_VALUE} if it lies in the last
+	 * 	bucket, or <code>0</code> if there are no samples.
+	 */
+	public long getQuantile(final double q) {
+		assert ((q >= 0) && (q <= 1)): "Invalid quantile";
+		final long total = getCount();
+		if (total == 0)
+			return 0;
+		final long rank = (long) Math.ceil(q * total);
+		long seen = 0;
+		for (int i = 0; i != counts.length(); ++i) {
+			seen += counts.get(i);
+			if ((seen >= rank) && (seen > 0))
+				return getBound(i);
+		}
+		return Long.MAX_VALUE;
+	}
+
+}
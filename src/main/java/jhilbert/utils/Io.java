@@ -24,11 +24,22 @@
 
 package jhilbert.utils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
 public class Io {
 
+	/**
+	 * Number of attempts to rename a file over an existing file.
+	 */
+	private static final int RENAME_ATTEMPTS = 10;
+
+	/**
+	 * Pause between two attempts to rename a file, in milliseconds.
+	 */
+	private static final long RENAME_PAUSE = 20;
+
 	/**
 	 * Read from input stream until end of file or buffer.length bytes have been
 	 * read.
@@ -46,4 +57,39 @@ public class Io {
 		return offset;
 	}
 
+	/**
+	 * Replaces the specified target file with the specified, completely
+	 * written file by renaming it over the target.
+	 * The target is never removed beforehand, so that a crash leaves
+	 * either the old or the new file in place. Some platforms refuse the
+	 * rename while the target is open, so it is retried a few times
+	 * before giving up. The source file is removed in any case.
+	 *
+	 * @param source completely written file, usually a temporary file in
+	 * 	the directory of the target.
+	 * @param target target file.
+	 *
+	 * @throws IOException if the file cannot be moved into place. The
+	 * 	target is unchanged in this case.
+	 */
+	public static void replace(final File source, final File target) throws IOException {
+		assert (source != null): "Supplied source file is null";
+		assert (target != null): "Supplied target file is null";
+		try {
+			for (int i = 1; !source.renameTo(target); ++i) {
+				if (i == RENAME_ATTEMPTS)
+					throw new IOException("Unable to move " + source + " into place at " + target);
+				try {
+					Thread.sleep(RENAME_PAUSE);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while moving " + source + " into place at " + target);
+				}
+			}
+		} finally {
+			if (source.exists())
+				source.delete();
+		}
+	}
+
 }
@@ -0,0 +1,201 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Memory shared by all requests running under a {@link Budget}.
+ * <p>
+ * New requests are only admitted while the heap in use is below the
+ * capacity of the pool. Otherwise they wait until enough memory is free
+ * again or enough running requests have finished. A request is always
+ * admitted if no other request is running, so that a single request
+ * larger than the pool cannot block the daemon for good.
+ * <p>
+ * The heap in use is estimated as the memory each heap pool of the
+ * virtual machine still used after its most recent garbage collection.
+ * Unlike the bytes allocated by the requests, this excludes garbage, so
+ * a long request does not hold off other requests merely by allocating.
+ * Memory cannot be attributed to individual requests this way, hence the
+ * pool only decides on admission.
+ */
+public final class MemoryPool {
+
+	/**
+	 * Estimates the heap in use.
+	 */
+	static interface Gauge {
+
+		/**
+		 * Estimates the heap in use.
+		 *
+		 * @return heap in use in bytes.
+		 */
+		public long getUsed();
+
+	}
+
+	/**
+	 * Gauge of the heap of this virtual machine.
+	 */
+	private static final Gauge HEAP = new Gauge() {
+		public long getUsed() {
+			long result = 0;
+			boolean measured = false;
+			for (final MemoryPoolMXBean bean: ManagementFactory.getMemoryPoolMXBeans()) {
+				if (bean.getType() != MemoryType.HEAP)
+					continue;
+				final MemoryUsage usage = bean.getCollectionUsage();
+				if (usage != null) {
+					result += usage.getUsed();
+					measured = true;
+				}
+			}
+			if (measured)
+				return result;
+			// no usage after collection known, so count garbage as well
+			final Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+	};
+
+	/**
+	 * Interval in milliseconds in which waiting requests look at the heap
+	 * again, as garbage collections do not notify this pool.
+	 */
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * Capacity in bytes.
+	 */
+	private final long capacity;
+
+	/**
+	 * Heap gauge.
+	 */
+	private final Gauge gauge;
+
+	/**
+	 * Number of running requests.
+	 */
+	private int running;
+
+	/**
+	 * Number of requests waiting for admission.
+	 */
+	private int waiting;
+
+	/**
+	 * Creates a new <code>MemoryPool</code> with the specified capacity.
+	 *
+	 * @param capacity capacity in bytes.
+	 */
+	public MemoryPool(final long capacity) {
+		this(capacity, HEAP);
+	}
+
+	/**
+	 * Creates a new <code>MemoryPool</code> with the specified capacity,
+	 * measuring the heap with the specified gauge.
+	 *
+	 * @param capacity capacity in bytes.
+	 * @param gauge heap gauge.
+	 */
+	MemoryPool(final long capacity, final Gauge gauge) {
+		assert (capacity > 0): "Capacity must be positive";
+		assert (gauge != null): "Supplied gauge is null";
+		this.capacity = capacity;
+		this.gauge = gauge;
+		running = 0;
+		waiting = 0;
+	}
+
+	/**
+	 * Admits a new request, waiting while this pool is exhausted.
+	 *
+	 * @throws InterruptedException if the current thread is interrupted
+	 * 	while waiting.
+	 */
+	public synchronized void admit() throws InterruptedException {
+		++waiting;
+		try {
+			while ((running != 0) && (gauge.getUsed() >= capacity))
+				wait(POLL_INTERVAL);
+		} finally {
+			--waiting;
+		}
+		++running;
+	}
+
+	/**
+	 * Finishes a running request.
+	 */
+	synchronized void release() {
+		assert (running > 0): "No request running";
+		--running;
+		notifyAll();
+	}
+
+	/**
+	 * Obtains the capacity of this pool.
+	 *
+	 * @return capacity in bytes.
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Estimates the heap in use.
+	 *
+	 * @return heap in use in bytes.
+	 */
+	public long getUsed() {
+		return gauge.getUsed();
+	}
+
+	/**
+	 * Obtains the number of running requests.
+	 *
+	 * @return number of running requests.
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	/**
+	 * Obtains the number of requests waiting for admission.
+	 *
+	 * @return number of waiting requests.
+	 */
+	public synchronized int getWaiting() {
+		return waiting;
+	}
+
+}
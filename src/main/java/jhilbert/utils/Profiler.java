@@ -0,0 +1,465 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the cost of verifying theorems.
+ * <p>
+ * A profiler is bound to a thread with {@link #install}. While a
+ * profiler is installed, the commands and the verifier running in that
+ * thread report every theorem with its wall time, proof steps,
+ * unifications, definition unfoldings and allocated bytes, and report
+ * how often each statement is applied and how much time its applications
+ * take. The results can be written as a text or JSON report, sorted by
+ * decreasing time.
+ * <p>
+ * Profiling is off unless a profiler has been installed, in which case
+ * the instrumentation costs a single static field read.
+ */
+public final class Profiler {
+
+	/**
+	 * Profiler of the current thread.
+	 */
+	private static final ThreadLocal<Profiler> current = new ThreadLocal<Profiler>();
+
+	/**
+	 * Has any profiler ever been installed?
+	 * Saves the thread local lookup in the unprofiled case.
+	 */
+	private static volatile boolean active = false;
+
+	/**
+	 * Whether the virtual machine can measure the allocation of threads.
+	 */
+	private static final boolean allocationSupported;
+
+	static {
+		boolean supported;
+		try {
+			// the class is only present in HotSpot-like virtual machines
+			supported = Class.forName("com.sun.management.ThreadMXBean")
+				.isInstance(ManagementFactory.getThreadMXBean()) && AllocationCounter.enable();
+		} catch (ClassNotFoundException e) {
+			supported = false;
+		} catch (LinkageError e) {
+			supported = false;
+		} catch (RuntimeException e) {
+			supported = false;
+		}
+		allocationSupported = supported;
+	}
+
+	/**
+	 * Profiled theorems, in order of verification.
+	 */
+	private final List<Theorem> theorems;
+
+	/**
+	 * Number of applications of each statement.
+	 */
+	private final Map<String, Counter> applications;
+
+	/**
+	 * Theorem currently being verified, or <code>null</code>.
+	 */
+	private Theorem theorem;
+
+	/**
+	 * Creates a new, empty <code>Profiler</code>.
+	 */
+	public Profiler() {
+		theorems = new ArrayList();
+		applications = new HashMap();
+		theorem = null;
+	}
+
+	/**
+	 * Binds the specified profiler to the current thread.
+	 *
+	 * @param profiler profiler, or <code>null</code> to stop profiling
+	 * 	the current thread.
+	 */
+	public static void install(final Profiler profiler) {
+		if (profiler != null)
+			active = true;
+		current.set(profiler);
+	}
+
+	/**
+	 * Obtains the profiler of the current thread.
+	 *
+	 * @return the profiler, or <code>null</code> if the current thread is
+	 * 	not being profiled.
+	 */
+	public static Profiler current() {
+		if (!active)
+			return null;
+		return current.get();
+	}
+
+	/**
+	 * Counts a definition unfolding in the current thread, if it is being
+	 * profiled.
+	 */
+	public static void countUnfold() {
+		if (!active)
+			return;
+		final Profiler profiler = current.get();
+		if ((profiler != null) && (profiler.theorem != null))
+			++profiler.theorem.unfolds;
+	}
+
+	/**
+	 * Obtains the number of bytes allocated by the current thread so far.
+	 *
+	 * @return allocated bytes, or <code>-1</code> if unsupported.
+	 */
+	static long allocatedBytes() {
+		if (!allocationSupported)
+			return -1;
+		return AllocationCounter.allocatedBytes();
+	}
+
+	/**
+	 * Starts profiling the verification of the specified theorem.
+	 *
+	 * @param name name of the theorem.
+	 */
+	public void beginTheorem(final String name) {
+		assert (name != null): "Supplied name is null";
+		assert (theorem == null): "Theorems cannot be nested";
+		theorem = new Theorem(name);
+		theorem.allocated = allocatedBytes();
+		theorem.time = System.nanoTime();
+	}
+
+	/**
+	 * Finishes profiling the current theorem.
+	 *
+	 * @param verified whether the proof of the theorem verified.
+	 */
+	public void endTheorem(final boolean verified) {
+		if (theorem == null)
+			return;
+		theorem.time = System.nanoTime() - theorem.time;
+		if (theorem.allocated >= 0)
+			theorem.allocated = allocatedBytes() - theorem.allocated;
+		theorem.verified = verified;
+		theorems.add(theorem);
+		theorem = null;
+	}
+
+	/**
+	 * Counts a proof step of the current theorem.
+	 */
+	public void countProofStep() {
+		if (theorem != null)
+			++theorem.proofSteps;
+	}
+
+	/**
+	 * Counts a unification of a statement hypothesis.
+	 */
+	public void countUnification() {
+		if (theorem != null)
+			++theorem.unifications;
+	}
+
+	/**
+	 * Counts an application of the statement with the specified name.
+	 *
+	 * @param name statement name.
+	 * @param time time the application took, in nanoseconds.
+	 */
+	public void countApplication(final String name, final long time) {
+		Counter counter = applications.get(name);
+		if (counter == null) {
+			counter = new Counter(name);
+			applications.put(name, counter);
+		}
+		++counter.count;
+		counter.time += time;
+	}
+
+	/**
+	 * Obtains the profiled theorems, sorted by decreasing verification
+	 * time.
+	 *
+	 * @return list of theorems.
+	 */
+	private List<Theorem> sortedTheorems() {
+		final List<Theorem> result = new ArrayList(theorems);
+		Collections.sort(result, new Comparator<Theorem>() {
+			public int compare(final Theorem t1, final Theorem t2) {
+				return (t1.time < t2.time) ? 1 : ((t1.time == t2.time) ? 0 : -1);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Obtains the statement application counters, sorted by decreasing
+	 * time, then by decreasing count.
+	 *
+	 * @return list of counters.
+	 */
+	private List<Counter> sortedApplications() {
+		final List<Counter> result = new ArrayList(applications.values());
+		Collections.sort(result, new Comparator<Counter>() {
+			public int compare(final Counter c1, final Counter c2) {
+				if (c1.time != c2.time)
+					return (c1.time < c2.time) ? 1 : -1;
+				if (c1.count != c2.count)
+					return (c1.count < c2.count) ? 1 : -1;
+				return c1.name.compareTo(c2.name);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Writes a plain text report.
+	 *
+	 * @param out writer to write the report to.
+	 */
+	public void writeText(final PrintWriter out) {
+		long totalTime = 0;
+		for (final Theorem t: theorems)
+			totalTime += t.time;
+		out.println("Theorems: " + theorems.size() + ", total verification time: " + (totalTime / 1000000) + " ms");
+		out.println();
+		out.println(String.format("%10s %8s %8s %8s %12s  %s", "time/ms", "steps", "unify", "unfold", "alloc/KiB",
+					"theorem"));
+		for (final Theorem t: sortedTheorems())
+			out.println(String.format("%10.3f %8d %8d %8d %12s  %s%s", t.time / 1e6, t.proofSteps, t.unifications,
+						t.unfolds, (t.allocated < 0) ? "n/a" : Long.toString(t.allocated / 1024), t.name,
+						t.verified ? "" : " (failed)"));
+		out.println();
+		out.println(String.format("%10s %10s  %s", "time/ms", "applied", "statement"));
+		for (final Counter c: sortedApplications())
+			out.println(String.format("%10.3f %10d  %s", c.time / 1e6, c.count, c.name));
+		out.flush();
+	}
+
+	/**
+	 * Writes a JSON report.
+	 *
+	 * @param out writer to write the report to.
+	 */
+	public void writeJson(final PrintWriter out) {
+		out.println("{");
+		out.println("  \"theorems\": [");
+		final List<Theorem> sortedTheorems = sortedTheorems();
+		for (int i = 0; i != sortedTheorems.size(); ++i) {
+			final Theorem t = sortedTheorems.get(i);
+			out.print("    {\"name\": " + quote(t.name) + ", \"verified\": " + t.verified + ", \"timeNanos\": "
+					+ t.time + ", \"proofSteps\": " + t.proofSteps + ", \"unifications\": " + t.unifications
+					+ ", \"unfolds\": " + t.unfolds + ", \"allocatedBytes\": " + t.allocated + "}");
+			out.println((i + 1 != sortedTheorems.size()) ? "," : "");
+		}
+		out.println("  ],");
+		out.println("  \"statements\": [");
+		final List<Counter> sortedApplications = sortedApplications();
+		for (int i = 0; i != sortedApplications.size(); ++i) {
+			final Counter c = sortedApplications.get(i);
+			out.print("    {\"name\": " + quote(c.name) + ", \"applications\": " + c.count + ", \"timeNanos\": "
+					+ c.time + "}");
+			out.println((i + 1 != sortedApplications.size()) ? "," : "");
+		}
+		out.println("  ]");
+		out.println("}");
+		out.flush();
+	}
+
+	/**
+	 * Quotes the specified string as a JSON string.
+	 *
+	 * @param s string to quote.
+	 *
+	 * @return the JSON string.
+	 */
+	static String quote(final String s) {
+		final StringBuilder result = new StringBuilder(s.length() + 2);
+		result.append('"');
+		for (int i = 0; i != s.length(); ++i) {
+			final char c = s.charAt(i);
+			switch (c) {
+				case '"':
+					result.append("\\\"");
+					break;
+				case '\\':
+					result.append("\\\\");
+					break;
+				case '\n':
+					result.append("\\n");
+					break;
+				case '\r':
+					result.append("\\r");
+					break;
+				case '\t':
+					result.append("\\t");
+					break;
+				default:
+					if (c < 0x20)
+						result.append(String.format("\\u%04x", (int) c));
+					else
+						result.append(c);
+			}
+		}
+		result.append('"');
+		return result.toString();
+	}
+
+	/**
+	 * Cost of a single theorem.
+	 */
+	private static final class Theorem {
+
+		/**
+		 * Theorem name.
+		 */
+		final String name;
+
+		/**
+		 * Wall time in nanoseconds, or the start time while the
+		 * theorem is being verified.
+		 */
+		long time;
+
+		/**
+		 * Allocated bytes, or the allocation counter at the start
+		 * while the theorem is being verified, or <code>-1</code> if
+		 * unsupported.
+		 */
+		long allocated;
+
+		/**
+		 * Number of proof steps.
+		 */
+		int proofSteps;
+
+		/**
+		 * Number of hypothesis unifications.
+		 */
+		int unifications;
+
+		/**
+		 * Number of definition unfoldings.
+		 */
+		int unfolds;
+
+		/**
+		 * Whether the proof verified.
+		 */
+		boolean verified;
+
+		/**
+		 * Creates a new <code>Theorem</code> record.
+		 *
+		 * @param name theorem name.
+		 */
+		Theorem(final String name) {
+			this.name = name;
+		}
+
+	}
+
+	/**
+	 * Allocation counter of HotSpot-like virtual machines.
+	 * This class refers to <code>com.sun.management.ThreadMXBean</code>,
+	 * so it must only be loaded once that class is known to exist.
+	 */
+	private static final class AllocationCounter {
+
+		/**
+		 * Enables allocation measurement.
+		 *
+		 * @return <code>true</code> if allocation can be measured,
+		 * 	<code>false</code> otherwise.
+		 */
+		static boolean enable() {
+			final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)
+				ManagementFactory.getThreadMXBean();
+			if (!bean.isThreadAllocatedMemorySupported())
+				return false;
+			bean.setThreadAllocatedMemoryEnabled(true);
+			return true;
+		}
+
+		/**
+		 * Obtains the number of bytes allocated by the current thread so
+		 * far.
+		 *
+		 * @return allocated bytes.
+		 */
+		static long allocatedBytes() {
+			return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+	}
+
+	/**
+	 * Application counter of a single statement.
+	 */
+	private static final class Counter {
+
+		/**
+		 * Statement name.
+		 */
+		final String name;
+
+		/**
+		 * Number of applications.
+		 */
+		int count;
+
+		/**
+		 * Total time of all applications, in nanoseconds.
+		 */
+		long time;
+
+		/**
+		 * Creates a new <code>Counter</code>.
+		 *
+		 * @param name statement name.
+		 */
+		Counter(final String name) {
+			this.name = name;
+		}
+
+	}
+
+}
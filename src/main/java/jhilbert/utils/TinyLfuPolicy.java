@@ -0,0 +1,153 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.util.Map;
+
+/**
+ * Cost aware TinyLFU admission policy.
+ * The access frequencies of all keys, cached or not, are approximated by
+ * a count-min sketch of small saturating counters. Once the number of
+ * recorded accesses reaches ten times the sketch width, all counters are
+ * halved, so that old popularity fades.
+ * <p>
+ * A candidate is admitted if its estimated frequency times its cost
+ * exceeds the sum of the same products over the victims. Hence an
+ * expensive module which is requested now and then displaces several
+ * cheap modules, but a one-off request does not flush a hot working set.
+ *
+ * @param K cache key type.
+ */
+public class TinyLfuPolicy<K> implements CachePolicy<K> {
+
+	/**
+	 * Number of sketch rows.
+	 */
+	private static final int DEPTH = 4;
+
+	/**
+	 * Largest counter value.
+	 */
+	private static final int MAX_COUNT = 15;
+
+	/**
+	 * Row hash seeds.
+	 */
+	private static final int[] SEEDS = { 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+
+	/**
+	 * Sketch counters, row by row.
+	 */
+	private final byte[] counters;
+
+	/**
+	 * Row width minus one.
+	 */
+	private final int mask;
+
+	/**
+	 * Number of accesses after which the counters are halved.
+	 */
+	private final int sampleSize;
+
+	/**
+	 * Accesses recorded since the last halving.
+	 */
+	private int additions;
+
+	/**
+	 * Creates a new policy suitable for the specified number of distinct
+	 * keys.
+	 *
+	 * @param expectedKeys expected number of distinct keys.
+	 *
+	 * @throws IllegalArgumentException if the number of keys is not
+	 * 	positive.
+	 */
+	public TinyLfuPolicy(final int expectedKeys) throws IllegalArgumentException {
+		if (expectedKeys <= 0)
+			throw new IllegalArgumentException("Number of keys must be positive.");
+		int width = 16;
+		while ((width < 4 * expectedKeys) && (width < (1 << 24)))
+			width <<= 1;
+		counters = new byte[DEPTH * width];
+		mask = width - 1;
+		sampleSize = 10 * width;
+		additions = 0;
+	}
+
+	/**
+	 * Calculates the counter index of the specified hash code in the
+	 * specified row.
+	 *
+	 * @param hash key hash code.
+	 * @param row sketch row.
+	 *
+	 * @return counter index.
+	 */
+	private int index(final int hash, final int row) {
+		int h = (hash + SEEDS[row]) * SEEDS[row];
+		h ^= h >>> 16;
+		return row * (mask + 1) + (h & mask);
+	}
+
+	/**
+	 * Estimates the access frequency of the specified key.
+	 *
+	 * @param key key.
+	 *
+	 * @return estimated number of recent accesses.
+	 */
+	public synchronized int frequency(final K key) {
+		final int hash = key.hashCode();
+		int result = MAX_COUNT;
+		for (int row = 0; row != DEPTH; ++row)
+			result = Math.min(result, counters[index(hash, row)]);
+		return result;
+	}
+
+	public synchronized void recordAccess(final K key) {
+		final int hash = key.hashCode();
+		for (int row = 0; row != DEPTH; ++row) {
+			final int i = index(hash, row);
+			if (counters[i] < MAX_COUNT)
+				++counters[i];
+		}
+		if (++additions == sampleSize) {
+			for (int i = 0; i != counters.length; ++i)
+				counters[i] >>>= 1;
+			additions /= 2;
+		}
+	}
+
+	public synchronized boolean admit(final K candidate, final long cost, final Map<? extends K, Long> victims) {
+		final long candidateValue = frequency(candidate) * Math.max(cost, 1);
+		long victimValue = 0;
+		for (final Map.Entry<? extends K, Long> victim: victims.entrySet())
+			victimValue += frequency(victim.getKey()) * Math.max(victim.getValue(), 1);
+		return candidateValue > victimValue;
+	}
+
+}
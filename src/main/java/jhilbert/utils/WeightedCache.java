@@ -0,0 +1,377 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Weighted cache.
+ * A hash map whose entries have a weight, usually their estimated
+ * retained size in bytes, and a cost, usually the time it took to
+ * compute them. The total weight of all entries never exceeds a fixed
+ * budget. To make room for a new entry, entries are evicted in least
+ * recently used order, but only if the {@link CachePolicy} agrees that
+ * the new entry is worth more than the evicted ones. Otherwise, the new
+ * entry is simply not cached.
+ * <p>
+ * Since weights are only estimates, values are held through soft
+ * references. Should the budget turn out too generous for the heap, the
+ * garbage collector may still clear them before memory runs out; cleared
+ * entries are dropped from the cache and their weight is released.
+ * <p>
+ * All methods are synchronized on the cache itself. The views returned by
+ * {@link #entrySet()} are unmodifiable snapshots.
+ *
+ * @param K map key type.
+ * @param V map value type.
+ */
+public class WeightedCache<K, V> extends AbstractMap<K, V> implements Map<K, V> {
+
+	/**
+	 * Estimates the weight of cache values.
+	 *
+	 * @param V value type.
+	 */
+	public static interface Weigher<V> {
+
+		/**
+		 * Estimates the weight of the specified value.
+		 *
+		 * @param value value.
+		 *
+		 * @return the weight, a positive number.
+		 */
+		public long weigh(V value);
+
+	}
+
+	/**
+	 * Cache node, softly referencing the cached value.
+	 */
+	private static final class Node<K, V> extends SoftReference<V> {
+
+		/**
+		 * Key.
+		 */
+		final K key;
+
+		/**
+		 * Weight.
+		 */
+		final long weight;
+
+		/**
+		 * Cost.
+		 */
+		final long cost;
+
+		Node(final K key, final V value, final long weight, final long cost, final ReferenceQueue<? super V> queue) {
+			super(value, queue);
+			this.key = key;
+			this.weight = weight;
+			this.cost = cost;
+		}
+
+	}
+
+	/**
+	 * Backing map in access order.
+	 */
+	private final LinkedHashMap<K, Node<K, V>> backingMap;
+
+	/**
+	 * Queue of nodes whose values have been cleared by the garbage
+	 * collector.
+	 */
+	private final ReferenceQueue<V> clearedNodes;
+
+	/**
+	 * Weight budget.
+	 */
+	private final long budget;
+
+	/**
+	 * Admission policy.
+	 */
+	private final CachePolicy<? super K> policy;
+
+	/**
+	 * Weigher.
+	 */
+	private final Weigher<? super V> weigher;
+
+	/**
+	 * Total weight of all entries.
+	 */
+	private long totalWeight;
+
+	/**
+	 * Number of lookups which found a value.
+	 */
+	private long hits;
+
+	/**
+	 * Number of lookups which found no value.
+	 */
+	private long misses;
+
+	/**
+	 * Number of entries evicted to make room for new ones.
+	 */
+	private long evictions;
+
+	/**
+	 * Creates a new, empty cache.
+	 *
+	 * @param budget maximum total weight.
+	 * @param policy admission policy.
+	 * @param weigher value weigher.
+	 *
+	 * @throws IllegalArgumentException if the budget is negative.
+	 */
+	public WeightedCache(final long budget, final CachePolicy<? super K> policy, final Weigher<? super V> weigher)
+	throws IllegalArgumentException {
+		if (budget < 0)
+			throw new IllegalArgumentException("Negative budget.");
+		assert (policy != null): "Supplied policy is null";
+		assert (weigher != null): "Supplied weigher is null";
+		backingMap = new LinkedHashMap(16, 0.75f, true);
+		clearedNodes = new ReferenceQueue();
+		this.budget = budget;
+		this.policy = policy;
+		this.weigher = weigher;
+		totalWeight = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Drops all entries whose values have been cleared by the garbage
+	 * collector.
+	 */
+	private void expungeClearedNodes() {
+		Node<K, V> node;
+		while ((node = (Node<K, V>) clearedNodes.poll()) != null) {
+			// the key may have been put again since
+			if (backingMap.get(node.key) == node) {
+				backingMap.remove(node.key);
+				totalWeight -= node.weight;
+			}
+		}
+	}
+
+	/**
+	 * Obtains the total weight of all entries.
+	 *
+	 * @return total weight.
+	 */
+	public synchronized long getWeight() {
+		expungeClearedNodes();
+		return totalWeight;
+	}
+
+	/**
+	 * Obtains the number of lookups through {@link #get} which found a
+	 * value.
+	 *
+	 * @return number of hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Obtains the number of lookups through {@link #get} which found no
+	 * value.
+	 *
+	 * @return number of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Obtains the number of entries evicted to make room for new ones.
+	 *
+	 * @return number of evictions.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Obtains the weight budget.
+	 *
+	 * @return weight budget.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized @Override void clear() {
+		expungeClearedNodes();
+		backingMap.clear();
+		totalWeight = 0;
+	}
+
+	public synchronized @Override boolean containsKey(final Object key) {
+		expungeClearedNodes();
+		final Node<K, V> node = backingMap.get(key);
+		return (node != null) && (node.get() != null);
+	}
+
+	public synchronized @Override Set<Map.Entry<K, V>> entrySet() {
+		expungeClearedNodes();
+		final Map<K, V> snapshot = new HashMap(backingMap.size());
+		for (final Map.Entry<K, Node<K, V>> entry: backingMap.entrySet()) {
+			final V value = entry.getValue().get();
+			if (value != null)
+				snapshot.put(entry.getKey(), value);
+		}
+		return Collections.unmodifiableMap(snapshot).entrySet();
+	}
+
+	/**
+	 * Looks up the specified key, recording the access with the policy.
+	 *
+	 * @param key key.
+	 *
+	 * @return the cached value, or <code>null</code> if there is none.
+	 */
+	public synchronized @Override V get(final Object key) {
+		expungeClearedNodes();
+		policy.recordAccess((K) key);
+		final Node<K, V> node = backingMap.get(key);
+		final V result = (node == null) ? null : node.get();
+		if (result == null) {
+			++misses;
+			return null;
+		}
+		++hits;
+		return result;
+	}
+
+	/**
+	 * Obtains the cost of the entry with the specified key, without
+	 * recording an access.
+	 *
+	 * @param key key.
+	 *
+	 * @return cost of the entry, or <code>0</code> if the key is not
+	 * 	cached.
+	 */
+	public synchronized long getCost(final Object key) {
+		final Node<K, V> node = backingMap.get(key);
+		return (node == null) ? 0 : node.cost;
+	}
+
+	public synchronized @Override boolean isEmpty() {
+		expungeClearedNodes();
+		return backingMap.isEmpty();
+	}
+
+	/**
+	 * Puts the specified value with no known cost.
+	 * If the key is already cached, its cost is kept.
+	 *
+	 * @param key key.
+	 * @param value value.
+	 *
+	 * @return previous value, or <code>null</code> if there was none.
+	 */
+	public synchronized @Override V put(final K key, final V value) {
+		final Node<K, V> old = backingMap.get(key);
+		return put(key, value, (old == null) ? 0 : old.cost);
+	}
+
+	/**
+	 * Puts the specified value with the specified cost.
+	 * A new key may be rejected by the policy, in which case the cache
+	 * remains unchanged. A value which alone exceeds the budget is never
+	 * cached; any previous value of its key is removed, so that the cache
+	 * does not keep serving a value the caller has replaced.
+	 *
+	 * @param key key.
+	 * @param value value.
+	 * @param cost cost of recomputing the value.
+	 *
+	 * @return previous value, or <code>null</code> if there was none.
+	 */
+	public synchronized V put(final K key, final V value, final long cost) {
+		assert (value != null): "Supplied value is null";
+		final long weight = weigher.weigh(value);
+		assert (weight > 0): "Weigher returned non-positive weight";
+		expungeClearedNodes();
+		final Node<K, V> old = backingMap.remove(key);
+		final V oldValue = (old == null) ? null : old.get();
+		if (old != null)
+			totalWeight -= old.weight;
+		if (weight > budget)
+			return oldValue;
+		// collect least recently used victims until the new entry fits
+		final Map<K, Long> victims = new LinkedHashMap();
+		long freed = 0;
+		final Iterator<Map.Entry<K, Node<K, V>>> i = backingMap.entrySet().iterator();
+		while (totalWeight - freed + weight > budget) {
+			final Map.Entry<K, Node<K, V>> victim = i.next();
+			victims.put(victim.getKey(), victim.getValue().cost);
+			freed += victim.getValue().weight;
+		}
+		// replacements of cached keys are always admitted
+		if ((old == null) && !victims.isEmpty() && !policy.admit(key, cost, victims))
+			return null;
+		for (final K victim: victims.keySet())
+			backingMap.remove(victim);
+		evictions += victims.size();
+		totalWeight -= freed;
+		backingMap.put(key, new Node(key, value, weight, cost, clearedNodes));
+		totalWeight += weight;
+		return oldValue;
+	}
+
+	public synchronized @Override V remove(final Object key) {
+		expungeClearedNodes();
+		final Node<K, V> old = backingMap.remove(key);
+		if (old == null)
+			return null;
+		totalWeight -= old.weight;
+		return old.get();
+	}
+
+	public synchronized @Override int size() {
+		expungeClearedNodes();
+		return backingMap.size();
+	}
+
+}
@@ -24,6 +24,9 @@
 
 package jhilbert.verifier.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,10 +34,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
+import jhilbert.data.DataException;
 import jhilbert.data.DataFactory;
 import jhilbert.data.Kind;
 import jhilbert.data.Module;
@@ -46,11 +49,14 @@ import jhilbert.expressions.Expression;
 import jhilbert.expressions.ExpressionException;
 import jhilbert.expressions.ExpressionFactory;
 import jhilbert.expressions.Matcher;
-import jhilbert.expressions.Substituter;
+import jhilbert.expressions.StatementMatcher;
 import jhilbert.expressions.UnifyException;
 import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.Token;
 import jhilbert.scanners.TokenFeed;
+import jhilbert.utils.ArrayStack;
+import jhilbert.utils.Budget;
+import jhilbert.utils.Profiler;
 import jhilbert.verifier.Verifier;
 import jhilbert.verifier.VerifyException;
 
@@ -66,6 +72,15 @@ final class VerifierImpl implements Verifier {
 	 */
 	private static final Logger logger = Logger.getLogger(VerifierImpl.class);
 
+	/**
+	 * Scratch state of the current thread.
+	 */
+	private static final ThreadLocal<Scratch> scratchPool = new ThreadLocal<Scratch>() {
+		protected @Override Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
 	/**
 	 * Data module.
 	 */
@@ -78,15 +93,42 @@ final class VerifierImpl implements Verifier {
 
 	// local proof environment follows:
 
+	/**
+	 * Scratch state, while a proof is being verified.
+	 */
+	private Scratch scratch;
+
 	/**
 	 * Proof stack.
 	 */
-	private final Stack<Expression> proofStack;
+	private ArrayStack<Expression> proofStack;
 
 	/**
 	 * Mandatory stack.
 	 */
-	private final Stack<Expression> mandatoryStack;
+	private ArrayStack<Expression> mandatoryStack;
+
+	/**
+	 * Whether debug logging is enabled for the current proof.
+	 */
+	private boolean debugEnabled;
+
+	/**
+	 * Whether trace logging is enabled for the current proof.
+	 */
+	private boolean traceEnabled;
+
+	/**
+	 * Profiler of the current thread, or <code>null</code> if the current
+	 * proof is not being profiled.
+	 */
+	private Profiler profiler;
+
+	/**
+	 * Budget of the current thread, or <code>null</code> if the current
+	 * proof is not limited.
+	 */
+	private Budget budget;
 
 	/**
 	 * Data factory.
@@ -132,8 +174,6 @@ final class VerifierImpl implements Verifier {
 		assert (tokenFeed != null): "Supplied token feed is null";
 		this.module = module;
 		feed = tokenFeed;
-		proofStack = new Stack();
-		mandatoryStack = new Stack();
 		dataFactory = DataFactory.getInstance();
 		expressionFactory = ExpressionFactory.getInstance();
 		kindNamespace = module.getKindNamespace();
@@ -150,37 +190,41 @@ final class VerifierImpl implements Verifier {
 		assert (hypotheses != null): "Supplied hypotheses are null";
 		assert (consequent != null): "Supplied consequent is null";
 		this.hypotheses = hypotheses;
+		acquireScratch();
 		try {
 			feed.beginExp();
 			feed.confirmBeginExp();
 			// check proof steps
 			Token token = feed.getToken();
 			while (token.getTokenClass() != Token.Class.END_EXP) {
+				if (profiler != null)
+					profiler.countProofStep();
+				if (budget != null)
+					budget.countProofStep();
 				checkProofStep(token);
-				if (logger.isTraceEnabled()) {
+				if (traceEnabled) {
 					logger.trace("Proof stack:     " + proofStack);
 					logger.trace("Mandatory stack: " + mandatoryStack);
 				}
 				token = feed.getToken();
 			}
 			// check stacks
-			if (proofStack.empty()) {
+			if (proofStack.isEmpty()) {
 				feed.reject("Proof stack empty at end of proof; expected precisely one element");
 				throw new VerifyException("Proof stack empty at end of proof");
 			}
 			final Expression proofResult = proofStack.pop();
-			if (!(proofStack.empty() && mandatoryStack.empty())) {
+			if (!(proofStack.isEmpty() && mandatoryStack.isEmpty())) {
 				feed.reject("Proof stacks not empty after popping final result");
 				logger.debug("Mandatory stack: " + mandatoryStack);
 				logger.debug("Proof stack: " + proofStack);
 				throw new VerifyException("Proof stacks not empty after popping final result");
 			}
 			// have we proven what we promised to prove?
-			final Set<Variable> hypVars = new HashSet();
+			final Set<Variable> blacklist = scratch.blacklist;
 			for (final Expression hypothesis: hypotheses.values())
-				hypVars.addAll(hypothesis.variables());
-			final Set<Variable> blacklist = new HashSet(hypVars);
-			blacklist.addAll(consequent.variables());
+				blacklist.addAll(hypothesis.variableSet());
+			blacklist.addAll(consequent.variableSet());
 			for (final Iterator<Variable> i = blacklist.iterator(); i.hasNext();) {
 				if (i.next().isDummy())
 					i.remove();
@@ -224,7 +268,7 @@ final class VerifierImpl implements Verifier {
 					var1 = dv[1];
 				actualDVConstraints.add(var0, var1);
 			}
-			if (logger.isTraceEnabled()) {
+			if (traceEnabled) {
 				logger.trace("Final DV check:");
 				logger.trace("Required constraints: " + requiredDVConstraints);
 				logger.trace("Actual constraints:   " + actualDVConstraints);
@@ -256,7 +300,42 @@ final class VerifierImpl implements Verifier {
 			throw new VerifyException("Unable to scan expression", e);
 		} catch (ConstraintException e) {
 			throw new VerifyException("Illegal DV constraints on statement", e);
+		} finally {
+			releaseScratch();
+		}
+	}
+
+	/**
+	 * Takes over the scratch state of the current thread, or creates a
+	 * new one if the scratch state of the current thread is in use.
+	 */
+	private void acquireScratch() {
+		final Scratch pooled = scratchPool.get();
+		if (pooled.inUse) {
+			scratch = new Scratch();
+		} else {
+			scratch = pooled;
 		}
+		scratch.inUse = true;
+		proofStack = scratch.proofStack;
+		mandatoryStack = scratch.mandatoryStack;
+		debugEnabled = logger.isDebugEnabled();
+		traceEnabled = logger.isTraceEnabled();
+		profiler = Profiler.current();
+		budget = Budget.current();
+	}
+
+	/**
+	 * Clears the scratch state and returns it.
+	 */
+	private void releaseScratch() {
+		scratch.clear();
+		scratch.inUse = false;
+		scratch = null;
+		proofStack = null;
+		mandatoryStack = null;
+		profiler = null;
+		budget = null;
 	}
 
 	private void checkProofStep(final Token token) throws ExpressionException, ScannerException, VerifyException {
@@ -264,15 +343,20 @@ final class VerifierImpl implements Verifier {
 		if (token.getTokenClass() == Token.Class.BEGIN_EXP) {
 			feed.putToken(token);
 			mandatoryStack.push(expressionFactory.createExpression(module, feed));
-			if (logger.isDebugEnabled())
+			if (debugEnabled)
 				logger.debug("Proof object: " + mandatoryStack.peek());
+			scratch.lastMandatory = true;
 			return;
 		}
 		assert (token.getTokenClass() == Token.Class.ATOM): "Wrong token class";
 		final String label = token.getTokenString();
+		// tag or back-reference, unless a hypothesis or symbol has this name?
+		if ((label.charAt(0) == ':') && !hypotheses.containsKey(label)
+				&& (symbolNamespace.getObjectByString(label) == null) && checkTag(label))
+			return;
 		// hypothesis?
 		if (hypotheses.containsKey(label)) {
-			if (!mandatoryStack.empty()) {
+			if (!mandatoryStack.isEmpty()) {
 				feed.reject("Proof step " + label + " is a hypothesis but mandatory variable stack is not "
 						+ "empty. (Remember to place mandatory terms after the hypotheses!)");
 				logger.debug("Proof stack:     " + proofStack);
@@ -280,15 +364,21 @@ final class VerifierImpl implements Verifier {
 				throw new VerifyException("Proof step is a hypothesis but mandatory variable stack is not "
 						+ "empty.");
 			}
-			proofStack.push(hypotheses.get(label).totalUnfold());
-			if (logger.isDebugEnabled())
+			Expression unfoldedHypothesis = scratch.unfoldedHypotheses.get(label);
+			if (unfoldedHypothesis == null) {
+				unfoldedHypothesis = hypotheses.get(label).totalUnfold();
+				scratch.unfoldedHypotheses.put(label, unfoldedHypothesis);
+			}
+			proofStack.push(unfoldedHypothesis);
+			if (debugEnabled)
 				logger.debug("Proof object: " + proofStack.peek());
+			scratch.lastMandatory = false;
 			feed.confirmLabel();
 			return;
 		}
 		// label must be symbol now
 		final Symbol symbol = symbolNamespace.getObjectByString(label);
-		if (logger.isDebugEnabled())
+		if (debugEnabled)
 			logger.debug("Proof object: " + symbol);
 		if (symbol == null) {
 			feed.reject("Proof step is neither a symbol nor a hypothesis: " + label);
@@ -296,34 +386,126 @@ final class VerifierImpl implements Verifier {
 		}
 		// variable?
 		if (symbol.isVariable()) {
-			mandatoryStack.push(expressionFactory.createExpression((Variable) symbol));
+			Expression varExpression = scratch.variableExpressions.get(symbol);
+			if (varExpression == null) {
+				varExpression = expressionFactory.createExpression((Variable) symbol);
+				scratch.variableExpressions.put((Variable) symbol, varExpression);
+			}
+			mandatoryStack.push(varExpression);
+			scratch.lastMandatory = true;
 			feed.confirmVar();
 			return;
 		}
 		// Aha, Statement!
 		checkStatement((Statement) symbol);
+		scratch.lastMandatory = false;
 		feed.confirmStatement();
 	}
 
+	/**
+	 * Checks a proof step of the compressed proof syntax.
+	 * The step <code>:</code> tags the entry pushed by the previous proof
+	 * step. Tags are numbered from <code>1</code> in the order they appear
+	 * in the proof. The step <code>:</code><i>n</i> pushes the entry with
+	 * tag <i>n</i> again, onto the same stack, so that repeated subproofs
+	 * and terms need be written and checked only once. Hypotheses and
+	 * symbols named like tags keep their meaning, so the caller only
+	 * checks labels which name neither.
+	 *
+	 * @param label label of the proof step.
+	 *
+	 * @return <code>true</code> if the step was a tag or back-reference,
+	 * 	<code>false</code> if it is an ordinary label starting with a
+	 * 	colon.
+	 *
+	 * @throws ScannerException if a feed error occurs.
+	 * @throws VerifyException if the tag or back-reference is invalid.
+	 */
+	private boolean checkTag(final String label) throws ScannerException, VerifyException {
+		final int length = label.length();
+		for (int i = 1; i != length; ++i) {
+			final char c = label.charAt(i);
+			if ((c < '0') || (c > '9'))
+				return false;
+		}
+		final List<Expression> tags = scratch.tags;
+		if (length == 1) {
+			final ArrayStack<Expression> stack = scratch.lastMandatory ? mandatoryStack : proofStack;
+			if (stack.isEmpty()) {
+				feed.reject("Nothing to tag");
+				throw new VerifyException("Nothing to tag");
+			}
+			if (scratch.lastMandatory)
+				scratch.mandatoryTags.set(tags.size());
+			tags.add(stack.peek());
+			feed.confirmLabel();
+			return true;
+		}
+		int index;
+		try {
+			index = Integer.parseInt(label.substring(1)) - 1;
+		} catch (NumberFormatException e) {
+			index = -1;
+		}
+		if ((index < 0) || (index >= tags.size())) {
+			feed.reject("No proof step tagged " + label.substring(1));
+			throw new VerifyException("No proof step with this tag");
+		}
+		final boolean mandatory = scratch.mandatoryTags.get(index);
+		if (mandatory) {
+			mandatoryStack.push(tags.get(index));
+		} else {
+			if (!mandatoryStack.isEmpty()) {
+				feed.reject("Proof step " + label + " refers to a proof but mandatory variable stack is not "
+						+ "empty. (Remember to place mandatory terms after the hypotheses!)");
+				throw new VerifyException("Proof step refers to a proof but mandatory variable stack is not "
+						+ "empty.");
+			}
+			proofStack.push(tags.get(index));
+		}
+		if (debugEnabled)
+			logger.debug("Proof object: " + tags.get(index));
+		scratch.lastMandatory = mandatory;
+		feed.confirmLabel();
+		return true;
+	}
+
 	private void checkStatement(final Statement statement) throws VerifyException {
-		final Map<Variable, Expression> varAssignments = new HashMap();
-		if (logger.isTraceEnabled())
+		if (profiler == null) {
+			applyStatement(statement);
+			return;
+		}
+		final long start = System.nanoTime();
+		try {
+			applyStatement(statement);
+		} finally {
+			profiler.countApplication(statement.getNameString(), System.nanoTime() - start);
+		}
+	}
+
+	private void applyStatement(final Statement statement) throws VerifyException {
+		final StatementMatcher statementMatcher = statement.getMatcher();
+		final int slotCount = statementMatcher.getSlotCount();
+		final Expression[] slots = scratch.getSlots(slotCount);
+		if (traceEnabled)
 			logger.trace("Inference: " + statement.getHypotheses() + " -> " + statement.getConsequent());
-		assignMandatoryVariables(statement.getMandatoryVariables(), varAssignments);
-		final Substituter substituter = expressionFactory.createSubstituter(varAssignments);
-		assignHypotheses(statement.getHypotheses(), substituter);
-		// FIXME
-		if (logger.isDebugEnabled()) {
-			logger.debug("Statement DV constraints: " + statement.getDVConstraints());
-			logger.debug("Var assignments: " + substituter.getAssignments());
+		try {
+			assignMandatoryVariables(statement.getMandatoryVariables(), slots);
+			assignHypotheses(statement.getHypotheses().size(), statementMatcher, slots);
+			// FIXME
+			if (debugEnabled) {
+				logger.debug("Statement DV constraints: " + statement.getDVConstraints());
+				logger.debug("Var assignments: " + Arrays.asList(slots).subList(0, slotCount));
+			}
+			// End FIXME
+			updateRequiredConstraints(statement.getDVConstraints(), statementMatcher, slots);
+			proofStack.push(statementMatcher.instantiate(slots));
+		} finally {
+			Arrays.fill(slots, 0, slotCount, null);
 		}
-		// End FIXME
-		updateRequiredConstraints(statement.getDVConstraints(), substituter.getAssignments());
-		proofStack.push(substituter.substitute(statement.getConsequent()).totalUnfold());
 	}
 
-	private void assignMandatoryVariables(final List<Variable> mandatoryVars,
-			final Map<Variable, Expression> varAssignments)
+	private void assignMandatoryVariables(final List<Variable> mandatoryVars, final Expression[] slots)
 	throws VerifyException {
 		final int size = mandatoryStack.size();
 		if (mandatoryVars.size() != size) {
@@ -341,7 +523,7 @@ final class VerifierImpl implements Verifier {
 			final Expression expr = mandatoryStack.get(i);
 			final Kind varKind = var.getKind();
 			final Kind exprKind = expr.getKind();
-			if (!varKind.equals(exprKind)) {
+			if (!sameKind(varKind, exprKind)) {
 				try {
 					feed.reject("Kind mismatch");
 				} catch (ScannerException ignored) {
@@ -352,14 +534,35 @@ final class VerifierImpl implements Verifier {
 				logger.debug("Required kind:       " + varKind);
 				throw new VerifyException("Kind mismatch");
 			}
-			varAssignments.put(var, expr);
+			// mandatory variables occupy the first slots
+			slots[i] = expr;
 		}
 		mandatoryStack.clear();
 	}
 
-	private void assignHypotheses(final List<Expression> hypotheses, final Substituter substituter)
+	/**
+	 * Checks whether the specified kinds are equal in the module.
+	 * Unlike {@link Kind#equals}, this also sees identifications of kinds
+	 * of a prelude made by the module, see {@link Module#fork}.
+	 *
+	 * @param kind1 first kind.
+	 * @param kind2 second kind.
+	 *
+	 * @return <code>true</code> if the kinds are equal,
+	 * 	<code>false</code> otherwise.
+	 */
+	private boolean sameKind(final Kind kind1, final Kind kind2) {
+		if (kind1.equals(kind2))
+			return true;
+		try {
+			return kindNamespace.checkEquality(kind1, kind2);
+		} catch (DataException e) {
+			return false;
+		}
+	}
+
+	private void assignHypotheses(final int size, final StatementMatcher statementMatcher, final Expression[] slots)
 	throws VerifyException {
-		final int size = hypotheses.size();
 		final int start = proofStack.size() - size;
 		if (start < 0) {
 			try {
@@ -371,8 +574,11 @@ final class VerifierImpl implements Verifier {
 			throw new VerifyException("Too few hypotheses on stack");
 		}
 		try {
-			for (int i = 0; i != size; ++i)
-				substituter.unify(hypotheses.get(i).totalUnfold(), proofStack.get(start + i));
+			for (int i = 0; i != size; ++i) {
+				if (profiler != null)
+					profiler.countUnification();
+				statementMatcher.unify(i, proofStack.get(start + i), slots);
+			}
 			proofStack.setSize(start);
 		} catch (UnifyException e) {
 			try {
@@ -387,16 +593,18 @@ final class VerifierImpl implements Verifier {
 	}
 
 	private void updateRequiredConstraints(final DVConstraints dvConstraints,
-			final Map<Variable, Expression> varAssignments)
+			final StatementMatcher statementMatcher, final Expression[] slots)
 	throws VerifyException {
 		for (Variable[] constraint: dvConstraints) {
 			assert (constraint.length == 2): "Invalid constraint length";
-			final Expression exp1 = varAssignments.get(constraint[0]);
-			final Expression exp2 = varAssignments.get(constraint[1]);
+			final int slot1 = statementMatcher.getSlot(constraint[0]);
+			final int slot2 = statementMatcher.getSlot(constraint[1]);
+			final Expression exp1 = (slot1 < 0)? null : slots[slot1];
+			final Expression exp2 = (slot2 < 0)? null : slots[slot2];
 			final Set<Variable> varSet1 = (exp1 == null)? Collections.singleton(constraint[0])
-				: exp1.variables();
+				: exp1.variableSet();
 			final Set<Variable> varSet2 = (exp2 == null)? Collections.singleton(constraint[1])
-				: exp2.variables();
+				: exp2.variableSet();
 			try {
 				requiredDVConstraints.addProduct(varSet1, varSet2);
 			} catch (ConstraintException e) {
@@ -413,4 +621,108 @@ final class VerifierImpl implements Verifier {
 		}
 	}
 
+	/**
+	 * Scratch state of a verifier, reused by all verifiers on the same
+	 * thread, so that proof steps need not allocate their working
+	 * collections. It is cleared after each proof, so that it keeps no
+	 * module data alive.
+	 */
+	private static final class Scratch {
+
+		/**
+		 * Proof stack.
+		 */
+		final ArrayStack<Expression> proofStack;
+
+		/**
+		 * Mandatory stack.
+		 */
+		final ArrayStack<Expression> mandatoryStack;
+
+		/**
+		 * Variable blacklist for the final equality check.
+		 */
+		final Set<Variable> blacklist;
+
+		/**
+		 * Totally unfolded hypotheses by label.
+		 */
+		final Map<String, Expression> unfoldedHypotheses;
+
+		/**
+		 * Expressions consisting of a single variable.
+		 */
+		final Map<Variable, Expression> variableExpressions;
+
+		/**
+		 * Tagged proof stack entries of the compressed proof syntax.
+		 */
+		final List<Expression> tags;
+
+		/**
+		 * Which of the tagged entries belong onto the mandatory stack.
+		 */
+		final BitSet mandatoryTags;
+
+		/**
+		 * Whether the previous proof step pushed onto the mandatory stack.
+		 */
+		boolean lastMandatory;
+
+		/**
+		 * Statement matcher slots.
+		 */
+		private Expression[] slots;
+
+		/**
+		 * Whether a verifier is currently using this scratch state.
+		 */
+		boolean inUse;
+
+		/**
+		 * Creates new, empty scratch state.
+		 */
+		Scratch() {
+			proofStack = new ArrayStack();
+			mandatoryStack = new ArrayStack();
+			blacklist = new HashSet();
+			unfoldedHypotheses = new HashMap();
+			variableExpressions = new HashMap();
+			tags = new ArrayList();
+			mandatoryTags = new BitSet();
+			lastMandatory = false;
+			slots = new Expression[16];
+			inUse = false;
+		}
+
+		/**
+		 * Obtains an array of at least the specified number of slots,
+		 * all of which are <code>null</code>.
+		 *
+		 * @param count number of slots.
+		 *
+		 * @return slot array.
+		 */
+		Expression[] getSlots(final int count) {
+			if (slots.length < count)
+				slots = new Expression[Math.max(count, 2 * slots.length)];
+			return slots;
+		}
+
+		/**
+		 * Clears this scratch state.
+		 */
+		void clear() {
+			proofStack.clear();
+			mandatoryStack.clear();
+			blacklist.clear();
+			unfoldedHypotheses.clear();
+			variableExpressions.clear();
+			tags.clear();
+			mandatoryTags.clear();
+			lastMandatory = false;
+		}
+
+	}
+
 }
@@ -28,9 +28,11 @@ import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import jhilbert.commands.CommandException;
 import jhilbert.commands.CommandFactory;
+import jhilbert.commands.PreludeCache;
 import jhilbert.data.DVConstraints;
 import jhilbert.data.DataException;
 import jhilbert.data.DataFactory;
@@ -39,6 +41,7 @@ import jhilbert.data.Functor;
 import jhilbert.data.Kind;
 import jhilbert.data.Module;
 import jhilbert.data.Parameter;
+import jhilbert.data.Statement;
 import jhilbert.data.Symbol;
 import jhilbert.data.Variable;
 import jhilbert.expressions.Expression;
@@ -48,7 +51,10 @@ import jhilbert.scanners.ScannerFactory;
 import jhilbert.scanners.TokenFeed;
 import jhilbert.scanners.WikiInputStreamTest;
 import jhilbert.scanners.impl.CharTest;
-import jhilbert.storage.wiki.StorageTest;
+import jhilbert.storage.MemoryStorage;
+import jhilbert.storage.Storage;
+import jhilbert.utils.Budget;
+import jhilbert.utils.BudgetExceededException;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -67,9 +73,26 @@ public class AppTest extends TestCase
 		TestSuite suite = new TestSuite();
 		suite.addTestSuite(AppTest.class);
 		suite.addTestSuite(MainTest.class);
-		suite.addTestSuite(StorageTest.class);
+		suite.addTestSuite(MetricsTest.class);
+		suite.addTestSuite(jhilbert.storage.wiki.StorageTest.class);
+		suite.addTestSuite(jhilbert.storage.CacheSnapshotTest.class);
+		suite.addTestSuite(jhilbert.storage.hashstore.StorageTest.class);
+		suite.addTestSuite(jhilbert.storage.segment.StorageTest.class);
 		suite.addTestSuite(WikiInputStreamTest.class);
 		suite.addTestSuite(CharTest.class);
+		suite.addTestSuite(jhilbert.scanners.impl.TokenCacheTest.class);
+		suite.addTestSuite(jhilbert.data.impl.NamespaceImplTest.class);
+		suite.addTestSuite(jhilbert.data.impl.ParameterLoaderImplTest.class);
+		suite.addTestSuite(jhilbert.expressions.impl.FlatExpressionTest.class);
+		suite.addTestSuite(jhilbert.expressions.impl.StatementMatcherImplTest.class);
+		suite.addTestSuite(jhilbert.expressions.impl.SubstituterImplTest.class);
+		suite.addTestSuite(jhilbert.expressions.impl.TemplateImplTest.class);
+		suite.addTestSuite(jhilbert.utils.ArrayStackTest.class);
+		suite.addTestSuite(jhilbert.utils.BudgetTest.class);
+		suite.addTestSuite(jhilbert.utils.HistogramTest.class);
+		suite.addTestSuite(jhilbert.utils.MemoryPoolTest.class);
+		suite.addTestSuite(jhilbert.utils.ProfilerTest.class);
+		suite.addTestSuite(jhilbert.utils.WeightedCacheTest.class);
 		return suite;
     }
 
@@ -88,14 +111,30 @@ public class AppTest extends TestCase
             .getInstance().createTokenFeed(new ByteArrayInputStream(proofModule.getBytes("UTF-8")));
         CommandFactory.getInstance().processCommands(mainModule, tokenFeed);
 	}
+
+	private void process(String proofModule, PreludeCache preludes) throws ScannerException,
+			UnsupportedEncodingException, CommandException {
+		final TokenFeed tokenFeed = ScannerFactory
+			.getInstance().createTokenFeed(new ByteArrayInputStream(proofModule.getBytes("UTF-8")));
+		CommandFactory.getInstance().processCommands(mainModule, tokenFeed, preludes);
+	}
     
 	private void importInterface(String interfaceText) throws DataException,
+	ScannerException, UnsupportedEncodingException, CommandException {
+		importInterface(createInterface(interfaceText), "");
+	}
+
+	private Module createInterface(String interfaceText) throws DataException,
 	ScannerException, UnsupportedEncodingException, CommandException {
 		Module parameterModule = dataFactory.createModule("test.jhi", -1);
 		final TokenFeed tokenFeed = ScannerFactory
 		    .getInstance().createTokenFeed(new ByteArrayInputStream(interfaceText .getBytes("UTF-8")));
 		CommandFactory.getInstance().processCommands(parameterModule, tokenFeed);
-		Parameter parameter = dataFactory.createParameter("TEST", "test.jhi", new ArrayList(), "");
+		return parameterModule;
+	}
+
+	private void importInterface(Module parameterModule, String prefix) throws DataException {
+		Parameter parameter = dataFactory.createParameter("TEST", "test.jhi", new ArrayList(), prefix);
 		dataFactory.createParameterLoader(parameter, parameterModule, mainModule).importParameter();
 	}
 
@@ -171,4 +210,191 @@ public class AppTest extends TestCase
 		importInterface("kind (formula)");
 	}
 
+	public void testImportStatementRepeatedly() throws Exception {
+		Module parameterModule = createInterface("kind (wff) var (wff ph ps) term (wff (-> wff wff)) "
+			+ "stmt (ax-1 () () (-> ph (-> ps ph))) stmt (ax-mp () (ph (-> ph ps)) ps) "
+			+ "stmt (ax-dv ((ph ps)) () (-> ph ps))");
+		// later imports translate the same flat expressions as the first one
+		for (String prefix: Arrays.asList("", "a-", "b-")) {
+			mainModule = dataFactory.createModule("");
+			importInterface(parameterModule, prefix);
+			process("var (" + prefix + "wff p q) "
+				+ "thm (t () ((t.1 p)) (" + prefix + "-> q p) "
+				+ "(t.1 p q " + prefix + "ax-1 " + prefix + "ax-mp))");
+			Statement dv = (Statement) mainModule.getSymbolNamespace().getObjectByString(prefix + "ax-dv");
+			List<Variable> mandatoryVariables = dv.getMandatoryVariables();
+			assertEquals(2, mandatoryVariables.size());
+			assertEquals(prefix + "wff", mandatoryVariables.get(0).getKind().getNameString());
+			assertTrue(dv.getDVConstraints().contains(mandatoryVariables.get(0), mandatoryVariables.get(1)));
+			assertTrue(dv.getHypotheses().isEmpty());
+			assertEquals(mandatoryVariables.get(0), dv.getConsequent().getChildren().get(0).getValue());
+		}
+	}
+
+	public void testPreludeCache() throws Exception {
+		MemoryStorage storage = new MemoryStorage();
+		storage.store("Interface:prop", "kind (wff) var (wff ph ps) term (wff (-> wff wff)) "
+			+ "stmt (ax-1 () () (-> ph (-> ps ph))) stmt (ax-mp () (ph (-> ph ps)) ps)");
+		Storage.setInstance(storage);
+		PreludeCache preludes = new PreludeCache(4);
+		for (int i = 0; i != 3; ++i) {
+			mainModule = dataFactory.createModule("");
+			process("import (PROP Interface:prop () ()) var (wff p q) "
+				+ "thm (t () ((t.1 p)) (-> q p) (t.1 p q ax-1 ax-mp))", preludes);
+			assertNotNull(mainModule.getSymbolNamespace().getObjectByString("t"));
+			assertEquals(1, mainModule.getParameters().size());
+		}
+		assertEquals(1, preludes.size());
+		assertEquals(1, preludes.getMisses());
+		assertEquals(2, preludes.getHits());
+		// a module with further imports extends the cached prelude
+		mainModule = dataFactory.createModule("");
+		process("import (PROP Interface:prop () ()) import (PROP2 Interface:prop () p-)", preludes);
+		assertEquals(2, mainModule.getParameters().size());
+		assertNotNull(mainModule.getSymbolNamespace().getObjectByString("p-ax-mp"));
+		assertEquals(2, preludes.size());
+		assertEquals(3, preludes.getHits());
+		// names of a module do not leak into the cached preludes
+		mainModule = dataFactory.createModule("");
+		process("import (PROP Interface:prop () ())", preludes);
+		assertNull(mainModule.getSymbolNamespace().getObjectByString("t"));
+		assertNull(mainModule.getSymbolNamespace().getObjectByString("p-ax-mp"));
+		try {
+			mainModule.forkFrom(dataFactory.createModule(""));
+			fail("Forked a module which is not empty");
+		} catch (DataException e) {
+			// expected
+		}
+	}
+
+	public void testPreludeCacheKindbind() throws Exception {
+		MemoryStorage storage = new MemoryStorage();
+		storage.store("Interface:prop", "kind (wff) var (wff ph ps) term (wff (-> wff wff)) "
+			+ "stmt (ax-1 () () (-> ph (-> ps ph))) stmt (ax-mp () (ph (-> ph ps)) ps)");
+		storage.store("Interface:bind", "param (P Interface:prop () a-) param (Q Interface:prop () b-) "
+			+ "kindbind (a-wff b-wff)");
+		Storage.setInstance(storage);
+		final String theorem = "var (wff p q) thm (t () ((t.1 p)) (b--> q p) (t.1 p q b-ax-1 b-ax-mp))";
+		final String[] proofModules = {
+			"import (A Interface:prop () ()) import (B Interface:prop () b-) kindbind (wff b-wff) " + theorem,
+			"import (A Interface:prop () ()) import (B Interface:prop () b-) import (C Interface:bind (A B) ()) "
+				+ theorem
+		};
+		PreludeCache preludes = new PreludeCache(4);
+		for (int i = 0; i != proofModules.length; ++i) {
+			// daemon and batch mode accept the same modules
+			mainModule = dataFactory.createModule("");
+			process(proofModules[i]);
+			assertNotNull(mainModule.getSymbolNamespace().getObjectByString("t"));
+			for (int j = 0; j != 2; ++j) {
+				mainModule = dataFactory.createModule("");
+				process(proofModules[i], preludes);
+				assertNotNull(mainModule.getSymbolNamespace().getObjectByString("t"));
+			}
+		}
+		assertTrue(preludes.getHits() > 0);
+		// the identification does not leak into the cached preludes
+		mainModule = dataFactory.createModule("");
+		try {
+			process("import (A Interface:prop () ()) import (B Interface:prop () b-) " + theorem, preludes);
+			fail("Kinds identified by another module");
+		} catch (CommandException e) {
+			// expected
+		}
+	}
+
+	public void testPreludeCacheGeneration() throws Exception {
+		PreludeCache preludes = new PreludeCache(4);
+		Parameter parameter = dataFactory.createParameter("PROP", "Interface:prop", new ArrayList(), "");
+		assertFalse(PreludeCache.key("", parameter, 1).equals(PreludeCache.key("", parameter, 2)));
+		long generation = preludes.getGeneration();
+		// a prelude built while the cache is cleared is stale
+		preludes.clear();
+		assertFalse(preludes.put(PreludeCache.key("", parameter, 1), dataFactory.createModule(""), generation));
+		assertEquals(0, preludes.size());
+		assertTrue(preludes.put(PreludeCache.key("", parameter, 1), dataFactory.createModule(""),
+			preludes.getGeneration()));
+		assertEquals(1, preludes.size());
+	}
+
+
+	public void testStepLimit() throws Exception {
+		importInterface("kind (wff) var (wff ph ps) term (wff (-> wff wff)) "
+			+ "stmt (ax-1 () () (-> ph (-> ps ph))) stmt (ax-mp () (ph (-> ph ps)) ps)");
+		Budget.install(new Budget(-1, 4));
+		try {
+			process("var (wff p q) thm (t () ((t.1 p)) (-> q p) (t.1 p q ax-1 ax-mp))");
+			fail("Step limit not enforced");
+		} catch (BudgetExceededException e) {
+			assertEquals("Limit of 4 proof steps exceeded", e.getMessage());
+		} finally {
+			Budget.install(null);
+		}
+		assertNull(mainModule.getSymbolNamespace().getObjectByString("t"));
+	}
+
+
+	public void testCompressedProof() throws Exception {
+		importInterface("kind (wff) var (wff ph ps) term (wff (-> wff wff)) term (wff (/\\ wff wff)) "
+			+ "stmt (ax-1 () () (-> ph (-> ps ph))) stmt (ax-mp () (ph (-> ph ps)) ps) "
+			+ "stmt (conj () (ph ps) (/\\ ph ps))");
+		process("var (wff p q) "
+			+ "thm (t1 () ((t1.1 p)) (/\\ (-> q p) (-> q p)) (t1.1 p q ax-1 ax-mp : :1 conj)) "
+			+ "thm (t2 () () (-> (-> q p) (-> (-> q p) (-> q p))) ((-> q p) : :1 ax-1))");
+		assertNotNull(mainModule.getSymbolNamespace().getObjectByString("t2"));
+		try {
+			process("thm (t3 () ((t3.1 p)) (/\\ p p) (t3.1 : :2 conj))");
+			fail("Invalid back-reference accepted");
+		} catch (CommandException e) {
+			assertEquals("No proof step with this tag", rootCause(e).getMessage());
+		}
+		try {
+			process("thm (t4 () ((t4.1 p)) (-> q p) (t4.1 : p :1 q ax-1 ax-mp))");
+			fail("Back-reference to a proof accepted with terms on the mandatory stack");
+		} catch (CommandException e) {
+			assertTrue(rootCause(e).getMessage().startsWith("Proof step refers to a proof"));
+		}
+		assertNull(mainModule.getSymbolNamespace().getObjectByString("t3"));
+		// declared names take precedence over tags
+		process("thm (:1 () () (-> p (-> q p)) (p q ax-1)) thm (t5 () () (-> q (-> p q)) (q p :1))");
+		assertNotNull(mainModule.getSymbolNamespace().getObjectByString("t5"));
+	}
+
+	private static Throwable rootCause(Throwable e) {
+		while (e.getCause() != null)
+			e = e.getCause();
+		return e;
+	}
+
+	public void testProofCompressor() throws Exception {
+		final String interfaceText = "kind (wff) var (wff ph ps) term (wff (-> wff wff)) term (wff (/\\ wff wff)) "
+			+ "stmt (ax-1 () () (-> ph (-> ps ph))) stmt (ax-mp () (ph (-> ph ps)) ps) "
+			+ "stmt (conj () (ph ps) (/\\ ph ps))";
+		importInterface(interfaceText);
+		final String text = "var (wff p q)\n"
+			+ "thm (t1 () ((t1.1 p)) (/\\ (-> q p) (-> q p))\n"
+			+ "  (t1.1 p q ax-1 ax-mp\n   t1.1 p q ax-1 ax-mp\n   conj))\n"
+			+ "thm (t2 () () (-> (-> q p) (-> (-> q p) (-> q p)))\n"
+			+ "  ((-> q p) (->  q p) ax-1))\n"
+			+ "thm (t3 () () (-> p (-> p p)) (p p ax-1)) # no repeated subproofs\n";
+		process(text);
+		final ProofCompressor compressor = new ProofCompressor(mainModule);
+		final String compressed = compressor.compress(text);
+		assertEquals("var (wff p q)\n"
+			+ "thm (t1 () ((t1.1 p)) (/\\ (-> q p) (-> q p))\n"
+			+ "  (t1.1 p q ax-1 ax-mp :\n   :1\n   conj))\n"
+			+ "thm (t2 () () (-> (-> q p) (-> (-> q p) (-> q p)))\n"
+			+ "  ((-> q p) : :1 ax-1))\n"
+			+ "thm (t3 () () (-> p (-> p p)) (p p ax-1)) # no repeated subproofs\n", compressed);
+		assertEquals(2, compressor.getReferences());
+		assertEquals("(unbalanced", compressor.compress("(unbalanced"));
+		mainModule = dataFactory.createModule("");
+		importInterface(interfaceText);
+		process(compressed);
+		assertNotNull(mainModule.getSymbolNamespace().getObjectByString("t3"));
+		// proofs are left alone where tags would name a symbol
+		process("thm (:1 () () (-> p (-> p p)) (p p ax-1))");
+		assertEquals(text, new ProofCompressor(mainModule).compress(text));
+	}
+
 }
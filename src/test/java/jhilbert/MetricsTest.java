@@ -0,0 +1,81 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import jhilbert.commands.CommandException;
+import jhilbert.storage.StorageException;
+import jhilbert.verifier.VerifyException;
+import junit.framework.TestCase;
+
+public class MetricsTest extends TestCase {
+
+	public void testCounters() {
+		final Metrics metrics = new Metrics();
+		metrics.connectionOpened();
+		metrics.connectionOpened();
+		metrics.connectionClosed();
+		metrics.addBytesIn(10);
+		metrics.addBytesOut(20);
+		assertEquals(2, metrics.getConnections());
+		assertEquals(1, metrics.getActiveConnections());
+		assertEquals(10, metrics.getBytesIn());
+		assertEquals(20, metrics.getBytesOut());
+	}
+
+	public void testFailures() {
+		final Metrics metrics = new Metrics();
+		metrics.recordFailure(new CommandException("outer", new CommandException("inner",
+						new VerifyException("Proof does not verify"))));
+		metrics.recordFailure(new CommandException("other", new VerifyException("Kind mismatch")));
+		metrics.recordFailure(new StorageException("Unable to load module"));
+		assertEquals(Long.valueOf(2), metrics.getFailures().get("VerifyException"));
+		assertEquals(Long.valueOf(1), metrics.getFailures().get("StorageException"));
+	}
+
+	public void testText() {
+		final Metrics metrics = new Metrics();
+		metrics.recordRequest(Metrics.MOD, 2000000L);
+		metrics.recordRequest(Metrics.MOD, 4000000L);
+		metrics.recordRequest(Metrics.DEL, 20000000000L);
+		metrics.recordFailure(new VerifyException("Kind mismatch"));
+		assertEquals(Long.valueOf(2), metrics.getRequestCounts().get(Metrics.MOD));
+		assertEquals(3.0, metrics.getRequestMeanMillis().get(Metrics.MOD), 1e-9);
+		final StringWriter text = new StringWriter();
+		metrics.writeText(new PrintWriter(text));
+		final String s = text.toString();
+		assertTrue(s.contains("jhilbert_request_duration_seconds_bucket{command=\"mod\",le=\"0.001\"} 0"));
+		assertTrue(s.contains("jhilbert_request_duration_seconds_bucket{command=\"mod\",le=\"0.0025\"} 1"));
+		assertTrue(s.contains("jhilbert_request_duration_seconds_bucket{command=\"mod\",le=\"+Inf\"} 2"));
+		assertTrue(s.contains("jhilbert_request_duration_seconds_count{command=\"mod\"} 2"));
+		assertTrue(s.contains("jhilbert_request_duration_seconds_bucket{command=\"del\",le=\"10.0\"} 0"));
+		assertTrue(s.contains("jhilbert_backend_request_duration_seconds_count 0"));
+		assertTrue(s.contains("jhilbert_failures_total{type=\"VerifyException\"} 1"));
+		assertTrue(s.contains("jhilbert_module_cache_hits_total "));
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import jhilbert.commands.CommandFactory;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Kind;
+import jhilbert.data.Module;
+import jhilbert.data.Symbol;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionFactory;
+import jhilbert.scanners.ScannerFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.varia.NullAppender;
+
+/**
+ * Shared fixture for tests working on small modules given as JHilbert
+ * source text.
+ */
+public class TestModules {
+
+	/**
+	 * Creates a new module with a <code>formula</code> kind and the
+	 * implication <code>-&gt;</code> and negation <code>!</code> terms,
+	 * and silences logging.
+	 *
+	 * @param name module name.
+	 * @param revision module revision.
+	 *
+	 * @return the new module.
+	 *
+	 * @throws Exception if the module cannot be created.
+	 */
+	public static Module createPropositionalModule(final String name, final long revision) throws Exception {
+		BasicConfigurator.configure(new NullAppender());
+		final DataFactory dataFactory = DataFactory.getInstance();
+		final Module module = dataFactory.createModule(name, revision);
+		final Kind formula = dataFactory.createKind("formula", module.getKindNamespace());
+		dataFactory.createFunctor("->", formula, Arrays.asList(formula, formula), module.getFunctorNamespace());
+		dataFactory.createFunctor("!", formula, Arrays.asList(formula), module.getFunctorNamespace());
+		return module;
+	}
+
+	/**
+	 * Processes the specified commands in the specified module.
+	 *
+	 * @param module module.
+	 * @param text commands.
+	 *
+	 * @throws Exception if the commands cannot be processed.
+	 */
+	public static void process(final Module module, final String text) throws Exception {
+		CommandFactory.getInstance().processCommands(module,
+				ScannerFactory.getInstance().createTokenFeed(new ByteArrayInputStream(text.getBytes("UTF-8"))));
+	}
+
+	/**
+	 * Parses the specified expression in the specified module.
+	 *
+	 * @param module module.
+	 * @param text expression.
+	 *
+	 * @return the expression.
+	 *
+	 * @throws Exception if the expression cannot be parsed.
+	 */
+	public static Expression parse(final Module module, final String text) throws Exception {
+		return ExpressionFactory.getInstance().createExpression(module,
+				ScannerFactory.getInstance().createTokenFeed(new ByteArrayInputStream(text.getBytes("UTF-8"))));
+	}
+
+	/**
+	 * Looks up the symbol with the specified name.
+	 *
+	 * @param module module.
+	 * @param name symbol name.
+	 *
+	 * @return the symbol, or <code>null</code> if there is none.
+	 */
+	public static Symbol symbol(final Module module, final String name) {
+		return module.getSymbolNamespace().getObjectByString(name);
+	}
+
+}
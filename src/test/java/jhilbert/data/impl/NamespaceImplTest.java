@@ -0,0 +1,164 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.data.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import jhilbert.data.DataException;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Kind;
+import jhilbert.data.Module;
+import jhilbert.data.Namespace;
+import junit.framework.TestCase;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.varia.NullAppender;
+
+public class NamespaceImplTest extends TestCase {
+
+	private DataFactory dataFactory;
+
+	private Module module;
+
+	private Namespace<? extends Kind> kinds;
+
+	protected void setUp() throws Exception {
+		BasicConfigurator.configure(new NullAppender());
+		dataFactory = DataFactory.getInstance();
+		module = dataFactory.createModule("");
+		kinds = module.getKindNamespace();
+	}
+
+	public void testEquality() throws DataException {
+		final Kind a = dataFactory.createKind("a", kinds);
+		final Kind b = dataFactory.createKind("b", kinds);
+		final Kind other = dataFactory.createKind("a", dataFactory.createModule("").getKindNamespace());
+		assertEquals(a, a);
+		assertFalse(a.equals(b));
+		assertFalse(a.equals(other));
+		assertFalse(a.equals("a"));
+		assertFalse(a.equals(null));
+		assertTrue(kinds.checkEquality(a, a));
+		assertFalse(kinds.checkEquality(a, b));
+		assertFalse(kinds.checkEquality(a, other));
+	}
+
+	public void testIdentification() throws DataException {
+		final Kind a = dataFactory.createKind("a", kinds);
+		final Kind b = dataFactory.createKind("b", kinds);
+		final Kind c = dataFactory.createKind("c", kinds);
+		final Kind d = dataFactory.createKind("d", kinds);
+		kinds.identify(a, b);
+		kinds.identify(d, c);
+		assertEquals(a, b);
+		assertEquals(b, a);
+		assertFalse(a.equals(c));
+		kinds.identify(b, c);
+		assertEquals(a, d);
+		assertEquals(d, b);
+		assertTrue(kinds.checkEquality(c, a));
+		assertEquals(1, kinds.equivalenceClasses().size());
+		assertEquals(4, kinds.equivalenceClasses().iterator().next().size());
+	}
+
+	public void testManyIdentifications() throws DataException {
+		final Kind[] k = new Kind[100];
+		for (int i = 0; i != k.length; ++i)
+			k[i] = dataFactory.createKind("k" + i, kinds);
+		// two chains: even and odd kinds
+		for (int i = 2; i < k.length; ++i)
+			kinds.identify(k[i], k[i - 2]);
+		assertEquals(2, kinds.equivalenceClasses().size());
+		assertEquals(k[0], k[98]);
+		assertEquals(k[99], k[1]);
+		assertFalse(k[0].equals(k[99]));
+		kinds.identify(k[50], k[51]);
+		assertEquals(1, kinds.equivalenceClasses().size());
+		assertEquals(k[0], k[99]);
+	}
+
+	public void testFork() throws DataException {
+		final Kind a = dataFactory.createKind("a", kinds);
+		final Kind b = dataFactory.createKind("b", kinds);
+		final Kind c = dataFactory.createKind("c", kinds);
+		kinds.identify(a, b);
+		kinds.createAlias(c, "see");
+		final Module fork = module.fork();
+		final Namespace<? extends Kind> forkKinds = fork.getKindNamespace();
+		final Module sibling = module.fork();
+		final Namespace<? extends Kind> siblingKinds = sibling.getKindNamespace();
+		assertSame(a, forkKinds.getObjectByString("a"));
+		assertSame(c, forkKinds.getObjectByString("see"));
+		assertEquals(3, forkKinds.objects().size());
+		// the fork is modified on its own
+		final Kind d = dataFactory.createKind("d", forkKinds);
+		forkKinds.identify(d, c);
+		assertNull(kinds.getObjectByString("d"));
+		assertNull(siblingKinds.getObjectByString("d"));
+		assertEquals(d, c);
+		assertEquals(c, d);
+		assertFalse(d.equals(a));
+		assertTrue(forkKinds.checkEquality(c, d));
+		assertEquals(2, forkKinds.equivalenceClasses().size());
+		assertEquals(1, siblingKinds.equivalenceClasses().size());
+		assertEquals(Arrays.asList(a, b, c, d), new ArrayList(forkKinds.objects()));
+		// names of a fork are unrelated to names of a sibling
+		final Kind e = dataFactory.createKind("d", siblingKinds);
+		assertFalse(d.equals(e));
+		// the snapshot is frozen
+		try {
+			dataFactory.createKind("x", kinds);
+			fail("Expected exception but didn't get it");
+		} catch (DataException ex) {
+			// expected
+		}
+		// names of the snapshot may be identified in the fork only
+		forkKinds.identify(a, c);
+		assertTrue(forkKinds.checkEquality(a, c));
+		assertTrue(forkKinds.checkEquality(b, d));
+		assertEquals(d, b);
+		assertFalse(siblingKinds.checkEquality(a, c));
+		assertFalse(kinds.checkEquality(a, c));
+		assertEquals(1, forkKinds.equivalenceClasses().size());
+		assertEquals(1, siblingKinds.equivalenceClasses().size());
+		try {
+			dataFactory.createKind("a", forkKinds);
+			fail("Expected exception but didn't get it");
+		} catch (DataException ex) {
+			// expected
+		}
+		// forks of forks
+		final Namespace<? extends Kind> grandchildKinds = fork.fork().getKindNamespace();
+		final Kind f = dataFactory.createKind("f", grandchildKinds);
+		grandchildKinds.identify(f, d);
+		assertEquals(f, c);
+		assertEquals(f, a);
+		assertTrue(grandchildKinds.checkEquality(b, a));
+		assertTrue(grandchildKinds.checkEquality(b, c));
+		assertEquals(5, grandchildKinds.objects().size());
+	}
+
+}
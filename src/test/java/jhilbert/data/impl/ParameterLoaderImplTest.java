@@ -0,0 +1,123 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.data.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import jhilbert.TestModules;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Functor;
+import jhilbert.data.Module;
+import jhilbert.data.Parameter;
+import jhilbert.data.Statement;
+import junit.framework.TestCase;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.varia.NullAppender;
+
+public class ParameterLoaderImplTest extends TestCase {
+
+	private static final String INTERFACE = "kind (wff) var (wff ph ps) term (wff (-> wff wff)) "
+		+ "stmt (ax-1 () () (-> ph (-> ps ph))) stmt (ax-mp () (ph (-> ph ps)) ps) "
+		+ "stmt (ax-dv ((ph ps)) () (-> ph ps))";
+
+	private DataFactory dataFactory;
+
+	private Module module;
+
+	protected void setUp() throws Exception {
+		BasicConfigurator.configure(new NullAppender());
+		dataFactory = DataFactory.getInstance();
+		final Module parameterModule = dataFactory.createModule("test.jhi", -1);
+		TestModules.process(parameterModule, INTERFACE);
+		module = dataFactory.createModule("");
+		final Parameter parameter = dataFactory.createParameter("TEST", "test.jhi", new ArrayList(), "");
+		dataFactory.createParameterLoader(parameter, parameterModule, module).importParameter();
+	}
+
+	private StatementImpl statement(final String name) {
+		return (StatementImpl) module.getSymbolNamespace().getObjectByString(name);
+	}
+
+	public void testStatementsTranslatedOnFirstUse() throws Exception {
+		assertTrue(statement("ax-1").isPending());
+		assertTrue(statement("ax-mp").isPending());
+		assertTrue(statement("ax-dv").isPending());
+		TestModules.process(module, "var (wff p q) thm (t () () (-> p (-> q p)) (p q ax-1))");
+		assertFalse(statement("ax-1").isPending());
+		assertTrue(statement("ax-mp").isPending());
+		assertTrue(statement("ax-dv").isPending());
+		assertEquals(2, statement("ax-1").getMandatoryVariables().size());
+	}
+
+	public void testPendingStatementCompleted() throws Exception {
+		final Statement dv = statement("ax-dv");
+		assertEquals(dv.getMandatoryVariables().get(1), dv.getConsequent().getChildren().get(1).getValue());
+		assertTrue(dv.getDVConstraints().contains(dv.getMandatoryVariables().get(0),
+			dv.getMandatoryVariables().get(1)));
+		assertTrue(dv.getHypotheses().isEmpty());
+		assertFalse(statement("ax-dv").isPending());
+	}
+
+	public void testDefinitionImported() throws Exception {
+		final Module parameterModule = dataFactory.createModule("def.jhi", -1);
+		TestModules.process(parameterModule, "kind (wff) var (wff ph ps) term (wff (-> wff wff)) "
+			+ "def ((id ph) (-> ph ph)) stmt (ax-id () () (id ph))");
+		module = dataFactory.createModule("");
+		final Parameter parameter = dataFactory.createParameter("DEF", "def.jhi", new ArrayList(), "d-");
+		dataFactory.createParameterLoader(parameter, parameterModule, module).importParameter();
+		final Functor id = module.getFunctorNamespace().getObjectByString("d-id");
+		assertEquals(1, id.definitionDepth());
+		assertSame(parameterModule.getFunctorNamespace().getObjectByString("id"), id.getOriginalName());
+		TestModules.process(module, "var (d-wff p) thm (t () () (d-id p) (p d-ax-id)) thm (u () () (d--> p p) (p d-ax-id))");
+	}
+
+	public void testForkedModule() throws Exception {
+		final Module first = module.fork();
+		final Module second = module.fork();
+		TestModules.process(first, "var (wff p q) thm (t () ((t.1 p)) (-> q p) (t.1 p q ax-1 ax-mp))");
+		TestModules.process(second, "var (wff p q) thm (t () () (-> p (-> q p)) (p q ax-1))");
+		assertNotSame(first.getSymbolNamespace().getObjectByString("t"),
+			second.getSymbolNamespace().getObjectByString("t"));
+		assertNull(module.getSymbolNamespace().getObjectByString("t"));
+		assertEquals(1, first.getParameters().size());
+	}
+
+	public void testPendingStatementSerialised() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(statement("ax-mp"));
+		out.close();
+		final Statement copy = (Statement) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+			.readObject();
+		assertEquals(2, copy.getHypotheses().size());
+		assertTrue(copy.getMandatoryVariables().isEmpty());
+	}
+
+}
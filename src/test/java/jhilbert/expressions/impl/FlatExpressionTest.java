@@ -0,0 +1,166 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import jhilbert.data.DataFactory;
+import jhilbert.data.Functor;
+import jhilbert.data.Kind;
+import jhilbert.data.Module;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionFactory;
+import jhilbert.expressions.Substituter;
+import jhilbert.expressions.UnifyException;
+import junit.framework.TestCase;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.varia.NullAppender;
+
+public class FlatExpressionTest extends TestCase {
+
+	private ExpressionFactory expressionFactory;
+
+	private Functor implies;
+
+	private Functor not;
+
+	private Variable p;
+
+	private Variable q;
+
+	private Variable r;
+
+	protected void setUp() throws Exception {
+		BasicConfigurator.configure(new NullAppender());
+		final DataFactory dataFactory = DataFactory.getInstance();
+		final Module module = dataFactory.createModule("");
+		final Kind formula = dataFactory.createKind("formula", module.getKindNamespace());
+		implies = dataFactory.createFunctor("->", formula, Arrays.asList(formula, formula), module.getFunctorNamespace());
+		not = dataFactory.createFunctor("!", formula, Arrays.asList(formula), module.getFunctorNamespace());
+		p = dataFactory.createVariable("p", formula, module.getSymbolNamespace());
+		q = dataFactory.createVariable("q", formula, module.getSymbolNamespace());
+		r = dataFactory.createVariable("r", formula, module.getSymbolNamespace());
+		expressionFactory = ExpressionFactory.getInstance();
+	}
+
+	private Expression var(final Variable v) {
+		return expressionFactory.createExpression(v);
+	}
+
+	private Expression imp(final Expression a, final Expression b) {
+		return expressionFactory.createExpression(implies, Arrays.asList(a, b));
+	}
+
+	private Expression neg(final Expression a) {
+		return expressionFactory.createExpression(not, Arrays.asList(a));
+	}
+
+	public void testFlattening() {
+		final Expression tree = imp(neg(var(p)), imp(var(q), var(p)));
+		final FlatExpression flat = FlatExpression.valueOf(tree);
+		assertEquals(tree.toString(), flat.toString());
+		assertEquals(6, flat.size());
+		assertSame(implies, flat.getValue());
+		assertEquals(2, flat.getChildren().size());
+		assertEquals("(! p)", flat.getChildren().get(0).toString());
+		assertEquals("(-> q p)", flat.getChildren().get(1).toString());
+		assertEquals(Arrays.asList(p, q), Arrays.asList(flat.variables().toArray()));
+		assertSame(flat, flat.totalUnfold());
+	}
+
+	public void testSubstitution() {
+		final Map<Variable, Expression> map = new HashMap();
+		map.put(p, neg(var(r)));
+		final Substituter substituter = expressionFactory.createSubstituter(map);
+		final Expression tree = imp(var(p), imp(var(q), var(p)));
+		final String expected = "(-> (! r) (-> q (! r)))";
+		assertEquals(expected, substituter.substitute(tree).toString());
+		assertEquals(expected, substituter.substitute(FlatExpression.valueOf(tree)).toString());
+	}
+
+	public void testUnification() throws UnifyException {
+		final Substituter substituter = expressionFactory.createSubstituter(new HashMap());
+		final Expression source = FlatExpression.valueOf(imp(var(p), imp(var(q), var(p))));
+		final Expression target = FlatExpression.valueOf(imp(neg(var(r)), imp(var(r), neg(var(r)))));
+		substituter.unify(source, target);
+		assertEquals("(! r)", substituter.getAssignments().get(p).toString());
+		assertEquals("r", substituter.getAssignments().get(q).toString());
+		final Expression mismatch = FlatExpression.valueOf(imp(neg(var(r)), imp(var(r), var(r))));
+		try {
+			expressionFactory.createSubstituter(new HashMap()).unify(source, mismatch);
+			fail("Expected exception but didn't get it");
+		} catch (UnifyException e) {
+			assertEquals("Invalid change of variable assignment", e.getMessage());
+		}
+	}
+
+	public void testEquality() {
+		final Expression source = FlatExpression.valueOf(imp(var(p), neg(var(q))));
+		assertTrue(expressionFactory.createMatcher().checkDEquality(source, imp(var(p), neg(var(q)))));
+		assertFalse(expressionFactory.createMatcher().checkDEquality(source, imp(var(p), var(q))));
+		assertTrue(expressionFactory.createMatcher().checkVEquality(source, imp(var(q), neg(var(r)))));
+		assertFalse(expressionFactory.createMatcher().checkVEquality(source, imp(var(r), neg(var(r)))));
+		assertFalse(expressionFactory.createMatcher().checkVEquality(source, imp(var(q), var(r))));
+	}
+
+	public void testStructuralEquality() {
+		final Expression tree = imp(neg(var(p)), imp(var(q), var(p)));
+		final Expression flat = FlatExpression.valueOf(imp(neg(var(p)), imp(var(q), var(p))));
+		assertEquals(tree, flat);
+		assertEquals(flat, tree);
+		assertEquals(tree.hashCode(), flat.hashCode());
+		assertEquals(flat.getChildren().get(1), imp(var(q), var(p)));
+		assertEquals(flat.getChildren().get(1).hashCode(), imp(var(q), var(p)).hashCode());
+		assertFalse(tree.equals(imp(neg(var(p)), imp(var(p), var(q)))));
+		assertFalse(flat.equals(FlatExpression.valueOf(imp(neg(var(p)), var(q)))));
+	}
+
+	public void testDepth() {
+		final Expression tree = imp(neg(var(p)), imp(var(q), var(p)));
+		assertEquals(3, tree.depth());
+		assertEquals(3, FlatExpression.valueOf(tree).depth());
+		assertEquals(1, var(r).depth());
+		assertEquals(2, FlatExpression.valueOf(tree).getChildren().get(1).depth());
+	}
+
+	public void testVariableSet() {
+		final Expression tree = imp(neg(var(r)), imp(var(q), var(r)));
+		assertEquals(Arrays.asList(r, q), Arrays.asList(tree.variableSet().toArray()));
+		assertEquals(tree.variableSet(), FlatExpression.valueOf(tree).variableSet());
+		assertSame(tree.variableSet(), tree.variableSet());
+		assertFalse(tree.variableSet().contains(p));
+		try {
+			tree.variableSet().add(p);
+			fail("Expected exception but didn't get it");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+}
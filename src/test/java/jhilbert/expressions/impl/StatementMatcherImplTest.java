@@ -0,0 +1,94 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import jhilbert.TestModules;
+import jhilbert.data.Module;
+import jhilbert.data.Statement;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.StatementMatcher;
+import jhilbert.expressions.UnifyException;
+import junit.framework.TestCase;
+
+public class StatementMatcherImplTest extends TestCase {
+
+	private Module module;
+
+	protected void setUp() throws Exception {
+		module = TestModules.createPropositionalModule("test.jhi", -1);
+		TestModules.process(module, "var (formula p q r s)");
+		TestModules.process(module, "def ((| p q) (-> (! p) q))");
+		TestModules.process(module, "stmt (ax-mp () (p (-> p q)) q)");
+		TestModules.process(module, "stmt (orintro () (p) (| q p))");
+	}
+
+	private Expression parse(final String text) throws Exception {
+		return TestModules.parse(module, text).totalUnfold();
+	}
+
+	private Statement statement(final String name) {
+		return (Statement) TestModules.symbol(module, name);
+	}
+
+	public void testModusPonens() throws Exception {
+		final Statement statement = statement("ax-mp");
+		final StatementMatcher matcher = statement.getMatcher();
+		assertSame(matcher, statement.getMatcher());
+		assertTrue(statement.getMandatoryVariables().isEmpty());
+		final Expression[] slots = matcher.createSlots();
+		assertEquals(2, slots.length);
+		matcher.unify(0, parse("(! r)"), slots);
+		matcher.unify(1, parse("(-> (! r) (-> s r))"), slots);
+		assertEquals("(-> s r)", matcher.instantiate(slots).toString());
+		final Variable q = (Variable) statement.getConsequent().getValue();
+		assertEquals("(-> s r)", slots[matcher.getSlot(q)].toString());
+	}
+
+	public void testMismatch() throws Exception {
+		final StatementMatcher matcher = statement("ax-mp").getMatcher();
+		final Expression[] slots = matcher.createSlots();
+		matcher.unify(0, parse("(! r)"), slots);
+		try {
+			matcher.unify(1, parse("(-> r (-> s r))"), slots);
+			fail("Expected exception but didn't get it");
+		} catch (UnifyException e) {
+			assertEquals("Invalid change of variable assignment", e.getMessage());
+		}
+	}
+
+	public void testMandatoryVariables() throws Exception {
+		final Statement statement = statement("orintro");
+		final StatementMatcher matcher = statement.getMatcher();
+		assertEquals(1, statement.getMandatoryVariables().size());
+		assertEquals(0, matcher.getSlot(statement.getMandatoryVariables().get(0)));
+		final Expression[] slots = matcher.createSlots();
+		slots[0] = parse("(! s)");
+		matcher.unify(0, parse("r"), slots);
+		// the consequent is totally unfolded
+		assertEquals("(-> (! (! s)) r)", matcher.instantiate(slots).toString());
+	}
+
+}
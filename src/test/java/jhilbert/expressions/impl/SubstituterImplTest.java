@@ -0,0 +1,78 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import jhilbert.TestModules;
+import jhilbert.data.Module;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionFactory;
+import jhilbert.expressions.Substituter;
+import junit.framework.TestCase;
+
+public class SubstituterImplTest extends TestCase {
+
+	private Module module;
+
+	private ExpressionFactory expressionFactory;
+
+	protected void setUp() throws Exception {
+		module = TestModules.createPropositionalModule("", -1);
+		expressionFactory = ExpressionFactory.getInstance();
+		TestModules.process(module, "var (formula a b r s p q)");
+		// forgets its second argument
+		TestModules.process(module, "def ((F p q) p)");
+	}
+
+	private Expression parse(final String text) throws Exception {
+		return TestModules.parse(module, text);
+	}
+
+	private Variable var(final String name) {
+		return (Variable) TestModules.symbol(module, name);
+	}
+
+	public void testRollbackAfterUnfolding() throws Exception {
+		final Map<Variable, Expression> assignments = new HashMap();
+		final Substituter substituter = expressionFactory.createSubstituter(assignments);
+		// the arguments do not unify, but the unfolded expressions do
+		substituter.unify(parse("(F a (-> b a))"), parse("(F r (-> s s))"));
+		assertSame(assignments, substituter.getAssignments());
+		assertEquals("r", assignments.get(var("a")).toString());
+		assertFalse("stale assignment after backtracking", assignments.containsKey(var("b")));
+	}
+
+	public void testAssignmentsAreKept() throws Exception {
+		final Substituter substituter = expressionFactory.createSubstituter(new HashMap());
+		substituter.unify(parse("(-> a b)"), parse("(-> r (-> s r))"));
+		substituter.unify(parse("(F b a)"), parse("(F (-> s r) s)"));
+		assertEquals(2, substituter.getAssignments().size());
+		assertEquals("(-> s r)", substituter.getAssignments().get(var("b")).toString());
+	}
+
+}
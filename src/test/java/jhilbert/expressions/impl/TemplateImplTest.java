@@ -0,0 +1,77 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jhilbert.TestModules;
+import jhilbert.data.Definition;
+import jhilbert.data.Module;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionFactory;
+import jhilbert.expressions.Template;
+import junit.framework.TestCase;
+
+public class TemplateImplTest extends TestCase {
+
+	private Module module;
+
+	protected void setUp() throws Exception {
+		module = TestModules.createPropositionalModule("", -1);
+		TestModules.process(module, "var (formula p q r s)");
+		TestModules.process(module, "def ((| p q) (-> (! p) q))");
+		TestModules.process(module, "def ((& p q) (! (| (! p) (! q))))");
+	}
+
+	private Expression parse(final String text) throws Exception {
+		return TestModules.parse(module, text);
+	}
+
+	private Variable var(final String name) {
+		return (Variable) TestModules.symbol(module, name);
+	}
+
+	public void testInstantiate() throws Exception {
+		final Template template = ExpressionFactory.getInstance().createTemplate(Arrays.asList(var("p"), var("q")),
+				parse("(-> p (-> q p))"));
+		assertEquals("(-> (! r) (-> s (! r)))", template.instantiate(Arrays.asList(parse("(! r)"), parse("s"))).toString());
+		final List<Expression> partial = new ArrayList();
+		partial.add(null);
+		partial.add(parse("r"));
+		assertEquals("(-> p (-> r p))", template.instantiate(partial).toString());
+	}
+
+	public void testUnfold() throws Exception {
+		final Expression and = parse("(& r (| s r))");
+		final Definition definition = (Definition) and.getValue();
+		// one level only
+		assertEquals("(! (| (! r) (! (| s r))))", definition.unfold(and.getChildren()).toString());
+		assertEquals("(! (-> (! (! r)) (! (-> (! s) r))))", and.totalUnfold().toString());
+	}
+
+}
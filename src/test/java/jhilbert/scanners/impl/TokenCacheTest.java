@@ -0,0 +1,120 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.scanners.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import jhilbert.scanners.Token;
+import jhilbert.scanners.TokenFeed;
+import junit.framework.TestCase;
+
+public class TokenCacheTest extends TestCase {
+
+	private static final String SOURCE = "kind (wff) # comment\nvar (wff p q)\nterm (wff (→ wff wff))\n";
+
+	private File baseDir;
+
+	private TokenCache cache;
+
+	protected void setUp() throws Exception {
+		baseDir = File.createTempFile("tokens", "");
+		baseDir.delete();
+		cache = new TokenCache(new File(baseDir, "cache"));
+	}
+
+	protected void tearDown() throws Exception {
+		delete(baseDir);
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child: children)
+				delete(child);
+		file.delete();
+	}
+
+	private TokenFeed feed(final String source) throws Exception {
+		return cache.createTokenFeed(new ByteArrayInputStream(source.getBytes("UTF-8")));
+	}
+
+	private static String tokens(final AbstractTokenFeed feed) throws Exception {
+		final StringBuilder result = new StringBuilder();
+		Token token;
+		while ((token = feed.getToken()) != null)
+			result.append(token.getTokenClass()).append(':').append(token.getTokenString()).append(' ');
+		return result.toString();
+	}
+
+	private File[] cacheFiles() {
+		final File[] result = new File(baseDir, "cache").listFiles();
+		return (result == null) ? new File[0] : result;
+	}
+
+	public void testReplay() throws Exception {
+		final String expected = tokens(new StreamTokenFeed(new ByteArrayInputStream(SOURCE.getBytes("UTF-8"))));
+		final TokenFeed first = feed(SOURCE);
+		assertTrue(first instanceof CachedTokenFeed);
+		assertEquals(expected, tokens((AbstractTokenFeed) first));
+		assertEquals(1, cacheFiles().length);
+		final long modified = cacheFiles()[0].lastModified();
+		assertEquals(expected, tokens((AbstractTokenFeed) feed(SOURCE)));
+		assertEquals(1, cacheFiles().length);
+		assertEquals(modified, cacheFiles()[0].lastModified());
+		// a changed source misses the cache
+		feed(SOURCE + "var (wff r)");
+		assertEquals(2, cacheFiles().length);
+	}
+
+	public void testContext() throws Exception {
+		final AbstractTokenFeed feed = (AbstractTokenFeed) feed(SOURCE);
+		assertEquals("kind", feed.getAtom());
+		feed.beginExp();
+		assertEquals(" kind (", feed.getContextString());
+		feed.confirmEndCmd();
+		assertEquals("", feed.getContextString());
+	}
+
+	public void testCorruptFile() throws Exception {
+		feed(SOURCE);
+		final File file = cacheFiles()[0];
+		final FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] {0x4a, 0x48, 0x54});
+		out.close();
+		final String expected = tokens(new StreamTokenFeed(new ByteArrayInputStream(SOURCE.getBytes("UTF-8"))));
+		assertEquals(expected, tokens((AbstractTokenFeed) feed(SOURCE)));
+		// the file has been replaced
+		assertTrue(file.length() > 3);
+	}
+
+	public void testScannerError() throws Exception {
+		final TokenFeed feed = feed("kind (wff\u0001)");
+		assertTrue(feed instanceof StreamTokenFeed);
+		assertEquals(0, cacheFiles().length);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.storage;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import jhilbert.utils.TinyLfuPolicy;
+import jhilbert.utils.WeightedCache;
+import junit.framework.TestCase;
+
+public class CacheSnapshotTest extends TestCase {
+
+	private File baseDir;
+
+	protected void setUp() throws Exception {
+		baseDir = File.createTempFile("snapshot", "");
+		baseDir.delete();
+		baseDir.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(baseDir);
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child: children)
+				delete(child);
+		file.delete();
+	}
+
+	private static Module module(final String name, final long version, final String kind) throws Exception {
+		final DataFactory dataFactory = DataFactory.getInstance();
+		final Module module = dataFactory.createModule(name, version);
+		dataFactory.createKind(kind, module.getKindNamespace());
+		return module;
+	}
+
+	/**
+	 * Creates a hashstore holding revision 3 of <code>Interface:logic</code>
+	 * and an unversioned <code>Interface:sets</code>, and writes a snapshot
+	 * after loading both.
+	 */
+	private File writeSnapshot() throws Exception {
+		final Storage storage = new jhilbert.storage.hashstore.Storage(new File(baseDir, "old").getPath());
+		storage.saveModule(module("Interface:logic", 3, "formula"), "Interface:logic", 3);
+		storage.saveModule(module("Interface:sets", -1, "set"), "Interface:sets", -1);
+		storage.loadModule("Interface:logic");
+		storage.loadModule("Interface:sets");
+		final File file = new File(baseDir, "cache.snapshot");
+		assertEquals(1, storage.saveSnapshot(file));
+		return file;
+	}
+
+	public void testRestore() throws Exception {
+		final File file = writeSnapshot();
+		// empty store: modules can only come from the snapshot
+		final Storage storage = new jhilbert.storage.hashstore.Storage(new File(baseDir, "new").getPath());
+		final ExecutorService executor = storage.restoreSnapshot(file, 2);
+		assertNotNull(executor);
+		final Module restored = storage.loadModule("Interface:logic", 3);
+		assertNotNull(restored.getKindNamespace().getObjectByString("formula"));
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertSame(restored, storage.loadModule("Interface:logic", 3));
+		try {
+			storage.loadModule("Interface:sets");
+			fail();
+		} catch (StorageException expected) {
+			// unversioned modules are not snapshotted
+		}
+	}
+
+	public void testCostIsRestored() throws Exception {
+		final ModuleID id = new ModuleID("Interface:logic", 3);
+		final CacheSnapshot snapshot = new CacheSnapshot();
+		snapshot.add(id, module("Interface:logic", 3, "formula"), 42);
+		final File file = new File(baseDir, "cache.snapshot");
+		snapshot.write(file);
+		final WeightedCache<ModuleID, Module> cache = new WeightedCache(Long.MAX_VALUE, new TinyLfuPolicy(16),
+				new WeightedCache.Weigher<Module>() {
+					public long weigh(final Module module) {
+						return 1;
+					}
+				});
+		final ExecutorService executor = CacheSnapshot.read(file).restore(1, cache, new ConcurrentHashMap());
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(42, cache.getCost(id));
+	}
+
+	public void testMissingSnapshot() throws Exception {
+		final Storage storage = new jhilbert.storage.hashstore.Storage(baseDir.getPath());
+		assertNull(storage.restoreSnapshot(new File(baseDir, "none"), 1));
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.storage.hashstore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+public class StorageTest extends TestCase {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(StorageTest.class);
+
+	private File baseDir;
+
+	protected void setUp() throws Exception {
+		baseDir = File.createTempFile("hashstore", "");
+		baseDir.delete();
+		baseDir.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(baseDir);
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child: children)
+				delete(child);
+		file.delete();
+	}
+
+	private static Module module(final String name, final String kind) throws Exception {
+		return module(name, -1, kind);
+	}
+
+	private static Module module(final String name, final long version, final String kind) throws Exception {
+		final DataFactory dataFactory = DataFactory.getInstance();
+		final Module module = dataFactory.createModule(name, version);
+		dataFactory.createKind(kind, module.getKindNamespace());
+		return module;
+	}
+
+	private static int countTempFiles(final File file) {
+		if (file.isFile())
+			return file.getName().endsWith(".tmp") ? 1 : 0;
+		int result = 0;
+		for (final File child: file.listFiles())
+			result += countTempFiles(child);
+		return result;
+	}
+
+	public void testStoreAndLoad() throws Exception {
+		assertTrue(new Storage(baseDir.getPath()).storesModules());
+		new Storage(baseDir.getPath()).saveModule(module("Interface:logic", "formula"), "Interface:logic", -1);
+		final Module loaded = new Storage(baseDir.getPath()).loadModule("Interface:logic");
+		assertEquals("Interface:logic", loaded.getName());
+		assertNotNull(loaded.getKindNamespace().getObjectByString("formula"));
+	}
+
+	public void testOverwriteReplacesWholeModule() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", "formula"), "Interface:logic", -1);
+		storage.saveModule(module("Interface:logic", "object"), "Interface:logic", -1);
+		final Module loaded = new Storage(baseDir.getPath()).loadModule("Interface:logic");
+		assertNull(loaded.getKindNamespace().getObjectByString("formula"));
+		assertNotNull(loaded.getKindNamespace().getObjectByString("object"));
+		assertEquals(0, countTempFiles(baseDir));
+	}
+
+	public void testDelete() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", "formula"), "Interface:logic", -1);
+		storage.deleteModule("Interface:logic", -1);
+		try {
+			new Storage(baseDir.getPath()).loadModule("Interface:logic");
+			fail();
+		} catch (jhilbert.storage.StorageException expected) {
+			// expected
+		}
+	}
+
+	public void testRevisions() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", 1, "formula"), "Interface:logic", 1);
+		storage.saveModule(module("Interface:logic", 3, "object"), "Interface:logic", 3);
+		storage.saveModule(module("Interface:logic", 2, "set"), "Interface:logic", 2);
+		final Storage reader = new Storage(baseDir.getPath());
+		assertEquals(3, reader.getCurrentRevision("Interface:logic"));
+		assertNotNull(reader.loadModule("Interface:logic").getKindNamespace().getObjectByString("object"));
+		assertNotNull(reader.loadModule("Interface:logic", 1).getKindNamespace().getObjectByString("formula"));
+		assertNotNull(reader.loadModule("Interface:logic", 2).getKindNamespace().getObjectByString("set"));
+		assertEquals(0, countTempFiles(baseDir));
+	}
+
+	public void testCompaction() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath(), 2);
+		for (int i = 1; i <= 4; ++i)
+			storage.saveModule(module("Interface:logic", i, "k" + i), "Interface:logic", i);
+		final Storage reader = new Storage(baseDir.getPath());
+		assertNotNull(reader.loadModule("Interface:logic", 3));
+		assertNotNull(reader.loadModule("Interface:logic", 4));
+		for (int i = 1; i <= 2; ++i) {
+			try {
+				reader.loadModule("Interface:logic", i);
+				fail();
+			} catch (jhilbert.storage.StorageException expected) {
+				// expected
+			}
+		}
+	}
+
+	public void testDeleteRevision() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", 1, "formula"), "Interface:logic", 1);
+		storage.saveModule(module("Interface:logic", 2, "object"), "Interface:logic", 2);
+		storage.deleteModule("Interface:logic", 2);
+		assertEquals(1, storage.getCurrentRevision("Interface:logic"));
+		assertEquals(1, new Storage(baseDir.getPath()).getCurrentRevision("Interface:logic"));
+		assertNotNull(storage.loadModule("Interface:logic", 1).getKindNamespace().getObjectByString("formula"));
+		storage.deleteModule("Interface:logic", -1);
+		assertEquals(-1, storage.getCurrentRevision("Interface:logic"));
+		assertEquals(-1, new Storage(baseDir.getPath()).getCurrentRevision("Interface:logic"));
+		try {
+			new Storage(baseDir.getPath()).loadModule("Interface:logic", 1);
+			fail();
+		} catch (jhilbert.storage.StorageException expected) {
+			// expected
+		}
+		// no revision survives in the cache either
+		try {
+			storage.loadModule("Interface:logic", 1);
+			fail();
+		} catch (jhilbert.storage.StorageException expected) {
+			// expected
+		}
+	}
+
+	/**
+	 * Hammers the store with concurrent writers and readers, some of them
+	 * on the same module. Readers must always see a complete module.
+	 */
+	public void testConcurrentAccess() throws Exception {
+		final Storage writer = new Storage(baseDir.getPath());
+		final int numThreads = 8;
+		final int numRounds = 50;
+		for (int i = 0; i != numThreads; ++i)
+			writer.saveModule(module("Interface:m" + i, "k"), "Interface:m" + i, -1);
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i != numThreads; ++i) {
+			final int index = i;
+			threads.add(new Thread() {
+				public @Override void run() {
+					try {
+						for (int round = 0; round != numRounds; ++round) {
+							// every other thread shares module 0
+							final String locator = "Interface:m" + ((index % 2 == 0) ? 0 : index);
+							writer.saveModule(module(locator, "k" + round), locator, -1);
+							final Module loaded = new Storage(baseDir.getPath()).loadModule(locator);
+							assertEquals(locator, loaded.getName());
+							assertEquals(1, loaded.getKindNamespace().objects().size());
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			});
+		}
+		final long start = System.currentTimeMillis();
+		for (final Thread thread: threads)
+			thread.start();
+		for (final Thread thread: threads)
+			thread.join();
+		logger.info(numThreads * numRounds + " store/load pairs on " + numThreads + " threads took "
+				+ (System.currentTimeMillis() - start) + "ms");
+		assertEquals(Collections.emptyList(), failures);
+		assertEquals(0, countTempFiles(baseDir));
+	}
+
+}
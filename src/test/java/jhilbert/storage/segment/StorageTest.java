@@ -0,0 +1,209 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.storage.segment;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import jhilbert.storage.StorageException;
+import junit.framework.TestCase;
+
+public class StorageTest extends TestCase {
+
+	private File baseDir;
+
+	protected void setUp() throws Exception {
+		baseDir = File.createTempFile("segmentstore", "");
+		baseDir.delete();
+		baseDir.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		for (final File child: baseDir.listFiles())
+			child.delete();
+		baseDir.delete();
+	}
+
+	private static Module module(final String name, final long version, final String kind) throws Exception {
+		final DataFactory dataFactory = DataFactory.getInstance();
+		final Module module = dataFactory.createModule(name, version);
+		dataFactory.createKind(kind, module.getKindNamespace());
+		return module;
+	}
+
+	private static void assertKind(final Module module, final String kind) throws Exception {
+		assertNotNull(module.getKindNamespace().getObjectByString(kind));
+	}
+
+	private static void assertMissing(final Storage storage, final String locator, final long version) {
+		try {
+			storage.loadModule(locator, version);
+			fail();
+		} catch (StorageException expected) {
+			// expected
+		}
+	}
+
+	private int countSegments() {
+		int result = 0;
+		for (final String name: baseDir.list())
+			if (Segment.parseId(name) > 0)
+				++result;
+		return result;
+	}
+
+	public void testStoreAndReopen() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", -1, "formula"), "Interface:logic", -1);
+		storage.saveModule(module("Interface:sets", 1, "set"), "Interface:sets", 1);
+		storage.saveModule(module("Interface:sets", 2, "object"), "Interface:sets", 2);
+		storage.close();
+		final Storage reopened = new Storage(baseDir.getPath());
+		assertKind(reopened.loadModule("Interface:logic"), "formula");
+		assertKind(reopened.loadModule("Interface:sets"), "object");
+		assertKind(reopened.loadModule("Interface:sets", 1), "set");
+		assertEquals(2, reopened.getCurrentRevision("Interface:sets"));
+		reopened.close();
+	}
+
+	public void testDeleteIsPersistent() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", 1, "formula"), "Interface:logic", 1);
+		storage.saveModule(module("Interface:logic", 2, "object"), "Interface:logic", 2);
+		storage.deleteModule("Interface:logic", 2);
+		assertEquals(1, storage.getCurrentRevision("Interface:logic"));
+		storage.close();
+		Storage reopened = new Storage(baseDir.getPath());
+		assertMissing(reopened, "Interface:logic", 2);
+		assertKind(reopened.loadModule("Interface:logic"), "formula");
+		reopened.deleteModule("Interface:logic", -1);
+		reopened.close();
+		reopened = new Storage(baseDir.getPath());
+		assertMissing(reopened, "Interface:logic", 1);
+		assertEquals(-1, reopened.getCurrentRevision("Interface:logic"));
+		reopened.close();
+	}
+
+	public void testRebuildWithoutIndex() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath(), 256);
+		for (int i = 0; i != 10; ++i)
+			storage.saveModule(module("Interface:m" + i, -1, "k" + i), "Interface:m" + i, -1);
+		storage.deleteModule("Interface:m3", -1);
+		storage.close();
+		assertTrue(new File(baseDir, "index").delete());
+		final Storage reopened = new Storage(baseDir.getPath(), 256);
+		for (int i = 0; i != 10; ++i) {
+			if (i == 3)
+				assertMissing(reopened, "Interface:m3", -1);
+			else
+				assertKind(reopened.loadModule("Interface:m" + i), "k" + i);
+		}
+		reopened.close();
+	}
+
+	public void testTornTailIsCutOff() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", -1, "formula"), "Interface:logic", -1);
+		storage.close();
+		final File segment = new File(baseDir, Segment.fileName(1));
+		final long intact = segment.length();
+		final RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+		raf.seek(intact);
+		raf.writeInt(1000); // header of a record that never made it to disk
+		raf.close();
+		final Storage reopened = new Storage(baseDir.getPath());
+		assertEquals(intact, segment.length());
+		assertKind(reopened.loadModule("Interface:logic"), "formula");
+		reopened.saveModule(module("Interface:sets", -1, "set"), "Interface:sets", -1);
+		reopened.close();
+		final Storage again = new Storage(baseDir.getPath());
+		assertKind(again.loadModule("Interface:sets"), "set");
+		again.close();
+	}
+
+	public void testCompaction() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath(), 512);
+		for (int round = 0; round != 20; ++round)
+			for (int i = 0; i != 3; ++i)
+				storage.saveModule(module("Interface:m" + i, -1, "k" + round), "Interface:m" + i, -1);
+		storage.saveModule(module("Interface:gone", -1, "k"), "Interface:gone", -1);
+		storage.deleteModule("Interface:gone", -1);
+		final int before = countSegments();
+		storage.compact();
+		assertTrue(countSegments() < before);
+		for (int i = 0; i != 3; ++i)
+			assertKind(storage.loadModule("Interface:m" + i), "k19");
+		storage.close();
+		final Storage reopened = new Storage(baseDir.getPath(), 512);
+		for (int i = 0; i != 3; ++i)
+			assertKind(reopened.loadModule("Interface:m" + i), "k19");
+		assertMissing(reopened, "Interface:gone", -1);
+		reopened.close();
+		assertTrue(new File(baseDir, "index").delete());
+		final Storage rebuilt = new Storage(baseDir.getPath(), 512);
+		for (int i = 0; i != 3; ++i)
+			assertKind(rebuilt.loadModule("Interface:m" + i), "k19");
+		assertMissing(rebuilt, "Interface:gone", -1);
+		rebuilt.close();
+	}
+
+	public void testLiveSegmentsAreKept() throws Exception {
+		// every record fills a segment of its own
+		final Storage storage = new Storage(baseDir.getPath(), 1);
+		storage.saveModule(module("Interface:logic", -1, "formula"), "Interface:logic", -1);
+		storage.saveModule(module("Interface:sets", -1, "set"), "Interface:sets", -1);
+		storage.saveModule(module("Interface:sets", -1, "object"), "Interface:sets", -1);
+		storage.compact();
+		assertTrue(new File(baseDir, Segment.fileName(1)).exists());
+		assertFalse(new File(baseDir, Segment.fileName(2)).exists());
+		assertKind(storage.loadModule("Interface:logic"), "formula");
+		assertKind(storage.loadModule("Interface:sets"), "object");
+		storage.close();
+		assertTrue(new File(baseDir, "index").delete());
+		final Storage rebuilt = new Storage(baseDir.getPath(), 1);
+		assertKind(rebuilt.loadModule("Interface:logic"), "formula");
+		assertKind(rebuilt.loadModule("Interface:sets"), "object");
+		rebuilt.close();
+	}
+
+	public void testCleanIndexIsNotRewritten() throws Exception {
+		final Storage storage = new Storage(baseDir.getPath());
+		storage.saveModule(module("Interface:logic", -1, "formula"), "Interface:logic", -1);
+		storage.close();
+		final File index = new File(baseDir, "index");
+		assertTrue(index.setLastModified(1000));
+		final Storage reopened = new Storage(baseDir.getPath());
+		reopened.compact();
+		reopened.close();
+		assertEquals(1000, index.lastModified());
+		final Storage changed = new Storage(baseDir.getPath());
+		changed.saveModule(module("Interface:sets", -1, "set"), "Interface:sets", -1);
+		changed.close();
+		assertTrue(index.lastModified() != 1000);
+	}
+
+}
@@ -28,6 +28,10 @@ import junit.framework.TestCase;
 
 public class StorageTest extends TestCase
 {
+	public void testStoresNoModules() throws Exception {
+		assertFalse(new Storage().storesModules());
+	}
+
 	public void testFileNameBasic() throws Exception {
 		assertEquals("Interface/A/x/i/Axioms",
 			Storage.fileName("Interface:Axioms"));
@@ -0,0 +1,65 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.util.EmptyStackException;
+
+import junit.framework.TestCase;
+
+public class ArrayStackTest extends TestCase {
+
+	public void testPushPop() {
+		final ArrayStack<Integer> stack = new ArrayStack();
+		assertTrue(stack.isEmpty());
+		for (int i = 0; i != 100; ++i)
+			stack.push(i);
+		assertEquals(100, stack.size());
+		assertEquals(Integer.valueOf(99), stack.peek());
+		assertEquals(Integer.valueOf(42), stack.get(42));
+		assertEquals(Integer.valueOf(99), stack.pop());
+		assertEquals(99, stack.size());
+		stack.setSize(3);
+		assertEquals("[0, 1, 2]", stack.toString());
+		stack.clear();
+		assertTrue(stack.isEmpty());
+	}
+
+	public void testEmpty() {
+		final ArrayStack<String> stack = new ArrayStack();
+		try {
+			stack.pop();
+			fail("Expected exception but didn't get it");
+		} catch (EmptyStackException e) {
+			// expected
+		}
+		try {
+			stack.setSize(1);
+			fail("Expected exception but didn't get it");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import junit.framework.TestCase;
+
+public class BudgetTest extends TestCase {
+
+	protected void tearDown() {
+		Budget.install(null);
+	}
+
+	private static void exhaust(final Budget budget) {
+		for (int i = 0; i != 4096; ++i)
+			budget.check();
+	}
+
+	public void testInstall() {
+		assertNull(Budget.current());
+		final Budget budget = new Budget(-1, -1);
+		Budget.install(budget);
+		assertSame(budget, Budget.current());
+		Budget.install(null);
+		assertNull(Budget.current());
+		// no budget, no limits
+		Budget.checkpoint();
+	}
+
+	public void testStepLimit() {
+		final Budget budget = new Budget(-1, 3);
+		for (int i = 0; i != 3; ++i)
+			budget.countProofStep();
+		assertEquals(3, budget.getProofSteps());
+		try {
+			budget.countProofStep();
+			fail("Step limit not enforced");
+		} catch (BudgetExceededException e) {
+			assertEquals("Limit of 3 proof steps exceeded", e.getMessage());
+		}
+	}
+
+	public void testTimeLimit() throws Exception {
+		final Budget budget = new Budget(200, -1);
+		exhaust(budget);
+		Thread.sleep(250);
+		try {
+			exhaust(budget);
+			fail("Time limit not enforced");
+		} catch (BudgetExceededException e) {
+			assertEquals("Time limit of 200 ms exceeded", e.getMessage());
+		}
+	}
+
+	public void testMemoryLimit() throws Exception {
+		if (Profiler.allocatedBytes() < 0)
+			return; // not measurable on this virtual machine
+		final MemoryPool pool = new MemoryPool(1L << 40);
+		pool.admit();
+		final Budget budget = new Budget(-1, -1, 1 << 20, pool);
+		byte[][] garbage = new byte[8][];
+		for (int i = 0; i != garbage.length; ++i)
+			garbage[i] = new byte[1 << 20];
+		try {
+			exhaust(budget);
+			fail("Memory limit not enforced");
+		} catch (MemoryLimitExceededException e) {
+			assertEquals("Memory limit of 1048576 bytes exceeded", e.getMessage());
+		}
+		assertEquals(1, pool.getRunning());
+		budget.finish();
+		assertEquals(0, pool.getRunning());
+		budget.finish();
+		assertEquals(0, pool.getRunning());
+	}
+
+
+}
@@ -0,0 +1,50 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+	public void testRecord() {
+		final Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getQuantile(0.5));
+		histogram.record(500000L); // 0.5 ms
+		histogram.record(1000000L); // 1 ms, on the bound
+		histogram.record(3000000L); // 3 ms
+		histogram.record(60000000000L); // one minute
+		assertEquals(4, histogram.getCount());
+		assertEquals(2, histogram.getCount(0));
+		assertEquals(1, histogram.getCount(2));
+		assertEquals(1, histogram.getCount(histogram.getBucketCount() - 1));
+		assertEquals(60004500000L, histogram.getSum());
+		assertEquals(1000000L, histogram.getQuantile(0.5));
+		assertEquals(5000000L, histogram.getQuantile(0.75));
+		assertEquals(Long.MAX_VALUE, histogram.getQuantile(0.99));
+		assertEquals(Long.MAX_VALUE, histogram.getBound(histogram.getBucketCount() - 1));
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import junit.framework.TestCase;
+
+public class MemoryPoolTest extends TestCase {
+
+	/**
+	 * Heap in use, as seen by the pools under test.
+	 */
+	private volatile long used;
+
+	private final MemoryPool.Gauge gauge = new MemoryPool.Gauge() {
+		public long getUsed() {
+			return used;
+		}
+	};
+
+	private static Thread startWaiter(final MemoryPool pool) throws Exception {
+		final Thread waiter = new Thread() {
+			public @Override void run() {
+				try {
+					pool.admit();
+				} catch (InterruptedException e) {
+					// test fails below
+				}
+			}
+		};
+		waiter.start();
+		for (int i = 0; (i != 100) && (pool.getWaiting() == 0); ++i)
+			Thread.sleep(10);
+		assertEquals(1, pool.getWaiting());
+		return waiter;
+	}
+
+	public void testAdmission() throws Exception {
+		final MemoryPool pool = new MemoryPool(100, gauge);
+		used = 150;
+		// an exhausted pool still admits a request while none is running
+		pool.admit();
+		final Thread waiter = startWaiter(pool);
+		assertEquals(1, pool.getRunning());
+		pool.release();
+		waiter.join(5000);
+		assertFalse(waiter.isAlive());
+		assertEquals(0, pool.getWaiting());
+		assertEquals(1, pool.getRunning());
+		used = 50;
+		pool.admit();
+		assertEquals(2, pool.getRunning());
+	}
+
+	public void testAdmissionOnceMemoryIsFree() throws Exception {
+		final MemoryPool pool = new MemoryPool(100, gauge);
+		used = 150;
+		pool.admit();
+		final Thread waiter = startWaiter(pool);
+		// the running request keeps running, but garbage has been collected
+		used = 50;
+		waiter.join(5000);
+		assertFalse(waiter.isAlive());
+		assertEquals(2, pool.getRunning());
+	}
+
+	public void testHeapGauge() {
+		final MemoryPool pool = new MemoryPool(100);
+		assertTrue(pool.getUsed() >= 0);
+		assertTrue(pool.getUsed() <= Runtime.getRuntime().maxMemory());
+	}
+
+}
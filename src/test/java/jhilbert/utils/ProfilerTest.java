@@ -0,0 +1,87 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class ProfilerTest extends TestCase {
+
+	protected void tearDown() {
+		Profiler.install(null);
+	}
+
+	public void testInstall() {
+		assertNull(Profiler.current());
+		final Profiler profiler = new Profiler();
+		Profiler.install(profiler);
+		assertSame(profiler, Profiler.current());
+		Profiler.install(null);
+		assertNull(Profiler.current());
+	}
+
+	public void testReport() {
+		final Profiler profiler = new Profiler();
+		Profiler.install(profiler);
+		profiler.beginTheorem("fast");
+		profiler.countProofStep();
+		profiler.countApplication("ax-mp", 100);
+		profiler.endTheorem(true);
+		profiler.beginTheorem("slow");
+		for (int i = 0; i != 3; ++i) {
+			profiler.countProofStep();
+			profiler.countUnification();
+			profiler.countApplication("ax-mp", 100);
+			Profiler.countUnfold();
+		}
+		profiler.countApplication("ax-1", 1000);
+		try {
+			Thread.sleep(5);
+		} catch (InterruptedException e) {
+			fail("Interrupted");
+		}
+		profiler.endTheorem(false);
+		final StringWriter json = new StringWriter();
+		profiler.writeJson(new PrintWriter(json));
+		final String report = json.toString();
+		assertTrue(report.indexOf("\"slow\"") < report.indexOf("\"fast\""));
+		assertTrue(report.contains("\"name\": \"slow\", \"verified\": false"));
+		assertTrue(report.contains("\"proofSteps\": 3, \"unifications\": 3, \"unfolds\": 3"));
+		// slower statements first
+		assertTrue(report.contains("{\"name\": \"ax-1\", \"applications\": 1, \"timeNanos\": 1000},"));
+		assertTrue(report.contains("{\"name\": \"ax-mp\", \"applications\": 4, \"timeNanos\": 400}"));
+		final StringWriter text = new StringWriter();
+		profiler.writeText(new PrintWriter(text));
+		assertTrue(text.toString().startsWith("Theorems: 2,"));
+		assertTrue(text.toString().contains("slow (failed)"));
+	}
+
+	public void testQuote() {
+		assertEquals("\"a\\\"b\\\\c\\n\\u0001\"", Profiler.quote("a\"b\\c\n\u0001"));
+	}
+
+}
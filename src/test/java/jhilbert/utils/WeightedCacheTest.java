@@ -0,0 +1,121 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.utils;
+
+import junit.framework.TestCase;
+
+public class WeightedCacheTest extends TestCase {
+
+	/**
+	 * Weighs strings by their length.
+	 */
+	private static final WeightedCache.Weigher<String> LENGTH = new WeightedCache.Weigher<String>() {
+		public long weigh(final String value) {
+			return value.length();
+		}
+	};
+
+	private WeightedCache<String, String> cache;
+
+	protected void setUp() {
+		cache = new WeightedCache(10, new TinyLfuPolicy(16), LENGTH);
+	}
+
+	public void testBudget() {
+		cache.put("a", "aaaa", 1);
+		cache.put("b", "bbbb", 1);
+		assertEquals(8, cache.getWeight());
+		// too large for any budget
+		cache.put("c", "ccccccccccc", 1000);
+		assertFalse(cache.containsKey("c"));
+		cache.get("c");
+		cache.get("c");
+		cache.put("c", "cccc", 1);
+		assertTrue(cache.getWeight() <= 10);
+		assertTrue(cache.containsKey("c"));
+	}
+
+	public void testOversizedReplacementRemovesOldValue() {
+		cache.put("a", "aaaa", 1);
+		cache.put("b", "bbbb", 1);
+		assertEquals("aaaa", cache.put("a", "aaaaaaaaaaa", 1));
+		assertFalse(cache.containsKey("a"));
+		assertTrue(cache.containsKey("b"));
+		assertEquals(4, cache.getWeight());
+	}
+
+	public void testRejectedEntryLeavesCacheUnchanged() {
+		cache.get("old");
+		cache.put("old", "oooooooo", 1000000);
+		cache.put("new", "nnnnnnnn", 1);
+		assertFalse(cache.containsKey("new"));
+		assertEquals("oooooooo", cache.get("old"));
+		assertEquals(8, cache.getWeight());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	public void testExpensiveEntryIsKept() {
+		cache.get("expensive");
+		cache.put("expensive", "eeeeeeee", 1000000);
+		for (int i = 0; i != 20; ++i) {
+			cache.get("cheap" + i);
+			cache.put("cheap" + i, "cc", 10);
+		}
+		assertTrue(cache.containsKey("expensive"));
+	}
+
+	public void testFrequentEntryIsAdmitted() {
+		cache.get("old");
+		cache.put("old", "oooooooo", 100);
+		for (int i = 0; i != 5; ++i)
+			cache.get("new");
+		cache.put("new", "nnnnnnnn", 100);
+		assertTrue(cache.containsKey("new"));
+		assertFalse(cache.containsKey("old"));
+		assertEquals(8, cache.getWeight());
+	}
+
+	public void testStatistics() {
+		cache.get("old");
+		cache.put("old", "oooooooo", 100);
+		assertEquals("oooooooo", cache.get("old"));
+		for (int i = 0; i != 5; ++i)
+			cache.get("new");
+		cache.put("new", "nnnnnnnn", 100);
+		assertEquals(1, cache.getHits());
+		assertEquals(6, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	public void testReplaceAndRemove() {
+		cache.put("a", "aaaa", 1);
+		assertEquals("aaaa", cache.put("a", "aa"));
+		assertEquals(2, cache.getWeight());
+		assertEquals("aa", cache.remove("a"));
+		assertEquals(0, cache.getWeight());
+		assertTrue(cache.isEmpty());
+	}
+
+}